@@ -0,0 +1,49 @@
+// Copyright 2014 Square, Inc.
+package com.squareup.protoparser;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Compiles schemas into {@link SchemaCodec}s and caches them by schema {@link Fingerprint}.
+ * Compiling links the schema and builds a plan for every message type, which costs far more than
+ * fingerprinting it, so services that repeatedly receive the same schema text should compile
+ * through a long-lived compiler.
+ *
+ * <p>Fingerprints ignore documentation, so schemas that differ only in comments share a codec.
+ * A compiler is safe for use by multiple threads. Its cache is unbounded; use {@link #clear} to
+ * release codecs for schemas that are no longer in use.
+ */
+public final class CodecCompiler {
+  private final ConcurrentMap<Fingerprint, SchemaCodec> cache =
+      new ConcurrentHashMap<Fingerprint, SchemaCodec>();
+
+  /**
+   * Returns a codec for the message types declared in {@code files}, compiling it unless an
+   * equivalent schema has already been compiled.
+   *
+   * @throws IllegalStateException if a type reference in {@code files} cannot be resolved.
+   */
+  public SchemaCodec compile(Collection<ProtoFile> files) {
+    if (files == null) throw new NullPointerException("files");
+    Fingerprint fingerprint = new Fingerprinter(false).ofSchema(files);
+    SchemaCodec codec = cache.get(fingerprint);
+    if (codec == null) {
+      codec = new SchemaCodec(fingerprint, MessagePlan.compile(files));
+      SchemaCodec previous = cache.putIfAbsent(fingerprint, codec);
+      if (previous != null) codec = previous;
+    }
+    return codec;
+  }
+
+  /** Returns the number of cached codecs. */
+  public int size() {
+    return cache.size();
+  }
+
+  /** Discards all cached codecs. */
+  public void clear() {
+    cache.clear();
+  }
+}
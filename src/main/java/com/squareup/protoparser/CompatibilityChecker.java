@@ -0,0 +1,271 @@
+// Copyright 2014 Square, Inc.
+package com.squareup.protoparser;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+import static com.squareup.protoparser.MessageType.Field;
+import static com.squareup.protoparser.MessageType.Label;
+import static com.squareup.protoparser.ScalarTypes.TYPE_BOOL;
+import static com.squareup.protoparser.ScalarTypes.TYPE_BYTES;
+import static com.squareup.protoparser.ScalarTypes.TYPE_DOUBLE;
+import static com.squareup.protoparser.ScalarTypes.TYPE_FIXED_32;
+import static com.squareup.protoparser.ScalarTypes.TYPE_FIXED_64;
+import static com.squareup.protoparser.ScalarTypes.TYPE_FLOAT;
+import static com.squareup.protoparser.ScalarTypes.TYPE_INT_32;
+import static com.squareup.protoparser.ScalarTypes.TYPE_INT_64;
+import static com.squareup.protoparser.ScalarTypes.TYPE_SFIXED_32;
+import static com.squareup.protoparser.ScalarTypes.TYPE_SFIXED_64;
+import static com.squareup.protoparser.ScalarTypes.TYPE_SINT_32;
+import static com.squareup.protoparser.ScalarTypes.TYPE_SINT_64;
+import static com.squareup.protoparser.ScalarTypes.TYPE_STRING;
+import static com.squareup.protoparser.ScalarTypes.TYPE_UINT_32;
+import static com.squareup.protoparser.ScalarTypes.TYPE_UINT_64;
+import static java.util.Collections.unmodifiableList;
+
+/**
+ * Classifies the changes between two versions of a schema as wire-safe or breaking. A change is
+ * breaking if data written by one version can be misread, or rejected, by the other. Toggling
+ * {@code packed} is safe because parsers accept both encodings of a repeated scalar, and so is
+ * renaming an enum value that keeps its number.
+ *
+ * <p>Changes are found with {@link SchemaDiff}, and field types are resolved with a {@link Linker}
+ * for each version so that enums and messages can be told apart.
+ */
+public final class CompatibilityChecker {
+  /** Whether a change is safe on the wire. */
+  public enum Compatibility {
+    SAFE, BREAKING
+  }
+
+  /** A change and its classification. */
+  public static final class Finding {
+    private final SchemaDiff.Change change;
+    private final Compatibility compatibility;
+    private final String reason;
+
+    Finding(SchemaDiff.Change change, Compatibility compatibility, String reason) {
+      this.change = change;
+      this.compatibility = compatibility;
+      this.reason = reason;
+    }
+
+    public SchemaDiff.Change getChange() {
+      return change;
+    }
+
+    public Compatibility getCompatibility() {
+      return compatibility;
+    }
+
+    public boolean isBreaking() {
+      return compatibility == Compatibility.BREAKING;
+    }
+
+    /** Explains a breaking classification. Null for safe changes. */
+    public String getReason() {
+      return reason;
+    }
+
+    @Override public String toString() {
+      return compatibility + " " + change + (reason != null ? ": " + reason : "");
+    }
+  }
+
+  /** Groups of scalar types whose encodings can be read as one another. */
+  private static final Map<String, String> WIRE_GROUPS = new HashMap<String, String>();
+
+  static {
+    for (String type : new String[] {TYPE_INT_32, TYPE_INT_64, TYPE_UINT_32, TYPE_UINT_64,
+        TYPE_BOOL}) {
+      WIRE_GROUPS.put(type, "varint");
+    }
+    WIRE_GROUPS.put(TYPE_SINT_32, "zigzag varint");
+    WIRE_GROUPS.put(TYPE_SINT_64, "zigzag varint");
+    WIRE_GROUPS.put(TYPE_FIXED_32, "32-bit integer");
+    WIRE_GROUPS.put(TYPE_SFIXED_32, "32-bit integer");
+    WIRE_GROUPS.put(TYPE_FIXED_64, "64-bit integer");
+    WIRE_GROUPS.put(TYPE_SFIXED_64, "64-bit integer");
+    WIRE_GROUPS.put(TYPE_FLOAT, "float");
+    WIRE_GROUPS.put(TYPE_DOUBLE, "double");
+    WIRE_GROUPS.put(TYPE_STRING, "string");
+    WIRE_GROUPS.put(TYPE_BYTES, "bytes");
+  }
+
+  /** The group of message types. Like strings, encoded messages can be read as bytes. */
+  private static final String MESSAGE_GROUP = "message";
+
+  /** Classifies every change from {@code oldFiles} to {@code newFiles}. */
+  public static List<Finding> check(Collection<ProtoFile> oldFiles,
+      Collection<ProtoFile> newFiles) {
+    return classify(oldFiles, newFiles, SchemaDiff.diff(oldFiles, newFiles));
+  }
+
+  /** Classifies every change from {@code oldFiles} to {@code newFiles}, diffing in parallel. */
+  public static List<Finding> check(Collection<ProtoFile> oldFiles, Collection<ProtoFile> newFiles,
+      ExecutorService executor) throws InterruptedException {
+    return classify(oldFiles, newFiles, SchemaDiff.diff(oldFiles, newFiles, executor));
+  }
+
+  /** Returns only the breaking findings in {@code findings}. */
+  public static List<Finding> breaking(List<Finding> findings) {
+    List<Finding> result = new ArrayList<Finding>();
+    for (Finding finding : findings) {
+      if (finding.isBreaking()) result.add(finding);
+    }
+    return unmodifiableList(result);
+  }
+
+  private static List<Finding> classify(Collection<ProtoFile> oldFiles,
+      Collection<ProtoFile> newFiles, List<SchemaDiff.Change> changes) {
+    Linker oldLinker = Linker.link(oldFiles);
+    Linker newLinker = Linker.link(newFiles);
+    List<Finding> result = new ArrayList<Finding>(changes.size());
+    for (SchemaDiff.Change change : changes) {
+      String reason = breakingReason(change, oldLinker, newLinker);
+      result.add(new Finding(change,
+          reason != null ? Compatibility.BREAKING : Compatibility.SAFE, reason));
+    }
+    return unmodifiableList(result);
+  }
+
+  /** Returns why {@code change} breaks wire compatibility, or null if it does not. */
+  private static String breakingReason(SchemaDiff.Change change, Linker oldLinker,
+      Linker newLinker) {
+    switch (change.getElement()) {
+      case FIELD:
+      case EXTENSION:
+        return fieldReason(change, oldLinker, newLinker);
+      case ENUM_VALUE:
+        if (change.getChangeType() == SchemaDiff.ChangeType.REMOVED) {
+          // A value renamed with the same number reads the same on the wire.
+          return hasTag(newLinker, change.getPath(), (EnumType.Value) change.getOldValue())
+              ? null
+              : "enum value removed";
+        }
+        if (change.getChangeType() == SchemaDiff.ChangeType.CHANGED
+            && ((EnumType.Value) change.getOldValue()).getTag()
+            != ((EnumType.Value) change.getNewValue()).getTag()) {
+          return "enum value renumbered";
+        }
+        return null;
+      case TYPE:
+        if (change.getChangeType() == SchemaDiff.ChangeType.CHANGED
+            && change.getOldValue().getClass() != change.getNewValue().getClass()) {
+          return "message and enum are not interchangeable";
+        }
+        return null;
+      case METHOD:
+        return methodReason(change, oldLinker, newLinker);
+      default:
+        return null;
+    }
+  }
+
+  /** Returns true if the enum that declared {@code value} at {@code path} has its number. */
+  private static boolean hasTag(Linker linker, String path, EnumType.Value value) {
+    String enumName = path.substring(0, path.indexOf('#'));
+    Type type = linker.resolve("." + enumName, null);
+    return type instanceof EnumType && ((EnumType) type).valueForTag(value.getTag()) != null;
+  }
+
+  private static String fieldReason(SchemaDiff.Change change, Linker oldLinker,
+      Linker newLinker) {
+    Field oldField = (Field) change.getOldValue();
+    Field newField = (Field) change.getNewValue();
+    switch (change.getChangeType()) {
+      case ADDED:
+        return newField.getLabel() == Label.REQUIRED ? "required field added" : null;
+      case REMOVED:
+        return oldField.getLabel() == Label.REQUIRED ? "required field removed" : null;
+      default:
+        break;
+    }
+
+    String typeReason = typeReason(oldField, oldLinker, newField, newLinker);
+    if (typeReason != null && !oldField.getName().equals(newField.getName())) {
+      return "tag " + newField.getTag() + " reused by " + newField.getName() + " ("
+          + typeReason + ")";
+    }
+    if (typeReason != null) return typeReason;
+    if (oldField.getLabel() != newField.getLabel()
+        && (oldField.getLabel() == Label.REQUIRED || newField.getLabel() == Label.REQUIRED)) {
+      return "label changed from " + label(oldField) + " to " + label(newField);
+    }
+    return null;
+  }
+
+  private static String methodReason(SchemaDiff.Change change, Linker oldLinker,
+      Linker newLinker) {
+    if (change.getChangeType() == SchemaDiff.ChangeType.REMOVED) return "rpc removed";
+    if (change.getChangeType() == SchemaDiff.ChangeType.ADDED) return null;
+    Service.Method oldMethod = (Service.Method) change.getOldValue();
+    Service.Method newMethod = (Service.Method) change.getNewValue();
+    if (!sameType(oldLinker.getRequestType(oldMethod), newLinker.getRequestType(newMethod))) {
+      return "request type changed";
+    }
+    if (!sameType(oldLinker.getResponseType(oldMethod), newLinker.getResponseType(newMethod))) {
+      return "response type changed";
+    }
+    return null;
+  }
+
+  /** Returns why the type of the field cannot be read as the other, or null if it can. */
+  private static String typeReason(Field oldField, Linker oldLinker, Field newField,
+      Linker newLinker) {
+    if (oldField.getType().equals(newField.getType())) {
+      // The same name may resolve differently, for example if a nearer type now shadows it.
+      if (ScalarTypes.isScalarType(oldField.getType())
+          || sameType(oldLinker.getFieldType(oldField), newLinker.getFieldType(newField))) {
+        return null;
+      }
+    }
+
+    Type oldType = oldLinker.getFieldType(oldField);
+    Type newType = newLinker.getFieldType(newField);
+    if (oldType instanceof MessageType && newType instanceof MessageType) {
+      return sameType(oldType, newType) ? null : "message type changed from "
+          + oldType.getFullyQualifiedName() + " to " + newType.getFullyQualifiedName();
+    }
+    String oldGroup = wireGroup(oldField.getType(), oldType);
+    String newGroup = wireGroup(newField.getType(), newType);
+    if (oldGroup.equals(newGroup) || isBytesCompatible(oldGroup, newGroup)) return null;
+    return "type changed from " + oldField.getType() + " (" + oldGroup + ") to "
+        + newField.getType() + " (" + newGroup + ")";
+  }
+
+  private static String wireGroup(String typeName, Type type) {
+    if (type instanceof EnumType) return "varint";
+    if (type != null) return MESSAGE_GROUP;
+    return WIRE_GROUPS.get(typeName);
+  }
+
+  /** Bytes can hold a string or an encoded message, but neither can hold the other. */
+  private static boolean isBytesCompatible(String oldGroup, String newGroup) {
+    String bytes = WIRE_GROUPS.get(TYPE_BYTES);
+    if (oldGroup.equals(bytes)) {
+      return newGroup.equals(MESSAGE_GROUP) || newGroup.equals(WIRE_GROUPS.get(TYPE_STRING));
+    }
+    if (newGroup.equals(bytes)) {
+      return oldGroup.equals(MESSAGE_GROUP) || oldGroup.equals(WIRE_GROUPS.get(TYPE_STRING));
+    }
+    return false;
+  }
+
+  private static boolean sameType(Type a, Type b) {
+    return a.getFullyQualifiedName().equals(b.getFullyQualifiedName());
+  }
+
+  private static String label(Field field) {
+    return field.getLabel().name().toLowerCase(Locale.US);
+  }
+
+  private CompatibilityChecker() {
+    throw new AssertionError("No instances.");
+  }
+}
@@ -0,0 +1,303 @@
+// Copyright 2014 Square, Inc.
+package com.squareup.protoparser;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import static java.util.Collections.emptyList;
+import static java.util.Collections.unmodifiableList;
+
+/**
+ * The import graph of a set of {@code .proto} files, keyed by {@link ProtoFile#getFileName()}.
+ * Imports of files outside the set are ignored.
+ *
+ * <p>Strongly-connected components are found once, with an iterative form of Tarjan's algorithm.
+ * Because Tarjan's algorithm completes each component after everything it imports, the same pass
+ * also assigns each file its topological level: files with no imports are on level 0, and every
+ * other file is one level above its deepest import.
+ */
+public final class DependencyGraph {
+  /** Work to run on a single file. */
+  public interface FileTask {
+    void run(ProtoFile file);
+  }
+
+  /** Returns the import graph of {@code files}. */
+  public static DependencyGraph of(Collection<ProtoFile> files) {
+    return new DependencyGraph(files);
+  }
+
+  private final List<ProtoFile> files;
+  private final Map<String, Integer> indexes;
+  private final int[][] imports;
+  private final int[][] publicImports;
+  private final List<List<ProtoFile>> cycles;
+  private final List<List<ProtoFile>> levels;
+
+  private DependencyGraph(Collection<ProtoFile> files) {
+    this.files = unmodifiableList(new ArrayList<ProtoFile>(files));
+    int count = this.files.size();
+    indexes = new HashMap<String, Integer>(count * 4 / 3 + 1);
+    for (int i = 0; i < count; i++) {
+      String fileName = this.files.get(i).getFileName();
+      if (indexes.put(fileName, i) != null) {
+        throw new IllegalArgumentException("Duplicate file " + fileName);
+      }
+    }
+
+    imports = new int[count][];
+    publicImports = new int[count][];
+    for (int i = 0; i < count; i++) {
+      ProtoFile file = this.files.get(i);
+      publicImports[i] = indexesOf(file.getPublicDependencies());
+      int[] privateImports = indexesOf(file.getDependencies());
+      imports[i] = Arrays.copyOf(privateImports, privateImports.length + publicImports[i].length);
+      System.arraycopy(publicImports[i], 0, imports[i], privateImports.length,
+          publicImports[i].length);
+    }
+
+    List<List<ProtoFile>> cycles = new ArrayList<List<ProtoFile>>();
+    int[] levelOf = new int[count];
+    int levelCount = findComponents(cycles, levelOf);
+    this.cycles = unmodifiableList(cycles);
+
+    List<List<ProtoFile>> levels = new ArrayList<List<ProtoFile>>(levelCount);
+    for (int i = 0; i < levelCount; i++) {
+      levels.add(new ArrayList<ProtoFile>());
+    }
+    for (int i = 0; i < count; i++) {
+      levels.get(levelOf[i]).add(this.files.get(i));
+    }
+    for (int i = 0; i < levelCount; i++) {
+      levels.set(i, unmodifiableList(levels.get(i)));
+    }
+    this.levels = unmodifiableList(levels);
+  }
+
+  private int[] indexesOf(List<String> fileNames) {
+    int[] result = new int[fileNames.size()];
+    int size = 0;
+    for (String fileName : fileNames) {
+      Integer index = indexes.get(fileName);
+      if (index != null) result[size++] = index;
+    }
+    return size == result.length ? result : Arrays.copyOf(result, size);
+  }
+
+  /**
+   * Runs Tarjan's algorithm without recursion, adding every cyclic component to {@code cycles}
+   * and the level of each file to {@code levelOf}. Returns the number of levels.
+   */
+  private int findComponents(List<List<ProtoFile>> cycles, int[] levelOf) {
+    int count = files.size();
+    int[] index = new int[count];
+    int[] low = new int[count];
+    boolean[] onStack = new boolean[count];
+    int[] stack = new int[count];
+    int stackSize = 0;
+    int[] callNodes = new int[count];
+    int[] callEdges = new int[count];
+    Arrays.fill(index, -1);
+    Arrays.fill(levelOf, -1);
+    int counter = 0;
+    int levelCount = 0;
+
+    for (int root = 0; root < count; root++) {
+      if (index[root] != -1) continue;
+      index[root] = counter++;
+      low[root] = index[root];
+      stack[stackSize++] = root;
+      onStack[root] = true;
+      int depth = 0;
+      callNodes[0] = root;
+      callEdges[0] = 0;
+
+      while (depth >= 0) {
+        int v = callNodes[depth];
+        if (callEdges[depth] < imports[v].length) {
+          int w = imports[v][callEdges[depth]++];
+          if (index[w] == -1) {
+            index[w] = counter++;
+            low[w] = index[w];
+            stack[stackSize++] = w;
+            onStack[w] = true;
+            depth++;
+            callNodes[depth] = w;
+            callEdges[depth] = 0;
+          } else if (onStack[w]) {
+            low[v] = Math.min(low[v], index[w]);
+          }
+          continue;
+        }
+
+        if (low[v] == index[v]) {
+          // v roots a component: its members are on the stack above it.
+          int start = stackSize;
+          do {
+            onStack[stack[--start]] = false;
+          } while (stack[start] != v);
+          int level = componentLevel(stack, start, stackSize, levelOf);
+          levelCount = Math.max(levelCount, level + 1);
+          if (stackSize - start > 1 || contains(imports[v], v)) {
+            int[] members = Arrays.copyOfRange(stack, start, stackSize);
+            Arrays.sort(members);
+            List<ProtoFile> cycle = new ArrayList<ProtoFile>(members.length);
+            for (int member : members) {
+              cycle.add(files.get(member));
+            }
+            cycles.add(unmodifiableList(cycle));
+          }
+          stackSize = start;
+        }
+        depth--;
+        if (depth >= 0) {
+          int u = callNodes[depth];
+          low[u] = Math.min(low[u], low[v]);
+        }
+      }
+    }
+    return levelCount;
+  }
+
+  /**
+   * Returns the level of the component {@code stack[start..end)}, and assigns it to each member.
+   * Every import of a member either is in the component, and has no level yet, or is in a
+   * component that has already been completed.
+   */
+  private int componentLevel(int[] stack, int start, int end, int[] levelOf) {
+    int level = 0;
+    for (int i = start; i < end; i++) {
+      for (int w : imports[stack[i]]) {
+        if (levelOf[w] != -1) level = Math.max(level, levelOf[w] + 1);
+      }
+    }
+    for (int i = start; i < end; i++) {
+      levelOf[stack[i]] = level;
+    }
+    return level;
+  }
+
+  private static boolean contains(int[] values, int value) {
+    for (int v : values) {
+      if (v == value) return true;
+    }
+    return false;
+  }
+
+  /** Returns the files of this graph in the order they were given. */
+  public List<ProtoFile> getFiles() {
+    return files;
+  }
+
+  /** Returns the file named {@code fileName}, or null if it is not in this graph. */
+  public ProtoFile getFile(String fileName) {
+    Integer index = indexes.get(fileName);
+    return index != null ? files.get(index) : null;
+  }
+
+  /** Returns the files imported by {@code fileName}, publicly or not. */
+  public List<ProtoFile> getImports(String fileName) {
+    Integer index = indexes.get(fileName);
+    if (index == null) return emptyList();
+    List<ProtoFile> result = new ArrayList<ProtoFile>(imports[index].length);
+    for (int i : imports[index]) {
+      result.add(files.get(i));
+    }
+    return unmodifiableList(result);
+  }
+
+  /**
+   * Returns the files whose declarations are visible to {@code fileName}: each file it imports,
+   * plus every file those re-export with {@code import public}, transitively.
+   */
+  public List<ProtoFile> getVisibleFiles(String fileName) {
+    Integer index = indexes.get(fileName);
+    if (index == null) return emptyList();
+    Set<Integer> visible = new LinkedHashSet<Integer>();
+    Deque<Integer> queue = new ArrayDeque<Integer>();
+    for (int i : imports[index]) {
+      if (visible.add(i)) queue.add(i);
+    }
+    while (!queue.isEmpty()) {
+      for (int i : publicImports[queue.remove()]) {
+        if (visible.add(i)) queue.add(i);
+      }
+    }
+    List<ProtoFile> result = new ArrayList<ProtoFile>(visible.size());
+    for (int i : visible) {
+      result.add(files.get(i));
+    }
+    return unmodifiableList(result);
+  }
+
+  /** Returns each group of files that import one another, directly or transitively. */
+  public List<List<ProtoFile>> getCycles() {
+    return cycles;
+  }
+
+  /**
+   * Returns the files grouped by level. Every file's imports are on lower levels, so the files of
+   * one level may be processed in parallel once the levels below are done.
+   *
+   * @throws IllegalStateException if the graph has cycles.
+   */
+  public List<List<ProtoFile>> getLevels() {
+    if (!cycles.isEmpty()) {
+      StringBuilder message = new StringBuilder("Import cycles:");
+      for (List<ProtoFile> cycle : cycles) {
+        message.append("\n ");
+        for (ProtoFile file : cycle) {
+          message.append(' ').append(file.getFileName());
+        }
+      }
+      throw new IllegalStateException(message.toString());
+    }
+    return levels;
+  }
+
+  /**
+   * Runs {@code task} on every file, level by level. The files of each level run in parallel on
+   * {@code executor}, and a level starts only once the level below has finished. If a task fails
+   * the remaining levels are skipped and the failure is rethrown.
+   *
+   * @throws IllegalStateException if the graph has cycles.
+   */
+  public void runByLevel(final FileTask task, ExecutorService executor)
+      throws InterruptedException {
+    for (List<ProtoFile> level : getLevels()) {
+      List<Future<Void>> futures = new ArrayList<Future<Void>>(level.size());
+      for (final ProtoFile file : level) {
+        futures.add(executor.submit(new Callable<Void>() {
+          @Override public Void call() {
+            task.run(file);
+            return null;
+          }
+        }));
+      }
+
+      Throwable failure = null;
+      for (Future<Void> future : futures) {
+        try {
+          future.get();
+        } catch (ExecutionException e) {
+          if (failure == null) failure = e.getCause();
+        }
+      }
+      if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+      if (failure instanceof Error) throw (Error) failure;
+      if (failure != null) throw new RuntimeException(failure);
+    }
+  }
+}
@@ -0,0 +1,223 @@
+// Copyright 2014 Square, Inc.
+package com.squareup.protoparser;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.squareup.protoparser.MessagePlan.FieldPlan;
+
+/**
+ * Decodes protocol buffers binary data using only the parsed schema, without generated code.
+ *
+ * <p>A message decodes to a map from field name to value, in the order the fields were first
+ * seen on the wire. Extension fields are named by the scope of their extend declaration and their
+ * own name: {@code p.ext} for a declaration at the top level of package {@code p}, and
+ * {@code p.Outer.ext} for one nested in message {@code p.Outer}. Values are represented as
+ * follows:
+ * <ul>
+ *   <li>{@code int32}, {@code uint32}, {@code sint32}, {@code fixed32}, {@code sfixed32}:
+ *       {@link Integer}. Unsigned values above {@link Integer#MAX_VALUE} wrap to negative.</li>
+ *   <li>{@code int64}, {@code uint64}, {@code sint64}, {@code fixed64}, {@code sfixed64}:
+ *       {@link Long}, wrapping the same way.</li>
+ *   <li>{@code float}, {@code double}, {@code bool}: {@link Float}, {@link Double},
+ *       {@link Boolean}.</li>
+ *   <li>{@code string}: {@link String}. {@code bytes}: {@code byte[]}.</li>
+ *   <li>Enums: the name of the value, or its number as an {@link Integer} if the schema doesn't
+ *       declare it.</li>
+ *   <li>Messages: a nested {@code Map<String, Object>}.</li>
+ *   <li>Repeated fields: a {@link List} of the above.</li>
+ * </ul>
+ *
+ * <p>Repeated scalar fields are accepted both packed and unpacked, regardless of the field's
+ * {@code packed} option. Unknown fields and fields whose wire type doesn't match the schema are
+ * skipped. A decoder is immutable and safe for use by multiple threads.
+ */
+public final class DynamicDecoder {
+  /**
+   * Returns a decoder for the message types declared in {@code files}.
+   *
+   * @throws IllegalStateException if a type reference in {@code files} cannot be resolved.
+   */
+  public static DynamicDecoder of(Collection<ProtoFile> files) {
+    return new DynamicDecoder(MessagePlan.compile(files));
+  }
+
+  private final Map<String, MessagePlan> plans;
+
+  DynamicDecoder(Map<String, MessagePlan> plans) {
+    this.plans = plans;
+  }
+
+  /**
+   * Decodes {@code data} as a message of the type named {@code messageType}.
+   *
+   * @throws IllegalArgumentException if the type is unknown or the data is malformed.
+   */
+  public Map<String, Object> decode(String messageType, byte[] data) {
+    return decode(messageType, ByteBuffer.wrap(data));
+  }
+
+  /**
+   * Decodes the remaining bytes of {@code data} as a message of the type named
+   * {@code messageType}. The position of {@code data} is not changed.
+   *
+   * @throws IllegalArgumentException if the type is unknown or the data is malformed.
+   */
+  public Map<String, Object> decode(String messageType, ByteBuffer data) {
+    if (messageType == null) throw new NullPointerException("messageType");
+    if (data == null) throw new NullPointerException("data");
+    MessagePlan plan = plans.get(messageType);
+    if (plan == null) throw new IllegalArgumentException("Unknown message type: " + messageType);
+
+    Map<String, Object> result = new LinkedHashMap<String, Object>();
+    decodeMessage(plan, new WireReader(data), 0, result);
+    return result;
+  }
+
+  /**
+   * Returns a view that decodes fields of {@code data} only when they are accessed. The view
+   * reads the remaining bytes of {@code data}, which must not change while the view is in use.
+   *
+   * @throws IllegalArgumentException if {@code messageType} is not part of this decoder's schema.
+   */
+  public MessageView view(MessageType messageType, ByteBuffer data) {
+    if (messageType == null) throw new NullPointerException("messageType");
+    return view(messageType.getFullyQualifiedName(), data);
+  }
+
+  /**
+   * Returns a view that decodes fields of {@code data} only when they are accessed. The view
+   * reads the remaining bytes of {@code data}, which must not change while the view is in use.
+   *
+   * @throws IllegalArgumentException if the type is unknown.
+   */
+  public MessageView view(String messageType, ByteBuffer data) {
+    if (messageType == null) throw new NullPointerException("messageType");
+    if (data == null) throw new NullPointerException("data");
+    MessagePlan plan = plans.get(messageType);
+    if (plan == null) throw new IllegalArgumentException("Unknown message type: " + messageType);
+    return new MessageView(plan, data);
+  }
+
+  /**
+   * Returns a projection that decodes only the fields named by {@code paths} from messages of
+   * the type named {@code messageType}.
+   *
+   * @throws IllegalArgumentException if the type is unknown or a path doesn't name a field.
+   */
+  public Projection projection(String messageType, List<String> paths) {
+    if (messageType == null) throw new NullPointerException("messageType");
+    if (paths == null) throw new NullPointerException("paths");
+    MessagePlan plan = plans.get(messageType);
+    if (plan == null) throw new IllegalArgumentException("Unknown message type: " + messageType);
+    return Projection.compile(plan, paths);
+  }
+
+  static void decodeMessage(MessagePlan plan, WireReader reader, int depth,
+      Map<String, Object> result) {
+    if (depth >= WireFormat.MAX_DEPTH) throw new IllegalArgumentException("Nesting too deep");
+    // Writers usually emit fields in declaration order, so before looking a key up by tag check
+    // whether it repeats the previous field or belongs to the field declared after it.
+    FieldPlan[] fields = plan.fields;
+    FieldPlan last = null;
+    while (!reader.exhausted()) {
+      int key = reader.readKey();
+      FieldPlan field;
+      if (last != null && last.wireKey == key) {
+        field = last;
+      } else {
+        int next = last != null ? last.index + 1 : 0;
+        field = next < fields.length && fields[next].wireKey == key
+            ? fields[next]
+            : plan.byTag.get(key >>> WireFormat.TAG_TYPE_BITS);
+        if (field != null) last = field;
+      }
+      int wireType = key & WireFormat.TAG_TYPE_MASK;
+      if (field == null) {
+        reader.skip(key, depth);
+      } else if (wireType == field.kind.wireType) {
+        if (field.repeated) {
+          values(result, field).add(readValue(field, reader, depth, null));
+        } else {
+          Object previous = result.get(field.name);
+          result.put(field.name, readValue(field, reader, depth, previous));
+        }
+      } else if (wireType == WireFormat.LENGTH_DELIMITED && field.repeated
+          && field.kind.isPackable()) {
+        List<Object> values = values(result, field);
+        int limit = reader.pushLimit(reader.readLength());
+        while (!reader.exhausted()) {
+          values.add(readValue(field, reader, depth, null));
+        }
+        reader.popLimit(limit);
+      } else {
+        reader.skip(key, depth);
+      }
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static List<Object> values(Map<String, Object> result, FieldPlan field) {
+    List<Object> values = (List<Object>) result.get(field.name);
+    if (values == null) {
+      values = new ArrayList<Object>();
+      result.put(field.name, values);
+    }
+    return values;
+  }
+
+  /**
+   * Reads one value of {@code field}. A message is merged into {@code previous} if that is
+   * non-null, as when a singular message field occurs more than once.
+   */
+  @SuppressWarnings("unchecked")
+  static Object readValue(FieldPlan field, WireReader reader, int depth,
+      Object previous) {
+    switch (field.kind) {
+      case DOUBLE:
+        return Double.longBitsToDouble(reader.readFixed64());
+      case FLOAT:
+        return Float.intBitsToFloat(reader.readFixed32());
+      case INT32:
+      case UINT32:
+        return reader.readVarint32();
+      case INT64:
+      case UINT64:
+        return reader.readVarint64();
+      case SINT32:
+        return WireFormat.decodeZigZag32(reader.readVarint32());
+      case SINT64:
+        return WireFormat.decodeZigZag64(reader.readVarint64());
+      case FIXED32:
+      case SFIXED32:
+        return reader.readFixed32();
+      case FIXED64:
+      case SFIXED64:
+        return reader.readFixed64();
+      case BOOL:
+        return reader.readVarint64() != 0;
+      case STRING:
+        return reader.readString();
+      case BYTES:
+        return reader.readBytes();
+      case ENUM:
+        int tag = reader.readVarint32();
+        EnumType.Value value = field.enumType.valueForTag(tag);
+        return value != null ? value.getName() : (Object) tag;
+      case MESSAGE:
+        Map<String, Object> message = previous != null
+            ? (Map<String, Object>) previous
+            : new LinkedHashMap<String, Object>();
+        int limit = reader.pushLimit(reader.readLength());
+        decodeMessage(field.messagePlan, reader, depth + 1, message);
+        reader.popLimit(limit);
+        return message;
+      default:
+        throw new AssertionError(field.kind);
+    }
+  }
+}
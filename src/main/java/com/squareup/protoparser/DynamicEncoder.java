@@ -0,0 +1,358 @@
+// Copyright 2014 Square, Inc.
+package com.squareup.protoparser;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import static com.squareup.protoparser.MessagePlan.FieldPlan;
+
+/**
+ * Encodes maps as protocol buffers binary data using only the parsed schema, without generated
+ * code. Messages use the representation produced by {@link DynamicDecoder}, with two
+ * relaxations: any {@link Number} is accepted for a numeric field, and an enum may be given
+ * either by value name or by number. Null values are omitted.
+ *
+ * <p>Fields are written in declaration order followed by extensions, so equal messages encode
+ * to equal bytes. Repeated fields are packed if their {@code packed} option is set.
+ *
+ * <p>Encoding makes two passes. The first computes the length of every nested message, packed
+ * record and string, so that the second can write each length prefix before its contents
+ * without buffering or copying. An encoder is immutable and safe for use by multiple threads.
+ */
+public final class DynamicEncoder {
+  /**
+   * Returns an encoder for the message types declared in {@code files}.
+   *
+   * @throws IllegalStateException if a type reference in {@code files} cannot be resolved.
+   */
+  public static DynamicEncoder of(Collection<ProtoFile> files) {
+    return new DynamicEncoder(MessagePlan.compile(files));
+  }
+
+  private final Map<String, MessagePlan> plans;
+
+  DynamicEncoder(Map<String, MessagePlan> plans) {
+    this.plans = plans;
+  }
+
+  /**
+   * Returns the number of bytes needed to encode {@code message} as the type named
+   * {@code messageType}.
+   *
+   * @throws IllegalArgumentException if the type is unknown or the message doesn't match it.
+   */
+  public int encodedSize(String messageType, Map<String, ?> message) {
+    return messageSize(plan(messageType, message), message, new Lengths(), 0);
+  }
+
+  /**
+   * Encodes {@code message} as the type named {@code messageType}.
+   *
+   * @throws IllegalArgumentException if the type is unknown or the message doesn't match it.
+   */
+  public byte[] encode(String messageType, Map<String, ?> message) {
+    MessagePlan plan = plan(messageType, message);
+    Lengths lengths = new Lengths();
+    byte[] result = new byte[messageSize(plan, message, lengths, 0)];
+    writeMessage(plan, message, lengths, new WireWriter(ByteBuffer.wrap(result)));
+    return result;
+  }
+
+  /**
+   * Encodes {@code message} as the type named {@code messageType} into {@code out}, starting at
+   * its position. On return the position of {@code out} is just past the encoded message.
+   *
+   * @throws IllegalArgumentException if the type is unknown or the message doesn't match it.
+   * @throws BufferOverflowException if {@code out} doesn't have enough space remaining. Nothing
+   *     is written in that case.
+   */
+  public void encode(String messageType, Map<String, ?> message, ByteBuffer out) {
+    if (out == null) throw new NullPointerException("out");
+    MessagePlan plan = plan(messageType, message);
+    Lengths lengths = new Lengths();
+    int size = messageSize(plan, message, lengths, 0);
+    if (size > out.remaining()) throw new BufferOverflowException();
+    writeMessage(plan, message, lengths, new WireWriter(out));
+    out.position(out.position() + size);
+  }
+
+  private MessagePlan plan(String messageType, Map<String, ?> message) {
+    if (messageType == null) throw new NullPointerException("messageType");
+    if (message == null) throw new NullPointerException("message");
+    MessagePlan plan = plans.get(messageType);
+    if (plan == null) throw new IllegalArgumentException("Unknown message type: " + messageType);
+    return plan;
+  }
+
+  /**
+   * Returns the encoded size of {@code message}, recording the lengths that the write pass will
+   * need in the order it will need them.
+   */
+  private static int messageSize(MessagePlan plan, Map<String, ?> message, Lengths lengths,
+      int depth) {
+    if (depth >= WireFormat.MAX_DEPTH) throw new IllegalArgumentException("Nesting too deep");
+    int present = 0;
+    int size = 0;
+    for (FieldPlan field : plan.fields) {
+      Object value = message.get(field.name);
+      if (value == null) {
+        if (message.containsKey(field.name)) present++;
+        continue;
+      }
+      present++;
+      if (!field.repeated) {
+        size += field.key.length + valueSize(field, value, lengths, depth);
+        continue;
+      }
+      List<?> values = list(field, value);
+      if (values.isEmpty()) continue;
+      if (field.packed) {
+        int slot = lengths.reserve();
+        int length = 0;
+        for (Object element : values) {
+          length += valueSize(field, element(field, element), lengths, depth);
+        }
+        lengths.set(slot, length);
+        size += field.packedKey.length + WireWriter.varint32Size(length) + length;
+      } else {
+        for (Object element : values) {
+          size += field.key.length + valueSize(field, element(field, element), lengths, depth);
+        }
+      }
+    }
+    if (present != message.size()) {
+      for (String name : message.keySet()) {
+        if (!plan.byName.containsKey(name)) {
+          throw new IllegalArgumentException(
+              "Unknown field " + name + " in " + plan.type.getFullyQualifiedName());
+        }
+      }
+    }
+    return size;
+  }
+
+  private static int valueSize(FieldPlan field, Object value, Lengths lengths, int depth) {
+    switch (field.kind) {
+      case DOUBLE:
+      case FIXED64:
+      case SFIXED64:
+        number(field, value);
+        return 8;
+      case FLOAT:
+      case FIXED32:
+      case SFIXED32:
+        number(field, value);
+        return 4;
+      case INT32:
+        return int32Size(number(field, value).intValue());
+      case UINT32:
+        return WireWriter.varint32Size(number(field, value).intValue());
+      case SINT32:
+        return WireWriter.varint32Size(WireFormat.encodeZigZag32(number(field, value).intValue()));
+      case INT64:
+      case UINT64:
+        return WireWriter.varint64Size(number(field, value).longValue());
+      case SINT64:
+        return WireWriter.varint64Size(WireFormat.encodeZigZag64(number(field, value).longValue()));
+      case BOOL:
+        bool(field, value);
+        return 1;
+      case STRING:
+        int stringLength = WireWriter.utf8Length(string(field, value));
+        lengths.add(stringLength);
+        return WireWriter.varint32Size(stringLength) + stringLength;
+      case BYTES:
+        int bytesLength = bytes(field, value).length;
+        return WireWriter.varint32Size(bytesLength) + bytesLength;
+      case ENUM:
+        return int32Size(enumTag(field, value));
+      case MESSAGE:
+        int slot = lengths.reserve();
+        int messageLength = messageSize(field.messagePlan, map(field, value), lengths, depth + 1);
+        lengths.set(slot, messageLength);
+        return WireWriter.varint32Size(messageLength) + messageLength;
+      default:
+        throw new AssertionError(field.kind);
+    }
+  }
+
+  /** Negative int32 values are sign-extended to ten bytes, so that they read back as int64. */
+  private static int int32Size(int value) {
+    return value >= 0 ? WireWriter.varint32Size(value) : 10;
+  }
+
+  /** Writes {@code message}, which has already been checked and measured by the size pass. */
+  private static void writeMessage(MessagePlan plan, Map<String, ?> message, Lengths lengths,
+      WireWriter writer) {
+    for (FieldPlan field : plan.fields) {
+      Object value = message.get(field.name);
+      if (value == null) continue;
+      if (!field.repeated) {
+        writer.writeRaw(field.key);
+        writeValue(field, value, lengths, writer);
+        continue;
+      }
+      List<?> values = (List<?>) value;
+      if (values.isEmpty()) continue;
+      if (field.packed) {
+        writer.writeRaw(field.packedKey);
+        writer.writeVarint32(lengths.next());
+        for (Object element : values) {
+          writeValue(field, element, lengths, writer);
+        }
+      } else {
+        for (Object element : values) {
+          writer.writeRaw(field.key);
+          writeValue(field, element, lengths, writer);
+        }
+      }
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static void writeValue(FieldPlan field, Object value, Lengths lengths,
+      WireWriter writer) {
+    switch (field.kind) {
+      case DOUBLE:
+        writer.writeFixed64(Double.doubleToLongBits(((Number) value).doubleValue()));
+        break;
+      case FLOAT:
+        writer.writeFixed32(Float.floatToIntBits(((Number) value).floatValue()));
+        break;
+      case INT32:
+        writer.writeVarint64(((Number) value).intValue());
+        break;
+      case UINT32:
+        writer.writeVarint32(((Number) value).intValue());
+        break;
+      case SINT32:
+        writer.writeVarint32(WireFormat.encodeZigZag32(((Number) value).intValue()));
+        break;
+      case INT64:
+      case UINT64:
+        writer.writeVarint64(((Number) value).longValue());
+        break;
+      case SINT64:
+        writer.writeVarint64(WireFormat.encodeZigZag64(((Number) value).longValue()));
+        break;
+      case FIXED32:
+      case SFIXED32:
+        writer.writeFixed32(((Number) value).intValue());
+        break;
+      case FIXED64:
+      case SFIXED64:
+        writer.writeFixed64(((Number) value).longValue());
+        break;
+      case BOOL:
+        writer.writeVarint32((Boolean) value ? 1 : 0);
+        break;
+      case STRING:
+        writer.writeVarint32(lengths.next());
+        writer.writeUtf8((String) value);
+        break;
+      case BYTES:
+        byte[] bytes = (byte[]) value;
+        writer.writeVarint32(bytes.length);
+        writer.writeRaw(bytes);
+        break;
+      case ENUM:
+        writer.writeVarint64(enumTag(field, value));
+        break;
+      case MESSAGE:
+        writer.writeVarint32(lengths.next());
+        writeMessage(field.messagePlan, (Map<String, ?>) value, lengths, writer);
+        break;
+      default:
+        throw new AssertionError(field.kind);
+    }
+  }
+
+  private static int enumTag(FieldPlan field, Object value) {
+    if (value instanceof Number) return ((Number) value).intValue();
+    if (value instanceof String) {
+      EnumType.Value enumValue = field.enumType.valueForName((String) value);
+      if (enumValue == null) {
+        throw new IllegalArgumentException("Unknown value " + value + " for " + field.name
+            + " of type " + field.enumType.getFullyQualifiedName());
+      }
+      return enumValue.getTag();
+    }
+    throw unexpected(field, "an enum value name or number", value);
+  }
+
+  private static List<?> list(FieldPlan field, Object value) {
+    if (!(value instanceof List)) throw unexpected(field, "a list", value);
+    return (List<?>) value;
+  }
+
+  private static Object element(FieldPlan field, Object value) {
+    if (value == null) throw new IllegalArgumentException("Null element in " + field.name);
+    return value;
+  }
+
+  private static Number number(FieldPlan field, Object value) {
+    if (!(value instanceof Number)) throw unexpected(field, "a number", value);
+    return (Number) value;
+  }
+
+  private static void bool(FieldPlan field, Object value) {
+    if (!(value instanceof Boolean)) throw unexpected(field, "a boolean", value);
+  }
+
+  private static String string(FieldPlan field, Object value) {
+    if (!(value instanceof String)) throw unexpected(field, "a string", value);
+    return (String) value;
+  }
+
+  private static byte[] bytes(FieldPlan field, Object value) {
+    if (!(value instanceof byte[])) throw unexpected(field, "a byte array", value);
+    return (byte[]) value;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Map<String, ?> map(FieldPlan field, Object value) {
+    if (!(value instanceof Map)) throw unexpected(field, "a map", value);
+    return (Map<String, ?>) value;
+  }
+
+  private static IllegalArgumentException unexpected(FieldPlan field, String expected,
+      Object value) {
+    return new IllegalArgumentException("Expected " + expected + " for " + field.name + " but was "
+        + value.getClass().getName());
+  }
+
+  /**
+   * The lengths of nested messages, packed records and strings, in the order that they are
+   * written. A message's slot is reserved before its contents are measured, so that the
+   * lengths appear in the same pre-order that the write pass consumes them.
+   */
+  private static final class Lengths {
+    private int[] lengths = new int[16];
+    private int size;
+    private int next;
+
+    int reserve() {
+      add(0);
+      return size - 1;
+    }
+
+    void set(int slot, int length) {
+      lengths[slot] = length;
+    }
+
+    void add(int length) {
+      if (size == lengths.length) {
+        lengths = Arrays.copyOf(lengths, size * 2);
+      }
+      lengths[size++] = length;
+    }
+
+    int next() {
+      return lengths[next++];
+    }
+  }
+}
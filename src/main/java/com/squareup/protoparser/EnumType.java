@@ -3,23 +3,32 @@ package com.squareup.protoparser;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Set;
 
-import static com.squareup.protoparser.Utils.appendDocumentation;
-import static com.squareup.protoparser.Utils.appendIndented;
+import static com.squareup.protoparser.Utils.duplicatesMessage;
+import static com.squareup.protoparser.Utils.findDuplicates;
 import static java.util.Collections.unmodifiableList;
 
 /** An enumerated type declaration. */
 public final class EnumType implements Type {
-  private static void validateTagUniqueness(String type, List<Value> values) {
-    Set<Integer> tags = new LinkedHashSet<Integer>();
-    for (Value value : values) {
-      int tag = value.getTag();
-      if (!tags.add(tag)) {
-        throw new IllegalStateException("Duplicate tag " + tag + " in " + type);
-      }
+  private static final Lookups.Keys<Value> VALUE_KEYS = new Lookups.Keys<Value>() {
+    @Override public int tag(Value value) {
+      return value.getTag();
+    }
+
+    @Override public String name(Value value) {
+      return value.getName();
+    }
+  };
+
+  static void validateTagUniqueness(QualifiedName type, List<Value> values) {
+    int[] tags = new int[values.size()];
+    for (int i = 0; i < tags.length; i++) {
+      tags[i] = values.get(i).getTag();
+    }
+    int[] duplicates = findDuplicates(tags);
+    if (duplicates.length > 0) {
+      throw new IllegalStateException(duplicatesMessage("tag", duplicates) + " in " + type);
     }
   }
 
@@ -36,30 +45,48 @@ public final class EnumType implements Type {
    * Though not mentioned in the spec, enum names use C++ scoping rules, meaning that enum values
    * are siblings of their type, not children of it.
    */
-  static void validateValueUniquenessInScope(String type, List<Type> nestedTypes) {
-    Set<String> names = new LinkedHashSet<String>();
+  static void validateValueUniquenessInScope(QualifiedName type, List<Type> nestedTypes) {
+    int count = 0;
+    for (Type nestedType : nestedTypes) {
+      if (nestedType instanceof EnumType) {
+        count += ((EnumType) nestedType).getValues().size();
+      }
+    }
+    if (count < 2) return;
+
+    String[] names = new String[count];
+    int i = 0;
     for (Type nestedType : nestedTypes) {
       if (nestedType instanceof EnumType) {
-        EnumType enumType = (EnumType) nestedType;
-        for (Value value : enumType.getValues()) {
-          String name = value.getName();
-          if (!names.add(name)) {
-            throw new IllegalStateException("Duplicate enum name " + name + " in scope " + type);
-          }
+        for (Value value : ((EnumType) nestedType).getValues()) {
+          names[i++] = value.getName();
         }
       }
     }
+    String[] duplicates = findDuplicates(names);
+    if (duplicates.length > 0) {
+      throw new IllegalStateException(
+          duplicatesMessage("enum name", duplicates) + " in scope " + type);
+    }
   }
 
   private final String name;
-  private final String fqname;
+  private final QualifiedName fqname;
   private final String documentation;
   private final List<Option> options;
   private final List<Value> values;
   private final boolean allowAlias;
+  private final Lookups<Value> lookups;
 
   public EnumType(String name, String fqname, String documentation, List<Option> options,
       List<Value> values) {
+    this(name, fqname != null ? QualifiedName.parse(fqname) : null, documentation, options, values,
+        true);
+  }
+
+  /** Creates an enum type, skipping tag validation unless {@code validate} is set. */
+  EnumType(String name, QualifiedName fqname, String documentation, List<Option> options,
+      List<Value> values, boolean validate) {
     if (name == null) throw new NullPointerException("name");
     if (fqname == null) throw new NullPointerException("fqname");
     if (documentation == null) throw new NullPointerException("documentation");
@@ -67,7 +94,7 @@ public final class EnumType implements Type {
     if (values == null) throw new NullPointerException("values");
 
     boolean allowAlias = parseAllowAlias(options);
-    if (!allowAlias) {
+    if (validate && !allowAlias) {
       validateTagUniqueness(fqname, values);
     }
 
@@ -76,6 +103,7 @@ public final class EnumType implements Type {
     this.documentation = documentation;
     this.options = unmodifiableList(new ArrayList<Option>(options));
     this.values = unmodifiableList(new ArrayList<Value>(values));
+    this.lookups = Lookups.of(this.options, this.values, VALUE_KEYS);
     this.allowAlias = allowAlias;
   }
 
@@ -84,6 +112,10 @@ public final class EnumType implements Type {
   }
 
   @Override public String getFullyQualifiedName() {
+    return fqname.toString();
+  }
+
+  public QualifiedName getQualifiedName() {
     return fqname;
   }
 
@@ -95,10 +127,28 @@ public final class EnumType implements Type {
     return options;
   }
 
+  /** Returns an index of this declaration's options by name. */
+  public OptionIndex getOptionIndex() {
+    return lookups.optionIndex();
+  }
+
   public List<Value> getValues() {
     return values;
   }
 
+  /**
+   * Returns the value with {@code tag}, or null if this enum has no such value. When aliases are
+   * allowed and several values share a tag, the first declared value is returned.
+   */
+  public Value valueForTag(int tag) {
+    return lookups.forTag(tag);
+  }
+
+  /** Returns the value named {@code name}, or null if this enum has no such value. */
+  public Value valueForName(String name) {
+    return lookups.forName(name);
+  }
+
   /** True if allowing multiple values to have the same tag. */
   public boolean allowAlias() {
     return allowAlias;
@@ -130,24 +180,7 @@ public final class EnumType implements Type {
   }
 
   @Override public String toString() {
-    StringBuilder builder = new StringBuilder();
-    appendDocumentation(builder, documentation);
-    builder.append("enum ")
-        .append(name)
-        .append(" {");
-    if (!options.isEmpty()) {
-      builder.append('\n');
-      for (Option option : options) {
-        appendIndented(builder, option.toDeclaration());
-      }
-    }
-    if (!values.isEmpty()) {
-      builder.append('\n');
-      for (Value value : values) {
-        appendIndented(builder, value.toString());
-      }
-    }
-    return builder.append("}\n").toString();
+    return ProtoWriter.toString(this);
   }
 
   /** An enum constant. */
@@ -156,6 +189,7 @@ public final class EnumType implements Type {
     private final int tag;
     private final String documentation;
     private final List<Option> options;
+    private final Lookups<Void> lookups;
 
     public Value(String name, int tag, String documentation, List<Option> options) {
       if (name == null) throw new NullPointerException("name");
@@ -165,6 +199,7 @@ public final class EnumType implements Type {
       this.tag = tag;
       this.documentation = documentation;
       this.options = unmodifiableList(new ArrayList<Option>(options));
+      this.lookups = Lookups.of(this.options);
     }
 
     public String getName() {
@@ -183,6 +218,11 @@ public final class EnumType implements Type {
       return options;
     }
 
+    /** Returns an index of this declaration's options by name. */
+    public OptionIndex getOptionIndex() {
+      return lookups.optionIndex();
+    }
+
     @Override public boolean equals(Object other) {
       if (this == other) return true;
       if (!(other instanceof Value)) return false;
@@ -203,19 +243,7 @@ public final class EnumType implements Type {
     }
 
     @Override public String toString() {
-      StringBuilder builder = new StringBuilder();
-      appendDocumentation(builder, documentation);
-      builder.append(name)
-          .append(" = ")
-          .append(tag);
-      if (!options.isEmpty()) {
-        builder.append(" [\n");
-        for (Option option : options) {
-          appendIndented(builder, option.toString());
-        }
-        builder.append(']');
-      }
-      return builder.append(";\n").toString();
+      return ProtoWriter.toString(this);
     }
   }
 }
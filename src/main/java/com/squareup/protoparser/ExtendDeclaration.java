@@ -5,21 +5,33 @@ import java.util.ArrayList;
 import java.util.List;
 
 import static com.squareup.protoparser.MessageType.Field;
-import static com.squareup.protoparser.Utils.appendDocumentation;
-import static com.squareup.protoparser.Utils.appendIndented;
 import static java.util.Collections.unmodifiableList;
 
 public final class ExtendDeclaration {
   private final String name;
-  private final String fqname;
+  private final QualifiedName fqname;
+  private final QualifiedName scope;
   private final String documentation;
   private final List<Field> fields;
 
   public ExtendDeclaration(String name, String fqname, String documentation, List<Field> fields) {
-    MessageType.validateFieldTagUniqueness(fqname, fields);
+    this(name, fqname != null ? QualifiedName.parse(fqname) : null, null, documentation, fields,
+        true);
+  }
+
+  /**
+   * Creates an extend declaration declared in {@code scope}, skipping tag validation unless
+   * {@code validate} is set.
+   */
+  ExtendDeclaration(String name, QualifiedName fqname, QualifiedName scope, String documentation,
+      List<Field> fields, boolean validate) {
+    if (validate) {
+      MessageType.validateFieldTagUniqueness(fqname, fields);
+    }
 
     this.name = name;
     this.fqname = fqname;
+    this.scope = scope;
     this.documentation = documentation;
     this.fields = unmodifiableList(new ArrayList<Field>(fields));
   }
@@ -29,9 +41,22 @@ public final class ExtendDeclaration {
   }
 
   public String getFullyQualifiedName() {
+    return fqname != null ? fqname.toString() : null;
+  }
+
+  public QualifiedName getQualifiedName() {
     return fqname;
   }
 
+  /**
+   * Returns the message this declaration is nested in, whose scope the extended type and field
+   * types are resolved in. Returns null for a declaration at the top level of its file, which is
+   * resolved in the file's package.
+   */
+  public QualifiedName getScope() {
+    return scope;
+  }
+
   public String getDocumentation() {
     return documentation;
   }
@@ -47,6 +72,7 @@ public final class ExtendDeclaration {
     ExtendDeclaration that = (ExtendDeclaration) other;
     return name.equals(that.name)
         && fqname.equals(that.fqname)
+        && (scope != null ? scope.equals(that.scope) : that.scope == null)
         && documentation.equals(that.documentation)
         && fields.equals(that.fields);
   }
@@ -54,23 +80,13 @@ public final class ExtendDeclaration {
   @Override public int hashCode() {
     int result = name.hashCode();
     result = 31 * result + fqname.hashCode();
+    result = 31 * result + (scope != null ? scope.hashCode() : 0);
     result = 31 * result + documentation.hashCode();
     result = 31 * result + fields.hashCode();
     return result;
   }
 
   @Override public String toString() {
-    StringBuilder builder = new StringBuilder();
-    appendDocumentation(builder, documentation);
-    builder.append("extend ")
-        .append(name)
-        .append(" {");
-    if (!fields.isEmpty()) {
-      builder.append('\n');
-      for (Field field : fields) {
-        appendIndented(builder, field.toString());
-      }
-    }
-    return builder.append("}\n").toString();
+    return ProtoWriter.toString(this);
   }
 }
@@ -0,0 +1,226 @@
+// Copyright 2014 Square, Inc.
+package com.squareup.protoparser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.squareup.protoparser.MessageType.Field;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.unmodifiableList;
+
+/**
+ * Indexes the extension fields of a set of {@code .proto} files by the fully-qualified name of the
+ * message they extend and by tag.
+ *
+ * <p>The {@code extensions} ranges of each message are sorted and merged into an interval index,
+ * so checking whether a tag is in range is a binary search. Problems found while building the
+ * registry (extensions outside every range, overlapping ranges and conflicting tags) are reported
+ * together by {@link #validate()}.
+ */
+public final class ExtensionRegistry {
+  /**
+   * Returns a registry of the extensions declared in {@code files}. Extended type names are
+   * resolved the way {@link Linker} resolves them; a name that doesn't resolve to a message is
+   * reported as a problem.
+   */
+  public static ExtensionRegistry of(Collection<ProtoFile> files) {
+    Linker linker = Linker.link(files, Collections.<ProtoFile>emptyList());
+    List<String> errors = new ArrayList<String>();
+    Map<String, MessageType> messages = new LinkedHashMap<String, MessageType>();
+    Map<String, List<Extension>> extensions = new LinkedHashMap<String, List<Extension>>();
+    for (ProtoFile file : files) {
+      for (Type type : file.getTypes()) {
+        collectMessages(type, messages);
+      }
+      QualifiedName packageName =
+          file.getPackageName() != null ? QualifiedName.parse(file.getPackageName()) : null;
+      for (ExtendDeclaration extend : file.getExtendDeclarations()) {
+        QualifiedName scope = extend.getScope() != null ? extend.getScope() : packageName;
+        Type type = linker.resolve(extend.getName(), scope);
+        if (!(type instanceof MessageType)) {
+          errors.add(file.getFileName() + ": Unable to resolve extended message " + extend.getName()
+              + (scope != null ? " in " + scope : ""));
+          continue;
+        }
+        String extendee = type.getFullyQualifiedName();
+        List<Extension> list = extensions.get(extendee);
+        if (list == null) {
+          list = new ArrayList<Extension>();
+          extensions.put(extendee, list);
+        }
+        for (Field field : extend.getFields()) {
+          list.add(new Extension(file, field));
+        }
+      }
+    }
+
+    Map<String, Extendee> extendees = new LinkedHashMap<String, Extendee>();
+    for (MessageType message : messages.values()) {
+      String fqname = message.getFullyQualifiedName();
+      List<Extension> list = extensions.get(fqname);
+      extendees.put(fqname, new Extendee(fqname, message, list, errors));
+    }
+    return new ExtensionRegistry(extendees, errors);
+  }
+
+  private static void collectMessages(Type type, Map<String, MessageType> messages) {
+    if (type instanceof MessageType && !messages.containsKey(type.getFullyQualifiedName())) {
+      messages.put(type.getFullyQualifiedName(), (MessageType) type);
+    }
+    for (Type nestedType : type.getNestedTypes()) {
+      collectMessages(nestedType, messages);
+    }
+  }
+
+  private final Map<String, Extendee> extendees;
+  private final List<String> errors;
+
+  private ExtensionRegistry(Map<String, Extendee> extendees, List<String> errors) {
+    this.extendees = extendees;
+    this.errors = unmodifiableList(errors);
+  }
+
+  /** Returns the extension of {@code extendee} with {@code tag}, or null if there is none. */
+  public Field getExtension(String extendee, int tag) {
+    Extendee entry = extendees.get(extendee);
+    return entry != null ? entry.byTag.get(tag) : null;
+  }
+
+  /** Returns every extension of {@code extendee}, ordered by tag. */
+  public List<Field> getExtensions(String extendee) {
+    Extendee entry = extendees.get(extendee);
+    return entry != null ? entry.fields : Collections.<Field>emptyList();
+  }
+
+  /**
+   * Returns true if {@code tag} falls in one of the {@code extensions} ranges that {@code extendee}
+   * declares. Returns false if {@code extendee} is not a known message.
+   */
+  public boolean isInExtensionRange(String extendee, int tag) {
+    Extendee entry = extendees.get(extendee);
+    return entry != null && entry.inRange(tag);
+  }
+
+  /** Returns the problems found in the registered extensions. */
+  public List<String> getErrors() {
+    return errors;
+  }
+
+  /** Throws an {@link IllegalStateException} listing every problem, if there are any. */
+  public void validate() {
+    if (errors.isEmpty()) return;
+    StringBuilder message = new StringBuilder("Invalid extensions:");
+    for (String error : errors) {
+      message.append("\n  ").append(error);
+    }
+    throw new IllegalStateException(message.toString());
+  }
+
+  /** An extension field and the file that declares it. */
+  private static final class Extension {
+    final ProtoFile file;
+    final Field field;
+
+    Extension(ProtoFile file, Field field) {
+      this.file = file;
+      this.field = field;
+    }
+  }
+
+  private static final Comparator<Extension> BY_TAG = new Comparator<Extension>() {
+    @Override public int compare(Extension a, Extension b) {
+      int aTag = a.field.getTag();
+      int bTag = b.field.getTag();
+      return aTag < bTag ? -1 : (aTag == bTag ? 0 : 1);
+    }
+  };
+
+  private static final Comparator<Extensions> BY_START = new Comparator<Extensions>() {
+    @Override public int compare(Extensions a, Extensions b) {
+      return a.getStart() < b.getStart() ? -1 : (a.getStart() == b.getStart() ? 0 : 1);
+    }
+  };
+
+  /** The extension ranges and extension fields of a single message. */
+  private static final class Extendee {
+    final List<Field> fields;
+    final TagMap<Field> byTag;
+    /** Starts of the merged ranges, ascending. */
+    final int[] starts;
+    /** Inclusive ends of the merged ranges, parallel to {@link #starts}. */
+    final int[] ends;
+
+    Extendee(String fqname, MessageType message, List<Extension> extensions,
+        List<String> errors) {
+      List<Extensions> ranges = new ArrayList<Extensions>(message.getExtensions());
+      Collections.sort(ranges, BY_START);
+      int[] starts = new int[ranges.size()];
+      int[] ends = new int[ranges.size()];
+      int rangeCount = 0;
+      Extensions previousRange = null;
+      for (Extensions range : ranges) {
+        if (rangeCount > 0 && range.getStart() <= ends[rangeCount - 1]) {
+          errors.add("Overlapping extension ranges " + describe(previousRange) + " and "
+              + describe(range) + " in " + fqname);
+          ends[rangeCount - 1] = Math.max(ends[rangeCount - 1], range.getEnd());
+        } else {
+          starts[rangeCount] = range.getStart();
+          ends[rangeCount] = range.getEnd();
+          rangeCount++;
+        }
+        previousRange = range;
+      }
+      this.starts = Arrays.copyOf(starts, rangeCount);
+      this.ends = Arrays.copyOf(ends, rangeCount);
+
+      if (extensions == null) {
+        fields = emptyList();
+        byTag = TagMap.of(new int[0], fields);
+        return;
+      }
+
+      List<Extension> sorted = new ArrayList<Extension>(extensions);
+      Collections.sort(sorted, BY_TAG);
+      List<Field> fields = new ArrayList<Field>(sorted.size());
+      int[] tags = new int[sorted.size()];
+      Extension previous = null;
+      for (Extension extension : sorted) {
+        int tag = extension.field.getTag();
+        if (previous != null && previous.field.getTag() == tag) {
+          errors.add("Conflicting extensions for tag " + tag + " on " + fqname + ": "
+              + previous.field.getName() + " in " + previous.file.getFileName() + " and "
+              + extension.field.getName() + " in " + extension.file.getFileName());
+        } else {
+          previous = extension;
+        }
+        if (!inRange(tag)) {
+          errors.add(extension.file.getFileName() + ": Extension " + extension.field.getName()
+              + " tag " + tag + " is outside the extension ranges of " + fqname);
+        }
+        tags[fields.size()] = tag;
+        fields.add(extension.field);
+      }
+      this.fields = unmodifiableList(fields);
+      this.byTag = TagMap.of(tags, fields);
+    }
+
+    boolean inRange(int tag) {
+      int index = Arrays.binarySearch(starts, tag);
+      if (index >= 0) return true;
+      int before = -index - 2; // The last range starting before tag.
+      return before >= 0 && tag <= ends[before];
+    }
+
+    private static String describe(Extensions range) {
+      return range.getStart() == range.getEnd()
+          ? Integer.toString(range.getStart())
+          : range.getStart() + " to " + range.getEnd();
+    }
+  }
+}
@@ -0,0 +1,54 @@
+// Copyright 2014 Square, Inc.
+package com.squareup.protoparser;
+
+/** How a field's values are encoded, derived from its declared type. */
+enum FieldKind {
+  DOUBLE(WireFormat.FIXED64),
+  FLOAT(WireFormat.FIXED32),
+  INT32(WireFormat.VARINT),
+  INT64(WireFormat.VARINT),
+  UINT32(WireFormat.VARINT),
+  UINT64(WireFormat.VARINT),
+  SINT32(WireFormat.VARINT),
+  SINT64(WireFormat.VARINT),
+  FIXED32(WireFormat.FIXED32),
+  FIXED64(WireFormat.FIXED64),
+  SFIXED32(WireFormat.FIXED32),
+  SFIXED64(WireFormat.FIXED64),
+  BOOL(WireFormat.VARINT),
+  STRING(WireFormat.LENGTH_DELIMITED),
+  BYTES(WireFormat.LENGTH_DELIMITED),
+  ENUM(WireFormat.VARINT),
+  MESSAGE(WireFormat.LENGTH_DELIMITED);
+
+  final int wireType;
+
+  FieldKind(int wireType) {
+    this.wireType = wireType;
+  }
+
+  /** True if repeated values of this kind may be written in a single packed record. */
+  boolean isPackable() {
+    return wireType != WireFormat.LENGTH_DELIMITED;
+  }
+
+  /** Returns the kind of the scalar type {@code type}, or null if it is not a scalar. */
+  static FieldKind forScalar(String type) {
+    if (type.equals(ScalarTypes.TYPE_DOUBLE)) return DOUBLE;
+    if (type.equals(ScalarTypes.TYPE_FLOAT)) return FLOAT;
+    if (type.equals(ScalarTypes.TYPE_INT_32)) return INT32;
+    if (type.equals(ScalarTypes.TYPE_INT_64)) return INT64;
+    if (type.equals(ScalarTypes.TYPE_UINT_32)) return UINT32;
+    if (type.equals(ScalarTypes.TYPE_UINT_64)) return UINT64;
+    if (type.equals(ScalarTypes.TYPE_SINT_32)) return SINT32;
+    if (type.equals(ScalarTypes.TYPE_SINT_64)) return SINT64;
+    if (type.equals(ScalarTypes.TYPE_FIXED_32)) return FIXED32;
+    if (type.equals(ScalarTypes.TYPE_FIXED_64)) return FIXED64;
+    if (type.equals(ScalarTypes.TYPE_SFIXED_32)) return SFIXED32;
+    if (type.equals(ScalarTypes.TYPE_SFIXED_64)) return SFIXED64;
+    if (type.equals(ScalarTypes.TYPE_BOOL)) return BOOL;
+    if (type.equals(ScalarTypes.TYPE_STRING)) return STRING;
+    if (type.equals(ScalarTypes.TYPE_BYTES)) return BYTES;
+    return null;
+  }
+}
@@ -0,0 +1,55 @@
+// Copyright 2014 Square, Inc.
+package com.squareup.protoparser;
+
+/** A 128-bit content hash of a schema declaration. See {@link Fingerprinter}. */
+public final class Fingerprint {
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  private final long high;
+  private final long low;
+
+  Fingerprint(long high, long low) {
+    this.high = high;
+    this.low = low;
+  }
+
+  static Fingerprint of(byte[] digest) {
+    long high = 0;
+    long low = 0;
+    for (int i = 0; i < 8; i++) {
+      high = (high << 8) | (digest[i] & 0xff);
+      low = (low << 8) | (digest[i + 8] & 0xff);
+    }
+    return new Fingerprint(high, low);
+  }
+
+  public long getHigh() {
+    return high;
+  }
+
+  public long getLow() {
+    return low;
+  }
+
+  @Override public boolean equals(Object other) {
+    if (this == other) return true;
+    if (!(other instanceof Fingerprint)) return false;
+
+    Fingerprint that = (Fingerprint) other;
+    return high == that.high && low == that.low;
+  }
+
+  @Override public int hashCode() {
+    return (int) low;
+  }
+
+  /** Returns the 32 hex digits of this fingerprint. */
+  @Override public String toString() {
+    char[] chars = new char[32];
+    for (int i = 0; i < 16; i++) {
+      chars[15 - i] = HEX[(int) (high >>> (i * 4)) & 0xf];
+      chars[31 - i] = HEX[(int) (low >>> (i * 4)) & 0xf];
+    }
+    return new String(chars);
+  }
+}
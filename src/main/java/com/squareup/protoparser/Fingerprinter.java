@@ -0,0 +1,349 @@
+// Copyright 2014 Square, Inc.
+package com.squareup.protoparser;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.squareup.protoparser.MessageType.Field;
+
+/**
+ * Computes content-based {@link Fingerprint}s of schema declarations. Each fingerprint is the MD5
+ * hash of a declaration's own attributes and the fingerprints of its children, so two
+ * declarations with equal fingerprints are, with overwhelming probability, equal in content, and
+ * a change anywhere in a tree changes the fingerprint of every enclosing declaration.
+ *
+ * <p>Fingerprints depend on simple names rather than fully-qualified names; a file's fingerprint
+ * covers its package. The exception is an extend declaration nested in a message, whose
+ * fingerprint covers the qualified name of that message since names resolve from it.
+ * Fingerprints are memoized per declaration instance. A fingerprinter is not thread-safe.
+ */
+public final class Fingerprinter {
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private static final byte FILE = 1;
+  private static final byte MESSAGE = 2;
+  private static final byte FIELD = 3;
+  private static final byte ENUM = 4;
+  private static final byte VALUE = 5;
+  private static final byte SERVICE = 6;
+  private static final byte METHOD = 7;
+  private static final byte EXTEND = 8;
+  private static final byte OTHER_TYPE = 9;
+  private static final byte SCHEMA = 10;
+
+  private static final byte STRING = 0;
+  private static final byte BOOLEAN = 1;
+  private static final byte OPTION = 2;
+  private static final byte LIST = 3;
+  private static final byte MAP = 4;
+  private static final byte NULL = 5;
+  private static final byte OTHER = 6;
+
+  private final boolean includeDocumentation;
+  private final Map<Object, Fingerprint> cache = new IdentityHashMap<Object, Fingerprint>();
+  private final MessageDigest digest;
+  private final byte[] buffer = new byte[16];
+
+  /**
+   * @param includeDocumentation false to ignore documentation, so that declarations differing only
+   * in their comments have the same fingerprint.
+   */
+  public Fingerprinter(boolean includeDocumentation) {
+    this.includeDocumentation = includeDocumentation;
+    try {
+      digest = MessageDigest.getInstance("MD5");
+    } catch (NoSuchAlgorithmException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  public Fingerprint of(ProtoFile file) {
+    Fingerprint result = cache.get(file);
+    if (result != null) return result;
+
+    Fingerprint[] types = ofTypes(file.getTypes());
+    Fingerprint[] services = new Fingerprint[file.getServices().size()];
+    for (int i = 0; i < services.length; i++) {
+      services[i] = of(file.getServices().get(i));
+    }
+    Fingerprint[] extendDeclarations = new Fingerprint[file.getExtendDeclarations().size()];
+    for (int i = 0; i < extendDeclarations.length; i++) {
+      extendDeclarations[i] = of(file.getExtendDeclarations().get(i));
+    }
+
+    digest.reset();
+    putByte(FILE);
+    putString(file.getFileName());
+    putString(file.getPackageName());
+    putStrings(file.getDependencies());
+    putStrings(file.getPublicDependencies());
+    putFingerprints(types);
+    putFingerprints(services);
+    putOptions(file.getOptions());
+    putFingerprints(extendDeclarations);
+    return finish(file);
+  }
+
+  /**
+   * Returns the fingerprint of the schema made up of {@code files}, which doesn't depend on the
+   * order of the files. This is not memoized.
+   */
+  public Fingerprint ofSchema(Collection<ProtoFile> files) {
+    List<ProtoFile> sorted = new ArrayList<ProtoFile>(files);
+    Collections.sort(sorted, new Comparator<ProtoFile>() {
+      @Override public int compare(ProtoFile a, ProtoFile b) {
+        return a.getFileName().compareTo(b.getFileName());
+      }
+    });
+    Fingerprint[] fingerprints = new Fingerprint[sorted.size()];
+    for (int i = 0; i < fingerprints.length; i++) {
+      fingerprints[i] = of(sorted.get(i));
+    }
+
+    digest.reset();
+    putByte(SCHEMA);
+    putFingerprints(fingerprints);
+    return Fingerprint.of(digest.digest());
+  }
+
+  public Fingerprint of(Type type) {
+    Fingerprint result = cache.get(type);
+    if (result != null) return result;
+
+    if (type instanceof MessageType) {
+      MessageType message = (MessageType) type;
+      Fingerprint[] fields = ofFields(message.getFields());
+      Fingerprint[] nestedTypes = ofTypes(message.getNestedTypes());
+
+      digest.reset();
+      putByte(MESSAGE);
+      putString(message.getName());
+      putDocumentation(message.getDocumentation());
+      putFingerprints(fields);
+      putFingerprints(nestedTypes);
+      putInt(message.getExtensions().size());
+      for (Extensions extensions : message.getExtensions()) {
+        putDocumentation(extensions.getDocumentation());
+        putInt(extensions.getStart());
+        putInt(extensions.getEnd());
+      }
+      putOptions(message.getOptions());
+    } else if (type instanceof EnumType) {
+      EnumType enumType = (EnumType) type;
+      Fingerprint[] values = new Fingerprint[enumType.getValues().size()];
+      for (int i = 0; i < values.length; i++) {
+        values[i] = of(enumType.getValues().get(i));
+      }
+
+      digest.reset();
+      putByte(ENUM);
+      putString(enumType.getName());
+      putDocumentation(enumType.getDocumentation());
+      putOptions(enumType.getOptions());
+      putFingerprints(values);
+    } else {
+      Fingerprint[] nestedTypes = ofTypes(type.getNestedTypes());
+
+      digest.reset();
+      putByte(OTHER_TYPE);
+      putString(type.getName());
+      putDocumentation(type.getDocumentation());
+      putOptions(type.getOptions());
+      putFingerprints(nestedTypes);
+    }
+    return finish(type);
+  }
+
+  public Fingerprint of(Field field) {
+    Fingerprint result = cache.get(field);
+    if (result != null) return result;
+
+    digest.reset();
+    putByte(FIELD);
+    putString(field.getLabel().name());
+    putString(field.getType());
+    putString(field.getName());
+    putInt(field.getTag());
+    putDocumentation(field.getDocumentation());
+    putOptions(field.getOptions());
+    return finish(field);
+  }
+
+  public Fingerprint of(EnumType.Value value) {
+    Fingerprint result = cache.get(value);
+    if (result != null) return result;
+
+    digest.reset();
+    putByte(VALUE);
+    putString(value.getName());
+    putInt(value.getTag());
+    putDocumentation(value.getDocumentation());
+    putOptions(value.getOptions());
+    return finish(value);
+  }
+
+  public Fingerprint of(Service service) {
+    Fingerprint result = cache.get(service);
+    if (result != null) return result;
+
+    Fingerprint[] methods = new Fingerprint[service.getMethods().size()];
+    for (int i = 0; i < methods.length; i++) {
+      methods[i] = of(service.getMethods().get(i));
+    }
+
+    digest.reset();
+    putByte(SERVICE);
+    putString(service.getName());
+    putDocumentation(service.getDocumentation());
+    putOptions(service.getOptions());
+    putFingerprints(methods);
+    return finish(service);
+  }
+
+  public Fingerprint of(Service.Method method) {
+    Fingerprint result = cache.get(method);
+    if (result != null) return result;
+
+    digest.reset();
+    putByte(METHOD);
+    putString(method.getName());
+    putDocumentation(method.getDocumentation());
+    putString(method.getRequestType());
+    putString(method.getResponseType());
+    putOptions(method.getOptions());
+    return finish(method);
+  }
+
+  public Fingerprint of(ExtendDeclaration extend) {
+    Fingerprint result = cache.get(extend);
+    if (result != null) return result;
+
+    Fingerprint[] fields = ofFields(extend.getFields());
+
+    digest.reset();
+    putByte(EXTEND);
+    putString(extend.getName());
+    putString(extend.getScope() != null ? extend.getScope().toString() : null);
+    putDocumentation(extend.getDocumentation());
+    putFingerprints(fields);
+    return finish(extend);
+  }
+
+  private Fingerprint[] ofTypes(List<Type> types) {
+    Fingerprint[] result = new Fingerprint[types.size()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = of(types.get(i));
+    }
+    return result;
+  }
+
+  private Fingerprint[] ofFields(List<Field> fields) {
+    Fingerprint[] result = new Fingerprint[fields.size()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = of(fields.get(i));
+    }
+    return result;
+  }
+
+  private Fingerprint finish(Object declaration) {
+    Fingerprint result = Fingerprint.of(digest.digest());
+    cache.put(declaration, result);
+    return result;
+  }
+
+  private void putByte(byte b) {
+    digest.update(b);
+  }
+
+  private void putInt(int i) {
+    buffer[0] = (byte) (i >>> 24);
+    buffer[1] = (byte) (i >>> 16);
+    buffer[2] = (byte) (i >>> 8);
+    buffer[3] = (byte) i;
+    digest.update(buffer, 0, 4);
+  }
+
+  private void putLong(long l) {
+    putInt((int) (l >>> 32));
+    putInt((int) l);
+  }
+
+  private void putString(String s) {
+    if (s == null) {
+      putInt(-1);
+      return;
+    }
+    byte[] bytes = s.getBytes(UTF_8);
+    putInt(bytes.length);
+    digest.update(bytes);
+  }
+
+  private void putStrings(List<String> strings) {
+    putInt(strings.size());
+    for (String s : strings) {
+      putString(s);
+    }
+  }
+
+  private void putDocumentation(String documentation) {
+    putString(includeDocumentation ? documentation : "");
+  }
+
+  private void putFingerprints(Fingerprint[] fingerprints) {
+    putInt(fingerprints.length);
+    for (Fingerprint fingerprint : fingerprints) {
+      putLong(fingerprint.getHigh());
+      putLong(fingerprint.getLow());
+    }
+  }
+
+  private void putOptions(List<Option> options) {
+    putInt(options.size());
+    for (Option option : options) {
+      putString(option.getName());
+      putValue(option.getValue());
+    }
+  }
+
+  private void putValue(Object value) {
+    if (value == null) {
+      putByte(NULL);
+    } else if (value instanceof String) {
+      putByte(STRING);
+      putString((String) value);
+    } else if (value instanceof Boolean) {
+      putByte(BOOLEAN);
+      putByte((Boolean) value ? (byte) 1 : (byte) 0);
+    } else if (value instanceof Option) {
+      putByte(OPTION);
+      putString(((Option) value).getName());
+      putValue(((Option) value).getValue());
+    } else if (value instanceof List) {
+      List<?> list = (List<?>) value;
+      putByte(LIST);
+      putInt(list.size());
+      for (Object element : list) {
+        putValue(element);
+      }
+    } else if (value instanceof Map) {
+      Map<?, ?> map = (Map<?, ?>) value;
+      putByte(MAP);
+      putInt(map.size());
+      for (Map.Entry<?, ?> entry : map.entrySet()) {
+        putValue(entry.getKey());
+        putValue(entry.getValue());
+      }
+    } else {
+      putByte(OTHER);
+      putString(value.toString());
+    }
+  }
+}
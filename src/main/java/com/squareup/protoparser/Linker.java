@@ -0,0 +1,331 @@
+// Copyright 2014 Square, Inc.
+package com.squareup.protoparser;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.squareup.protoparser.MessageType.Field;
+
+/**
+ * Resolves the type names used by fields, rpc methods and extend declarations across a set of
+ * {@code .proto} files into the {@link Type} declarations they refer to.
+ *
+ * <p>Names are resolved the way {@code protoc} resolves them. A name with a leading dot is fully
+ * qualified. Otherwise the first segment of the name is looked up in the innermost enclosing
+ * scope, then in each enclosing scope in turn, and the remaining segments are resolved relative
+ * to the first match. Packages take part in this search, so {@code foo.Bar} may name a type in
+ * package {@code foo}.
+ *
+ * <p>Scalar types like {@code int32} are not declarations and resolve to null. A linker is
+ * immutable and safe for use by multiple threads once it has been returned by {@link #link}.
+ */
+public final class Linker {
+  /** Marks a package in the symbol table. */
+  private static final Object PACKAGE = new Object();
+  /** Marks a cached failed resolution. */
+  private static final Object UNRESOLVED = new Object();
+
+  /**
+   * Resolves every field, rpc and extend type reference in {@code files}.
+   *
+   * @throws IllegalStateException listing every reference that could not be resolved.
+   */
+  public static Linker link(Collection<ProtoFile> files) {
+    return link(files, files);
+  }
+
+  /**
+   * Resolves the references in {@code toLink} against the declarations of {@code files}. The
+   * references in other files are not resolved.
+   */
+  static Linker link(Collection<ProtoFile> files, Collection<ProtoFile> toLink) {
+    Linker linker = new Linker();
+    for (ProtoFile file : files) {
+      linker.define(file);
+    }
+
+    List<String> errors = new ArrayList<String>();
+    for (ProtoFile file : toLink) {
+      linker.linkFile(file, errors);
+    }
+    if (!errors.isEmpty()) throw linkFailed(errors);
+    return linker;
+  }
+
+  static IllegalStateException linkFailed(List<String> errors) {
+    StringBuilder message = new StringBuilder("Link failed:");
+    for (String error : errors) {
+      message.append("\n  ").append(error);
+    }
+    return new IllegalStateException(message.toString());
+  }
+
+  private final Map<QualifiedName, Object> symbols = new HashMap<QualifiedName, Object>();
+  /** The number of defined files in each package and each enclosing package. */
+  private final Map<QualifiedName, Integer> packageFileCounts =
+      new HashMap<QualifiedName, Integer>();
+  private final Map<Field, Type> fieldTypes = new IdentityHashMap<Field, Type>();
+  private final Map<Service.Method, Type[]> methodTypes =
+      new IdentityHashMap<Service.Method, Type[]>();
+  private final Map<ExtendDeclaration, Type> extendees =
+      new IdentityHashMap<ExtendDeclaration, Type>();
+  private final Map<QualifiedName, Map<String, Object>> cache =
+      new ConcurrentHashMap<QualifiedName, Map<String, Object>>();
+  /** Cache of resolutions at the top level, which has no scope object. */
+  private final Map<String, Object> rootCache = new ConcurrentHashMap<String, Object>();
+
+  private Linker() {
+  }
+
+  /**
+   * Adds the declarations of {@code file}. References are not resolved. This and the other methods
+   * that change a linker are for linkers owned by a single {@link ReferenceIndex}, which relinks
+   * the affected files itself.
+   */
+  void define(ProtoFile file) {
+    for (QualifiedName name = packageName(file); name != null; name = name.getParent()) {
+      Integer count = packageFileCounts.get(name);
+      packageFileCounts.put(name, count != null ? count + 1 : 1);
+      if (!symbols.containsKey(name)) {
+        symbols.put(name, PACKAGE);
+      }
+    }
+    for (Type type : file.getTypes()) {
+      define(type);
+    }
+    clearCaches();
+  }
+
+  private void define(Type type) {
+    QualifiedName name = qualifiedName(type);
+    Object previous = symbols.get(name);
+    if (previous == null || previous == PACKAGE) {
+      symbols.put(name, type);
+    }
+    for (Type nestedType : type.getNestedTypes()) {
+      define(nestedType);
+    }
+  }
+
+  /** Removes the declarations of {@code file}, which must have been defined. */
+  void undefine(ProtoFile file) {
+    for (Type type : file.getTypes()) {
+      undefine(type);
+    }
+    for (QualifiedName name = packageName(file); name != null; name = name.getParent()) {
+      int count = packageFileCounts.get(name) - 1;
+      if (count > 0) {
+        packageFileCounts.put(name, count);
+      } else {
+        packageFileCounts.remove(name);
+        if (symbols.get(name) == PACKAGE) symbols.remove(name);
+      }
+    }
+    clearCaches();
+  }
+
+  private void undefine(Type type) {
+    QualifiedName name = qualifiedName(type);
+    if (symbols.get(name) == type) {
+      if (packageFileCounts.containsKey(name)) {
+        symbols.put(name, PACKAGE);
+      } else {
+        symbols.remove(name);
+      }
+    }
+    for (Type nestedType : type.getNestedTypes()) {
+      undefine(nestedType);
+    }
+  }
+
+  /** Discards the resolved references of {@code file}. */
+  void forget(ProtoFile file) {
+    for (Type type : file.getTypes()) {
+      forget(type);
+    }
+    for (ExtendDeclaration extend : file.getExtendDeclarations()) {
+      extendees.remove(extend);
+      for (Field field : extend.getFields()) {
+        fieldTypes.remove(field);
+      }
+    }
+    for (Service service : file.getServices()) {
+      for (Service.Method method : service.getMethods()) {
+        methodTypes.remove(method);
+      }
+    }
+  }
+
+  private void forget(Type type) {
+    if (type instanceof MessageType) {
+      for (Field field : ((MessageType) type).getFields()) {
+        fieldTypes.remove(field);
+      }
+    }
+    for (Type nestedType : type.getNestedTypes()) {
+      forget(nestedType);
+    }
+  }
+
+  private void clearCaches() {
+    cache.clear();
+    rootCache.clear();
+  }
+
+  /**
+   * Resolves the references in {@code file}, adding a message to {@code errors} for each one that
+   * doesn't resolve.
+   */
+  void linkFile(ProtoFile file, List<String> errors) {
+    for (Type type : file.getTypes()) {
+      linkType(file, type, errors);
+    }
+
+    QualifiedName packageName = packageName(file);
+    for (ExtendDeclaration extend : file.getExtendDeclarations()) {
+      QualifiedName scope = extend.getScope() != null ? extend.getScope() : packageName;
+      Type extendee = resolveOrReport(file, extend.getName(), scope, errors);
+      if (extendee != null) {
+        extendees.put(extend, extendee);
+      }
+      for (Field field : extend.getFields()) {
+        linkField(file, field, scope, errors);
+      }
+    }
+
+    for (Service service : file.getServices()) {
+      QualifiedName scope = service.getQualifiedName();
+      for (Service.Method method : service.getMethods()) {
+        Type[] types = new Type[2];
+        types[0] = resolveOrReport(file, method.getRequestType(), scope, errors);
+        types[1] = resolveOrReport(file, method.getResponseType(), scope, errors);
+        methodTypes.put(method, types);
+      }
+    }
+  }
+
+  private void linkType(ProtoFile file, Type type, List<String> errors) {
+    if (type instanceof MessageType) {
+      MessageType messageType = (MessageType) type;
+      for (Field field : messageType.getFields()) {
+        linkField(file, field, messageType.getQualifiedName(), errors);
+      }
+    }
+    for (Type nestedType : type.getNestedTypes()) {
+      linkType(file, nestedType, errors);
+    }
+  }
+
+  private void linkField(ProtoFile file, Field field, QualifiedName scope, List<String> errors) {
+    if (ScalarTypes.isScalarType(field.getType())) return;
+    Type type = resolveOrReport(file, field.getType(), scope, errors);
+    if (type != null) {
+      fieldTypes.put(field, type);
+    }
+  }
+
+  private Type resolveOrReport(ProtoFile file, String name, QualifiedName scope,
+      List<String> errors) {
+    Type result = resolve(name, scope);
+    if (result == null) {
+      errors.add(file.getFileName() + ": Unable to resolve " + name
+          + (scope != null ? " in " + scope : ""));
+    }
+    return result;
+  }
+
+  /** Returns the type named {@code fqname}, or null if there is no such type. */
+  public Type getType(String fqname) {
+    Object symbol = symbols.get(QualifiedName.parse(fqname));
+    return symbol instanceof Type ? (Type) symbol : null;
+  }
+
+  /** Returns the type of {@code field}, or null if it is a scalar type. */
+  public Type getFieldType(Field field) {
+    return fieldTypes.get(field);
+  }
+
+  /** Returns the request type of {@code method}. */
+  public Type getRequestType(Service.Method method) {
+    Type[] types = methodTypes.get(method);
+    return types != null ? types[0] : null;
+  }
+
+  /** Returns the response type of {@code method}. */
+  public Type getResponseType(Service.Method method) {
+    Type[] types = methodTypes.get(method);
+    return types != null ? types[1] : null;
+  }
+
+  /** Returns the message type extended by {@code extend}. */
+  public Type getExtendee(ExtendDeclaration extend) {
+    return extendees.get(extend);
+  }
+
+  /**
+   * Returns the type that {@code name} refers to when used in {@code scope}, or null if it is a
+   * scalar type or names no type. A null scope is the top level of a file with no package.
+   */
+  public Type resolve(String name, QualifiedName scope) {
+    if (ScalarTypes.isScalarType(name)) return null;
+
+    Map<String, Object> scopeCache;
+    if (scope == null) {
+      scopeCache = rootCache;
+    } else {
+      scopeCache = cache.get(scope);
+      if (scopeCache == null) {
+        scopeCache = new ConcurrentHashMap<String, Object>();
+        cache.put(scope, scopeCache);
+      }
+    }
+    Object result = scopeCache.get(name);
+    if (result == null) {
+      result = lookup(name, scope);
+      if (result == null) result = UNRESOLVED;
+      scopeCache.put(name, result);
+    }
+    return result != UNRESOLVED ? (Type) result : null;
+  }
+
+  private Type lookup(String name, QualifiedName scope) {
+    if (name.startsWith(".")) {
+      Object symbol = symbols.get(QualifiedName.parse(name.substring(1)));
+      return symbol instanceof Type ? (Type) symbol : null;
+    }
+
+    int dot = name.indexOf('.');
+    String first = dot == -1 ? name : name.substring(0, dot);
+    QualifiedName candidateScope = scope;
+    while (true) {
+      QualifiedName candidate = QualifiedName.of(candidateScope, first);
+      if (symbols.containsKey(candidate)) {
+        // The first segment binds here. The rest must resolve relative to it, or not at all.
+        QualifiedName full = candidate;
+        for (int start = dot + 1; dot != -1; start = dot + 1) {
+          dot = name.indexOf('.', start);
+          full = full.child(dot == -1 ? name.substring(start) : name.substring(start, dot));
+        }
+        Object symbol = symbols.get(full);
+        return symbol instanceof Type ? (Type) symbol : null;
+      }
+      if (candidateScope == null) return null;
+      candidateScope = candidateScope.getParent();
+    }
+  }
+
+  private static QualifiedName packageName(ProtoFile file) {
+    return file.getPackageName() != null ? QualifiedName.parse(file.getPackageName()) : null;
+  }
+
+  private static QualifiedName qualifiedName(Type type) {
+    if (type instanceof MessageType) return ((MessageType) type).getQualifiedName();
+    if (type instanceof EnumType) return ((EnumType) type).getQualifiedName();
+    return QualifiedName.parse(type.getFullyQualifiedName());
+  }
+}
@@ -0,0 +1,84 @@
+// Copyright 2014 Square, Inc.
+package com.squareup.protoparser;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Lazily-built indexes of one declaration's options and, for messages and enums, of its fields or
+ * values by tag and by name. Each index is built on first use. Threads that race to build an
+ * index may each build one, but the results are equivalent, so the last write wins harmlessly.
+ */
+final class Lookups<T> {
+  /** Reads the tag and name of an indexed element. */
+  interface Keys<T> {
+    int tag(T element);
+
+    String name(T element);
+  }
+
+  /** Returns lookups for a declaration that has options but no indexed elements. */
+  static Lookups<Void> of(List<Option> options) {
+    return new Lookups<Void>(options, Collections.<Void>emptyList(), null);
+  }
+
+  /** Returns lookups for a declaration with {@code options} and {@code elements}. */
+  static <T> Lookups<T> of(List<Option> options, List<T> elements, Keys<T> keys) {
+    return new Lookups<T>(options, elements, keys);
+  }
+
+  private final List<Option> options;
+  private final List<T> elements;
+  private final Keys<T> keys;
+  private volatile OptionIndex optionIndex;
+  private volatile TagMap<T> byTag;
+  private volatile Map<String, T> byName;
+
+  private Lookups(List<Option> options, List<T> elements, Keys<T> keys) {
+    this.options = options;
+    this.elements = elements;
+    this.keys = keys;
+  }
+
+  OptionIndex optionIndex() {
+    OptionIndex result = optionIndex;
+    if (result == null) {
+      result = OptionIndex.of(options);
+      optionIndex = result;
+    }
+    return result;
+  }
+
+  /** Returns the first element with {@code tag}, or null if there is none. */
+  T forTag(int tag) {
+    TagMap<T> result = byTag;
+    if (result == null) {
+      int[] tags = new int[elements.size()];
+      for (int i = 0; i < tags.length; i++) {
+        tags[i] = keys.tag(elements.get(i));
+      }
+      result = TagMap.of(tags, elements);
+      byTag = result;
+    }
+    return result.get(tag);
+  }
+
+  /** Returns the first element named {@code name}, or null if there is none. */
+  T forName(String name) {
+    if (name == null) throw new NullPointerException("name");
+    Map<String, T> result = byName;
+    if (result == null) {
+      result = new HashMap<String, T>(elements.size() * 2);
+      for (T element : elements) {
+        String elementName = keys.name(element);
+        if (!result.containsKey(elementName)) {
+          result.put(elementName, element);
+        }
+      }
+      byName = result;
+    }
+    return result.get(name);
+  }
+}
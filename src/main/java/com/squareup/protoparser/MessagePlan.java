@@ -0,0 +1,163 @@
+// Copyright 2014 Square, Inc.
+package com.squareup.protoparser;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.squareup.protoparser.MessageType.Field;
+import static com.squareup.protoparser.MessageType.Label;
+
+/**
+ * Everything needed to read or write one message type without consulting the schema: its fields
+ * with their resolved kinds, indexed by tag and by name. Plans for message-typed fields point
+ * directly at the plan of the field's type, so recursive types produce cyclic plans.
+ */
+final class MessagePlan {
+  /**
+   * Returns a plan for every message type declared in {@code files}, keyed by fully-qualified
+   * name. Fields of extensions are included in the plan of the type they extend, named by the
+   * extension name qualified by the scope of its extend declaration: the enclosing message for a
+   * nested declaration, otherwise the package.
+   *
+   * @throws IllegalStateException if a type reference cannot be resolved, or if two fields of a
+   * message have the same name.
+   */
+  static Map<String, MessagePlan> compile(Collection<ProtoFile> files) {
+    Linker linker = Linker.link(files);
+
+    Map<String, MessagePlan> plans = new LinkedHashMap<String, MessagePlan>();
+    for (ProtoFile file : files) {
+      for (Type type : file.getTypes()) {
+        createPlans(plans, type);
+      }
+    }
+
+    Map<MessagePlan, List<FieldPlan>> fields = new LinkedHashMap<MessagePlan, List<FieldPlan>>();
+    for (MessagePlan plan : plans.values()) {
+      List<FieldPlan> fieldPlans = new ArrayList<FieldPlan>();
+      for (Field field : plan.type.getFields()) {
+        fieldPlans.add(
+            fieldPlan(linker, plans, fieldPlans.size(), field.getName(), field, false));
+      }
+      fields.put(plan, fieldPlans);
+    }
+    for (ProtoFile file : files) {
+      for (ExtendDeclaration extend : file.getExtendDeclarations()) {
+        Type extendee = linker.getExtendee(extend);
+        MessagePlan plan = plans.get(extendee.getFullyQualifiedName());
+        if (plan == null) continue;
+        String scope = extend.getScope() != null
+            ? extend.getScope().toString()
+            : file.getPackageName();
+        String prefix = scope != null ? scope + "." : "";
+        for (Field field : extend.getFields()) {
+          List<FieldPlan> fieldPlans = fields.get(plan);
+          fieldPlans.add(fieldPlan(linker, plans, fieldPlans.size(), prefix + field.getName(),
+              field, true));
+        }
+      }
+    }
+
+    for (Map.Entry<MessagePlan, List<FieldPlan>> entry : fields.entrySet()) {
+      entry.getKey().setFields(entry.getValue());
+    }
+    return plans;
+  }
+
+  private static void createPlans(Map<String, MessagePlan> plans, Type type) {
+    if (type instanceof MessageType) {
+      plans.put(type.getFullyQualifiedName(), new MessagePlan((MessageType) type));
+    }
+    for (Type nestedType : type.getNestedTypes()) {
+      createPlans(plans, nestedType);
+    }
+  }
+
+  private static FieldPlan fieldPlan(Linker linker, Map<String, MessagePlan> plans, int index,
+      String name, Field field, boolean extension) {
+    FieldKind kind = FieldKind.forScalar(field.getType());
+    EnumType enumType = null;
+    MessagePlan messagePlan = null;
+    if (kind == null) {
+      Type type = linker.getFieldType(field);
+      if (type instanceof EnumType) {
+        kind = FieldKind.ENUM;
+        enumType = (EnumType) type;
+      } else {
+        kind = FieldKind.MESSAGE;
+        messagePlan = plans.get(type.getFullyQualifiedName());
+      }
+    }
+    return new FieldPlan(index, name, field, extension, kind, enumType, messagePlan);
+  }
+
+  final MessageType type;
+  /** This type's fields followed by its extensions, in declaration order. */
+  FieldPlan[] fields;
+  TagMap<FieldPlan> byTag;
+  Map<String, FieldPlan> byName;
+
+  private MessagePlan(MessageType type) {
+    this.type = type;
+  }
+
+  private void setFields(List<FieldPlan> fieldPlans) {
+    fields = fieldPlans.toArray(new FieldPlan[fieldPlans.size()]);
+    int[] tags = new int[fields.length];
+    byName = new LinkedHashMap<String, FieldPlan>();
+    for (int i = 0; i < fields.length; i++) {
+      tags[i] = fields[i].tag;
+      if (byName.put(fields[i].name, fields[i]) != null) {
+        throw new IllegalStateException("Duplicate field name " + fields[i].name + " in "
+            + type.getFullyQualifiedName());
+      }
+    }
+    byTag = TagMap.of(tags, fieldPlans);
+  }
+
+  /** How to read and write a single field. */
+  static final class FieldPlan {
+    /** This field's position in {@link MessagePlan#fields}. */
+    final int index;
+    /** The field's name, or the qualified extension name if this is an extension field. */
+    final String name;
+    final int tag;
+    final Field field;
+    final boolean extension;
+    final FieldKind kind;
+    final boolean repeated;
+    final boolean packed;
+    /** The field's type if it is an enum, otherwise null. */
+    final EnumType enumType;
+    /** The plan of the field's type if it is a message, otherwise null. */
+    final MessagePlan messagePlan;
+    /** The key that precedes each unpacked value: the tag and the kind's wire type. */
+    final int wireKey;
+    /** The encoded key written before each value. */
+    final byte[] key;
+    /** The encoded key written before a packed record, or null if the field isn't packed. */
+    final byte[] packedKey;
+
+    FieldPlan(int index, String name, Field field, boolean extension, FieldKind kind,
+        EnumType enumType, MessagePlan messagePlan) {
+      this.index = index;
+      this.name = name;
+      this.tag = field.getTag();
+      this.field = field;
+      this.extension = extension;
+      this.kind = kind;
+      this.repeated = field.getLabel() == Label.REPEATED;
+      this.packed = repeated && kind.isPackable() && field.isPacked();
+      this.enumType = enumType;
+      this.messagePlan = messagePlan;
+      this.wireKey = WireFormat.makeKey(tag, kind.wireType);
+      this.key = WireWriter.encodeVarint(wireKey);
+      this.packedKey = packed
+          ? WireWriter.encodeVarint(WireFormat.makeKey(tag, WireFormat.LENGTH_DELIMITED))
+          : null;
+    }
+  }
+}
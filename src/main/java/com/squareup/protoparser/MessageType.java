@@ -2,37 +2,54 @@
 package com.squareup.protoparser;
 
 import java.util.ArrayList;
-import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Locale;
-import java.util.Set;
 
 import static com.squareup.protoparser.ProtoFile.isValidTag;
-import static com.squareup.protoparser.Utils.appendDocumentation;
-import static com.squareup.protoparser.Utils.appendIndented;
+import static com.squareup.protoparser.Utils.duplicatesMessage;
+import static com.squareup.protoparser.Utils.findDuplicates;
 import static java.util.Collections.unmodifiableList;
 
 public final class MessageType implements Type {
-  static void validateFieldTagUniqueness(String type, List<Field> fields) {
-    Set<Integer> tags = new LinkedHashSet<Integer>();
-    for (Field field : fields) {
-      int tag = field.getTag();
-      if (!tags.add(tag)) {
-        throw new IllegalStateException("Duplicate tag " + tag + " in " + type);
-      }
+  private static final Lookups.Keys<Field> FIELD_KEYS = new Lookups.Keys<Field>() {
+    @Override public int tag(Field field) {
+      return field.getTag();
+    }
+
+    @Override public String name(Field field) {
+      return field.getName();
+    }
+  };
+
+  static void validateFieldTagUniqueness(QualifiedName type, List<Field> fields) {
+    int[] tags = new int[fields.size()];
+    for (int i = 0; i < tags.length; i++) {
+      tags[i] = fields.get(i).getTag();
+    }
+    int[] duplicates = findDuplicates(tags);
+    if (duplicates.length > 0) {
+      throw new IllegalStateException(duplicatesMessage("tag", duplicates) + " in " + type);
     }
   }
 
   private final String name;
-  private final String fqname;
+  private final QualifiedName fqname;
   private final String documentation;
   private final List<Field> fields;
   private final List<Type> nestedTypes;
   private final List<Extensions> extensions;
   private final List<Option> options;
+  private final Lookups<Field> lookups;
 
   public MessageType(String name, String fqname, String documentation, List<Field> fields,
       List<Type> nestedTypes, List<Extensions> extensions, List<Option> options) {
+    this(name, fqname != null ? QualifiedName.parse(fqname) : null, documentation, fields,
+        nestedTypes, extensions, options, true);
+  }
+
+  /** Creates a message type, skipping tag and name validation unless {@code validate} is set. */
+  MessageType(String name, QualifiedName fqname, String documentation, List<Field> fields,
+      List<Type> nestedTypes, List<Extensions> extensions, List<Option> options,
+      boolean validate) {
     if (name == null) throw new NullPointerException("name");
     if (fqname == null) throw new NullPointerException("fqname");
     if (documentation == null) throw new NullPointerException("documentation");
@@ -40,8 +57,10 @@ public final class MessageType implements Type {
     if (nestedTypes == null) throw new NullPointerException("nestedTypes");
     if (extensions == null) throw new NullPointerException("extensions");
     if (options == null) throw new NullPointerException("options");
-    validateFieldTagUniqueness(fqname, fields);
-    EnumType.validateValueUniquenessInScope(fqname, nestedTypes);
+    if (validate) {
+      validateFieldTagUniqueness(fqname, fields);
+      EnumType.validateValueUniquenessInScope(fqname, nestedTypes);
+    }
 
     this.name = name;
     this.fqname = fqname;
@@ -50,6 +69,7 @@ public final class MessageType implements Type {
     this.nestedTypes = unmodifiableList(new ArrayList<Type>(nestedTypes));
     this.extensions = unmodifiableList(new ArrayList<Extensions>(extensions));
     this.options = unmodifiableList(new ArrayList<Option>(options));
+    this.lookups = Lookups.of(this.options, this.fields, FIELD_KEYS);
   }
 
   @Override public String getName() {
@@ -57,6 +77,10 @@ public final class MessageType implements Type {
   }
 
   @Override public String getFullyQualifiedName() {
+    return fqname.toString();
+  }
+
+  public QualifiedName getQualifiedName() {
     return fqname;
   }
 
@@ -68,6 +92,16 @@ public final class MessageType implements Type {
     return fields;
   }
 
+  /** Returns the field with {@code tag}, or null if this message has no such field. */
+  public Field getField(int tag) {
+    return lookups.forTag(tag);
+  }
+
+  /** Returns the field named {@code name}, or null if this message has no such field. */
+  public Field getField(String name) {
+    return lookups.forName(name);
+  }
+
   @Override public List<Type> getNestedTypes() {
     return nestedTypes;
   }
@@ -80,6 +114,11 @@ public final class MessageType implements Type {
     return options;
   }
 
+  /** Returns an index of this declaration's options by name. */
+  public OptionIndex getOptionIndex() {
+    return lookups.optionIndex();
+  }
+
   @Override public boolean equals(Object other) {
     if (this == other) return true;
     if (!(other instanceof MessageType)) return false;
@@ -106,36 +145,7 @@ public final class MessageType implements Type {
   }
 
   @Override public String toString() {
-    StringBuilder builder = new StringBuilder();
-    appendDocumentation(builder, documentation);
-    builder.append("message ")
-        .append(name)
-        .append(" {");
-    if (!options.isEmpty()) {
-      builder.append('\n');
-      for (Option option : options) {
-        appendIndented(builder, option.toDeclaration());
-      }
-    }
-    if (!fields.isEmpty()) {
-      builder.append('\n');
-      for (Field field : fields) {
-        appendIndented(builder, field.toString());
-      }
-    }
-    if (!extensions.isEmpty()) {
-      builder.append('\n');
-      for (Extensions extension : extensions) {
-        appendIndented(builder, extension.toString());
-      }
-    }
-    if (!nestedTypes.isEmpty()) {
-      builder.append('\n');
-      for (Type type : nestedTypes) {
-        appendIndented(builder, type.toString());
-      }
-    }
-    return builder.append("}\n").toString();
+    return ProtoWriter.toString(this);
   }
 
   public enum Label {
@@ -143,18 +153,33 @@ public final class MessageType implements Type {
   }
 
   public static final class Field {
+    private static final int FLAGS_COMPUTED = 1;
+    private static final int FLAG_DEPRECATED = 1 << 1;
+    private static final int FLAG_PACKED = 1 << 2;
+
     private final Label label;
     private final String type;
     private final String name;
     private final int tag;
     private final List<Option> options;
+    private final Lookups<Void> lookups;
     private final String documentation;
+    /** Memoized well-known option flags, or 0 if not yet computed. */
+    private int flags;
 
     public Field(Label label, String type, String name, int tag, String documentation,
         List<Option> options) {
+      this(label, type, name, tag, documentation, options, true);
+    }
+
+    /** Creates a field, skipping tag validation unless {@code validate} is set. */
+    Field(Label label, String type, String name, int tag, String documentation,
+        List<Option> options, boolean validate) {
       if (label == null) throw new NullPointerException("label");
       if (type == null) throw new NullPointerException("type");
-      if (!isValidTag(tag)) throw new IllegalArgumentException("Illegal tag value: " + tag);
+      if (validate && !isValidTag(tag)) {
+        throw new IllegalArgumentException("Illegal tag value: " + tag);
+      }
       if (name == null) throw new NullPointerException("name");
       if (documentation == null) throw new NullPointerException("documentation");
       if (options == null) throw new NullPointerException("options");
@@ -165,6 +190,7 @@ public final class MessageType implements Type {
       this.tag = tag;
       this.documentation = documentation;
       this.options = unmodifiableList(new ArrayList<Option>(options));
+      this.lookups = Lookups.of(this.options);
     }
 
     public Label getLabel() {
@@ -192,26 +218,40 @@ public final class MessageType implements Type {
       return options;
     }
 
+    /** Returns an index of this declaration's options by name. */
+    public OptionIndex getOptionIndex() {
+      return lookups.optionIndex();
+    }
+
     public String getDocumentation() {
       return documentation;
     }
 
     /** Returns true when the {@code deprecated} option is present and set to true. */
     public boolean isDeprecated() {
-      Option deprecatedOption = Option.findByName(options, "deprecated");
-      return deprecatedOption != null && "true".equals(deprecatedOption.getValue());
+      return (flags() & FLAG_DEPRECATED) != 0;
     }
 
     /** Returns true when the {@code packed} option is present and set to true. */
     public boolean isPacked() {
-      Option packedOption = Option.findByName(options, "packed");
-      return packedOption != null && "true".equals(packedOption.getValue());
+      return (flags() & FLAG_PACKED) != 0;
     }
 
     /** Returns the {@code default} option value or {@code null}. */
     public String getDefault() {
-      Option defaultOption = Option.findByName(options, "default");
-      return defaultOption != null ? (String) defaultOption.getValue() : null;
+      return getOptionIndex().getString("default");
+    }
+
+    private int flags() {
+      int result = flags;
+      if (result == 0) {
+        OptionIndex index = getOptionIndex();
+        result = FLAGS_COMPUTED;
+        if (index.getBoolean("deprecated")) result |= FLAG_DEPRECATED;
+        if (index.getBoolean("packed")) result |= FLAG_PACKED;
+        flags = result;
+      }
+      return result;
     }
 
     @Override public boolean equals(Object other) {
@@ -238,23 +278,7 @@ public final class MessageType implements Type {
     }
 
     @Override public String toString() {
-      StringBuilder builder = new StringBuilder();
-      appendDocumentation(builder, documentation);
-      builder.append(label.toString().toLowerCase(Locale.US))
-          .append(' ')
-          .append(type)
-          .append(' ')
-          .append(name)
-          .append(" = ")
-          .append(tag);
-      if (!options.isEmpty()) {
-        builder.append(" [\n");
-        for (Option option : options) {
-          appendIndented(builder, option.toString());
-        }
-        builder.append(']');
-      }
-      return builder.append(";\n").toString();
+      return ProtoWriter.toString(this);
     }
   }
 }
@@ -0,0 +1,174 @@
+// Copyright 2014 Square, Inc.
+package com.squareup.protoparser;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.squareup.protoparser.MessagePlan.FieldPlan;
+
+/**
+ * A message whose fields are decoded from its wire bytes only when they are accessed. Obtain
+ * instances from {@link DynamicDecoder#view}.
+ *
+ * <p>The first access scans the message once, reading only keys and lengths, and records where
+ * each known field's values start. Later accesses decode only the values they ask for. Scalar
+ * values use the same representation as {@link DynamicDecoder}, except that {@code bytes} values
+ * are read-only {@link ByteBuffer}s sharing the message's bytes, and message values are views
+ * over their part of the bytes. {@link #getBytes} returns the raw UTF-8 of {@code string} fields
+ * without decoding it.
+ *
+ * <p>When a singular field occurs more than once, the last occurrence wins. Unlike
+ * {@link DynamicDecoder}, occurrences of a singular message field are not merged; use
+ * {@link #toMap} for full merge semantics. A view is not safe for use by multiple threads.
+ */
+public final class MessageView {
+  private static final int[] ABSENT = new int[0];
+
+  private final MessagePlan plan;
+  private final WireReader reader;
+  /**
+   * For each field in the plan, the offsets of its values and their wire types, interleaved. Null
+   * until the message has been scanned.
+   */
+  private int[][] index;
+  private int[] counts;
+
+  MessageView(MessagePlan plan, ByteBuffer data) {
+    this.plan = plan;
+    this.reader = new WireReader(data);
+  }
+
+  public MessageType getType() {
+    return plan.type;
+  }
+
+  /** Returns true if {@code fieldName} has at least one value. */
+  public boolean has(String fieldName) {
+    return counts()[field(fieldName).index] > 0;
+  }
+
+  /**
+   * Returns the value of {@code fieldName}, or null if it is absent. The value of a repeated field
+   * is a list, which is empty if the field is absent.
+   */
+  public Object get(String fieldName) {
+    FieldPlan field = field(fieldName);
+    if (field.repeated) return getList(field);
+    int count = counts()[field.index];
+    if (count == 0) return null;
+    reader.seek(index[field.index][(count - 1) * 2]);
+    return readValue(field);
+  }
+
+  /** Returns the nested message in {@code fieldName}, or null if it is absent. */
+  public MessageView getMessage(String fieldName) {
+    FieldPlan field = field(fieldName);
+    if (field.kind != FieldKind.MESSAGE || field.repeated) {
+      throw new IllegalArgumentException(fieldName + " is not a singular message field");
+    }
+    return (MessageView) get(fieldName);
+  }
+
+  /**
+   * Returns the raw bytes of the {@code bytes} or {@code string} field {@code fieldName} without
+   * copying them, or null if it is absent. A string's bytes are UTF-8.
+   */
+  public ByteBuffer getBytes(String fieldName) {
+    FieldPlan field = field(fieldName);
+    if ((field.kind != FieldKind.BYTES && field.kind != FieldKind.STRING) || field.repeated) {
+      throw new IllegalArgumentException(fieldName + " is not a singular bytes or string field");
+    }
+    int count = counts()[field.index];
+    if (count == 0) return null;
+    reader.seek(index[field.index][(count - 1) * 2]);
+    int length = reader.readLength();
+    return reader.slice(reader.position(), length);
+  }
+
+  /** Decodes the whole message, as {@link DynamicDecoder#decode} would. */
+  public Map<String, Object> toMap() {
+    Map<String, Object> result = new LinkedHashMap<String, Object>();
+    reader.seek(0);
+    DynamicDecoder.decodeMessage(plan, reader, 0, result);
+    return result;
+  }
+
+  private List<Object> getList(FieldPlan field) {
+    int count = counts()[field.index];
+    if (count == 0) return Collections.emptyList();
+    int[] entries = index[field.index];
+    List<Object> result = new ArrayList<Object>(count);
+    for (int i = 0; i < count * 2; i += 2) {
+      reader.seek(entries[i]);
+      if (entries[i + 1] == field.kind.wireType) {
+        result.add(readValue(field));
+      } else {
+        int limit = reader.pushLimit(reader.readLength());
+        while (!reader.exhausted()) {
+          result.add(readValue(field));
+        }
+        reader.popLimit(limit);
+      }
+    }
+    return result;
+  }
+
+  private Object readValue(FieldPlan field) {
+    switch (field.kind) {
+      case BYTES:
+        int bytesLength = reader.readLength();
+        return reader.slice(reader.position(), bytesLength);
+      case MESSAGE:
+        int messageLength = reader.readLength();
+        return new MessageView(field.messagePlan, reader.slice(reader.position(), messageLength));
+      default:
+        return DynamicDecoder.readValue(field, reader, 0, null);
+    }
+  }
+
+  private FieldPlan field(String fieldName) {
+    if (fieldName == null) throw new NullPointerException("fieldName");
+    FieldPlan field = plan.byName.get(fieldName);
+    if (field == null) {
+      throw new IllegalArgumentException(
+          "Unknown field " + fieldName + " in " + plan.type.getFullyQualifiedName());
+    }
+    return field;
+  }
+
+  /** Scans the message on first use, returning the number of values recorded for each field. */
+  private int[] counts() {
+    if (counts != null) return counts;
+
+    int[][] entries = new int[plan.fields.length][];
+    Arrays.fill(entries, ABSENT);
+    int[] fieldCounts = new int[plan.fields.length];
+    reader.seek(0);
+    while (!reader.exhausted()) {
+      int key = reader.readKey();
+      int wireType = key & WireFormat.TAG_TYPE_MASK;
+      FieldPlan field = plan.byTag.get(key >>> WireFormat.TAG_TYPE_BITS);
+      if (field != null && (wireType == field.kind.wireType
+          || (wireType == WireFormat.LENGTH_DELIMITED && field.repeated
+              && field.kind.isPackable()))) {
+        int i = field.index;
+        int n = fieldCounts[i] * 2;
+        if (n == entries[i].length) {
+          entries[i] = Arrays.copyOf(entries[i], Math.max(4, n * 2));
+        }
+        entries[i][n] = reader.position();
+        entries[i][n + 1] = wireType;
+        fieldCounts[i]++;
+      }
+      reader.skip(key, 0);
+    }
+    index = entries;
+    counts = fieldCounts;
+    return counts;
+  }
+}
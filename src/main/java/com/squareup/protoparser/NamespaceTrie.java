@@ -0,0 +1,167 @@
+// Copyright 2014 Square, Inc.
+package com.squareup.protoparser;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A trie of package and type name segments, for queries like "every type under
+ * {@code com.example.payments}" or "the children of {@code com.example}". Packages and types share
+ * one tree: the node for {@code com.example.Outer} has the package {@code com.example} as its
+ * parent and its nested types as children.
+ *
+ * <p>Queries walk only the subtree that matches, so their cost is proportional to the size of the
+ * result rather than of the whole schema. A trie is immutable once built.
+ */
+public final class NamespaceTrie {
+  /** Returns a trie of the packages and types of {@code files}. */
+  public static NamespaceTrie of(Collection<ProtoFile> files) {
+    Node root = new Node();
+    for (ProtoFile file : files) {
+      Node packageNode = root;
+      String packageName = file.getPackageName();
+      if (packageName != null && !packageName.isEmpty()) {
+        int start = 0;
+        for (int dot = packageName.indexOf('.'); dot != -1; dot = packageName.indexOf('.', start)) {
+          packageNode = packageNode.child(packageName.substring(start, dot));
+          start = dot + 1;
+        }
+        packageNode = packageNode.child(packageName.substring(start));
+      }
+      for (Type type : file.getTypes()) {
+        packageNode.add(type);
+      }
+    }
+    return new NamespaceTrie(root);
+  }
+
+  private final Node root;
+
+  private NamespaceTrie(Node root) {
+    this.root = root;
+  }
+
+  /** Returns the type named {@code fqname}, or null if there is none. */
+  public Type getType(String fqname) {
+    Node node = find(fqname);
+    return node != null ? node.type : null;
+  }
+
+  /** Returns true if {@code name} is a package or a package prefix of some indexed file. */
+  public boolean isPackage(String name) {
+    Node node = find(name);
+    return node != null && node.type == null;
+  }
+
+  /**
+   * Returns the simple names of the packages and types directly under {@code prefix}, in the
+   * order they were first declared. The empty string is the root of every name.
+   */
+  public Set<String> getChildNames(String prefix) {
+    Node node = find(prefix);
+    if (node == null) return Collections.emptySet();
+    return Collections.unmodifiableSet(node.children.keySet());
+  }
+
+  /**
+   * Returns the type named {@code prefix}, if any, followed by every type nested under it in
+   * depth-first declaration order. Types are produced as the iteration advances, so a caller that
+   * stops early pays only for what it consumed.
+   */
+  public Iterable<Type> getTypesUnder(String prefix) {
+    final Node node = find(prefix);
+    return new Iterable<Type>() {
+      @Override public Iterator<Type> iterator() {
+        return new TypeIterator(node);
+      }
+    };
+  }
+
+  private Node find(String name) {
+    if (name.isEmpty()) return root;
+    Node node = root;
+    int start = 0;
+    for (int dot = name.indexOf('.'); dot != -1 && node != null; dot = name.indexOf('.', start)) {
+      node = node.children.get(name.substring(start, dot));
+      start = dot + 1;
+    }
+    return node != null ? node.children.get(name.substring(start)) : null;
+  }
+
+  private static final class Node {
+    final Map<String, Node> children = new LinkedHashMap<String, Node>();
+    Type type;
+
+    Node child(String segment) {
+      Node result = children.get(segment);
+      if (result == null) {
+        result = new Node();
+        children.put(segment, result);
+      }
+      return result;
+    }
+
+    void add(Type type) {
+      String fqname = type.getFullyQualifiedName();
+      Node node = child(fqname.substring(fqname.lastIndexOf('.') + 1));
+      if (node.type == null) {
+        node.type = type;
+      }
+      for (Type nestedType : type.getNestedTypes()) {
+        node.add(nestedType);
+      }
+    }
+  }
+
+  /** A depth-first walk that yields the type of each node that has one. */
+  private static final class TypeIterator implements Iterator<Type> {
+    private final Deque<Iterator<Node>> stack = new ArrayDeque<Iterator<Node>>();
+    private Type next;
+
+    TypeIterator(Node start) {
+      if (start != null) {
+        next = start.type;
+        stack.push(start.children.values().iterator());
+        if (next == null) advance();
+      }
+    }
+
+    private void advance() {
+      next = null;
+      while (next == null && !stack.isEmpty()) {
+        Iterator<Node> siblings = stack.peek();
+        if (!siblings.hasNext()) {
+          stack.pop();
+          continue;
+        }
+        Node node = siblings.next();
+        if (!node.children.isEmpty()) {
+          stack.push(node.children.values().iterator());
+        }
+        next = node.type;
+      }
+    }
+
+    @Override public boolean hasNext() {
+      return next != null;
+    }
+
+    @Override public Type next() {
+      if (next == null) throw new NoSuchElementException();
+      Type result = next;
+      advance();
+      return result;
+    }
+
+    @Override public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
@@ -7,7 +7,6 @@ import java.util.List;
 import java.util.Map;
 
 import static java.util.Collections.unmodifiableMap;
-import static com.squareup.protoparser.Utils.appendIndented;
 
 public final class Option {
   @SuppressWarnings("unchecked")
@@ -35,7 +34,10 @@ public final class Option {
       } else if (value instanceof Map) {
         Object oldValue = map.get(name);
         if (oldValue instanceof Map) {
-          ((Map<String, Object>) oldValue).putAll((Map<String, Object>) value);
+          // Never mutate a previous value, which may be shared with an option. Copy instead.
+          Map<String, Object> oldMap = new LinkedHashMap<String, Object>((Map) oldValue);
+          oldMap.putAll((Map<String, Object>) value);
+          map.put(name, oldMap);
         } else {
           map.put(name, value);
         }
@@ -95,28 +97,7 @@ public final class Option {
   }
 
   @Override public String toString() {
-    StringBuilder builder = new StringBuilder();
-    if (value instanceof Boolean) {
-      builder.append(name).append(" = ").append(value);
-    } else if (value instanceof String) {
-      String stringValue = (String) value;
-      builder.append(name).append(" = \"").append(escape(stringValue)).append('"');
-    } else if (value instanceof Option) {
-      Option optionValue = (Option) value;
-      builder.append('(').append(name).append(").").append(optionValue.toString());
-    } else if (value instanceof List) {
-      builder.append(name).append(" = [\n");
-      //noinspection unchecked
-      List<Option> optionList = (List<Option>) value;
-      for (int i = 0, count = optionList.size(); i < count; i++) {
-        String endl = (i < count - 1) ? "," : "";
-        appendIndented(builder, optionList.get(i).toString() + endl);
-      }
-      builder.append(']');
-    } else {
-      throw new IllegalStateException("Unknown value type " + value.getClass().getCanonicalName());
-    }
-    return builder.toString();
+    return ProtoWriter.toString(this);
   }
 
   public String toDeclaration() {
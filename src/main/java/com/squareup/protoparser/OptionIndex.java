@@ -0,0 +1,91 @@
+// Copyright 2014 Square, Inc.
+package com.squareup.protoparser;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable index of a declaration's options by name. Lookups follow the same rules as
+ * {@link Option#findByName}: a name declared more than once is an error when it is looked up.
+ */
+public final class OptionIndex {
+  /** Marks a name that is declared by more than one option. */
+  private static final Object DUPLICATE = new Object();
+
+  private static final OptionIndex EMPTY =
+      new OptionIndex(Collections.<Option>emptyList(), Collections.<String, Object>emptyMap());
+
+  /** Returns an index of {@code options}. */
+  public static OptionIndex of(List<Option> options) {
+    if (options == null) throw new NullPointerException("options");
+    if (options.isEmpty()) return EMPTY;
+
+    Map<String, Object> byName = new HashMap<String, Object>(options.size() * 2);
+    for (Option option : options) {
+      Object previous = byName.put(option.getName(), option);
+      if (previous != null) {
+        byName.put(option.getName(), DUPLICATE);
+      }
+    }
+    return new OptionIndex(options, byName);
+  }
+
+  private final List<Option> options;
+  private final Map<String, Object> byName;
+  private volatile Map<String, Object> map;
+
+  private OptionIndex(List<Option> options, Map<String, Object> byName) {
+    this.options = options;
+    this.byName = byName;
+  }
+
+  /** Returns the option named {@code name} or null. */
+  public Option get(String name) {
+    if (name == null) throw new NullPointerException("name");
+    Object result = byName.get(name);
+    if (result == DUPLICATE) {
+      throw new IllegalStateException("Multiple options match name: " + name);
+    }
+    return (Option) result;
+  }
+
+  /** Returns the value of the option named {@code name} or null. */
+  public Object getValue(String name) {
+    Option option = get(name);
+    return option != null ? option.getValue() : null;
+  }
+
+  /**
+   * Returns the string value of the option named {@code name} or null if it is absent.
+   *
+   * @throws IllegalStateException if the option's value is not a string.
+   */
+  public String getString(String name) {
+    Object value = getValue(name);
+    if (value != null && !(value instanceof String)) {
+      throw new IllegalStateException("Option " + name + " is not a string: " + value);
+    }
+    return (String) value;
+  }
+
+  /**
+   * Returns true if the option named {@code name} is present and set to true, either as a
+   * boolean or as the string {@code "true"}.
+   */
+  public boolean getBoolean(String name) {
+    Object value = getValue(name);
+    return Boolean.TRUE.equals(value) || "true".equals(value);
+  }
+
+  /** Returns the options as a map, as computed by {@link Option#optionsAsMap}. */
+  public Map<String, Object> asMap() {
+    Map<String, Object> result = map;
+    if (result == null) {
+      result = Option.optionsAsMap(options);
+      map = result;
+    }
+    return result;
+  }
+}
@@ -0,0 +1,231 @@
+// Copyright 2014 Square, Inc.
+package com.squareup.protoparser;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static com.squareup.protoparser.MessagePlan.FieldPlan;
+
+/**
+ * Decodes only selected fields of a message, possibly deep inside nested messages. Obtain
+ * instances from {@link DynamicDecoder#projection}.
+ *
+ * <p>Each projected path is a dot-separated list of field names starting at the root message type,
+ * like {@code customer.id}. Every path is assigned a column, numbered in the order the paths were
+ * given. Fields that no path passes through are skipped without being parsed, so the cost of
+ * decoding is mostly proportional to the size of the projected data. Values use the
+ * representation of {@link DynamicDecoder}; a path that ends at a message field yields the whole
+ * decoded message.
+ *
+ * <p>A projection is immutable and safe for use by multiple threads.
+ */
+public final class Projection {
+  /** Receives projected values as they are decoded. */
+  public interface Sink {
+    /**
+     * Called once for each value of the projected path numbered {@code column}. A repeated field,
+     * or a singular field that occurs more than once, produces several calls.
+     */
+    void value(int column, Object value);
+  }
+
+  static Projection compile(MessagePlan root, List<String> paths) {
+    Node rootNode = new Node(root);
+    boolean[] repeated = new boolean[paths.size()];
+    for (int column = 0; column < paths.size(); column++) {
+      String path = paths.get(column);
+      if (path == null) throw new NullPointerException("paths[" + column + "]");
+      Node node = rootNode;
+      int start = 0;
+      while (true) {
+        int dot = path.indexOf('.', start);
+        String name = dot == -1 ? path.substring(start) : path.substring(start, dot);
+        FieldPlan field = node.plan.byName.get(name);
+        if (field == null) {
+          throw new IllegalArgumentException("Unknown field " + name + " in "
+              + node.plan.type.getFullyQualifiedName() + " for path " + path);
+        }
+        repeated[column] |= field.repeated;
+        node.wanted[field.index] = true;
+        if (dot == -1) {
+          if (node.columns[field.index] != -1) {
+            throw new IllegalArgumentException("Duplicate path " + path);
+          }
+          node.columns[field.index] = column;
+          break;
+        }
+        if (field.kind != FieldKind.MESSAGE) {
+          throw new IllegalArgumentException(name + " is not a message field for path " + path);
+        }
+        if (node.children[field.index] == null) {
+          node.children[field.index] = new Node(field.messagePlan);
+        }
+        node = node.children[field.index];
+        start = dot + 1;
+      }
+    }
+    return new Projection(root, rootNode, new ArrayList<String>(paths), repeated);
+  }
+
+  private final MessagePlan root;
+  private final Node rootNode;
+  private final List<String> paths;
+  private final boolean[] repeated;
+
+  private Projection(MessagePlan root, Node rootNode, List<String> paths, boolean[] repeated) {
+    this.root = root;
+    this.rootNode = rootNode;
+    this.paths = paths;
+    this.repeated = repeated;
+  }
+
+  public MessageType getType() {
+    return root.type;
+  }
+
+  /** Returns the projected paths, indexed by column. */
+  public List<String> getPaths() {
+    return Collections.unmodifiableList(paths);
+  }
+
+  /**
+   * Decodes the projected fields of the remaining bytes of {@code data} into {@code sink}. The
+   * position of {@code data} is not changed.
+   *
+   * @throws IllegalArgumentException if the data is malformed.
+   */
+  public void decode(ByteBuffer data, Sink sink) {
+    if (data == null) throw new NullPointerException("data");
+    if (sink == null) throw new NullPointerException("sink");
+    decodeMessage(rootNode, new WireReader(data), 0, sink);
+  }
+
+  /**
+   * Decodes the projected fields of each of {@code messages} into a batch with one row per
+   * message.
+   *
+   * @throws IllegalArgumentException if the data is malformed.
+   */
+  public Batch decodeBatch(Iterable<ByteBuffer> messages) {
+    if (messages == null) throw new NullPointerException("messages");
+    Batch batch = new Batch(this);
+    for (ByteBuffer message : messages) {
+      batch.startRow();
+      decode(message, batch);
+    }
+    return batch;
+  }
+
+  private static void decodeMessage(Node node, WireReader reader, int depth, Sink sink) {
+    if (depth >= WireFormat.MAX_DEPTH) throw new IllegalArgumentException("Nesting too deep");
+    while (!reader.exhausted()) {
+      int key = reader.readKey();
+      FieldPlan field = node.plan.byTag.get(key >>> WireFormat.TAG_TYPE_BITS);
+      if (field == null || !node.wanted[field.index]) {
+        reader.skip(key, depth);
+        continue;
+      }
+
+      int wireType = key & WireFormat.TAG_TYPE_MASK;
+      int start = reader.position();
+      int column = node.columns[field.index];
+      Node child = node.children[field.index];
+      if (wireType == field.kind.wireType) {
+        if (column != -1) {
+          sink.value(column, DynamicDecoder.readValue(field, reader, depth, null));
+        }
+        if (child != null) {
+          reader.seek(start);
+          int limit = reader.pushLimit(reader.readLength());
+          decodeMessage(child, reader, depth + 1, sink);
+          reader.popLimit(limit);
+        }
+      } else if (wireType == WireFormat.LENGTH_DELIMITED && field.repeated
+          && field.kind.isPackable()) {
+        int limit = reader.pushLimit(reader.readLength());
+        while (!reader.exhausted()) {
+          sink.value(column, DynamicDecoder.readValue(field, reader, depth, null));
+        }
+        reader.popLimit(limit);
+      } else {
+        reader.skip(key, depth);
+      }
+    }
+  }
+
+  /** The projected fields of one message type, indexed like {@link MessagePlan#fields}. */
+  private static final class Node {
+    final MessagePlan plan;
+    /** True for fields that a projected path ends at or passes through. */
+    final boolean[] wanted;
+    /** The column of the path ending at each field, or -1. */
+    final int[] columns;
+    /** The projected fields within each message field that a path passes through, or null. */
+    final Node[] children;
+
+    Node(MessagePlan plan) {
+      this.plan = plan;
+      this.wanted = new boolean[plan.fields.length];
+      this.columns = new int[plan.fields.length];
+      Arrays.fill(columns, -1);
+      this.children = new Node[plan.fields.length];
+    }
+  }
+
+  /**
+   * Projected values in columns, with one row per decoded message. A cell of a path that passes
+   * through or ends at a repeated field holds a list of all of its values, which is empty if there
+   * are none. Any other cell holds the path's last value, or null if it is absent.
+   */
+  public static final class Batch implements Sink {
+    private final List<String> paths;
+    private final boolean[] repeated;
+    private final List<List<Object>> columns;
+    private int rowCount;
+
+    private Batch(Projection projection) {
+      this.paths = projection.paths;
+      this.repeated = projection.repeated;
+      this.columns = new ArrayList<List<Object>>(paths.size());
+      for (int i = 0; i < paths.size(); i++) {
+        columns.add(new ArrayList<Object>());
+      }
+    }
+
+    private void startRow() {
+      for (int column = 0; column < columns.size(); column++) {
+        columns.get(column).add(repeated[column] ? new ArrayList<Object>() : null);
+      }
+      rowCount++;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override public void value(int column, Object value) {
+      List<Object> cells = columns.get(column);
+      if (repeated[column]) {
+        ((List<Object>) cells.get(rowCount - 1)).add(value);
+      } else {
+        cells.set(rowCount - 1, value);
+      }
+    }
+
+    public int getRowCount() {
+      return rowCount;
+    }
+
+    /** Returns the cells of the path numbered {@code column}, one per row. */
+    public List<Object> getColumn(int column) {
+      return Collections.unmodifiableList(columns.get(column));
+    }
+
+    /** Returns the cells of {@code path}, one per row. */
+    public List<Object> getColumn(String path) {
+      int column = paths.indexOf(path);
+      if (column == -1) throw new IllegalArgumentException("Unknown path " + path);
+      return getColumn(column);
+    }
+  }
+}
@@ -26,6 +26,7 @@ public final class ProtoFile {
   private final List<Type> types;
   private final List<Service> services;
   private final List<Option> options;
+  private final Lookups<Void> lookups;
   private final List<ExtendDeclaration> extendDeclarations;
 
   public ProtoFile(String fileName, String packageName, List<String> dependencies,
@@ -46,6 +47,7 @@ public final class ProtoFile {
     this.types = unmodifiableList(new ArrayList<Type>(types));
     this.services = unmodifiableList(new ArrayList<Service>(services));
     this.options = unmodifiableList(new ArrayList<Option>(options));
+    this.lookups = Lookups.of(this.options);
     this.extendDeclarations =
         unmodifiableList(new ArrayList<ExtendDeclaration>(extendDeclarations));
   }
@@ -78,6 +80,11 @@ public final class ProtoFile {
     return options;
   }
 
+  /** Returns an index of this declaration's options by name. */
+  public OptionIndex getOptionIndex() {
+    return lookups.optionIndex();
+  }
+
   public List<ExtendDeclaration> getExtendDeclarations() {
     return extendDeclarations;
   }
@@ -110,46 +117,6 @@ public final class ProtoFile {
   }
 
   @Override public String toString() {
-    StringBuilder builder = new StringBuilder();
-    if (!fileName.isEmpty()) {
-      builder.append("// ").append(fileName).append('\n');
-    }
-    if (packageName != null) {
-      builder.append("package ").append(packageName).append(";\n");
-    }
-    if (!dependencies.isEmpty() || !publicDependencies.isEmpty()) {
-      builder.append('\n');
-      for (String dependency : dependencies) {
-        builder.append("import \"").append(dependency).append("\";\n");
-      }
-      for (String publicDependency : publicDependencies) {
-        builder.append("import public \"").append(publicDependency).append("\";\n");
-      }
-    }
-    if (!options.isEmpty()) {
-      builder.append('\n');
-      for (Option option : options) {
-        builder.append(option.toDeclaration());
-      }
-    }
-    if (!types.isEmpty()) {
-      builder.append('\n');
-      for (Type type : types) {
-        builder.append(type);
-      }
-    }
-    if (!extendDeclarations.isEmpty()) {
-      builder.append('\n');
-      for (ExtendDeclaration extendDeclaration : extendDeclarations) {
-        builder.append(extendDeclaration);
-      }
-    }
-    if (!services.isEmpty()) {
-      builder.append('\n');
-      for (Service service : services) {
-        builder.append(service);
-      }
-    }
-    return builder.toString();
+    return ProtoWriter.toString(this);
   }
 }
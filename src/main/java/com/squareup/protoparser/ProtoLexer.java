@@ -0,0 +1,364 @@
+// Copyright 2013 Square, Inc.
+package com.squareup.protoparser;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Reads the tokens shared by {@code .proto} schemas and the protocol buffers text format:
+ * punctuation, words, names, quoted strings with C-style escapes, and comments. Errors are
+ * reported with the line and column where they occur.
+ */
+final class ProtoLexer {
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  /** The path to the document, for error messages. */
+  private final String fileName;
+
+  /** The entire document. */
+  private final char[] data;
+
+  /** True to also treat '#' as the start of a comment that runs to the end of the line. */
+  private final boolean hashComments;
+
+  /** Our cursor within the document. {@code data[pos]} is the next character to be read. */
+  private int pos;
+
+  /** The number of newline characters encountered thus far. */
+  private int line;
+
+  /** The index of the most recent newline character. */
+  private int lineStart;
+
+  ProtoLexer(String fileName, char[] data, boolean hashComments) {
+    this.fileName = fileName;
+    this.data = data;
+    this.hashComments = hashComments;
+  }
+
+  /** True if every character has been read. This doesn't skip whitespace or comments. */
+  boolean exhausted() {
+    return pos == data.length;
+  }
+
+  /** Skips whitespace and comments, and returns true if that leaves nothing to read. */
+  boolean atEnd() {
+    skipWhitespace(true);
+    return pos == data.length;
+  }
+
+  /** Reads a non-whitespace character and returns it. */
+  char readChar() {
+    char result = peekChar();
+    pos++;
+    return result;
+  }
+
+  /**
+   * Peeks a non-whitespace character and returns it. The only difference
+   * between this and {@code readChar} is that this doesn't consume the char.
+   */
+  char peekChar() {
+    skipWhitespace(true);
+    if (pos == data.length) throw unexpected("unexpected end of file");
+    return data[pos];
+  }
+
+  /** Reads a quoted or unquoted string and returns it. */
+  String readString() {
+    skipWhitespace(true);
+    return peekChar() == '"' ? readQuotedString() : readWord();
+  }
+
+  String readQuotedString() {
+    if (readChar() != '"') throw new AssertionError();
+    StringBuilder result = new StringBuilder();
+    while (pos < data.length) {
+      char c = data[pos++];
+      if (c == '"') return result.toString();
+
+      if (c == '\\') {
+        c = readEscape();
+      }
+
+      result.append(c);
+      if (c == '\n') newline();
+    }
+    throw unexpected("unterminated string");
+  }
+
+  /**
+   * Reads a quoted string whose numeric escapes are bytes rather than characters, as in the
+   * protocol buffers text format. Unescaped characters are encoded as UTF-8.
+   */
+  byte[] readQuotedBytes() {
+    if (readChar() != '"') throw new AssertionError();
+    ByteArrayOutputStream result = new ByteArrayOutputStream();
+    StringBuilder literal = new StringBuilder();
+    while (pos < data.length) {
+      char c = data[pos++];
+      if (c == '"') {
+        writeUtf8(literal, result);
+        return result.toByteArray();
+      }
+
+      if (c == '\\') {
+        writeUtf8(literal, result);
+        result.write(readEscape());
+      } else {
+        literal.append(c);
+        if (c == '\n') newline();
+      }
+    }
+    throw unexpected("unterminated string");
+  }
+
+  private static void writeUtf8(StringBuilder literal, ByteArrayOutputStream out) {
+    if (literal.length() == 0) return;
+    byte[] utf8 = literal.toString().getBytes(UTF_8);
+    out.write(utf8, 0, utf8.length);
+    literal.setLength(0);
+  }
+
+  /** Reads the escape sequence following a backslash and returns the character it encodes. */
+  private char readEscape() {
+    if (pos == data.length) throw unexpected("unexpected end of file");
+    char c = data[pos++];
+    switch (c) {
+      case 'a': return 0x7;
+      case 'b': return '\b';
+      case 'f': return '\f';
+      case 'n': return '\n';
+      case 'r': return '\r';
+      case 't': return '\t';
+      case 'v': return 0xb;
+      case 'x':case 'X':
+        return readNumericEscape(16, 2);
+      case '0':case '1':case '2':case '3':case '4':case '5':case '6':case '7':
+        --pos;
+        return readNumericEscape(8, 3);
+      default:
+        // use char as-is
+        return c;
+    }
+  }
+
+  private char readNumericEscape(int radix, int len) {
+    int value = -1;
+    for (int endPos = Math.min(pos + len, data.length); pos < endPos; pos++) {
+      int digit = hexDigit(data[pos]);
+      if (digit == -1 || digit >= radix) break;
+      if (value < 0) {
+        value = digit;
+      } else {
+        value = value * radix + digit;
+      }
+    }
+    if (value < 0) throw unexpected("expected a digit after \\x or \\X");
+    return (char) value;
+  }
+
+  private int hexDigit(char c) {
+    if (c >= '0' && c <= '9') return c - '0';
+    else if (c >= 'a' && c <= 'f') return c - 'a' + 10;
+    else if (c >= 'A' && c <= 'F') return c - 'A' + 10;
+    else return -1;
+  }
+
+  /** Reads a (paren-wrapped), [square-wrapped] or naked symbol name. */
+  String readName() {
+    String optionName;
+    char c = peekChar();
+    if (c == '(') {
+      pos++;
+      optionName = readWord();
+      if (readChar() != ')') throw unexpected("expected ')'");
+    } else if (c == '[') {
+      pos++;
+      optionName = readWord();
+      if (readChar() != ']') throw unexpected("expected ']'");
+    } else {
+      optionName = readWord();
+    }
+    return optionName;
+  }
+
+  /** Reads a non-empty word and returns it. */
+  String readWord() {
+    skipWhitespace(true);
+    int start = pos;
+    while (pos < data.length) {
+      char c = data[pos];
+      if ((c >= 'a' && c <= 'z')
+          || (c >= 'A' && c <= 'Z')
+          || (c >= '0' && c <= '9')
+          || (c == '_')
+          || (c == '-')
+          || (c == '.')) {
+        pos++;
+      } else {
+        break;
+      }
+    }
+    if (start == pos) throw unexpected("expected a word");
+    return new String(data, start, pos - start);
+  }
+
+  /**
+   * Reads a numeric literal like {@code -12}, {@code 0x1f}, {@code 1.5e+3f} or {@code inf} and
+   * returns it. This is a word that may also have a sign after the exponent marker of a decimal
+   * number.
+   */
+  String readNumber() {
+    skipWhitespace(true);
+    int start = pos;
+    boolean hex = false;
+    while (pos < data.length) {
+      char c = data[pos];
+      if ((c == '+' || c == '-') && pos > start && !hex
+          && (data[pos - 1] == 'e' || data[pos - 1] == 'E')
+          && isDecimalStart(data[start])) {
+        pos++;
+      } else if ((c >= 'a' && c <= 'z')
+          || (c >= 'A' && c <= 'Z')
+          || (c >= '0' && c <= '9')
+          || (c == '_')
+          || (c == '-' && pos == start)
+          || (c == '.')) {
+        if ((c == 'x' || c == 'X') && pos > start && data[pos - 1] == '0') hex = true;
+        pos++;
+      } else {
+        break;
+      }
+    }
+    if (start == pos) throw unexpected("expected a number");
+    return new String(data, start, pos - start);
+  }
+
+  private static boolean isDecimalStart(char c) {
+    return (c >= '0' && c <= '9') || c == '.' || c == '-';
+  }
+
+  /** Reads an integer and returns it. */
+  int readInt() {
+    String tag = readWord();
+    try {
+      int radix = 10;
+      if (tag.startsWith("0x")) {
+        tag = tag.substring("0x".length());
+        radix = 16;
+      }
+      return Integer.valueOf(tag, radix);
+    } catch (Exception e) {
+      throw unexpected("expected an integer but was " + tag);
+    }
+  }
+
+  /**
+   * Like {@link #skipWhitespace}, but this returns a string containing all
+   * comment text. By convention, comments before a declaration document that
+   * declaration.
+   */
+  String readDocumentation() {
+    String result = null;
+    while (true) {
+      skipWhitespace(false);
+      if (pos == data.length || data[pos] != '/') {
+        return result != null ? result : "";
+      }
+      String comment = readComment();
+      result = (result == null) ? comment : (result + "\n" + comment);
+    }
+  }
+
+  /** Reads a comment and returns its body. */
+  private String readComment() {
+    if (pos == data.length || data[pos] != '/') throw new AssertionError();
+    pos++;
+    int commentType = pos < data.length ? data[pos++] : -1;
+    if (commentType == '*') {
+      StringBuilder result = new StringBuilder();
+      boolean startOfLine = true;
+
+      for (; pos + 1 < data.length; pos++) {
+        char c = data[pos];
+        if (c == '*' && data[pos + 1] == '/') {
+          pos += 2;
+          return result.toString().trim();
+        }
+        if (c == '\n') {
+          result.append('\n');
+          newline();
+          startOfLine = true;
+        } else if (!startOfLine) {
+          result.append(c);
+        } else if (c == '*') {
+          if (data[pos + 1] == ' ') {
+            pos += 1; // Skip a single leading space, if present.
+          }
+          startOfLine = false;
+        } else if (!Character.isWhitespace(c)) {
+          result.append(c);
+          startOfLine = false;
+        }
+      }
+      throw unexpected("unterminated comment");
+    } else if (commentType == '/') {
+      if (pos < data.length && data[pos] == ' ') {
+        pos += 1; // Skip a single leading space, if present.
+      }
+      int start = pos;
+      while (pos < data.length) {
+        char c = data[pos++];
+        if (c == '\n') {
+          newline();
+          break;
+        }
+      }
+      return new String(data, start, pos - 1 - start);
+    } else {
+      throw unexpected("unexpected '/'");
+    }
+  }
+
+  /**
+   * Skips whitespace characters and optionally comments. When this returns,
+   * either {@code pos == data.length} or a non-whitespace character.
+   */
+  private void skipWhitespace(boolean skipComments) {
+    while (pos < data.length) {
+      char c = data[pos];
+      if (c == ' ' || c == '\t' || c == '\r' || c == '\n') {
+        pos++;
+        if (c == '\n') newline();
+      } else if (skipComments && c == '/') {
+        readComment();
+      } else if (skipComments && hashComments && c == '#') {
+        while (pos < data.length && data[pos] != '\n') {
+          pos++;
+        }
+      } else {
+        break;
+      }
+    }
+  }
+
+  /** Call this every time a '\n' is encountered. */
+  private void newline() {
+    line++;
+    lineStart = pos;
+  }
+
+  private int column() {
+    return pos - lineStart + 1;
+  }
+
+  private int line() {
+    return line + 1;
+  }
+
+  RuntimeException unexpected(String message) {
+    throw new IllegalStateException(
+        String.format("Syntax error in %s at %d:%d: %s", fileName, line(), column(), message));
+  }
+}
@@ -42,26 +42,52 @@ public final class ProtoSchemaParser {
     return new ProtoSchemaParser(name, data.toCharArray()).readProtoFile();
   }
 
-  /** The path to the {@code .proto} file. */
-  private final String fileName;
+  /**
+   * Parse a trusted {@code .proto} definition file without validating tags and enum names. Use
+   * {@link SchemaValidator} to check the result later, if necessary.
+   */
+  public static ProtoFile parseUnvalidated(File file) throws IOException {
+    return new ProtoSchemaParser(file.getName(), fileToCharArray(file), false).readProtoFile();
+  }
+
+  /**
+   * Parse a trusted, named {@code .proto} schema without validating tags and enum names. The
+   * {@code InputStream} is not closed.
+   */
+  public static ProtoFile parseUnvalidatedUtf8(String name, InputStream is) throws IOException {
+    return new ProtoSchemaParser(name, streamToCharArray(is), false).readProtoFile();
+  }
+
+  /**
+   * Parse a trusted, named {@code .proto} schema without validating tags and enum names. The
+   * {@code Reader} is not closed.
+   */
+  public static ProtoFile parseUnvalidated(String name, Reader reader) throws IOException {
+    return new ProtoSchemaParser(name, readerToCharArray(reader), false).readProtoFile();
+  }
 
-  /** The entire document. */
-  private final char[] data;
+  /** Parse a trusted, named {@code .proto} schema without validating tags and enum names. */
+  public static ProtoFile parseUnvalidated(String name, String data) {
+    return new ProtoSchemaParser(name, data.toCharArray(), false).readProtoFile();
+  }
 
-  /** Our cursor within the document. {@code data[pos]} is the next character to be read. */
-  private int pos;
+  /** The path to the {@code .proto} file. */
+  private final String fileName;
 
-  /** The number of newline characters encountered thus far. */
-  private int line;
+  /** Reads the characters of the document. */
+  private final ProtoLexer lexer;
 
-  /** The index of the most recent newline character. */
-  private int lineStart;
+  /** True to validate tags and enum names as declarations are read. */
+  private final boolean validate;
 
   /** Output package name, or null if none yet encountered. */
   private String packageName;
 
-  /** The current package name + nested type names, separated by dots. */
-  private String prefix = "";
+  /** The package name, or null if none yet encountered. */
+  private QualifiedName packageScope;
+
+  /** The current package name + nested type names, or null at the top level of no package. */
+  private QualifiedName scope;
 
   /** Imported files. */
   private final List<String> dependencies = new ArrayList<String>();
@@ -82,8 +108,13 @@ public final class ProtoSchemaParser {
   private final List<Option> options = new ArrayList<Option>();
 
   ProtoSchemaParser(String fileName, char[] data) {
+    this(fileName, data, true);
+  }
+
+  ProtoSchemaParser(String fileName, char[] data, boolean validate) {
     this.fileName = fileName;
-    this.data = data;
+    this.lexer = new ProtoLexer(fileName, data, false);
+    this.validate = validate;
   }
 
   private static char[] fileToCharArray(File file) throws IOException {
@@ -99,7 +130,7 @@ public final class ProtoSchemaParser {
     return readerToCharArray(new InputStreamReader(is, "UTF-8"));
   }
 
-  private static char[] readerToCharArray(Reader reader) throws IOException {
+  static char[] readerToCharArray(Reader reader) throws IOException {
     CharArrayWriter writer = new CharArrayWriter();
     char[] buffer = new char[1024];
     int count;
@@ -111,8 +142,8 @@ public final class ProtoSchemaParser {
 
   ProtoFile readProtoFile() {
     while (true) {
-      String documentation = readDocumentation();
-      if (pos == data.length) {
+      String documentation = lexer.readDocumentation();
+      if (lexer.exhausted()) {
         return new ProtoFile(fileName, packageName, dependencies, publicDependencies, types,
             services, options, extendDeclarations);
       }
@@ -131,33 +162,34 @@ public final class ProtoSchemaParser {
 
   private Object readDeclaration(String documentation, Context context) {
     // Skip unnecessary semicolons, occasionally used after a nested message declaration.
-    if (peekChar() == ';') {
-      pos++;
+    if (lexer.peekChar() == ';') {
+      lexer.readChar();
       return null;
     }
 
-    String label = readWord();
+    String label = lexer.readWord();
 
     if (label.equals("package")) {
-      if (!context.permitsPackage()) throw unexpected("package in " + context);
-      if (packageName != null) throw unexpected("too many package names");
-      packageName = readName();
-      prefix = packageName + ".";
-      if (readChar() != ';') throw unexpected("expected ';'");
+      if (!context.permitsPackage()) throw lexer.unexpected("package in " + context);
+      if (packageName != null) throw lexer.unexpected("too many package names");
+      packageName = lexer.readName();
+      packageScope = QualifiedName.parse(packageName);
+      scope = packageScope;
+      if (lexer.readChar() != ';') throw lexer.unexpected("expected ';'");
       return null;
     } else if (label.equals("import")) {
-      if (!context.permitsImport()) throw unexpected("import in " + context);
-      String importString = readString();
+      if (!context.permitsImport()) throw lexer.unexpected("import in " + context);
+      String importString = lexer.readString();
       if ("public".equals(importString)) {
-        publicDependencies.add(readString());
+        publicDependencies.add(lexer.readString());
       } else {
         dependencies.add(importString);
       }
-      if (readChar() != ';') throw unexpected("expected ';'");
+      if (lexer.readChar() != ';') throw lexer.unexpected("expected ';'");
       return null;
     } else if (label.equals("option")) {
       Option result = readOption('=');
-      if (readChar() != ';') throw unexpected("expected ';'");
+      if (lexer.readChar() != ';') throw lexer.unexpected("expected ';'");
       return result;
     } else if (label.equals("message")) {
       return readMessage(documentation);
@@ -168,53 +200,54 @@ public final class ProtoSchemaParser {
     } else if (label.equals("extend")) {
       return readExtend(documentation);
     } else if (label.equals("rpc")) {
-      if (!context.permitsRpc()) throw unexpected("rpc in " + context);
+      if (!context.permitsRpc()) throw lexer.unexpected("rpc in " + context);
       return readRpc(documentation);
     } else if (label.equals("required") || label.equals("optional") || label.equals("repeated")) {
-      if (!context.permitsField()) throw unexpected("fields must be nested");
+      if (!context.permitsField()) throw lexer.unexpected("fields must be nested");
       return readField(documentation, label);
     } else if (label.equals("extensions")) {
-      if (!context.permitsExtensions()) throw unexpected("extensions must be nested");
+      if (!context.permitsExtensions()) throw lexer.unexpected("extensions must be nested");
       return readExtensions(documentation);
     } else if (context == Context.ENUM) {
       List<Option> options = new ArrayList<Option>();
 
-      if (readChar() != '=') throw unexpected("expected '='");
-      int tag = readInt();
-      if (peekChar() == '[') {
-        readChar();
+      if (lexer.readChar() != '=') throw lexer.unexpected("expected '='");
+      int tag = lexer.readInt();
+      if (lexer.peekChar() == '[') {
+        lexer.readChar();
         while (true) {
           options.add(readOption('='));
-          char c = readChar();
+          char c = lexer.readChar();
           if (c == ']') {
             break;
           }
           if (c != ',') {
-            throw unexpected("Expected ',' or ']");
+            throw lexer.unexpected("Expected ',' or ']");
           }
         }
       }
-      if (readChar() != ';') throw unexpected("expected ';'");
+      if (lexer.readChar() != ';') throw lexer.unexpected("expected ';'");
       return new EnumType.Value(label, tag, documentation, options);
     } else {
-      throw unexpected("unexpected label: " + label);
+      throw lexer.unexpected("unexpected label: " + label);
     }
   }
 
   /** Reads a message declaration. */
   private MessageType readMessage(String documentation) {
-    String previousPrefix = prefix;
-    String name = readName();
-    prefix = prefix + name + ".";
+    QualifiedName previousScope = scope;
+    String name = lexer.readName();
+    QualifiedName fqname = QualifiedName.of(scope, name);
+    scope = fqname;
     List<MessageType.Field> fields = new ArrayList<MessageType.Field>();
     List<Type> nestedTypes = new ArrayList<Type>();
     List<Extensions> extensions = new ArrayList<Extensions>();
     List<Option> options = new ArrayList<Option>();
-    if (readChar() != '{') throw unexpected("expected '{'");
+    if (lexer.readChar() != '{') throw lexer.unexpected("expected '{'");
     while (true) {
-      String nestedDocumentation = readDocumentation();
-      if (peekChar() == '}') {
-        pos++;
+      String nestedDocumentation = lexer.readDocumentation();
+      if (lexer.peekChar() == '}') {
+        lexer.readChar();
         break;
       }
       Object declared = readDeclaration(nestedDocumentation, Context.MESSAGE);
@@ -231,20 +264,20 @@ public final class ProtoSchemaParser {
         extendDeclarations.add((ExtendDeclaration) declared);
       }
     }
-    prefix = previousPrefix;
-    return new MessageType(name, prefix + name, documentation, fields, nestedTypes, extensions,
-        options);
+    scope = previousScope;
+    return new MessageType(name, fqname, documentation, fields, nestedTypes, extensions, options,
+        validate);
   }
 
   /** Reads an extend declaration. */
   private ExtendDeclaration readExtend(String documentation) {
-    String name = readName();
+    String name = lexer.readName();
     List<MessageType.Field> fields = new ArrayList<MessageType.Field>();
-    if (readChar() != '{') throw unexpected("expected '{'");
+    if (lexer.readChar() != '{') throw lexer.unexpected("expected '{'");
     while (true) {
-      String nestedDocumentation = readDocumentation();
-      if (peekChar() == '}') {
-        pos++;
+      String nestedDocumentation = lexer.readDocumentation();
+      if (lexer.peekChar() == '}') {
+        lexer.readChar();
         break;
       }
       Object declared = readDeclaration(nestedDocumentation, Context.EXTEND);
@@ -252,23 +285,23 @@ public final class ProtoSchemaParser {
         fields.add((MessageType.Field) declared);
       }
     }
-    String fqname = name;
-    if (!name.contains(".") && packageName != null) {
-      fqname = packageName + "." + name;
-    }
-    return new ExtendDeclaration(name, fqname, documentation, fields);
+    QualifiedName fqname = name.indexOf('.') != -1
+        ? QualifiedName.parse(name)
+        : QualifiedName.of(packageScope, name);
+    QualifiedName extendScope = scope != packageScope ? scope : null;
+    return new ExtendDeclaration(name, fqname, extendScope, documentation, fields, validate);
   }
 
   /** Reads a service declaration and returns it. */
   private Service readService(String documentation) {
-    String name = readName();
+    String name = lexer.readName();
     List<Option> options = new ArrayList<Option>();
     List<Service.Method> methods = new ArrayList<Service.Method>();
-    if (readChar() != '{') throw unexpected("expected '{'");
+    if (lexer.readChar() != '{') throw lexer.unexpected("expected '{'");
     while (true) {
-      String methodDocumentation = readDocumentation();
-      if (peekChar() == '}') {
-        pos++;
+      String methodDocumentation = lexer.readDocumentation();
+      if (lexer.peekChar() == '}') {
+        lexer.readChar();
         break;
       }
       Object declared = readDeclaration(methodDocumentation, Context.SERVICE);
@@ -278,19 +311,19 @@ public final class ProtoSchemaParser {
         options.add((Option) declared);
       }
     }
-    return new Service(name, prefix + name, documentation, options, methods);
+    return new Service(name, QualifiedName.of(scope, name), documentation, options, methods);
   }
 
   /** Reads an enumerated type declaration and returns it. */
   private EnumType readEnumType(String documentation) {
-    String name = readName();
+    String name = lexer.readName();
     List<Option> options = new ArrayList<Option>();
     List<EnumType.Value> values = new ArrayList<EnumType.Value>();
-    if (readChar() != '{') throw unexpected("expected '{'");
+    if (lexer.readChar() != '{') throw lexer.unexpected("expected '{'");
     while (true) {
-      String valueDocumentation = readDocumentation();
-      if (peekChar() == '}') {
-        pos++;
+      String valueDocumentation = lexer.readDocumentation();
+      if (lexer.peekChar() == '}') {
+        lexer.readChar();
         break;
       }
       Object declared = readDeclaration(valueDocumentation, Context.ENUM);
@@ -300,72 +333,73 @@ public final class ProtoSchemaParser {
         options.add((Option) declared);
       }
     }
-    return new EnumType(name, prefix + name, documentation, options, values);
+    return new EnumType(name, QualifiedName.of(scope, name), documentation, options, values,
+        validate);
   }
 
   /** Reads an field declaration and returns it. */
   private MessageType.Field readField(String documentation, String label) {
     MessageType.Label labelEnum = MessageType.Label.valueOf(label.toUpperCase(Locale.US));
-    String type = readName();
-    String name = readName();
-    if (readChar() != '=') throw unexpected("expected '='");
-    int tag = readInt();
+    String type = lexer.readName();
+    String name = lexer.readName();
+    if (lexer.readChar() != '=') throw lexer.unexpected("expected '='");
+    int tag = lexer.readInt();
     List<Option> options = new ArrayList<Option>();
 
-    if (peekChar() == '[') {
-      pos++;
+    if (lexer.peekChar() == '[') {
+      lexer.readChar();
       while (true) {
         options.add(readOption('='));
 
         // Check for optional ',' or closing ']'
-        char c = peekChar();
+        char c = lexer.peekChar();
         if (c == ']') {
-          pos++;
+          lexer.readChar();
           break;
         } else if (c == ',') {
-          pos++;
+          lexer.readChar();
         }
       }
     }
-    if (readChar() == ';') {
-      return new MessageType.Field(labelEnum, type, name, tag, documentation, options);
+    if (lexer.readChar() == ';') {
+      return new MessageType.Field(labelEnum, type, name, tag, documentation, options, validate);
     }
-    throw unexpected("expected ';'");
+    throw lexer.unexpected("expected ';'");
   }
 
   /** Reads extensions like "extensions 101;" or "extensions 101 to max;". */
   private Extensions readExtensions(String documentation) {
-    int start = readInt(); // Range start.
+    int start = lexer.readInt(); // Range start.
     int end = start;
-    if (peekChar() != ';') {
-      if (!"to".equals(readWord())) throw unexpected("expected ';' or 'to'");
-      String s = readWord(); // Range end.
+    if (lexer.peekChar() != ';') {
+      if (!"to".equals(lexer.readWord())) throw lexer.unexpected("expected ';' or 'to'");
+      String s = lexer.readWord(); // Range end.
       if (s.equals("max")) {
         end = ProtoFile.MAX_TAG_VALUE;
       } else {
         end = Integer.parseInt(s);
       }
     }
-    if (readChar() != ';') throw unexpected("expected ';'");
+    if (lexer.readChar() != ';') throw lexer.unexpected("expected ';'");
     return new Extensions(documentation, start, end);
   }
 
   /** Reads a option containing a name, an '=' or ':', and a value. */
   private Option readOption(char keyValueSeparator) {
-    boolean isExtension = (peekChar() == '[');
-    String name = readName(); // Option name.
+    boolean isExtension = (lexer.peekChar() == '[');
+    String name = lexer.readName(); // Option name.
     if (isExtension) {
       name = "[" + name + "]";
     }
     String subName = null;
-    char c = readChar();
+    char c = lexer.readChar();
     if (c == '.') {
       // Read nested field name. For example "baz" in "(foo.bar).baz = 12".
-      subName = readName();
-      c = readChar();
+      subName = lexer.readName();
+      c = lexer.readChar();
     }
     if (c != keyValueSeparator) {
-      throw unexpected("expected '" + keyValueSeparator + "' in option");
+      throw lexer.unexpected("expected '" + keyValueSeparator + "' in option");
     }
     Object value = readValue();
     return new Option(name, subName != null ? new Option(subName, value) : value);
@@ -373,13 +407,13 @@ public final class ProtoSchemaParser {
 
   /** Reads a value that can be a map, list or string. */
   private Object readValue() {
-    switch (peekChar()) {
+    switch (lexer.peekChar()) {
       case '{':
         return readMap('{', '}', ':');
       case '[':
         return readList();
       default:
-        return readString();
+        return lexer.readString();
     }
   }
 
@@ -390,12 +424,12 @@ public final class ProtoSchemaParser {
    */
   @SuppressWarnings("unchecked")
   private Map<String, Object> readMap(char openBrace, char closeBrace, char keyValueSeparator) {
-    if (readChar() != openBrace) throw new AssertionError();
+    if (lexer.readChar() != openBrace) throw new AssertionError();
     Map<String, Object> result = new LinkedHashMap<String, Object>();
     while (true) {
-      if (peekChar() == closeBrace) {
+      if (lexer.peekChar() == closeBrace) {
         // If we see the close brace, finish immediately. This handles {}/[] and ,}/,] cases.
-        pos++;
+        lexer.readChar();
         return result;
       }
 
@@ -428,8 +462,8 @@ public final class ProtoSchemaParser {
       }
 
       // ',' separator is optional, skip if present
-      if (peekChar() == ',') {
-        pos++;
+      if (lexer.peekChar() == ',') {
+        lexer.readChar();
       }
     }
   }
@@ -450,47 +484,47 @@ public final class ProtoSchemaParser {
    * surrounding the list and ',' separating values.
    */
   private List<Object> readList() {
-    if (readChar() != '[') throw new AssertionError();
+    if (lexer.readChar() != '[') throw new AssertionError();
     List<Object> result = new ArrayList<Object>();
     while (true) {
-      if (peekChar() == ']') {
+      if (lexer.peekChar() == ']') {
         // If we see the close brace, finish immediately. This handles [] and ,] cases.
-        pos++;
+        lexer.readChar();
         return result;
       }
 
       result.add(readValue());
 
-      char c = peekChar();
+      char c = lexer.peekChar();
       if (c == ',') {
-        pos++;
+        lexer.readChar();
       } else if (c != ']') {
-        throw unexpected("expected ',' or ']'");
+        throw lexer.unexpected("expected ',' or ']'");
       }
     }
   }
 
   /** Reads an rpc method and returns it. */
   private Service.Method readRpc(String documentation) {
-    String name = readName();
+    String name = lexer.readName();
 
-    if (readChar() != '(') throw unexpected("expected '('");
-    String requestType = readName();
-    if (readChar() != ')') throw unexpected("expected ')'");
+    if (lexer.readChar() != '(') throw lexer.unexpected("expected '('");
+    String requestType = lexer.readName();
+    if (lexer.readChar() != ')') throw lexer.unexpected("expected ')'");
 
-    if (!readWord().equals("returns")) throw unexpected("expected 'returns'");
+    if (!lexer.readWord().equals("returns")) throw lexer.unexpected("expected 'returns'");
 
-    if (readChar() != '(') throw unexpected("expected '('");
-    String responseType = readName();
-    if (readChar() != ')') throw unexpected("expected ')'");
+    if (lexer.readChar() != '(') throw lexer.unexpected("expected '('");
+    String responseType = lexer.readName();
+    if (lexer.readChar() != ')') throw lexer.unexpected("expected ')'");
 
     List<Option> options = new ArrayList<Option>();
-    if (peekChar() == '{') {
-      pos++;
+    if (lexer.peekChar() == '{') {
+      lexer.readChar();
       while (true) {
-        String methodDocumentation = readDocumentation();
-        if (peekChar() == '}') {
-          pos++;
+        String methodDocumentation = lexer.readDocumentation();
+        if (lexer.peekChar() == '}') {
+          lexer.readChar();
           break;
         }
         Object declared = readDeclaration(methodDocumentation, Context.RPC);
@@ -498,251 +532,11 @@ public final class ProtoSchemaParser {
           options.add((Option) declared);
         }
       }
-    } else if (readChar() != ';') throw unexpected("expected ';'");
+    } else if (lexer.readChar() != ';') throw lexer.unexpected("expected ';'");
 
     return new Service.Method(name, documentation, requestType, responseType, options);
   }
 
-  /** Reads a non-whitespace character and returns it. */
-  private char readChar() {
-    char result = peekChar();
-    pos++;
-    return result;
-  }
-
-  /**
-   * Peeks a non-whitespace character and returns it. The only difference
-   * between this and {@code readChar} is that this doesn't consume the char.
-   */
-  private char peekChar() {
-    skipWhitespace(true);
-    if (pos == data.length) throw unexpected("unexpected end of file");
-    return data[pos];
-  }
-
-  /** Reads a quoted or unquoted string and returns it. */
-  private String readString() {
-    skipWhitespace(true);
-    return peekChar() == '"' ? readQuotedString() : readWord();
-  }
-
-  private String readQuotedString() {
-    if (readChar() != '"') throw new AssertionError();
-    StringBuilder result = new StringBuilder();
-    while (pos < data.length) {
-      char c = data[pos++];
-      if (c == '"') return result.toString();
-
-      if (c == '\\') {
-        if (pos == data.length) throw unexpected("unexpected end of file");
-        c = data[pos++];
-        switch (c) {
-          case 'a': c = 0x7; break;
-          case 'b': c = '\b'; break;
-          case 'f': c = '\f'; break;
-          case 'n': c = '\n'; break;
-          case 'r': c = '\r'; break;
-          case 't': c = '\t'; break;
-          case 'v': c = 0xb; break;
-          case 'x':case 'X':
-            c = readNumericEscape(16, 2);
-            break;
-          case '0':case '1':case '2':case '3':case '4':case '5':case '6':case '7':
-            --pos;
-            c = readNumericEscape(8, 3);
-            break;
-          default:
-            // use char as-is
-            break;
-        }
-      }
-
-      result.append(c);
-      if (c == '\n') newline();
-    }
-    throw unexpected("unterminated string");
-  }
-
-  private char readNumericEscape(int radix, int len) {
-    int value = -1;
-    for (int endPos = Math.min(pos + len, data.length); pos < endPos; pos++) {
-      int digit = hexDigit(data[pos]);
-      if (digit == -1 || digit >= radix) break;
-      if (value < 0) {
-        value = digit;
-      } else {
-        value = value * radix + digit;
-      }
-    }
-    if (value < 0) throw unexpected("expected a digit after \\x or \\X");
-    return (char) value;
-  }
-
-  private int hexDigit(char c) {
-    if (c >= '0' && c <= '9') return c - '0';
-    else if (c >= 'a' && c <= 'f') return c - 'a' + 10;
-    else if (c >= 'A' && c <= 'F') return c - 'A' + 10;
-    else return -1;
-  }
-
-  /** Reads a (paren-wrapped), [square-wrapped] or naked symbol name. */
-  private String readName() {
-    String optionName;
-    char c = peekChar();
-    if (c == '(') {
-      pos++;
-      optionName = readWord();
-      if (readChar() != ')') throw unexpected("expected ')'");
-    } else if (c == '[') {
-      pos++;
-      optionName = readWord();
-      if (readChar() != ']') throw unexpected("expected ']'");
-    } else {
-      optionName = readWord();
-    }
-    return optionName;
-  }
-
-  /** Reads a non-empty word and returns it. */
-  private String readWord() {
-    skipWhitespace(true);
-    int start = pos;
-    while (pos < data.length) {
-      char c = data[pos];
-      if ((c >= 'a' && c <= 'z')
-          || (c >= 'A' && c <= 'Z')
-          || (c >= '0' && c <= '9')
-          || (c == '_')
-          || (c == '-')
-          || (c == '.')) {
-        pos++;
-      } else {
-        break;
-      }
-    }
-    if (start == pos) throw unexpected("expected a word");
-    return new String(data, start, pos - start);
-  }
-
-  /** Reads an integer and returns it. */
-  private int readInt() {
-    String tag = readWord();
-    try {
-      int radix = 10;
-      if (tag.startsWith("0x")) {
-        tag = tag.substring("0x".length());
-        radix = 16;
-      }
-      return Integer.valueOf(tag, radix);
-    } catch (Exception e) {
-      throw unexpected("expected an integer but was " + tag);
-    }
-  }
-
-  /**
-   * Like {@link #skipWhitespace}, but this returns a string containing all
-   * comment text. By convention, comments before a declaration document that
-   * declaration.
-   */
-  private String readDocumentation() {
-    String result = null;
-    while (true) {
-      skipWhitespace(false);
-      if (pos == data.length || data[pos] != '/') {
-        return result != null ? result : "";
-      }
-      String comment = readComment();
-      result = (result == null) ? comment : (result + "\n" + comment);
-    }
-  }
-
-  /** Reads a comment and returns its body. */
-  private String readComment() {
-    if (pos == data.length || data[pos] != '/') throw new AssertionError();
-    pos++;
-    int commentType = pos < data.length ? data[pos++] : -1;
-    if (commentType == '*') {
-      StringBuilder result = new StringBuilder();
-      boolean startOfLine = true;
-
-      for (; pos + 1 < data.length; pos++) {
-        char c = data[pos];
-        if (c == '*' && data[pos + 1] == '/') {
-          pos += 2;
-          return result.toString().trim();
-        }
-        if (c == '\n') {
-          result.append('\n');
-          newline();
-          startOfLine = true;
-        } else if (!startOfLine) {
-          result.append(c);
-        } else if (c == '*') {
-          if (data[pos + 1] == ' ') {
-            pos += 1; // Skip a single leading space, if present.
-          }
-          startOfLine = false;
-        } else if (!Character.isWhitespace(c)) {
-          result.append(c);
-          startOfLine = false;
-        }
-      }
-      throw unexpected("unterminated comment");
-    } else if (commentType == '/') {
-      if (pos < data.length && data[pos] == ' ') {
-        pos += 1; // Skip a single leading space, if present.
-      }
-      int start = pos;
-      while (pos < data.length) {
-        char c = data[pos++];
-        if (c == '\n') {
-          newline();
-          break;
-        }
-      }
-      return new String(data, start, pos - 1 - start);
-    } else {
-      throw unexpected("unexpected '/'");
-    }
-  }
-
-  /**
-   * Skips whitespace characters and optionally comments. When this returns,
-   * either {@code pos == data.length} or a non-whitespace character.
-   */
-  private void skipWhitespace(boolean skipComments) {
-    while (pos < data.length) {
-      char c = data[pos];
-      if (c == ' ' || c == '\t' || c == '\r' || c == '\n') {
-        pos++;
-        if (c == '\n') newline();
-      } else if (skipComments && c == '/') {
-        readComment();
-      } else {
-        break;
-      }
-    }
-  }
-
-  /** Call this every time a '\n' is encountered. */
-  private void newline() {
-    line++;
-    lineStart = pos;
-  }
-
-  private int column() {
-    return pos - lineStart + 1;
-  }
-
-  private int line() {
-    return line + 1;
-  }
-
-  private RuntimeException unexpected(String message) {
-    throw new IllegalStateException(
-        String.format("Syntax error in %s at %d:%d: %s", fileName, line(), column(), message));
-  }
-
   enum Context {
     FILE,
     MESSAGE,
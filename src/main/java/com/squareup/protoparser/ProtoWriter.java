@@ -0,0 +1,382 @@
+// Copyright 2014 Square, Inc.
+package com.squareup.protoparser;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+
+import static com.squareup.protoparser.MessageType.Field;
+
+/**
+ * Writes schema declarations in {@code .proto} syntax to an {@link Appendable}, such as a
+ * {@link java.io.Writer} or a {@link StringBuilder}.
+ *
+ * <p>Output is produced in a single pass: nested declarations are written directly to the output
+ * and indented by a counter as each line starts, rather than rendered to a string and re-indented
+ * by their parent. The {@code toString()} of each model class is written by this class.
+ */
+public final class ProtoWriter {
+  private static final String INDENT = "  ";
+
+  private final Appendable out;
+  private int indent;
+  private boolean lineStart = true;
+
+  public ProtoWriter(Appendable out) {
+    if (out == null) throw new NullPointerException("out");
+    this.out = out;
+  }
+
+  /** Returns {@code declaration} written to a string. */
+  static String toString(Object declaration) {
+    StringBuilder builder = new StringBuilder();
+    try {
+      new ProtoWriter(builder).writeDeclaration(declaration);
+    } catch (IOException e) {
+      throw new AssertionError(e); // StringBuilder does not throw.
+    }
+    return builder.toString();
+  }
+
+  private void writeDeclaration(Object declaration) throws IOException {
+    if (declaration instanceof ProtoFile) {
+      write((ProtoFile) declaration);
+    } else if (declaration instanceof Type) {
+      write((Type) declaration);
+    } else if (declaration instanceof Field) {
+      write((Field) declaration);
+    } else if (declaration instanceof EnumType.Value) {
+      write((EnumType.Value) declaration);
+    } else if (declaration instanceof Service) {
+      write((Service) declaration);
+    } else if (declaration instanceof Service.Method) {
+      write((Service.Method) declaration);
+    } else if (declaration instanceof ExtendDeclaration) {
+      write((ExtendDeclaration) declaration);
+    } else if (declaration instanceof Extensions) {
+      write((Extensions) declaration);
+    } else if (declaration instanceof Option) {
+      writeOption((Option) declaration);
+    } else {
+      throw new IllegalArgumentException("Unexpected declaration " + declaration);
+    }
+  }
+
+  public ProtoWriter write(ProtoFile file) throws IOException {
+    if (!file.getFileName().isEmpty()) {
+      emit("// ");
+      emit(file.getFileName());
+      emit("\n");
+    }
+    if (file.getPackageName() != null) {
+      emit("package ");
+      emit(file.getPackageName());
+      emit(";\n");
+    }
+    if (!file.getDependencies().isEmpty() || !file.getPublicDependencies().isEmpty()) {
+      emit("\n");
+      for (String dependency : file.getDependencies()) {
+        emit("import \"");
+        emit(dependency);
+        emit("\";\n");
+      }
+      for (String publicDependency : file.getPublicDependencies()) {
+        emit("import public \"");
+        emit(publicDependency);
+        emit("\";\n");
+      }
+    }
+    if (!file.getOptions().isEmpty()) {
+      emit("\n");
+      for (Option option : file.getOptions()) {
+        writeOptionDeclaration(option);
+      }
+    }
+    if (!file.getTypes().isEmpty()) {
+      emit("\n");
+      for (Type type : file.getTypes()) {
+        write(type);
+      }
+    }
+    if (!file.getExtendDeclarations().isEmpty()) {
+      emit("\n");
+      for (ExtendDeclaration extendDeclaration : file.getExtendDeclarations()) {
+        write(extendDeclaration);
+      }
+    }
+    if (!file.getServices().isEmpty()) {
+      emit("\n");
+      for (Service service : file.getServices()) {
+        write(service);
+      }
+    }
+    return this;
+  }
+
+  public ProtoWriter write(Type type) throws IOException {
+    if (type instanceof MessageType) {
+      writeMessage((MessageType) type);
+    } else if (type instanceof EnumType) {
+      writeEnum((EnumType) type);
+    } else {
+      emitLines(type.toString());
+    }
+    return this;
+  }
+
+  private void writeMessage(MessageType message) throws IOException {
+    writeDocumentation(message.getDocumentation());
+    emit("message ");
+    emit(message.getName());
+    emit(" {");
+    writeOptionDeclarations(message.getOptions());
+    if (!message.getFields().isEmpty()) {
+      emit("\n");
+      indent++;
+      for (Field field : message.getFields()) {
+        write(field);
+      }
+      indent--;
+    }
+    if (!message.getExtensions().isEmpty()) {
+      emit("\n");
+      indent++;
+      for (Extensions extensions : message.getExtensions()) {
+        write(extensions);
+      }
+      indent--;
+    }
+    if (!message.getNestedTypes().isEmpty()) {
+      emit("\n");
+      indent++;
+      for (Type nestedType : message.getNestedTypes()) {
+        write(nestedType);
+      }
+      indent--;
+    }
+    emit("}\n");
+  }
+
+  private void writeEnum(EnumType enumType) throws IOException {
+    writeDocumentation(enumType.getDocumentation());
+    emit("enum ");
+    emit(enumType.getName());
+    emit(" {");
+    writeOptionDeclarations(enumType.getOptions());
+    if (!enumType.getValues().isEmpty()) {
+      emit("\n");
+      indent++;
+      for (EnumType.Value value : enumType.getValues()) {
+        write(value);
+      }
+      indent--;
+    }
+    emit("}\n");
+  }
+
+  public ProtoWriter write(Field field) throws IOException {
+    writeDocumentation(field.getDocumentation());
+    emit(field.getLabel().toString().toLowerCase(Locale.US));
+    emit(" ");
+    emit(field.getType());
+    emit(" ");
+    emit(field.getName());
+    emit(" = ");
+    emit(Integer.toString(field.getTag()));
+    writeInlineOptions(field.getOptions());
+    emit(";\n");
+    return this;
+  }
+
+  public ProtoWriter write(EnumType.Value value) throws IOException {
+    writeDocumentation(value.getDocumentation());
+    emit(value.getName());
+    emit(" = ");
+    emit(Integer.toString(value.getTag()));
+    writeInlineOptions(value.getOptions());
+    emit(";\n");
+    return this;
+  }
+
+  public ProtoWriter write(Extensions extensions) throws IOException {
+    writeDocumentation(extensions.getDocumentation());
+    emit("extensions ");
+    emit(Integer.toString(extensions.getStart()));
+    if (extensions.getStart() != extensions.getEnd()) {
+      emit(" to ");
+      emit(extensions.getEnd() < ProtoFile.MAX_TAG_VALUE
+          ? Integer.toString(extensions.getEnd())
+          : "max");
+    }
+    emit(";\n");
+    return this;
+  }
+
+  public ProtoWriter write(ExtendDeclaration extend) throws IOException {
+    writeDocumentation(extend.getDocumentation());
+    emit("extend ");
+    emit(extend.getName());
+    emit(" {");
+    if (!extend.getFields().isEmpty()) {
+      emit("\n");
+      indent++;
+      for (Field field : extend.getFields()) {
+        write(field);
+      }
+      indent--;
+    }
+    emit("}\n");
+    return this;
+  }
+
+  public ProtoWriter write(Service service) throws IOException {
+    writeDocumentation(service.getDocumentation());
+    emit("service ");
+    emit(service.getName());
+    emit(" {");
+    writeOptionDeclarations(service.getOptions());
+    if (!service.getMethods().isEmpty()) {
+      emit("\n");
+      indent++;
+      for (Service.Method method : service.getMethods()) {
+        write(method);
+      }
+      indent--;
+    }
+    emit("}\n");
+    return this;
+  }
+
+  public ProtoWriter write(Service.Method method) throws IOException {
+    writeDocumentation(method.getDocumentation());
+    emit("rpc ");
+    emit(method.getName());
+    emit(" (");
+    emit(method.getRequestType());
+    emit(") returns (");
+    emit(method.getResponseType());
+    emit(")");
+    if (!method.getOptions().isEmpty()) {
+      emit(" {\n");
+      indent++;
+      for (Option option : method.getOptions()) {
+        writeOptionDeclaration(option);
+      }
+      indent--;
+      emit("}");
+    }
+    emit(";\n");
+    return this;
+  }
+
+  /** Writes {@code option} as a statement, like {@code option java_package = "com.example";}. */
+  public ProtoWriter writeOptionDeclaration(Option option) throws IOException {
+    emit("option ");
+    writeOption(option);
+    emit(";\n");
+    return this;
+  }
+
+  /** Writes {@code option} as it appears in a field's options, like {@code default = "1"}. */
+  public ProtoWriter writeOption(Option option) throws IOException {
+    Object value = option.getValue();
+    if (value instanceof Boolean) {
+      emit(option.getName());
+      emit(" = ");
+      emit(value.toString());
+    } else if (value instanceof String) {
+      emit(option.getName());
+      emit(" = \"");
+      emit(Option.escape((String) value));
+      emit("\"");
+    } else if (value instanceof Option) {
+      emit("(");
+      emit(option.getName());
+      emit(").");
+      writeOption((Option) value);
+    } else if (value instanceof List) {
+      emit(option.getName());
+      emit(" = [\n");
+      indent++;
+      List<?> optionList = (List<?>) value;
+      for (int i = 0, count = optionList.size(); i < count; i++) {
+        writeOption((Option) optionList.get(i));
+        emit(i < count - 1 ? ",\n" : "\n");
+      }
+      indent--;
+      emit("]");
+    } else {
+      throw new IllegalStateException("Unknown value type " + value.getClass().getCanonicalName());
+    }
+    return this;
+  }
+
+  private void writeOptionDeclarations(List<Option> options) throws IOException {
+    if (options.isEmpty()) return;
+    emit("\n");
+    indent++;
+    for (Option option : options) {
+      writeOptionDeclaration(option);
+    }
+    indent--;
+  }
+
+  private void writeInlineOptions(List<Option> options) throws IOException {
+    if (options.isEmpty()) return;
+    emit(" [\n");
+    indent++;
+    for (Option option : options) {
+      writeOption(option);
+      emit("\n");
+    }
+    indent--;
+    emit("]");
+  }
+
+  /** Writes each line of {@code documentation} as a comment. Trailing blank lines are dropped. */
+  private void writeDocumentation(String documentation) throws IOException {
+    int end = documentation.length();
+    while (end > 0 && documentation.charAt(end - 1) == '\n') {
+      end--;
+    }
+    int start = 0;
+    while (start < end) {
+      int newline = documentation.indexOf('\n', start);
+      if (newline == -1 || newline > end) newline = end;
+      emit("// ");
+      emit(documentation, start, newline);
+      emit("\n");
+      start = newline + 1;
+    }
+  }
+
+  /** Writes {@code text}, which may span lines, ending with a newline if it does not already. */
+  private void emitLines(String text) throws IOException {
+    emit(text);
+    if (!lineStart) emit("\n");
+  }
+
+  private void emit(String text) throws IOException {
+    emit(text, 0, text.length());
+  }
+
+  /** Writes {@code text[start..end)}, indenting each line as it starts. */
+  private void emit(String text, int start, int end) throws IOException {
+    while (start < end) {
+      if (lineStart) {
+        for (int i = 0; i < indent; i++) {
+          out.append(INDENT);
+        }
+        lineStart = false;
+      }
+      int newline = text.indexOf('\n', start);
+      if (newline == -1 || newline >= end) {
+        out.append(text, start, end);
+        return;
+      }
+      out.append(text, start, newline + 1);
+      lineStart = true;
+      start = newline + 1;
+    }
+  }
+}
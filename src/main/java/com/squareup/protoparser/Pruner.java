@@ -0,0 +1,213 @@
+// Copyright 2014 Square, Inc.
+package com.squareup.protoparser;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.squareup.protoparser.MessageType.Field;
+
+/**
+ * Trims a schema to the declarations reachable from a set of roots. A root is the
+ * fully-qualified name of a type or a service, or of a single rpc written as
+ * {@code package.Service#Method}.
+ *
+ * <p>Reachability follows field types, rpc request and response types, and extension fields of
+ * reachable messages. Messages that are not reachable but enclose reachable types are kept as
+ * empty containers so that nested names stay the same.
+ */
+public final class Pruner {
+  /**
+   * Returns new files containing only the declarations of {@code files} reachable from
+   * {@code roots}. Files left with no declarations are omitted, as are imports of them.
+   *
+   * @throws IllegalArgumentException if a root names nothing in {@code files}.
+   */
+  public static List<ProtoFile> prune(Collection<ProtoFile> files, Collection<String> roots) {
+    Pruner pruner = new Pruner(files);
+    for (String root : roots) {
+      pruner.markRoot(root);
+    }
+    pruner.walk();
+    return pruner.emit(files);
+  }
+
+  private final Linker linker;
+  private final Map<String, Service> services = new HashMap<String, Service>();
+  private final Map<Type, List<Field>> extensionFields = new IdentityHashMap<Type, List<Field>>();
+  private final Set<Object> reachable =
+      Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+  private final Deque<Object> queue = new ArrayDeque<Object>();
+
+  private Pruner(Collection<ProtoFile> files) {
+    linker = Linker.link(files);
+    for (ProtoFile file : files) {
+      for (Service service : file.getServices()) {
+        services.put(service.getFullyQualifiedName(), service);
+      }
+      for (ExtendDeclaration extend : file.getExtendDeclarations()) {
+        Type extendee = linker.getExtendee(extend);
+        List<Field> fields = extensionFields.get(extendee);
+        if (fields == null) {
+          fields = new ArrayList<Field>();
+          extensionFields.put(extendee, fields);
+        }
+        fields.addAll(extend.getFields());
+      }
+    }
+  }
+
+  private void markRoot(String root) {
+    int hash = root.indexOf('#');
+    if (hash != -1) {
+      Service service = services.get(root.substring(0, hash));
+      String methodName = root.substring(hash + 1);
+      if (service != null) {
+        for (Service.Method method : service.getMethods()) {
+          if (method.getName().equals(methodName)) {
+            mark(method);
+            return;
+          }
+        }
+      }
+    } else {
+      Service service = services.get(root);
+      if (service != null) {
+        for (Service.Method method : service.getMethods()) {
+          mark(method);
+        }
+        return;
+      }
+      Type type = linker.getType(root);
+      if (type != null) {
+        mark(type);
+        return;
+      }
+    }
+    throw new IllegalArgumentException("Unknown root: " + root);
+  }
+
+  private void mark(Object declaration) {
+    if (declaration != null && reachable.add(declaration)) {
+      queue.add(declaration);
+    }
+  }
+
+  private void walk() {
+    for (Object next = queue.poll(); next != null; next = queue.poll()) {
+      if (next instanceof Service.Method) {
+        Service.Method method = (Service.Method) next;
+        mark(linker.getRequestType(method));
+        mark(linker.getResponseType(method));
+      } else if (next instanceof Field) {
+        mark(linker.getFieldType((Field) next));
+      } else if (next instanceof Type) {
+        if (next instanceof MessageType) {
+          for (Field field : ((MessageType) next).getFields()) {
+            mark(linker.getFieldType(field));
+          }
+        }
+        List<Field> extensions = extensionFields.get(next);
+        if (extensions != null) {
+          for (Field extension : extensions) {
+            mark(extension);
+          }
+        }
+      }
+    }
+  }
+
+  private List<ProtoFile> emit(Collection<ProtoFile> files) {
+    List<ProtoFile> result = new ArrayList<ProtoFile>();
+    Set<String> emitted = new HashSet<String>();
+    List<ProtoFile> pending = new ArrayList<ProtoFile>();
+    for (ProtoFile file : files) {
+      List<Type> types = new ArrayList<Type>();
+      for (Type type : file.getTypes()) {
+        Type pruned = pruneType(type);
+        if (pruned != null) types.add(pruned);
+      }
+
+      List<ExtendDeclaration> extendDeclarations = new ArrayList<ExtendDeclaration>();
+      for (ExtendDeclaration extend : file.getExtendDeclarations()) {
+        List<Field> fields = new ArrayList<Field>();
+        for (Field field : extend.getFields()) {
+          if (reachable.contains(field)) fields.add(field);
+        }
+        if (!fields.isEmpty()) {
+          extendDeclarations.add(new ExtendDeclaration(extend.getName(),
+              extend.getQualifiedName(), extend.getScope(), extend.getDocumentation(), fields,
+              false));
+        }
+      }
+
+      List<Service> services = new ArrayList<Service>();
+      for (Service service : file.getServices()) {
+        List<Service.Method> methods = new ArrayList<Service.Method>();
+        for (Service.Method method : service.getMethods()) {
+          if (reachable.contains(method)) methods.add(method);
+        }
+        if (methods.size() == service.getMethods().size()) {
+          services.add(service);
+        } else if (!methods.isEmpty()) {
+          services.add(new Service(service.getName(), service.getQualifiedName(),
+              service.getDocumentation(), service.getOptions(), methods));
+        }
+      }
+
+      if (types.isEmpty() && extendDeclarations.isEmpty() && services.isEmpty()) continue;
+      emitted.add(file.getFileName());
+      pending.add(new ProtoFile(file.getFileName(), file.getPackageName(),
+          file.getDependencies(), file.getPublicDependencies(), types, services,
+          file.getOptions(), extendDeclarations));
+    }
+
+    for (ProtoFile file : pending) {
+      List<String> dependencies = retained(file.getDependencies(), emitted);
+      List<String> publicDependencies = retained(file.getPublicDependencies(), emitted);
+      result.add(new ProtoFile(file.getFileName(), file.getPackageName(), dependencies,
+          publicDependencies, file.getTypes(), file.getServices(), file.getOptions(),
+          file.getExtendDeclarations()));
+    }
+    return result;
+  }
+
+  /** Returns the pruned form of {@code type}, or null if neither it nor its nested types remain. */
+  private Type pruneType(Type type) {
+    List<Type> nestedTypes = new ArrayList<Type>();
+    boolean nestedUnchanged = true;
+    for (Type nestedType : type.getNestedTypes()) {
+      Type pruned = pruneType(nestedType);
+      if (pruned != null) nestedTypes.add(pruned);
+      if (pruned != nestedType) nestedUnchanged = false;
+    }
+
+    boolean isReachable = reachable.contains(type);
+    if (!isReachable && nestedTypes.isEmpty()) return null;
+    if (isReachable && nestedUnchanged) return type;
+    if (!(type instanceof MessageType)) return type;
+
+    MessageType message = (MessageType) type;
+    List<Field> fields = isReachable ? message.getFields() : Collections.<Field>emptyList();
+    List<Extensions> extensions =
+        isReachable ? message.getExtensions() : Collections.<Extensions>emptyList();
+    return new MessageType(message.getName(), message.getQualifiedName(),
+        message.getDocumentation(), fields, nestedTypes, extensions, message.getOptions(), false);
+  }
+
+  private static List<String> retained(List<String> dependencies, Set<String> emitted) {
+    List<String> result = new ArrayList<String>(dependencies.size());
+    for (String dependency : dependencies) {
+      if (emitted.contains(dependency)) result.add(dependency);
+    }
+    return result;
+  }
+}
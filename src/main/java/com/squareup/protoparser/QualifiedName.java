@@ -0,0 +1,118 @@
+// Copyright 2014 Square, Inc.
+package com.squareup.protoparser;
+
+/**
+ * A dot-separated name like {@code com.example.Outer.Inner}, stored as a pointer to its parent
+ * name plus its own simple name. Names nested in the same scope share that scope's object, so
+ * deep nesting costs one simple name per level rather than a full copy of every ancestor.
+ *
+ * <p>The dotted string is rendered lazily and cached. {@link #hashCode} is equal to the hash code
+ * of that string, but is computed from the parts without rendering it.
+ */
+public final class QualifiedName {
+  /** Returns the name {@code simpleName} nested in {@code parent}, which may be null. */
+  public static QualifiedName of(QualifiedName parent, String simpleName) {
+    if (simpleName == null) throw new NullPointerException("simpleName");
+    return new QualifiedName(parent, simpleName);
+  }
+
+  /** Returns the name for {@code dotted}, splitting it into one part per dot-separated segment. */
+  public static QualifiedName parse(String dotted) {
+    if (dotted == null) throw new NullPointerException("dotted");
+    QualifiedName result = null;
+    int start = 0;
+    for (int dot = dotted.indexOf('.'); dot != -1; dot = dotted.indexOf('.', start)) {
+      result = new QualifiedName(result, dotted.substring(start, dot));
+      start = dot + 1;
+    }
+    return new QualifiedName(result, start == 0 ? dotted : dotted.substring(start));
+  }
+
+  private final QualifiedName parent;
+  private final String simpleName;
+  private final int length;
+  private final int hashCode;
+  private String string;
+
+  private QualifiedName(QualifiedName parent, String simpleName) {
+    this.parent = parent;
+    this.simpleName = simpleName;
+    if (parent == null) {
+      this.length = simpleName.length();
+      this.hashCode = simpleName.hashCode();
+    } else {
+      // The hash code of parent + "." + simpleName, per the String.hashCode() polynomial.
+      int simpleLength = simpleName.length();
+      this.length = parent.length + 1 + simpleLength;
+      this.hashCode = (parent.hashCode * 31 + '.') * pow31(simpleLength) + simpleName.hashCode();
+    }
+  }
+
+  private static int pow31(int exponent) {
+    int result = 1;
+    int base = 31;
+    for (int e = exponent; e != 0; e >>= 1) {
+      if ((e & 1) != 0) result *= base;
+      base *= base;
+    }
+    return result;
+  }
+
+  /** Returns the enclosing name, or null if this is a top-level name. */
+  public QualifiedName getParent() {
+    return parent;
+  }
+
+  /** Returns the last segment of this name. */
+  public String getSimpleName() {
+    return simpleName;
+  }
+
+  /** Returns the name {@code simpleName} nested in this name. */
+  public QualifiedName child(String simpleName) {
+    return of(this, simpleName);
+  }
+
+  @Override public boolean equals(Object other) {
+    if (this == other) return true;
+    if (!(other instanceof QualifiedName)) return false;
+
+    QualifiedName that = (QualifiedName) other;
+    if (hashCode != that.hashCode || length != that.length) return false;
+    if (parent != null && that.parent != null && simpleName.equals(that.simpleName)) {
+      return parent.equals(that.parent);
+    }
+    return toString().equals(that.toString());
+  }
+
+  @Override public int hashCode() {
+    return hashCode;
+  }
+
+  /** Returns this name with its segments separated by dots. */
+  @Override public String toString() {
+    String result = string;
+    if (result == null) {
+      if (parent == null) {
+        result = simpleName;
+      } else {
+        char[] chars = new char[length];
+        int end = length;
+        for (QualifiedName name = this; name != null; name = name.parent) {
+          String cached = name.string;
+          if (cached != null) {
+            cached.getChars(0, cached.length(), chars, 0);
+            break;
+          }
+          int start = end - name.simpleName.length();
+          name.simpleName.getChars(0, name.simpleName.length(), chars, start);
+          if (start > 0) chars[start - 1] = '.';
+          end = start - 1;
+        }
+        result = new String(chars);
+      }
+      string = result;
+    }
+    return result;
+  }
+}
@@ -0,0 +1,423 @@
+// Copyright 2014 Square, Inc.
+package com.squareup.protoparser;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.squareup.protoparser.MessageType.Field;
+import static java.util.Collections.singletonList;
+import static java.util.Collections.unmodifiableList;
+
+/**
+ * Indexes every reference to a type by the fully-qualified name of that type, for answering
+ * "what uses this type?" without rescanning the schema.
+ *
+ * <p>References are found with a {@link Linker} that is kept for the life of the index. When a
+ * file changes its declarations are swapped in that linker's symbol table, and the file is linked
+ * again along with the files that depend on it: those that import it, directly or through public
+ * imports, those that held references to its previous declarations, and those with references
+ * that its new declarations may shadow. References in dependent files that no longer resolve are
+ * dropped, and those files are linked again on the next change in case it restores them. After
+ * any sequence of changes the index has the same references as one built from the same files,
+ * though possibly in a different order.
+ * This index is not thread-safe.
+ */
+public final class ReferenceIndex {
+  /** The kinds of declaration that refer to a type. */
+  public enum Kind {
+    /** A message field. The owner is the enclosing message. */
+    FIELD,
+    /** An extension field. The owner is the extended message. */
+    EXTENSION_FIELD,
+    /** The request type of an rpc. The owner is the service. */
+    REQUEST,
+    /** The response type of an rpc. The owner is the service. */
+    RESPONSE,
+    /** The extended type of an extend declaration. The owner is the extended message. */
+    EXTENDEE
+  }
+
+  /** A single reference to a type. */
+  public static final class Reference {
+    private final Kind kind;
+    private final ProtoFile file;
+    private final String owner;
+    private final String target;
+    private final Object declaration;
+
+    Reference(Kind kind, ProtoFile file, String owner, String target, Object declaration) {
+      this.kind = kind;
+      this.file = file;
+      this.owner = owner;
+      this.target = target;
+      this.declaration = declaration;
+    }
+
+    public Kind getKind() {
+      return kind;
+    }
+
+    /** The file that contains the reference. */
+    public ProtoFile getFile() {
+      return file;
+    }
+
+    /** The fully-qualified name of the message or service that contains the reference. */
+    public String getOwner() {
+      return owner;
+    }
+
+    /** The fully-qualified name of the referenced type. */
+    public String getTarget() {
+      return target;
+    }
+
+    /** The referring field, or null if this is not a field reference. */
+    public Field getField() {
+      return declaration instanceof Field ? (Field) declaration : null;
+    }
+
+    /** The referring rpc, or null if this is not a request or response reference. */
+    public Service.Method getMethod() {
+      return declaration instanceof Service.Method ? (Service.Method) declaration : null;
+    }
+
+    /** The referring extend declaration, or null if this is not an extendee reference. */
+    public ExtendDeclaration getExtendDeclaration() {
+      return declaration instanceof ExtendDeclaration ? (ExtendDeclaration) declaration : null;
+    }
+
+    @Override public String toString() {
+      return kind + " " + owner + " -> " + target;
+    }
+  }
+
+  /** Returns an index of the references in {@code files}. */
+  public static ReferenceIndex of(Collection<ProtoFile> files) {
+    ReferenceIndex index = new ReferenceIndex();
+    for (ProtoFile file : files) {
+      index.files.put(file.getFileName(), file);
+    }
+    index.linker = Linker.link(index.files.values());
+    index.addReferences(index.files.values());
+    return index;
+  }
+
+  private Linker linker;
+
+  private final Map<String, ProtoFile> files = new LinkedHashMap<String, ProtoFile>();
+  /** References by target. Sets so that a file's references can be removed one at a time. */
+  private final Map<String, Set<Reference>> byTarget = new HashMap<String, Set<Reference>>();
+  private final Map<String, List<Reference>> byFile = new HashMap<String, List<Reference>>();
+  /**
+   * The files whose resolved references have each name as the first segment of the name as
+   * written, like {@code Foo} for {@code Foo.Bar}. A new declaration can only change how a
+   * reference resolves if one of the declaration's name segments is that first segment.
+   */
+  private final Map<String, Set<String>> filesBySegment = new HashMap<String, Set<String>>();
+  /** Files with references dropped because they no longer resolve. */
+  private final Set<String> unresolved = new LinkedHashSet<String>();
+
+  private ReferenceIndex() {
+  }
+
+  /** Returns the references to {@code fqname}. */
+  public List<Reference> getDirectReferences(String fqname) {
+    Set<Reference> references = byTarget.get(fqname);
+    return references != null
+        ? unmodifiableList(new ArrayList<Reference>(references))
+        : Collections.<Reference>emptyList();
+  }
+
+  /**
+   * Returns the references to {@code fqname}, followed by the references to every owner of those
+   * references, transitively. Each reference appears once, even if the types refer to one
+   * another in a cycle.
+   */
+  public List<Reference> getTransitiveReferences(String fqname) {
+    List<Reference> result = new ArrayList<Reference>();
+    Set<String> visited = new LinkedHashSet<String>();
+    Deque<String> queue = new ArrayDeque<String>();
+    visited.add(fqname);
+    queue.add(fqname);
+    while (!queue.isEmpty()) {
+      Set<Reference> references = byTarget.get(queue.remove());
+      if (references == null) continue;
+      for (Reference reference : references) {
+        result.add(reference);
+        if (visited.add(reference.owner)) {
+          queue.add(reference.owner);
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns the fully-qualified names of every message and service that depends on
+   * {@code fqname}, directly or transitively.
+   */
+  public Set<String> getTransitiveUsers(String fqname) {
+    Set<String> result = new LinkedHashSet<String>();
+    for (Reference reference : getTransitiveReferences(fqname)) {
+      if (!reference.owner.equals(fqname)) result.add(reference.owner);
+    }
+    return result;
+  }
+
+  /**
+   * Adds {@code file}, replacing any indexed file with the same name. The files that depend on it
+   * are linked again; their references that no longer resolve are dropped.
+   *
+   * @throws IllegalStateException if {@code file} has references that do not resolve. The index
+   * is unchanged.
+   */
+  public void put(ProtoFile file) {
+    String fileName = file.getFileName();
+    ProtoFile previous = files.get(fileName);
+    if (previous != null) linker.undefine(previous);
+    linker.define(file);
+
+    List<String> errors = new ArrayList<String>();
+    linker.linkFile(file, errors);
+    if (!errors.isEmpty()) {
+      linker.forget(file);
+      linker.undefine(file);
+      if (previous != null) linker.define(previous);
+      throw Linker.linkFailed(errors);
+    }
+
+    Set<ProtoFile> dependents = dependents(fileName, file);
+    if (previous != null) linker.forget(previous);
+    files.put(fileName, file);
+    unresolved.remove(fileName);
+    relink(dependents);
+    removeReferences(fileName);
+    addReferences(singletonList(file));
+  }
+
+  /**
+   * Removes the file named {@code fileName} and its references. The files that depend on it are
+   * linked again; their references that no longer resolve are dropped. Returns false if not
+   * indexed.
+   */
+  public boolean remove(String fileName) {
+    ProtoFile previous = files.get(fileName);
+    if (previous == null) return false;
+    Set<ProtoFile> dependents = dependents(fileName, null);
+    linker.forget(previous);
+    linker.undefine(previous);
+    files.remove(fileName);
+    unresolved.remove(fileName);
+    removeReferences(fileName);
+    relink(dependents);
+    return true;
+  }
+
+  /**
+   * Returns the other files that import {@code fileName}, directly or through a chain of public
+   * imports, the files that refer to a type declared by its indexed version, and the files with
+   * unresolved references. If {@code added} isn't null this also returns the files with
+   * references that its declarations may shadow, whatever they import, since names are resolved
+   * by scope alone.
+   */
+  private Set<ProtoFile> dependents(String fileName, ProtoFile added) {
+    Set<String> names = new LinkedHashSet<String>(unresolved);
+    Deque<String> queue = new ArrayDeque<String>();
+    queue.add(fileName);
+    while (!queue.isEmpty()) {
+      String imported = queue.remove();
+      for (ProtoFile file : files.values()) {
+        boolean publicImport = file.getPublicDependencies().contains(imported);
+        if (!publicImport && !file.getDependencies().contains(imported)) continue;
+        if (names.add(file.getFileName()) && publicImport) {
+          queue.add(file.getFileName());
+        }
+      }
+    }
+
+    Set<String> declared = new LinkedHashSet<String>();
+    ProtoFile indexed = files.get(fileName);
+    if (indexed != null) {
+      for (Type type : indexed.getTypes()) {
+        addDeclaredNames(type, declared);
+      }
+    }
+    for (String fqname : declared) {
+      Set<Reference> references = byTarget.get(fqname);
+      if (references == null) continue;
+      for (Reference reference : references) {
+        names.add(reference.file.getFileName());
+      }
+    }
+
+    if (added != null) {
+      Set<String> segments = new LinkedHashSet<String>();
+      if (added.getPackageName() != null) {
+        segments.addAll(Arrays.asList(added.getPackageName().split("\\.")));
+      }
+      for (Type type : added.getTypes()) {
+        addSimpleNames(type, segments);
+      }
+      for (String segment : segments) {
+        Set<String> segmentFiles = filesBySegment.get(segment);
+        if (segmentFiles != null) names.addAll(segmentFiles);
+      }
+    }
+    names.remove(fileName);
+
+    Set<ProtoFile> result = new LinkedHashSet<ProtoFile>();
+    for (String name : names) {
+      result.add(files.get(name));
+    }
+    return result;
+  }
+
+  private static void addDeclaredNames(Type type, Set<String> names) {
+    names.add(type.getFullyQualifiedName());
+    for (Type nestedType : type.getNestedTypes()) {
+      addDeclaredNames(nestedType, names);
+    }
+  }
+
+  private static void addSimpleNames(Type type, Set<String> names) {
+    names.add(type.getName());
+    for (Type nestedType : type.getNestedTypes()) {
+      addSimpleNames(nestedType, names);
+    }
+  }
+
+  /** Returns the first segment of the type name as written in the referring declaration. */
+  private static String firstSegment(Reference reference) {
+    String name;
+    switch (reference.kind) {
+      case REQUEST:
+        name = reference.getMethod().getRequestType();
+        break;
+      case RESPONSE:
+        name = reference.getMethod().getResponseType();
+        break;
+      case EXTENDEE:
+        name = reference.getExtendDeclaration().getName();
+        break;
+      default:
+        name = reference.getField().getType();
+        break;
+    }
+    int start = name.startsWith(".") ? 1 : 0;
+    int dot = name.indexOf('.', start);
+    return dot != -1 ? name.substring(start, dot) : name.substring(start);
+  }
+
+  private void relink(Collection<ProtoFile> dependents) {
+    for (ProtoFile dependent : dependents) {
+      removeReferences(dependent.getFileName());
+      linker.forget(dependent);
+      List<String> errors = new ArrayList<String>();
+      linker.linkFile(dependent, errors);
+      if (errors.isEmpty()) {
+        unresolved.remove(dependent.getFileName());
+      } else {
+        unresolved.add(dependent.getFileName());
+      }
+    }
+    addReferences(dependents);
+  }
+
+  private void removeReferences(String fileName) {
+    List<Reference> references = byFile.remove(fileName);
+    if (references == null) return;
+    for (Reference reference : references) {
+      Set<Reference> targetReferences = byTarget.get(reference.target);
+      targetReferences.remove(reference);
+      if (targetReferences.isEmpty()) byTarget.remove(reference.target);
+      String segment = firstSegment(reference);
+      Set<String> segmentFiles = filesBySegment.get(segment);
+      if (segmentFiles != null) {
+        segmentFiles.remove(fileName);
+        if (segmentFiles.isEmpty()) filesBySegment.remove(segment);
+      }
+    }
+  }
+
+  private void addReferences(Collection<ProtoFile> linked) {
+    for (ProtoFile file : linked) {
+      List<Reference> references = new ArrayList<Reference>();
+      for (Type type : file.getTypes()) {
+        addTypeReferences(linker, file, type, references);
+      }
+      for (ExtendDeclaration extend : file.getExtendDeclarations()) {
+        Type extendeeType = linker.getExtendee(extend);
+        if (extendeeType == null) continue;
+        String extendee = extendeeType.getFullyQualifiedName();
+        references.add(new Reference(Kind.EXTENDEE, file, extendee, extendee, extend));
+        for (Field field : extend.getFields()) {
+          Type type = linker.getFieldType(field);
+          if (type != null) {
+            references.add(new Reference(Kind.EXTENSION_FIELD, file, extendee,
+                type.getFullyQualifiedName(), field));
+          }
+        }
+      }
+      for (Service service : file.getServices()) {
+        String owner = service.getFullyQualifiedName();
+        for (Service.Method method : service.getMethods()) {
+          Type requestType = linker.getRequestType(method);
+          if (requestType != null) {
+            references.add(new Reference(Kind.REQUEST, file, owner,
+                requestType.getFullyQualifiedName(), method));
+          }
+          Type responseType = linker.getResponseType(method);
+          if (responseType != null) {
+            references.add(new Reference(Kind.RESPONSE, file, owner,
+                responseType.getFullyQualifiedName(), method));
+          }
+        }
+      }
+
+      byFile.put(file.getFileName(), references);
+      for (Reference reference : references) {
+        Set<Reference> targetReferences = byTarget.get(reference.target);
+        if (targetReferences == null) {
+          targetReferences = new LinkedHashSet<Reference>();
+          byTarget.put(reference.target, targetReferences);
+        }
+        targetReferences.add(reference);
+        String segment = firstSegment(reference);
+        Set<String> segmentFiles = filesBySegment.get(segment);
+        if (segmentFiles == null) {
+          segmentFiles = new LinkedHashSet<String>();
+          filesBySegment.put(segment, segmentFiles);
+        }
+        segmentFiles.add(file.getFileName());
+      }
+    }
+  }
+
+  private static void addTypeReferences(Linker linker, ProtoFile file, Type type,
+      List<Reference> references) {
+    if (type instanceof MessageType) {
+      String owner = type.getFullyQualifiedName();
+      for (Field field : ((MessageType) type).getFields()) {
+        Type fieldType = linker.getFieldType(field);
+        if (fieldType != null) {
+          references.add(new Reference(Kind.FIELD, file, owner,
+              fieldType.getFullyQualifiedName(), field));
+        }
+      }
+    }
+    for (Type nestedType : type.getNestedTypes()) {
+      addTypeReferences(linker, file, nestedType, references);
+    }
+  }
+}
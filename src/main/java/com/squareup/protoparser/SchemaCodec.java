@@ -0,0 +1,73 @@
+// Copyright 2014 Square, Inc.
+package com.squareup.protoparser;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decodes and encodes the message types of one schema, sharing a single set of compiled plans
+ * between the two directions. Obtain instances from a {@link CodecCompiler}. A codec is
+ * immutable and safe for use by multiple threads.
+ *
+ * @see DynamicDecoder for the representation of decoded messages.
+ */
+public final class SchemaCodec {
+  private final Fingerprint fingerprint;
+  private final DynamicDecoder decoder;
+  private final DynamicEncoder encoder;
+
+  SchemaCodec(Fingerprint fingerprint, Map<String, MessagePlan> plans) {
+    this.fingerprint = fingerprint;
+    this.decoder = new DynamicDecoder(plans);
+    this.encoder = new DynamicEncoder(plans);
+  }
+
+  /** Returns the fingerprint of the schema this codec was compiled from. */
+  public Fingerprint getFingerprint() {
+    return fingerprint;
+  }
+
+  /** @see DynamicDecoder#decode(String, byte[]) */
+  public Map<String, Object> decode(String messageType, byte[] data) {
+    return decoder.decode(messageType, data);
+  }
+
+  /** @see DynamicDecoder#decode(String, ByteBuffer) */
+  public Map<String, Object> decode(String messageType, ByteBuffer data) {
+    return decoder.decode(messageType, data);
+  }
+
+  /** @see DynamicDecoder#view(MessageType, ByteBuffer) */
+  public MessageView view(MessageType messageType, ByteBuffer data) {
+    return decoder.view(messageType, data);
+  }
+
+  /** @see DynamicDecoder#view(String, ByteBuffer) */
+  public MessageView view(String messageType, ByteBuffer data) {
+    return decoder.view(messageType, data);
+  }
+
+  /** @see DynamicDecoder#projection */
+  public Projection projection(String messageType, List<String> paths) {
+    return decoder.projection(messageType, paths);
+  }
+
+  /** @see DynamicEncoder#encodedSize */
+  public int encodedSize(String messageType, Map<String, ?> message) {
+    return encoder.encodedSize(messageType, message);
+  }
+
+  /** @see DynamicEncoder#encode(String, Map) */
+  public byte[] encode(String messageType, Map<String, ?> message) {
+    return encoder.encode(messageType, message);
+  }
+
+  /**
+   * @see DynamicEncoder#encode(String, Map, ByteBuffer)
+   * @throws java.nio.BufferOverflowException if {@code out} doesn't have enough space remaining.
+   */
+  public void encode(String messageType, Map<String, ?> message, ByteBuffer out) {
+    encoder.encode(messageType, message, out);
+  }
+}
@@ -0,0 +1,474 @@
+// Copyright 2014 Square, Inc.
+package com.squareup.protoparser;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import static com.squareup.protoparser.MessageType.Field;
+import static java.util.Collections.unmodifiableList;
+
+/**
+ * Computes the differences between two versions of a schema.
+ *
+ * <p>Files are aligned by name, and only their packages, imports and options are compared as
+ * files. Types, services and extensions are aligned by fully-qualified name across the whole
+ * schema, so moving a declaration to another file doesn't change it. Extensions are aligned by
+ * the extended message as resolved by a {@link Linker}, or as written if it doesn't resolve.
+ * Fields are aligned by tag, and enum values, rpcs and options by name. Declarations with equal
+ * {@link Fingerprint}s are skipped without being compared further. The aligned declarations are
+ * compared in groups, one for each file that declares them, optionally in parallel.
+ */
+public final class SchemaDiff {
+  /** How a declaration changed. */
+  public enum ChangeType {
+    ADDED, REMOVED, CHANGED
+  }
+
+  /** The kind of declaration that changed. */
+  public enum Element {
+    FILE, TYPE, FIELD, EXTENSION, ENUM_VALUE, SERVICE, METHOD, OPTION
+  }
+
+  /** A single difference between two schemas. */
+  public static final class Change {
+    private final ChangeType changeType;
+    private final Element element;
+    private final String path;
+    private final Object oldValue;
+    private final Object newValue;
+
+    Change(ChangeType changeType, Element element, String path, Object oldValue,
+        Object newValue) {
+      this.changeType = changeType;
+      this.element = element;
+      this.path = path;
+      this.oldValue = oldValue;
+      this.newValue = newValue;
+    }
+
+    public ChangeType getChangeType() {
+      return changeType;
+    }
+
+    public Element getElement() {
+      return element;
+    }
+
+    /**
+     * Identifies the declaration. Files are identified by name and types and services by
+     * fully-qualified name. Fields are identified as {@code Message#tag}, extension fields as
+     * {@code Extendee#tag}, enum values as {@code Enum#NAME}, rpcs as {@code Service#Method} and
+     * options as {@code owner[name]}.
+     */
+    public String getPath() {
+      return path;
+    }
+
+    /** The old declaration or option value, or null if it was added. */
+    public Object getOldValue() {
+      return oldValue;
+    }
+
+    /** The new declaration or option value, or null if it was removed. */
+    public Object getNewValue() {
+      return newValue;
+    }
+
+    @Override public String toString() {
+      return changeType + " " + element + " " + path;
+    }
+  }
+
+  /** Returns the changes from {@code oldFiles} to {@code newFiles}, computed on this thread. */
+  public static List<Change> diff(Collection<ProtoFile> oldFiles, Collection<ProtoFile> newFiles) {
+    List<Change> result = new ArrayList<Change>();
+    for (List<Object[]> group : align(oldFiles, newFiles)) {
+      result.addAll(new Differ().diff(group));
+    }
+    return unmodifiableList(result);
+  }
+
+  /** Returns the changes from {@code oldFiles} to {@code newFiles}, comparing files in parallel. */
+  public static List<Change> diff(Collection<ProtoFile> oldFiles, Collection<ProtoFile> newFiles,
+      ExecutorService executor) throws InterruptedException {
+    List<List<Object[]>> groups = align(oldFiles, newFiles);
+    List<Future<List<Change>>> futures = new ArrayList<Future<List<Change>>>(groups.size());
+    for (final List<Object[]> group : groups) {
+      futures.add(executor.submit(new Callable<List<Change>>() {
+        @Override public List<Change> call() {
+          return new Differ().diff(group);
+        }
+      }));
+    }
+
+    List<Change> result = new ArrayList<Change>();
+    for (Future<List<Change>> future : futures) {
+      try {
+        result.addAll(future.get());
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+        if (cause instanceof Error) throw (Error) cause;
+        throw new RuntimeException(cause);
+      }
+    }
+    return unmodifiableList(result);
+  }
+
+  /**
+   * Pairs files by name, and types, services and extensions by fully-qualified name. Either side
+   * of a pair is null if the declaration was added or removed. Pairs are grouped by the file that
+   * declares them in the new schema, or in the old schema if they were removed.
+   */
+  private static List<List<Object[]>> align(Collection<ProtoFile> oldFiles,
+      Collection<ProtoFile> newFiles) {
+    Map<String, List<Object[]>> groups = new LinkedHashMap<String, List<Object[]>>();
+    Map<String, Object[]> filePairs = new LinkedHashMap<String, Object[]>();
+    for (ProtoFile file : oldFiles) {
+      filePairs.put(file.getFileName(), new Object[] {file, null});
+    }
+    for (ProtoFile file : newFiles) {
+      Object[] pair = filePairs.get(file.getFileName());
+      if (pair != null) {
+        pair[1] = file;
+      } else {
+        filePairs.put(file.getFileName(), new Object[] {null, file});
+      }
+    }
+    for (Map.Entry<String, Object[]> entry : filePairs.entrySet()) {
+      List<Object[]> group = new ArrayList<Object[]>();
+      group.add(entry.getValue());
+      groups.put(entry.getKey(), group);
+    }
+
+    Map<String, Declaration> oldTypes = new LinkedHashMap<String, Declaration>();
+    Map<String, Declaration> oldServices = new LinkedHashMap<String, Declaration>();
+    Map<String, Declaration> oldExtensions = new LinkedHashMap<String, Declaration>();
+    index(oldFiles, oldTypes, oldServices, oldExtensions);
+    Map<String, Declaration> newTypes = new LinkedHashMap<String, Declaration>();
+    Map<String, Declaration> newServices = new LinkedHashMap<String, Declaration>();
+    Map<String, Declaration> newExtensions = new LinkedHashMap<String, Declaration>();
+    index(newFiles, newTypes, newServices, newExtensions);
+
+    pair(groups, oldTypes, newTypes);
+    pair(groups, oldServices, newServices);
+    pair(groups, oldExtensions, newExtensions);
+    return new ArrayList<List<Object[]>>(groups.values());
+  }
+
+  /** A top-level declaration and the name of the file that declares it. */
+  private static final class Declaration {
+    final String fileName;
+    final Object value;
+
+    Declaration(String fileName, Object value) {
+      this.fileName = fileName;
+      this.value = value;
+    }
+  }
+
+  /** The extension fields of one extended message, from every extend declaration of it. */
+  private static final class Extensions {
+    final String extendee;
+    final List<Field> fields = new ArrayList<Field>();
+
+    Extensions(String extendee) {
+      this.extendee = extendee;
+    }
+  }
+
+  private static void index(Collection<ProtoFile> files, Map<String, Declaration> types,
+      Map<String, Declaration> services, Map<String, Declaration> extensions) {
+    Linker linker = Linker.link(files, Collections.<ProtoFile>emptyList());
+    for (ProtoFile file : files) {
+      QualifiedName packageName =
+          file.getPackageName() != null ? QualifiedName.parse(file.getPackageName()) : null;
+      for (Type type : file.getTypes()) {
+        types.put(type.getFullyQualifiedName(), new Declaration(file.getFileName(), type));
+      }
+      for (Service service : file.getServices()) {
+        services.put(service.getFullyQualifiedName(),
+            new Declaration(file.getFileName(), service));
+      }
+      for (ExtendDeclaration extend : file.getExtendDeclarations()) {
+        QualifiedName scope = extend.getScope() != null ? extend.getScope() : packageName;
+        Type resolved = linker.resolve(extend.getName(), scope);
+        String extendee = resolved != null
+            ? resolved.getFullyQualifiedName()
+            : extend.getFullyQualifiedName();
+        Declaration declaration = extensions.get(extendee);
+        if (declaration == null) {
+          declaration = new Declaration(file.getFileName(), new Extensions(extendee));
+          extensions.put(extendee, declaration);
+        }
+        ((Extensions) declaration.value).fields.addAll(extend.getFields());
+      }
+    }
+  }
+
+  private static void pair(Map<String, List<Object[]>> groups, Map<String, Declaration> oldByName,
+      Map<String, Declaration> newByName) {
+    Map<String, Declaration> removed = new LinkedHashMap<String, Declaration>(oldByName);
+    for (Map.Entry<String, Declaration> entry : newByName.entrySet()) {
+      Declaration old = removed.remove(entry.getKey());
+      Declaration declaration = entry.getValue();
+      groups.get(declaration.fileName).add(
+          new Object[] {old != null ? old.value : null, declaration.value});
+    }
+    for (Declaration old : removed.values()) {
+      groups.get(old.fileName).add(new Object[] {old.value, null});
+    }
+  }
+
+  /** Compares groups of aligned declarations, using its own fingerprinter, on a single thread. */
+  private static final class Differ {
+    private final Fingerprinter fingerprinter = new Fingerprinter(true);
+    private final List<Change> changes = new ArrayList<Change>();
+
+    List<Change> diff(List<Object[]> pairs) {
+      for (Object[] pair : pairs) {
+        Object oldValue = pair[0];
+        Object newValue = pair[1];
+        Object value = oldValue != null ? oldValue : newValue;
+        if (value instanceof ProtoFile) {
+          diffFiles((ProtoFile) oldValue, (ProtoFile) newValue);
+        } else if (value instanceof Type) {
+          diffTypes((Type) oldValue, (Type) newValue);
+        } else if (value instanceof Service) {
+          diffServices((Service) oldValue, (Service) newValue);
+        } else {
+          diffExtensions((Extensions) oldValue, (Extensions) newValue);
+        }
+      }
+      return changes;
+    }
+
+    private void add(ChangeType changeType, Element element, String path, Object oldValue,
+        Object newValue) {
+      changes.add(new Change(changeType, element, path, oldValue, newValue));
+    }
+
+    private void diffFiles(ProtoFile oldFile, ProtoFile newFile) {
+      if (oldFile == null) {
+        add(ChangeType.ADDED, Element.FILE, newFile.getFileName(), null, newFile);
+        return;
+      }
+      if (newFile == null) {
+        add(ChangeType.REMOVED, Element.FILE, oldFile.getFileName(), oldFile, null);
+        return;
+      }
+      if (fingerprinter.of(oldFile).equals(fingerprinter.of(newFile))) return;
+      String fileName = newFile.getFileName();
+      if (!equal(oldFile.getPackageName(), newFile.getPackageName())
+          || !oldFile.getDependencies().equals(newFile.getDependencies())
+          || !oldFile.getPublicDependencies().equals(newFile.getPublicDependencies())) {
+        add(ChangeType.CHANGED, Element.FILE, fileName, oldFile, newFile);
+      }
+      diffOptions(fileName, oldFile.getOptions(), newFile.getOptions());
+    }
+
+    private void diffExtensions(Extensions oldExtensions, Extensions newExtensions) {
+      diffFields(Element.EXTENSION,
+          newExtensions != null ? newExtensions.extendee : oldExtensions.extendee,
+          oldExtensions != null ? oldExtensions.fields : Collections.<Field>emptyList(),
+          newExtensions != null ? newExtensions.fields : Collections.<Field>emptyList());
+    }
+
+    private void diffTypes(List<Type> oldTypes, List<Type> newTypes) {
+      Map<String, Type> oldByName = new LinkedHashMap<String, Type>();
+      for (Type type : oldTypes) {
+        oldByName.put(type.getFullyQualifiedName(), type);
+      }
+      for (Type newType : newTypes) {
+        diffTypes(oldByName.remove(newType.getFullyQualifiedName()), newType);
+      }
+      for (Type oldType : oldByName.values()) {
+        diffTypes(oldType, null);
+      }
+    }
+
+    private void diffTypes(Type oldType, Type newType) {
+      if (oldType == null) {
+        add(ChangeType.ADDED, Element.TYPE, newType.getFullyQualifiedName(), null, newType);
+      } else if (newType == null) {
+        add(ChangeType.REMOVED, Element.TYPE, oldType.getFullyQualifiedName(), oldType, null);
+      } else if (!fingerprinter.of(oldType).equals(fingerprinter.of(newType))) {
+        diffType(oldType, newType);
+      }
+    }
+
+    private void diffType(Type oldType, Type newType) {
+      String path = newType.getFullyQualifiedName();
+      if (oldType instanceof MessageType && newType instanceof MessageType) {
+        MessageType oldMessage = (MessageType) oldType;
+        MessageType newMessage = (MessageType) newType;
+        if (!oldMessage.getDocumentation().equals(newMessage.getDocumentation())
+            || !oldMessage.getExtensions().equals(newMessage.getExtensions())) {
+          add(ChangeType.CHANGED, Element.TYPE, path, oldType, newType);
+        }
+        diffOptions(path, oldMessage.getOptions(), newMessage.getOptions());
+        diffFields(Element.FIELD, path, oldMessage.getFields(), newMessage.getFields());
+      } else if (oldType instanceof EnumType && newType instanceof EnumType) {
+        EnumType oldEnum = (EnumType) oldType;
+        EnumType newEnum = (EnumType) newType;
+        if (!oldEnum.getDocumentation().equals(newEnum.getDocumentation())) {
+          add(ChangeType.CHANGED, Element.TYPE, path, oldType, newType);
+        }
+        diffOptions(path, oldEnum.getOptions(), newEnum.getOptions());
+        diffValues(path, oldEnum.getValues(), newEnum.getValues());
+      } else {
+        // A message became an enum or the reverse: nothing inside can be aligned.
+        add(ChangeType.CHANGED, Element.TYPE, path, oldType, newType);
+        return;
+      }
+      diffTypes(oldType.getNestedTypes(), newType.getNestedTypes());
+    }
+
+    private void diffFields(Element element, String owner, List<Field> oldFields,
+        List<Field> newFields) {
+      Map<Integer, Field> oldByTag = new LinkedHashMap<Integer, Field>();
+      for (Field field : oldFields) {
+        oldByTag.put(field.getTag(), field);
+      }
+      for (Field newField : newFields) {
+        Field oldField = oldByTag.remove(newField.getTag());
+        String path = owner + "#" + newField.getTag();
+        if (oldField == null) {
+          add(ChangeType.ADDED, element, path, null, newField);
+        } else if (!fingerprinter.of(oldField).equals(fingerprinter.of(newField))) {
+          if (oldField.getLabel() != newField.getLabel()
+              || !oldField.getType().equals(newField.getType())
+              || !oldField.getName().equals(newField.getName())
+              || !oldField.getDocumentation().equals(newField.getDocumentation())) {
+            add(ChangeType.CHANGED, element, path, oldField, newField);
+          }
+          diffOptions(path, oldField.getOptions(), newField.getOptions());
+        }
+      }
+      for (Field oldField : oldByTag.values()) {
+        add(ChangeType.REMOVED, element, owner + "#" + oldField.getTag(), oldField, null);
+      }
+    }
+
+    private void diffValues(String owner, List<EnumType.Value> oldValues,
+        List<EnumType.Value> newValues) {
+      Map<String, EnumType.Value> oldByName = new LinkedHashMap<String, EnumType.Value>();
+      for (EnumType.Value value : oldValues) {
+        oldByName.put(value.getName(), value);
+      }
+      for (EnumType.Value newValue : newValues) {
+        EnumType.Value oldValue = oldByName.remove(newValue.getName());
+        String path = owner + "#" + newValue.getName();
+        if (oldValue == null) {
+          add(ChangeType.ADDED, Element.ENUM_VALUE, path, null, newValue);
+        } else if (!fingerprinter.of(oldValue).equals(fingerprinter.of(newValue))) {
+          if (oldValue.getTag() != newValue.getTag()
+              || !oldValue.getDocumentation().equals(newValue.getDocumentation())) {
+            add(ChangeType.CHANGED, Element.ENUM_VALUE, path, oldValue, newValue);
+          }
+          diffOptions(path, oldValue.getOptions(), newValue.getOptions());
+        }
+      }
+      for (EnumType.Value oldValue : oldByName.values()) {
+        add(ChangeType.REMOVED, Element.ENUM_VALUE, owner + "#" + oldValue.getName(), oldValue,
+            null);
+      }
+    }
+
+    private void diffServices(Service oldService, Service newService) {
+      if (oldService == null) {
+        add(ChangeType.ADDED, Element.SERVICE, newService.getFullyQualifiedName(), null,
+            newService);
+        return;
+      }
+      if (newService == null) {
+        add(ChangeType.REMOVED, Element.SERVICE, oldService.getFullyQualifiedName(), oldService,
+            null);
+        return;
+      }
+      if (fingerprinter.of(oldService).equals(fingerprinter.of(newService))) return;
+      String path = newService.getFullyQualifiedName();
+      if (!oldService.getDocumentation().equals(newService.getDocumentation())) {
+        add(ChangeType.CHANGED, Element.SERVICE, path, oldService, newService);
+      }
+      diffOptions(path, oldService.getOptions(), newService.getOptions());
+
+      Map<String, Service.Method> oldByName = new LinkedHashMap<String, Service.Method>();
+      for (Service.Method method : oldService.getMethods()) {
+        oldByName.put(method.getName(), method);
+      }
+      for (Service.Method newMethod : newService.getMethods()) {
+        Service.Method oldMethod = oldByName.remove(newMethod.getName());
+        String methodPath = path + "#" + newMethod.getName();
+        if (oldMethod == null) {
+          add(ChangeType.ADDED, Element.METHOD, methodPath, null, newMethod);
+        } else if (!fingerprinter.of(oldMethod).equals(fingerprinter.of(newMethod))) {
+          if (!oldMethod.getRequestType().equals(newMethod.getRequestType())
+              || !oldMethod.getResponseType().equals(newMethod.getResponseType())
+              || !oldMethod.getDocumentation().equals(newMethod.getDocumentation())) {
+            add(ChangeType.CHANGED, Element.METHOD, methodPath, oldMethod, newMethod);
+          }
+          diffOptions(methodPath, oldMethod.getOptions(), newMethod.getOptions());
+        }
+      }
+      for (Service.Method oldMethod : oldByName.values()) {
+        add(ChangeType.REMOVED, Element.METHOD, path + "#" + oldMethod.getName(), oldMethod,
+            null);
+      }
+    }
+
+    private void diffOptions(String owner, List<Option> oldOptions, List<Option> newOptions) {
+      if (oldOptions.equals(newOptions)) return;
+      Map<String, List<Object>> oldByName = optionValues(oldOptions);
+      Map<String, List<Object>> newByName = optionValues(newOptions);
+      for (Map.Entry<String, List<Object>> entry : newByName.entrySet()) {
+        String path = owner + "[" + entry.getKey() + "]";
+        List<Object> oldValues = oldByName.remove(entry.getKey());
+        if (oldValues == null) {
+          add(ChangeType.ADDED, Element.OPTION, path, null, value(entry.getValue()));
+        } else if (!oldValues.equals(entry.getValue())) {
+          add(ChangeType.CHANGED, Element.OPTION, path, value(oldValues), value(entry.getValue()));
+        }
+      }
+      for (Map.Entry<String, List<Object>> entry : oldByName.entrySet()) {
+        add(ChangeType.REMOVED, Element.OPTION, owner + "[" + entry.getKey() + "]",
+            value(entry.getValue()), null);
+      }
+    }
+
+    /** Groups option values by name. Most options are declared once and have a single value. */
+    private static Map<String, List<Object>> optionValues(List<Option> options) {
+      Map<String, List<Object>> result = new LinkedHashMap<String, List<Object>>();
+      for (Option option : options) {
+        List<Object> values = result.get(option.getName());
+        if (values == null) {
+          values = new ArrayList<Object>(1);
+          result.put(option.getName(), values);
+        }
+        values.add(option.getValue());
+      }
+      return result;
+    }
+
+    /** Returns the value of an option declared once, or all values of a repeated option. */
+    private static Object value(List<Object> values) {
+      return values.size() == 1 ? values.get(0) : values;
+    }
+
+    private static boolean equal(Object a, Object b) {
+      return a == null ? b == null : a.equals(b);
+    }
+  }
+
+  private SchemaDiff() {
+    throw new AssertionError("No instances.");
+  }
+}
@@ -0,0 +1,476 @@
+// Copyright 2014 Square, Inc.
+package com.squareup.protoparser;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.squareup.protoparser.MessageType.Field;
+import static com.squareup.protoparser.MessageType.Label;
+
+/**
+ * A compact binary encoding of parsed {@code .proto} files. Loading a snapshot skips lexing,
+ * parsing and validation, so it is much faster than parsing the original text.
+ *
+ * <p>A snapshot starts with a magic number and a format version, followed by a table of every
+ * distinct string in the schema. Declarations refer to strings by their index in that table, so
+ * names repeated across fields and files are stored, and loaded, once. Snapshots are trusted:
+ * they are not validated when read.
+ */
+public final class SchemaSnapshot {
+  /** The current snapshot format version. Readers reject snapshots of any other version. */
+  public static final int VERSION = 2;
+
+  private static final int MAGIC = 0x50534e50; // "PSNP"
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private static final int TYPE_MESSAGE = 1;
+  private static final int TYPE_ENUM = 2;
+
+  private static final int VALUE_STRING = 0;
+  private static final int VALUE_BOOLEAN = 1;
+  private static final int VALUE_OPTION = 2;
+  private static final int VALUE_LIST = 3;
+  private static final int VALUE_MAP = 4;
+
+  private static final Label[] LABELS = Label.values();
+
+  /** Writes {@code files} as a snapshot to {@code out}. The stream is not closed. */
+  public static void write(Collection<ProtoFile> files, OutputStream out) throws IOException {
+    Writer writer = new Writer();
+    writer.writeVarint(files.size());
+    for (ProtoFile file : files) {
+      writer.writeFile(file);
+    }
+
+    Writer header = new Writer();
+    header.writeFixed32(MAGIC);
+    header.writeVarint(VERSION);
+    header.writeVarint(writer.strings.size());
+    for (String string : writer.strings.keySet()) {
+      byte[] bytes = string.getBytes(UTF_8);
+      header.writeVarint(bytes.length);
+      header.out.write(bytes, 0, bytes.length);
+    }
+    header.out.writeTo(out);
+    writer.out.writeTo(out);
+  }
+
+  /** Reads the files of a snapshot from {@code in}. The stream is not closed. */
+  public static List<ProtoFile> read(InputStream in) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    byte[] buffer = new byte[8192];
+    int count;
+    while ((count = in.read(buffer)) != -1) {
+      bytes.write(buffer, 0, count);
+    }
+    return read(bytes.toByteArray());
+  }
+
+  /** Reads the files of a snapshot from {@code data}. */
+  public static List<ProtoFile> read(byte[] data) throws IOException {
+    if (data.length < 4) throw new IOException("Not a schema snapshot");
+    Reader reader = new Reader(data);
+    if (reader.readFixed32() != MAGIC) throw new IOException("Not a schema snapshot");
+
+    try {
+      int version = reader.readVarint();
+      if (version != VERSION) throw new IOException("Unsupported snapshot version: " + version);
+
+      String[] strings = new String[reader.readCount()];
+      for (int i = 0; i < strings.length; i++) {
+        int length = reader.readVarint();
+        strings[i] = new String(data, reader.pos, length, UTF_8);
+        reader.pos += length;
+      }
+      reader.strings = strings;
+
+      int fileCount = reader.readCount();
+      List<ProtoFile> files = new ArrayList<ProtoFile>(fileCount);
+      for (int i = 0; i < fileCount; i++) {
+        files.add(reader.readFile());
+      }
+      return files;
+    } catch (IndexOutOfBoundsException e) {
+      throw new IOException("Truncated or corrupt snapshot", e);
+    }
+  }
+
+  private static final class Writer {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final Map<String, Integer> strings = new LinkedHashMap<String, Integer>();
+
+    void writeFile(ProtoFile file) {
+      writeString(file.getFileName());
+      writeNullableString(file.getPackageName());
+      writeStrings(file.getDependencies());
+      writeStrings(file.getPublicDependencies());
+      writeOptions(file.getOptions());
+      writeTypes(file.getTypes());
+
+      writeVarint(file.getServices().size());
+      for (Service service : file.getServices()) {
+        writeString(service.getName());
+        writeString(service.getFullyQualifiedName());
+        writeString(service.getDocumentation());
+        writeOptions(service.getOptions());
+        writeVarint(service.getMethods().size());
+        for (Service.Method method : service.getMethods()) {
+          writeString(method.getName());
+          writeString(method.getDocumentation());
+          writeString(method.getRequestType());
+          writeString(method.getResponseType());
+          writeOptions(method.getOptions());
+        }
+      }
+
+      writeVarint(file.getExtendDeclarations().size());
+      for (ExtendDeclaration extend : file.getExtendDeclarations()) {
+        writeString(extend.getName());
+        writeString(extend.getFullyQualifiedName());
+        writeNullableString(extend.getScope() != null ? extend.getScope().toString() : null);
+        writeString(extend.getDocumentation());
+        writeFields(extend.getFields());
+      }
+    }
+
+    void writeTypes(List<Type> types) {
+      writeVarint(types.size());
+      for (Type type : types) {
+        if (type instanceof MessageType) {
+          MessageType messageType = (MessageType) type;
+          writeVarint(TYPE_MESSAGE);
+          writeString(messageType.getName());
+          writeString(messageType.getFullyQualifiedName());
+          writeString(messageType.getDocumentation());
+          writeOptions(messageType.getOptions());
+          writeFields(messageType.getFields());
+          writeVarint(messageType.getExtensions().size());
+          for (Extensions extensions : messageType.getExtensions()) {
+            writeString(extensions.getDocumentation());
+            writeSignedVarint(extensions.getStart());
+            writeSignedVarint(extensions.getEnd());
+          }
+          writeTypes(messageType.getNestedTypes());
+        } else if (type instanceof EnumType) {
+          EnumType enumType = (EnumType) type;
+          writeVarint(TYPE_ENUM);
+          writeString(enumType.getName());
+          writeString(enumType.getFullyQualifiedName());
+          writeString(enumType.getDocumentation());
+          writeOptions(enumType.getOptions());
+          writeVarint(enumType.getValues().size());
+          for (EnumType.Value value : enumType.getValues()) {
+            writeString(value.getName());
+            writeSignedVarint(value.getTag());
+            writeString(value.getDocumentation());
+            writeOptions(value.getOptions());
+          }
+        } else {
+          throw new IllegalArgumentException("Unexpected type " + type.getClass().getName());
+        }
+      }
+    }
+
+    void writeFields(List<Field> fields) {
+      writeVarint(fields.size());
+      for (Field field : fields) {
+        writeVarint(field.getLabel().ordinal());
+        writeString(field.getType());
+        writeString(field.getName());
+        writeSignedVarint(field.getTag());
+        writeString(field.getDocumentation());
+        writeOptions(field.getOptions());
+      }
+    }
+
+    void writeOptions(List<Option> options) {
+      writeVarint(options.size());
+      for (Option option : options) {
+        writeString(option.getName());
+        writeValue(option.getValue());
+      }
+    }
+
+    void writeValue(Object value) {
+      if (value instanceof String) {
+        writeVarint(VALUE_STRING);
+        writeString((String) value);
+      } else if (value instanceof Boolean) {
+        writeVarint(VALUE_BOOLEAN);
+        writeVarint((Boolean) value ? 1 : 0);
+      } else if (value instanceof Option) {
+        Option option = (Option) value;
+        writeVarint(VALUE_OPTION);
+        writeString(option.getName());
+        writeValue(option.getValue());
+      } else if (value instanceof List) {
+        List<?> list = (List<?>) value;
+        writeVarint(VALUE_LIST);
+        writeVarint(list.size());
+        for (Object element : list) {
+          writeValue(element);
+        }
+      } else if (value instanceof Map) {
+        Map<?, ?> map = (Map<?, ?>) value;
+        writeVarint(VALUE_MAP);
+        writeVarint(map.size());
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+          writeString((String) entry.getKey());
+          writeValue(entry.getValue());
+        }
+      } else {
+        throw new IllegalArgumentException("Unexpected option value " + value);
+      }
+    }
+
+    void writeStrings(List<String> values) {
+      writeVarint(values.size());
+      for (String value : values) {
+        writeString(value);
+      }
+    }
+
+    void writeNullableString(String value) {
+      writeVarint(value != null ? index(value) + 1 : 0);
+    }
+
+    void writeString(String value) {
+      writeVarint(index(value));
+    }
+
+    private int index(String value) {
+      Integer index = strings.get(value);
+      if (index == null) {
+        index = strings.size();
+        strings.put(value, index);
+      }
+      return index;
+    }
+
+    void writeSignedVarint(int value) {
+      writeVarint((value << 1) ^ (value >> 31));
+    }
+
+    void writeVarint(int value) {
+      while ((value & ~0x7f) != 0) {
+        out.write((value & 0x7f) | 0x80);
+        value >>>= 7;
+      }
+      out.write(value);
+    }
+
+    void writeFixed32(int value) {
+      out.write(value >>> 24);
+      out.write(value >>> 16);
+      out.write(value >>> 8);
+      out.write(value);
+    }
+  }
+
+  private static final class Reader {
+    final byte[] data;
+    int pos;
+    String[] strings;
+
+    Reader(byte[] data) {
+      this.data = data;
+    }
+
+    ProtoFile readFile() throws IOException {
+      String fileName = readString();
+      String packageName = readNullableString();
+      List<String> dependencies = readStrings();
+      List<String> publicDependencies = readStrings();
+      List<Option> options = readOptions();
+      List<Type> types = readTypes();
+
+      int serviceCount = readCount();
+      List<Service> services = new ArrayList<Service>(serviceCount);
+      for (int i = 0; i < serviceCount; i++) {
+        String name = readString();
+        String fqname = readString();
+        String documentation = readString();
+        List<Option> serviceOptions = readOptions();
+        int methodCount = readCount();
+        List<Service.Method> methods = new ArrayList<Service.Method>(methodCount);
+        for (int j = 0; j < methodCount; j++) {
+          methods.add(new Service.Method(readString(), readString(), readString(), readString(),
+              readOptions()));
+        }
+        services.add(new Service(name, fqname, documentation, serviceOptions, methods));
+      }
+
+      int extendCount = readCount();
+      List<ExtendDeclaration> extendDeclarations = new ArrayList<ExtendDeclaration>(extendCount);
+      for (int i = 0; i < extendCount; i++) {
+        String name = readString();
+        QualifiedName fqname = QualifiedName.parse(readString());
+        String scope = readNullableString();
+        extendDeclarations.add(new ExtendDeclaration(name, fqname,
+            scope != null ? QualifiedName.parse(scope) : null, readString(), readFields(), false));
+      }
+
+      return new ProtoFile(fileName, packageName, dependencies, publicDependencies, types,
+          services, options, extendDeclarations);
+    }
+
+    List<Type> readTypes() throws IOException {
+      int count = readCount();
+      List<Type> types = new ArrayList<Type>(count);
+      for (int i = 0; i < count; i++) {
+        int kind = readVarint();
+        String name = readString();
+        QualifiedName fqname = QualifiedName.parse(readString());
+        String documentation = readString();
+        List<Option> options = readOptions();
+        if (kind == TYPE_MESSAGE) {
+          List<Field> fields = readFields();
+          int extensionsCount = readCount();
+          List<Extensions> extensions = new ArrayList<Extensions>(extensionsCount);
+          for (int j = 0; j < extensionsCount; j++) {
+            extensions.add(new Extensions(readString(), readSignedVarint(), readSignedVarint()));
+          }
+          List<Type> nestedTypes = readTypes();
+          types.add(new MessageType(name, fqname, documentation, fields, nestedTypes, extensions,
+              options, false));
+        } else if (kind == TYPE_ENUM) {
+          int valueCount = readCount();
+          List<EnumType.Value> values = new ArrayList<EnumType.Value>(valueCount);
+          for (int j = 0; j < valueCount; j++) {
+            values.add(new EnumType.Value(readString(), readSignedVarint(), readString(),
+                readOptions()));
+          }
+          types.add(new EnumType(name, fqname, documentation, options, values, false));
+        } else {
+          throw new IOException("Unexpected type kind " + kind);
+        }
+      }
+      return types;
+    }
+
+    List<Field> readFields() throws IOException {
+      int count = readCount();
+      List<Field> fields = new ArrayList<Field>(count);
+      for (int i = 0; i < count; i++) {
+        fields.add(new Field(readLabel(), readString(), readString(), readSignedVarint(),
+            readString(), readOptions(), false));
+      }
+      return fields;
+    }
+
+    Label readLabel() throws IOException {
+      int label = readVarint();
+      if (label < 0 || label >= LABELS.length) throw new IOException("Unexpected label " + label);
+      return LABELS[label];
+    }
+
+    List<Option> readOptions() throws IOException {
+      int count = readCount();
+      List<Option> options = new ArrayList<Option>(count);
+      for (int i = 0; i < count; i++) {
+        options.add(new Option(readString(), readValue()));
+      }
+      return options;
+    }
+
+    Object readValue() throws IOException {
+      int kind = readVarint();
+      switch (kind) {
+        case VALUE_STRING:
+          return readString();
+        case VALUE_BOOLEAN:
+          return readVarint() != 0;
+        case VALUE_OPTION:
+          return new Option(readString(), readValue());
+        case VALUE_LIST:
+          return readList();
+        case VALUE_MAP:
+          return readMap();
+        default:
+          throw new IOException("Unexpected option value kind " + kind);
+      }
+    }
+
+    List<Object> readList() throws IOException {
+      int count = readCount();
+      List<Object> list = new ArrayList<Object>(count);
+      for (int i = 0; i < count; i++) {
+        list.add(readValue());
+      }
+      return list;
+    }
+
+    Map<String, Object> readMap() throws IOException {
+      int count = readCount();
+      Map<String, Object> map = new LinkedHashMap<String, Object>(count * 2);
+      for (int i = 0; i < count; i++) {
+        map.put(readString(), readValue());
+      }
+      return map;
+    }
+
+    List<String> readStrings() throws IOException {
+      int count = readCount();
+      List<String> values = new ArrayList<String>(count);
+      for (int i = 0; i < count; i++) {
+        values.add(readString());
+      }
+      return values;
+    }
+
+    /**
+     * Reads the number of elements that follow. Each element takes at least one byte, so a count
+     * larger than the remaining data is corrupt.
+     */
+    int readCount() throws IOException {
+      int count = readVarint();
+      if (count < 0 || count > data.length - pos) {
+        throw new IOException("Truncated or corrupt snapshot");
+      }
+      return count;
+    }
+
+    String readNullableString() throws IOException {
+      int index = readVarint();
+      return index != 0 ? strings[index - 1] : null;
+    }
+
+    String readString() throws IOException {
+      return strings[readVarint()];
+    }
+
+    int readSignedVarint() throws IOException {
+      int value = readVarint();
+      return (value >>> 1) ^ -(value & 1);
+    }
+
+    int readVarint() throws IOException {
+      int result = 0;
+      for (int shift = 0; shift < 32; shift += 7) {
+        byte b = data[pos++];
+        result |= (b & 0x7f) << shift;
+        if (b >= 0) return result;
+      }
+      throw new IOException("Malformed varint");
+    }
+
+    int readFixed32() {
+      return (data[pos++] & 0xff) << 24
+          | (data[pos++] & 0xff) << 16
+          | (data[pos++] & 0xff) << 8
+          | (data[pos++] & 0xff);
+    }
+  }
+
+  private SchemaSnapshot() {
+    throw new AssertionError("No instances.");
+  }
+}
@@ -0,0 +1,666 @@
+// Copyright 2014 Square, Inc.
+package com.squareup.protoparser;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.squareup.protoparser.MessageType.Field;
+import static com.squareup.protoparser.MessageType.Label;
+
+/**
+ * A read-only schema that lives outside the Java heap. Types are read in place from a buffer,
+ * usually a memory-mapped file, through flyweight views that decode only what is asked of them.
+ * Processes that open the same file share its pages through the operating system's page cache.
+ *
+ * <p>Use {@link #write} to build a store file from parsed files and {@link #open} to map it.
+ * Stores are limited to 2 GiB.
+ *
+ * <p>Each message and enum record is followed by its field or value indices sorted by tag, so
+ * that {@code indexOfTag} is a binary search rather than a scan.
+ */
+public final class SchemaStore {
+  /** The current store format version. Readers reject stores of any other version. */
+  public static final int VERSION = 2;
+
+  private static final int MAGIC = 0x50535452; // "PSTR"
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final Label[] LABELS = Label.values();
+
+  private static final int HEADER_SIZE = 32;
+  private static final int KIND_MESSAGE = 1;
+  private static final int KIND_ENUM = 2;
+
+  // Message records.
+  private static final int MESSAGE_FIELDS = 32;
+  private static final int FIELD_SIZE = 24;
+  private static final int EXTENSIONS_SIZE = 12;
+
+  // Enum records.
+  private static final int ENUM_VALUES = 28;
+  private static final int VALUE_SIZE = 16;
+
+  private static final int VALUE_STRING = 0;
+  private static final int VALUE_BOOLEAN = 1;
+  private static final int VALUE_OPTION = 2;
+  private static final int VALUE_LIST = 3;
+  private static final int VALUE_MAP = 4;
+
+  /** Writes the types of {@code files} to a new store at {@code file}. */
+  public static void write(Collection<ProtoFile> files, File file) throws IOException {
+    byte[] bytes = new StoreWriter().write(files);
+    FileOutputStream out = new FileOutputStream(file);
+    try {
+      out.write(bytes);
+    } finally {
+      out.close();
+    }
+  }
+
+  /** Memory-maps the store at {@code file}. */
+  public static SchemaStore open(File file) throws IOException {
+    RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = randomAccessFile.getChannel();
+      return of(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    } finally {
+      randomAccessFile.close(); // The mapping remains valid.
+    }
+  }
+
+  /** Returns a store that reads from {@code buffer}, which must not be modified. */
+  public static SchemaStore of(ByteBuffer buffer) throws IOException {
+    ByteBuffer data = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+    if (data.capacity() < HEADER_SIZE || data.getInt(0) != MAGIC) {
+      throw new IOException("Not a schema store");
+    }
+    int version = data.getInt(4);
+    if (version != VERSION) throw new IOException("Unsupported store version: " + version);
+    return new SchemaStore(data);
+  }
+
+  private final ByteBuffer data;
+  private final int stringsPosition;
+  private final int rootCount;
+  private final int rootsPosition;
+  private final int indexCapacity;
+  private final int indexPosition;
+
+  private SchemaStore(ByteBuffer data) {
+    this.data = data;
+    this.stringsPosition = data.getInt(12);
+    this.rootCount = data.getInt(16);
+    this.rootsPosition = data.getInt(20);
+    this.indexCapacity = data.getInt(24);
+    this.indexPosition = data.getInt(28);
+  }
+
+  /** Returns the top-level types of every file in this store, in file order. */
+  public List<Type> getTypes() {
+    return new AbstractList<Type>() {
+      @Override public Type get(int index) {
+        if (index < 0 || index >= rootCount) throw new IndexOutOfBoundsException("" + index);
+        return typeAt(data.getInt(rootsPosition + 4 * index));
+      }
+
+      @Override public int size() {
+        return rootCount;
+      }
+    };
+  }
+
+  /** Returns the type named {@code fqname}, or null if this store has no such type. */
+  public Type getType(String fqname) {
+    if (indexCapacity == 0) return null;
+    byte[] key = fqname.getBytes(UTF_8);
+    int hash = fqname.hashCode();
+    int mask = indexCapacity - 1;
+    int slot = hash & mask;
+    while (true) {
+      int entry = indexPosition + 8 * slot;
+      int record = data.getInt(entry + 4);
+      if (record == 0) return null;
+      if (data.getInt(entry) == hash && stringEquals(data.getInt(record + 8), key)) {
+        return typeAt(record);
+      }
+      slot = (slot + 1) & mask;
+    }
+  }
+
+  private Type typeAt(int record) {
+    int kind = data.getInt(record);
+    if (kind == KIND_MESSAGE) return new StoredMessageType(this, record);
+    if (kind == KIND_ENUM) return new StoredEnumType(this, record);
+    throw new IllegalStateException("Corrupt store: unexpected kind " + kind);
+  }
+
+  String string(int ref) {
+    int position = data.getInt(stringsPosition + 4 * ref);
+    int length = data.getInt(position);
+    int start = position + 4;
+    char[] chars = new char[length];
+    for (int i = 0; i < length; i++) {
+      byte b = data.get(start + i);
+      if (b < 0) {
+        byte[] bytes = new byte[length];
+        for (int j = 0; j < length; j++) {
+          bytes[j] = data.get(start + j);
+        }
+        return new String(bytes, UTF_8);
+      }
+      chars[i] = (char) b;
+    }
+    return new String(chars);
+  }
+
+  private boolean stringEquals(int ref, byte[] bytes) {
+    int position = data.getInt(stringsPosition + 4 * ref);
+    if (data.getInt(position) != bytes.length) return false;
+    for (int i = 0; i < bytes.length; i++) {
+      if (data.get(position + 4 + i) != bytes[i]) return false;
+    }
+    return true;
+  }
+
+  List<Option> options(int position) {
+    if (position == 0) return new ArrayList<Option>();
+    int[] cursor = new int[1];
+    cursor[0] = position;
+    int count = readInt(cursor);
+    List<Option> options = new ArrayList<Option>(count);
+    for (int i = 0; i < count; i++) {
+      options.add(new Option(string(readInt(cursor)), readValue(cursor)));
+    }
+    return options;
+  }
+
+  private Object readValue(int[] cursor) {
+    int kind = readInt(cursor);
+    switch (kind) {
+      case VALUE_STRING:
+        return string(readInt(cursor));
+      case VALUE_BOOLEAN:
+        return readInt(cursor) != 0;
+      case VALUE_OPTION:
+        return new Option(string(readInt(cursor)), readValue(cursor));
+      case VALUE_LIST:
+        int listSize = readInt(cursor);
+        List<Object> list = new ArrayList<Object>(listSize);
+        for (int i = 0; i < listSize; i++) {
+          list.add(readValue(cursor));
+        }
+        return list;
+      case VALUE_MAP:
+        int mapSize = readInt(cursor);
+        Map<String, Object> map = new LinkedHashMap<String, Object>(mapSize * 2);
+        for (int i = 0; i < mapSize; i++) {
+          map.put(string(readInt(cursor)), readValue(cursor));
+        }
+        return map;
+      default:
+        throw new IllegalStateException("Corrupt store: unexpected option value kind " + kind);
+    }
+  }
+
+  private int readInt(int[] cursor) {
+    int result = data.getInt(cursor[0]);
+    cursor[0] += 4;
+    return result;
+  }
+
+  int getInt(int position) {
+    return data.getInt(position);
+  }
+
+  /**
+   * Returns the first index in the tag-sorted index array at {@code position} whose element has
+   * {@code tag}, or -1 if there is none. Element {@code i} has its tag at {@code elements +
+   * size * i + offset}.
+   */
+  int searchTag(int position, int count, int elements, int size, int offset, int tag) {
+    int low = 0;
+    int high = count;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      int index = data.getInt(position + 4 * mid);
+      if (data.getInt(elements + size * index + offset) < tag) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    if (low == count) return -1;
+    int index = data.getInt(position + 4 * low);
+    return data.getInt(elements + size * index + offset) == tag ? index : -1;
+  }
+
+  /** Common state of stored message and enum types. */
+  private abstract static class StoredType implements Type {
+    final SchemaStore store;
+    final int record;
+
+    StoredType(SchemaStore store, int record) {
+      this.store = store;
+      this.record = record;
+    }
+
+    @Override public String getName() {
+      return store.string(store.getInt(record + 4));
+    }
+
+    @Override public String getFullyQualifiedName() {
+      return store.string(store.getInt(record + 8));
+    }
+
+    @Override public String getDocumentation() {
+      return store.string(store.getInt(record + 12));
+    }
+
+    @Override public List<Option> getOptions() {
+      return store.options(store.getInt(record + 16));
+    }
+
+    @Override public boolean equals(Object other) {
+      if (this == other) return true;
+      if (other == null || other.getClass() != getClass()) return false;
+      StoredType that = (StoredType) other;
+      return store == that.store && record == that.record;
+    }
+
+    @Override public int hashCode() {
+      return System.identityHashCode(store) * 31 + record;
+    }
+
+    @Override public String toString() {
+      return getFullyQualifiedName();
+    }
+  }
+
+  /** A flyweight view of a message type in a store. */
+  public static final class StoredMessageType extends StoredType {
+    StoredMessageType(SchemaStore store, int record) {
+      super(store, record);
+    }
+
+    public int getFieldCount() {
+      return store.getInt(record + 20);
+    }
+
+    private int field(int index) {
+      if (index < 0 || index >= getFieldCount()) throw new IndexOutOfBoundsException("" + index);
+      return record + MESSAGE_FIELDS + FIELD_SIZE * index;
+    }
+
+    public Label getFieldLabel(int index) {
+      return LABELS[store.getInt(field(index))];
+    }
+
+    public String getFieldType(int index) {
+      return store.string(store.getInt(field(index) + 4));
+    }
+
+    public String getFieldName(int index) {
+      return store.string(store.getInt(field(index) + 8));
+    }
+
+    public int getFieldTag(int index) {
+      return store.getInt(field(index) + 12);
+    }
+
+    /** Returns the index of the field with {@code tag}, or -1 if there is no such field. */
+    public int indexOfTag(int tag) {
+      int count = getFieldCount();
+      int fields = record + MESSAGE_FIELDS;
+      return store.searchTag(fields + FIELD_SIZE * count, count, fields, FIELD_SIZE, 12, tag);
+    }
+
+    /** Decodes the field at {@code index} onto the heap. */
+    public Field getField(int index) {
+      int field = field(index);
+      return new Field(LABELS[store.getInt(field)], store.string(store.getInt(field + 4)),
+          store.string(store.getInt(field + 8)), store.getInt(field + 12),
+          store.string(store.getInt(field + 16)), store.options(store.getInt(field + 20)), false);
+    }
+
+    /** Decodes every field onto the heap. */
+    public List<Field> getFields() {
+      int count = getFieldCount();
+      List<Field> fields = new ArrayList<Field>(count);
+      for (int i = 0; i < count; i++) {
+        fields.add(getField(i));
+      }
+      return fields;
+    }
+
+    private int nestedPosition() {
+      return record + MESSAGE_FIELDS + (FIELD_SIZE + 4) * getFieldCount();
+    }
+
+    @Override public List<Type> getNestedTypes() {
+      final int position = nestedPosition();
+      final int count = store.getInt(record + 24);
+      return new AbstractList<Type>() {
+        @Override public Type get(int index) {
+          if (index < 0 || index >= count) throw new IndexOutOfBoundsException("" + index);
+          return store.typeAt(store.getInt(position + 4 * index));
+        }
+
+        @Override public int size() {
+          return count;
+        }
+      };
+    }
+
+    public List<Extensions> getExtensions() {
+      int position = nestedPosition() + 4 * store.getInt(record + 24);
+      int count = store.getInt(record + 28);
+      List<Extensions> extensions = new ArrayList<Extensions>(count);
+      for (int i = 0; i < count; i++) {
+        int entry = position + EXTENSIONS_SIZE * i;
+        extensions.add(new Extensions(store.string(store.getInt(entry)),
+            store.getInt(entry + 4), store.getInt(entry + 8)));
+      }
+      return extensions;
+    }
+  }
+
+  /** A flyweight view of an enum type in a store. */
+  public static final class StoredEnumType extends StoredType {
+    StoredEnumType(SchemaStore store, int record) {
+      super(store, record);
+    }
+
+    public int getValueCount() {
+      return store.getInt(record + 20);
+    }
+
+    /** True if allowing multiple values to have the same tag. */
+    public boolean allowAlias() {
+      return store.getInt(record + 24) != 0;
+    }
+
+    private int value(int index) {
+      if (index < 0 || index >= getValueCount()) throw new IndexOutOfBoundsException("" + index);
+      return record + ENUM_VALUES + VALUE_SIZE * index;
+    }
+
+    public String getValueName(int index) {
+      return store.string(store.getInt(value(index)));
+    }
+
+    public int getValueTag(int index) {
+      return store.getInt(value(index) + 4);
+    }
+
+    /**
+     * Returns the index of the first value with {@code tag}, or -1 if there is no such value.
+     */
+    public int indexOfTag(int tag) {
+      int count = getValueCount();
+      int values = record + ENUM_VALUES;
+      return store.searchTag(values + VALUE_SIZE * count, count, values, VALUE_SIZE, 4, tag);
+    }
+
+    /** Decodes the value at {@code index} onto the heap. */
+    public EnumType.Value getValue(int index) {
+      int value = value(index);
+      return new EnumType.Value(store.string(store.getInt(value)), store.getInt(value + 4),
+          store.string(store.getInt(value + 8)), store.options(store.getInt(value + 12)));
+    }
+
+    /** Decodes every value onto the heap. */
+    public List<EnumType.Value> getValues() {
+      int count = getValueCount();
+      List<EnumType.Value> values = new ArrayList<EnumType.Value>(count);
+      for (int i = 0; i < count; i++) {
+        values.add(getValue(i));
+      }
+      return values;
+    }
+
+    @Override public List<Type> getNestedTypes() {
+      return new ArrayList<Type>();
+    }
+  }
+
+  /** Lays out a store in memory. Records are written before the records that refer to them. */
+  private static final class StoreWriter {
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private final DataOutputStream out = new DataOutputStream(bytes);
+    private final Map<String, Integer> strings = new LinkedHashMap<String, Integer>();
+    private final List<String> indexNames = new ArrayList<String>();
+    private final List<Integer> indexRecords = new ArrayList<Integer>();
+
+    byte[] write(Collection<ProtoFile> files) throws IOException {
+      out.write(new byte[HEADER_SIZE]);
+
+      List<Integer> roots = new ArrayList<Integer>();
+      for (ProtoFile file : files) {
+        for (Type type : file.getTypes()) {
+          roots.add(writeType(type));
+        }
+      }
+      int rootsPosition = out.size();
+      for (int root : roots) {
+        out.writeInt(root);
+      }
+
+      int indexCapacity = indexNames.isEmpty()
+          ? 0
+          : Integer.highestOneBit(indexNames.size() * 2 - 1) << 1;
+      int[] index = new int[indexCapacity * 2];
+      for (int i = 0; i < indexNames.size(); i++) {
+        int hash = indexNames.get(i).hashCode();
+        int slot = hash & (indexCapacity - 1);
+        while (index[slot * 2 + 1] != 0) {
+          slot = (slot + 1) & (indexCapacity - 1);
+        }
+        index[slot * 2] = hash;
+        index[slot * 2 + 1] = indexRecords.get(i);
+      }
+      int indexPosition = out.size();
+      for (int value : index) {
+        out.writeInt(value);
+      }
+
+      int[] stringPositions = new int[strings.size()];
+      int i = 0;
+      for (String string : strings.keySet()) {
+        byte[] utf8 = string.getBytes(UTF_8);
+        stringPositions[i++] = out.size();
+        out.writeInt(utf8.length);
+        out.write(utf8);
+      }
+      int stringsPosition = out.size();
+      for (int position : stringPositions) {
+        out.writeInt(position);
+      }
+      out.flush();
+
+      ByteBuffer result = ByteBuffer.wrap(bytes.toByteArray());
+      result.putInt(0, MAGIC);
+      result.putInt(4, VERSION);
+      result.putInt(8, strings.size());
+      result.putInt(12, stringsPosition);
+      result.putInt(16, roots.size());
+      result.putInt(20, rootsPosition);
+      result.putInt(24, indexCapacity);
+      result.putInt(28, indexPosition);
+      return result.array();
+    }
+
+    private int writeType(Type type) throws IOException {
+      int record;
+      if (type instanceof MessageType) {
+        record = writeMessage((MessageType) type);
+      } else if (type instanceof EnumType) {
+        record = writeEnum((EnumType) type);
+      } else {
+        throw new IllegalArgumentException("Unexpected type " + type.getClass().getName());
+      }
+      indexNames.add(type.getFullyQualifiedName());
+      indexRecords.add(record);
+      return record;
+    }
+
+    private int writeMessage(MessageType type) throws IOException {
+      List<Type> nestedTypes = type.getNestedTypes();
+      int[] nested = new int[nestedTypes.size()];
+      for (int i = 0; i < nested.length; i++) {
+        nested[i] = writeType(nestedTypes.get(i));
+      }
+      List<Field> fields = type.getFields();
+      int[] fieldOptions = new int[fields.size()];
+      for (int i = 0; i < fieldOptions.length; i++) {
+        fieldOptions[i] = writeOptions(fields.get(i).getOptions());
+      }
+      int options = writeOptions(type.getOptions());
+      int[] tags = new int[fields.size()];
+      for (int i = 0; i < tags.length; i++) {
+        tags[i] = fields.get(i).getTag();
+      }
+
+      int record = out.size();
+      out.writeInt(KIND_MESSAGE);
+      out.writeInt(ref(type.getName()));
+      out.writeInt(ref(type.getFullyQualifiedName()));
+      out.writeInt(ref(type.getDocumentation()));
+      out.writeInt(options);
+      out.writeInt(fields.size());
+      out.writeInt(nested.length);
+      out.writeInt(type.getExtensions().size());
+      for (int i = 0; i < fieldOptions.length; i++) {
+        Field field = fields.get(i);
+        out.writeInt(field.getLabel().ordinal());
+        out.writeInt(ref(field.getType()));
+        out.writeInt(ref(field.getName()));
+        out.writeInt(field.getTag());
+        out.writeInt(ref(field.getDocumentation()));
+        out.writeInt(fieldOptions[i]);
+      }
+      writeTagOrder(tags);
+      for (int nestedRecord : nested) {
+        out.writeInt(nestedRecord);
+      }
+      for (Extensions extensions : type.getExtensions()) {
+        out.writeInt(ref(extensions.getDocumentation()));
+        out.writeInt(extensions.getStart());
+        out.writeInt(extensions.getEnd());
+      }
+      return record;
+    }
+
+    private int writeEnum(EnumType type) throws IOException {
+      List<EnumType.Value> values = type.getValues();
+      int[] valueOptions = new int[values.size()];
+      for (int i = 0; i < valueOptions.length; i++) {
+        valueOptions[i] = writeOptions(values.get(i).getOptions());
+      }
+      int options = writeOptions(type.getOptions());
+      int[] tags = new int[values.size()];
+      for (int i = 0; i < tags.length; i++) {
+        tags[i] = values.get(i).getTag();
+      }
+
+      int record = out.size();
+      out.writeInt(KIND_ENUM);
+      out.writeInt(ref(type.getName()));
+      out.writeInt(ref(type.getFullyQualifiedName()));
+      out.writeInt(ref(type.getDocumentation()));
+      out.writeInt(options);
+      out.writeInt(values.size());
+      out.writeInt(type.allowAlias() ? 1 : 0);
+      for (int i = 0; i < valueOptions.length; i++) {
+        EnumType.Value value = values.get(i);
+        out.writeInt(ref(value.getName()));
+        out.writeInt(value.getTag());
+        out.writeInt(ref(value.getDocumentation()));
+        out.writeInt(valueOptions[i]);
+      }
+      writeTagOrder(tags);
+      return record;
+    }
+
+    /**
+     * Writes the indices of {@code tags} sorted by tag. Indices with equal tags keep declaration
+     * order so that lookups find the first alias.
+     */
+    private void writeTagOrder(int[] tags) throws IOException {
+      long[] order = new long[tags.length];
+      for (int i = 0; i < tags.length; i++) {
+        order[i] = ((long) tags[i] << 32) | i;
+      }
+      Arrays.sort(order);
+      for (long entry : order) {
+        out.writeInt((int) entry);
+      }
+    }
+
+    /** Writes {@code options} and returns their position, or 0 if there are none. */
+    private int writeOptions(List<Option> options) throws IOException {
+      if (options.isEmpty()) return 0;
+      int position = out.size();
+      out.writeInt(options.size());
+      for (Option option : options) {
+        out.writeInt(ref(option.getName()));
+        writeValue(option.getValue());
+      }
+      return position;
+    }
+
+    private void writeValue(Object value) throws IOException {
+      if (value instanceof String) {
+        out.writeInt(VALUE_STRING);
+        out.writeInt(ref((String) value));
+      } else if (value instanceof Boolean) {
+        out.writeInt(VALUE_BOOLEAN);
+        out.writeInt((Boolean) value ? 1 : 0);
+      } else if (value instanceof Option) {
+        Option option = (Option) value;
+        out.writeInt(VALUE_OPTION);
+        out.writeInt(ref(option.getName()));
+        writeValue(option.getValue());
+      } else if (value instanceof List) {
+        List<?> list = (List<?>) value;
+        out.writeInt(VALUE_LIST);
+        out.writeInt(list.size());
+        for (Object element : list) {
+          writeValue(element);
+        }
+      } else if (value instanceof Map) {
+        Map<?, ?> map = (Map<?, ?>) value;
+        out.writeInt(VALUE_MAP);
+        out.writeInt(map.size());
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+          out.writeInt(ref((String) entry.getKey()));
+          writeValue(entry.getValue());
+        }
+      } else {
+        throw new IllegalArgumentException("Unexpected option value " + value);
+      }
+    }
+
+    private int ref(String value) {
+      Integer ref = strings.get(value);
+      if (ref == null) {
+        ref = strings.size();
+        strings.put(value, ref);
+      }
+      return ref;
+    }
+  }
+}
@@ -0,0 +1,160 @@
+// Copyright 2014 Square, Inc.
+package com.squareup.protoparser;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import static com.squareup.protoparser.MessageType.Field;
+
+/**
+ * Validates a finished set of {@code .proto} files. This runs the checks that the model
+ * constructors skip for schemas parsed with {@link ProtoSchemaParser#parseUnvalidated}, plus
+ * checks that span files.
+ *
+ * <p>Each file is checked independently, optionally in parallel. Every problem found is reported
+ * in a single {@link IllegalStateException}.
+ */
+public final class SchemaValidator {
+  /** Validates {@code files} on the calling thread. */
+  public static void validate(Collection<ProtoFile> files) {
+    List<FileResult> results = new ArrayList<FileResult>(files.size());
+    for (ProtoFile file : files) {
+      results.add(validateFile(file));
+    }
+    throwIfInvalid(results);
+  }
+
+  /** Validates {@code files}, checking each file as a separate task on {@code executor}. */
+  public static void validate(Collection<ProtoFile> files, ExecutorService executor)
+      throws InterruptedException {
+    List<Future<FileResult>> futures = new ArrayList<Future<FileResult>>(files.size());
+    for (final ProtoFile file : files) {
+      futures.add(executor.submit(new Callable<FileResult>() {
+        @Override public FileResult call() {
+          return validateFile(file);
+        }
+      }));
+    }
+
+    List<FileResult> results = new ArrayList<FileResult>(files.size());
+    for (Future<FileResult> future : futures) {
+      try {
+        results.add(future.get());
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+        if (cause instanceof Error) throw (Error) cause;
+        throw new RuntimeException(cause);
+      }
+    }
+    throwIfInvalid(results);
+  }
+
+  private static void throwIfInvalid(List<FileResult> results) {
+    List<String> errors = new ArrayList<String>();
+    Map<String, String> definitions = new HashMap<String, String>();
+    for (FileResult result : results) {
+      errors.addAll(result.errors);
+      for (String fqname : result.definitions) {
+        String previous = definitions.put(fqname, result.fileName);
+        if (previous != null) {
+          errors.add("Duplicate definition of " + fqname + " in " + previous + " and "
+              + result.fileName);
+        }
+      }
+    }
+    if (errors.isEmpty()) return;
+
+    StringBuilder message = new StringBuilder("Schema validation failed:");
+    for (String error : errors) {
+      message.append("\n  ").append(error);
+    }
+    throw new IllegalStateException(message.toString());
+  }
+
+  private static FileResult validateFile(ProtoFile file) {
+    FileResult result = new FileResult(file.getFileName());
+    for (Type type : file.getTypes()) {
+      validateType(result, type);
+    }
+    for (Service service : file.getServices()) {
+      result.definitions.add(service.getFullyQualifiedName());
+    }
+    for (ExtendDeclaration extend : file.getExtendDeclarations()) {
+      validateFields(result, extend.getFullyQualifiedName(), extend.getFields());
+      try {
+        MessageType.validateFieldTagUniqueness(extend.getQualifiedName(), extend.getFields());
+      } catch (IllegalStateException e) {
+        result.addError(e.getMessage());
+      }
+    }
+    return result;
+  }
+
+  private static void validateType(FileResult result, Type type) {
+    result.definitions.add(type.getFullyQualifiedName());
+    if (type instanceof MessageType) {
+      MessageType messageType = (MessageType) type;
+      validateFields(result, messageType.getFullyQualifiedName(), messageType.getFields());
+      try {
+        MessageType.validateFieldTagUniqueness(messageType.getQualifiedName(),
+            messageType.getFields());
+      } catch (IllegalStateException e) {
+        result.addError(e.getMessage());
+      }
+      try {
+        EnumType.validateValueUniquenessInScope(messageType.getQualifiedName(),
+            messageType.getNestedTypes());
+      } catch (IllegalStateException e) {
+        result.addError(e.getMessage());
+      }
+    } else if (type instanceof EnumType) {
+      EnumType enumType = (EnumType) type;
+      if (!enumType.allowAlias()) {
+        try {
+          EnumType.validateTagUniqueness(enumType.getQualifiedName(), enumType.getValues());
+        } catch (IllegalStateException e) {
+          result.addError(e.getMessage());
+        }
+      }
+    }
+    for (Type nestedType : type.getNestedTypes()) {
+      validateType(result, nestedType);
+    }
+  }
+
+  private static void validateFields(FileResult result, String type, List<Field> fields) {
+    for (Field field : fields) {
+      if (!ProtoFile.isValidTag(field.getTag())) {
+        result.addError("Illegal tag value " + field.getTag() + " for " + field.getName()
+            + " in " + type);
+      }
+    }
+  }
+
+  /** The problems and definitions found in a single file. */
+  private static final class FileResult {
+    final String fileName;
+    final List<String> errors = new ArrayList<String>();
+    final List<String> definitions = new ArrayList<String>();
+
+    FileResult(String fileName) {
+      this.fileName = fileName;
+    }
+
+    void addError(String error) {
+      errors.add(fileName + ": " + error);
+    }
+  }
+
+  private SchemaValidator() {
+    throw new AssertionError("No instances.");
+  }
+}
@@ -4,19 +4,24 @@ package com.squareup.protoparser;
 import java.util.ArrayList;
 import java.util.List;
 
-import static com.squareup.protoparser.Utils.appendDocumentation;
-import static com.squareup.protoparser.Utils.appendIndented;
 import static java.util.Collections.unmodifiableList;
 
 public final class Service {
   private final String name;
-  private final String fqname;
+  private final QualifiedName fqname;
   private final String documentation;
   private final List<Option> options;
+  private final Lookups<Void> lookups;
   private final List<Method> methods;
 
   public Service(String name, String fqname, String documentation, List<Option> options,
       List<Method> methods) {
+    this(name, fqname != null ? QualifiedName.parse(fqname) : null, documentation, options,
+        methods);
+  }
+
+  Service(String name, QualifiedName fqname, String documentation, List<Option> options,
+      List<Method> methods) {
     if (name == null) throw new NullPointerException("name");
     if (fqname == null) throw new NullPointerException("fqname");
     if (documentation == null) throw new NullPointerException("documentation");
@@ -26,6 +31,7 @@ public final class Service {
     this.fqname = fqname;
     this.documentation = documentation;
     this.options = unmodifiableList(new ArrayList<Option>(options));
+    this.lookups = Lookups.of(this.options);
     this.methods = unmodifiableList(new ArrayList<Method>(methods));
   }
 
@@ -34,6 +40,10 @@ public final class Service {
   }
 
   public String getFullyQualifiedName() {
+    return fqname.toString();
+  }
+
+  public QualifiedName getQualifiedName() {
     return fqname;
   }
 
@@ -45,6 +55,11 @@ public final class Service {
     return options;
   }
 
+  /** Returns an index of this declaration's options by name. */
+  public OptionIndex getOptionIndex() {
+    return lookups.optionIndex();
+  }
+
   public List<Method> getMethods() {
     return methods;
   }
@@ -71,24 +86,7 @@ public final class Service {
   }
 
   @Override public String toString() {
-    StringBuilder builder = new StringBuilder();
-    appendDocumentation(builder, documentation);
-    builder.append("service ")
-        .append(name)
-        .append(" {");
-    if (!options.isEmpty()) {
-      builder.append('\n');
-      for (Option option : options) {
-        appendIndented(builder, option.toDeclaration());
-      }
-    }
-    if (!methods.isEmpty()) {
-      builder.append('\n');
-      for (Method method : methods) {
-        appendIndented(builder, method.toString());
-      }
-    }
-    return builder.append("}\n").toString();
+    return ProtoWriter.toString(this);
   }
 
   public static final class Method {
@@ -97,6 +95,7 @@ public final class Service {
     private final String requestType;
     private final String responseType;
     private final List<Option> options;
+    private final Lookups<Void> lookups;
 
     public Method(String name, String documentation, String requestType, String responseType,
         List<Option> options) {
@@ -110,6 +109,7 @@ public final class Service {
       this.requestType = requestType;
       this.responseType = responseType;
       this.options = unmodifiableList(new ArrayList<Option>(options));
+      this.lookups = Lookups.of(this.options);
     }
 
     public String getName() {
@@ -132,6 +132,11 @@ public final class Service {
       return options;
     }
 
+    /** Returns an index of this declaration's options by name. */
+    public OptionIndex getOptionIndex() {
+      return lookups.optionIndex();
+    }
+
     @Override public boolean equals(Object other) {
       if (this == other) return true;
       if (!(other instanceof Method)) return false;
@@ -154,23 +159,7 @@ public final class Service {
     }
 
     @Override public String toString() {
-      StringBuilder builder = new StringBuilder();
-      appendDocumentation(builder, documentation);
-      builder.append("rpc ")
-          .append(name)
-          .append(" (")
-          .append(requestType)
-          .append(") returns (")
-          .append(responseType)
-          .append(')');
-      if (!options.isEmpty()) {
-        builder.append(" {\n");
-        for (Option option : options) {
-          appendIndented(builder, option.toDeclaration());
-        }
-        builder.append("}");
-      }
-      return builder.append(";\n").toString();
+      return ProtoWriter.toString(this);
     }
   }
 }
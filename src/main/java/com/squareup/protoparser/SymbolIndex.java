@@ -0,0 +1,222 @@
+// Copyright 2014 Square, Inc.
+package com.squareup.protoparser;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static java.util.Collections.singletonList;
+
+/**
+ * Indexes the types and services of a set of {@code .proto} files by fully-qualified name.
+ *
+ * <p>Reads never block: each lookup reads an immutable snapshot of the index. Files are added and
+ * removed atomically by publishing a new snapshot, so a concurrent reader sees either all of a
+ * file's symbols or none of them. Updates copy the index and are therefore proportional to its
+ * size; they are intended to be much rarer than lookups.
+ */
+public final class SymbolIndex {
+  /** Returns an index of {@code files}, collecting their symbols on the calling thread. */
+  public static SymbolIndex of(Collection<ProtoFile> files) {
+    List<FileSymbols> collected = new ArrayList<FileSymbols>(files.size());
+    for (ProtoFile file : files) {
+      collected.add(FileSymbols.collect(file));
+    }
+    return new SymbolIndex(Snapshot.EMPTY.plus(collected));
+  }
+
+  /** Returns an index of {@code files}, collecting each file's symbols on {@code executor}. */
+  public static SymbolIndex of(Collection<ProtoFile> files, ExecutorService executor)
+      throws InterruptedException {
+    List<Future<FileSymbols>> futures = new ArrayList<Future<FileSymbols>>(files.size());
+    for (final ProtoFile file : files) {
+      futures.add(executor.submit(new Callable<FileSymbols>() {
+        @Override public FileSymbols call() {
+          return FileSymbols.collect(file);
+        }
+      }));
+    }
+
+    List<FileSymbols> collected = new ArrayList<FileSymbols>(files.size());
+    for (Future<FileSymbols> future : futures) {
+      try {
+        collected.add(future.get());
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+        if (cause instanceof Error) throw (Error) cause;
+        throw new RuntimeException(cause);
+      }
+    }
+    return new SymbolIndex(Snapshot.EMPTY.plus(collected));
+  }
+
+  private final AtomicReference<Snapshot> snapshot;
+
+  private SymbolIndex(Snapshot snapshot) {
+    this.snapshot = new AtomicReference<Snapshot>(snapshot);
+  }
+
+  /** Returns the type named {@code fqname}, or null if no indexed file declares one. */
+  public Type getType(String fqname) {
+    Symbol symbol = snapshot.get().symbols.get(fqname);
+    return symbol != null && symbol.declaration instanceof Type ? (Type) symbol.declaration : null;
+  }
+
+  /** Returns the service named {@code fqname}, or null if no indexed file declares one. */
+  public Service getService(String fqname) {
+    Symbol symbol = snapshot.get().symbols.get(fqname);
+    return symbol != null && symbol.declaration instanceof Service
+        ? (Service) symbol.declaration : null;
+  }
+
+  /** Returns the file that declares {@code fqname}, or null if it is not indexed. */
+  public ProtoFile getDeclaringFile(String fqname) {
+    Symbol symbol = snapshot.get().symbols.get(fqname);
+    return symbol != null ? symbol.file : null;
+  }
+
+  /** Returns the indexed file named {@code fileName}, or null if it is not indexed. */
+  public ProtoFile getFile(String fileName) {
+    FileSymbols fileSymbols = snapshot.get().files.get(fileName);
+    return fileSymbols != null ? fileSymbols.file : null;
+  }
+
+  /** Returns the number of indexed types and services. */
+  public int size() {
+    return snapshot.get().symbols.size();
+  }
+
+  /**
+   * Adds the symbols of {@code file} to this index.
+   *
+   * @throws IllegalStateException if a file with the same name is already indexed or if one of its
+   * symbols is already defined. The index is unchanged.
+   */
+  public void add(ProtoFile file) {
+    List<FileSymbols> added = singletonList(FileSymbols.collect(file));
+    while (true) {
+      Snapshot current = snapshot.get();
+      if (snapshot.compareAndSet(current, current.plus(added))) return;
+    }
+  }
+
+  /** Removes the file named {@code fileName} and its symbols, returning false if not indexed. */
+  public boolean remove(String fileName) {
+    while (true) {
+      Snapshot current = snapshot.get();
+      FileSymbols removed = current.files.get(fileName);
+      if (removed == null) return false;
+      if (snapshot.compareAndSet(current, current.minus(removed))) return true;
+    }
+  }
+
+  /** An immutable state of the index. */
+  private static final class Snapshot {
+    static final Snapshot EMPTY =
+        new Snapshot(new HashMap<String, Symbol>(), new LinkedHashMap<String, FileSymbols>());
+
+    final Map<String, Symbol> symbols;
+    final Map<String, FileSymbols> files;
+
+    Snapshot(Map<String, Symbol> symbols, Map<String, FileSymbols> files) {
+      this.symbols = symbols;
+      this.files = files;
+    }
+
+    Snapshot plus(List<FileSymbols> added) {
+      int symbolCount = symbols.size();
+      for (FileSymbols fileSymbols : added) {
+        symbolCount += fileSymbols.names.size();
+      }
+      Map<String, Symbol> newSymbols = new HashMap<String, Symbol>(symbolCount * 4 / 3 + 1);
+      newSymbols.putAll(symbols);
+      Map<String, FileSymbols> newFiles = new LinkedHashMap<String, FileSymbols>(files);
+
+      List<String> errors = new ArrayList<String>();
+      for (FileSymbols fileSymbols : added) {
+        ProtoFile file = fileSymbols.file;
+        if (newFiles.put(file.getFileName(), fileSymbols) != null) {
+          errors.add("File already indexed: " + file.getFileName());
+          continue;
+        }
+        for (int i = 0, count = fileSymbols.names.size(); i < count; i++) {
+          String name = fileSymbols.names.get(i);
+          Symbol previous = newSymbols.put(name, new Symbol(file, fileSymbols.declarations.get(i)));
+          if (previous != null) {
+            errors.add("Duplicate definition of " + name + " in " + previous.file.getFileName()
+                + " and " + file.getFileName());
+          }
+        }
+      }
+      if (!errors.isEmpty()) {
+        StringBuilder message = new StringBuilder("Unable to index files:");
+        for (String error : errors) {
+          message.append("\n  ").append(error);
+        }
+        throw new IllegalStateException(message.toString());
+      }
+      return new Snapshot(newSymbols, newFiles);
+    }
+
+    Snapshot minus(FileSymbols removed) {
+      Map<String, Symbol> newSymbols = new HashMap<String, Symbol>(symbols);
+      for (String name : removed.names) {
+        newSymbols.remove(name);
+      }
+      Map<String, FileSymbols> newFiles = new LinkedHashMap<String, FileSymbols>(files);
+      newFiles.remove(removed.file.getFileName());
+      return new Snapshot(newSymbols, newFiles);
+    }
+  }
+
+  /** A declaration and the file that declares it. */
+  private static final class Symbol {
+    final ProtoFile file;
+    final Object declaration;
+
+    Symbol(ProtoFile file, Object declaration) {
+      this.file = file;
+      this.declaration = declaration;
+    }
+  }
+
+  /** The names and declarations of every type and service in a single file. */
+  private static final class FileSymbols {
+    final ProtoFile file;
+    final List<String> names = new ArrayList<String>();
+    final List<Object> declarations = new ArrayList<Object>();
+
+    private FileSymbols(ProtoFile file) {
+      this.file = file;
+    }
+
+    static FileSymbols collect(ProtoFile file) {
+      FileSymbols result = new FileSymbols(file);
+      for (Type type : file.getTypes()) {
+        result.addType(type);
+      }
+      for (Service service : file.getServices()) {
+        result.names.add(service.getFullyQualifiedName());
+        result.declarations.add(service);
+      }
+      return result;
+    }
+
+    private void addType(Type type) {
+      names.add(type.getFullyQualifiedName());
+      declarations.add(type);
+      for (Type nestedType : type.getNestedTypes()) {
+        addType(nestedType);
+      }
+    }
+  }
+}
@@ -0,0 +1,99 @@
+// Copyright 2014 Square, Inc.
+package com.squareup.protoparser;
+
+import java.util.List;
+
+/**
+ * An immutable map from tag values to objects. Compact tag ranges are stored in a dense array
+ * indexed by {@code tag - min}; sparse ranges use open addressing over parallel primitive arrays
+ * so that lookups never box the key.
+ *
+ * <p>When a tag occurs more than once the first value wins.
+ */
+final class TagMap<T> {
+  /** A dense array may hold at most this many empty slots per mapped tag. */
+  private static final int DENSE_SLACK = 2;
+  /** Ranges smaller than this are always dense. */
+  private static final int DENSE_MINIMUM = 64;
+
+  private static final TagMap<Object> EMPTY = new TagMap<Object>(0, new Object[0], null, null);
+
+  /** The smallest tag of a dense map. Unused when sparse. */
+  private final int min;
+  /** Values indexed by {@code tag - min}, or null if this map is sparse. */
+  private final Object[] dense;
+  /** Open-addressed keys, or null if this map is dense. */
+  private final int[] keys;
+  /** Open-addressed values. A null value marks an empty slot. */
+  private final Object[] values;
+
+  private TagMap(int min, Object[] dense, int[] keys, Object[] values) {
+    this.min = min;
+    this.dense = dense;
+    this.keys = keys;
+    this.values = values;
+  }
+
+  /** Returns a map from {@code tags[i]} to {@code values.get(i)}. */
+  @SuppressWarnings("unchecked")
+  static <T> TagMap<T> of(int[] tags, List<? extends T> values) {
+    int count = tags.length;
+    if (count != values.size()) throw new IllegalArgumentException("size mismatch");
+    if (count == 0) return (TagMap<T>) EMPTY;
+
+    int min = tags[0];
+    int max = tags[0];
+    for (int i = 1; i < count; i++) {
+      min = Math.min(min, tags[i]);
+      max = Math.max(max, tags[i]);
+    }
+
+    long range = (long) max - min + 1;
+    if (range <= DENSE_MINIMUM || range <= (long) count * (DENSE_SLACK + 1)) {
+      Object[] dense = new Object[(int) range];
+      for (int i = 0; i < count; i++) {
+        int slot = tags[i] - min;
+        if (dense[slot] == null) {
+          dense[slot] = values.get(i);
+        }
+      }
+      return new TagMap<T>(min, dense, null, null);
+    }
+
+    int capacity = Integer.highestOneBit(count * 2 - 1) << 1;
+    int mask = capacity - 1;
+    int[] keys = new int[capacity];
+    Object[] slots = new Object[capacity];
+    for (int i = 0; i < count; i++) {
+      int tag = tags[i];
+      int slot = mix(tag) & mask;
+      while (slots[slot] != null && keys[slot] != tag) {
+        slot = (slot + 1) & mask;
+      }
+      if (slots[slot] == null) {
+        keys[slot] = tag;
+        slots[slot] = values.get(i);
+      }
+    }
+    return new TagMap<T>(0, null, keys, slots);
+  }
+
+  /** Returns the value mapped to {@code tag}, or null if there is none. */
+  @SuppressWarnings("unchecked")
+  T get(int tag) {
+    if (dense != null) {
+      int slot = tag - min;
+      return slot >= 0 && slot < dense.length ? (T) dense[slot] : null;
+    }
+    int mask = keys.length - 1;
+    for (int slot = mix(tag) & mask; values[slot] != null; slot = (slot + 1) & mask) {
+      if (keys[slot] == tag) return (T) values[slot];
+    }
+    return null;
+  }
+
+  private static int mix(int tag) {
+    int h = tag * 0x9e3779b9;
+    return h ^ (h >>> 16);
+  }
+}
@@ -0,0 +1,498 @@
+// Copyright 2014 Square, Inc.
+package com.squareup.protoparser;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static com.squareup.protoparser.MessagePlan.FieldPlan;
+
+/**
+ * Reads and writes the protocol buffers text format, checked against a parsed schema. Messages use
+ * the representation of {@link DynamicDecoder}, so text can be converted to and from the binary
+ * format with {@link DynamicEncoder} and {@link DynamicDecoder}.
+ *
+ * <p>The reader uses the same lexer as {@link ProtoSchemaParser}, plus {@code #} comments. It
+ * converts each value to its field's type as it reads it, and reports unknown fields, unknown
+ * enum value names, out-of-range numbers and repeated occurrences of singular fields with the line
+ * and column where they occur. Extensions are written in square brackets with the name that
+ * {@link DynamicDecoder} gives them, qualified by the scope of their extend declaration, like
+ * {@code [com.example.nickname]: "n"} or {@code [com.example.Person.nickname]: "n"}.
+ *
+ * <p>{@code string} and {@code bytes} values are read from quoted strings: escapes like
+ * {@code \377} give a single byte, and every other character is encoded as UTF-8. Strings are
+ * decoded from the resulting bytes as UTF-8.
+ *
+ * <p>Enum numbers that the schema doesn't declare, which {@link DynamicDecoder} returns as
+ * integers, are written as plain numbers and read back as integers.
+ *
+ * <p>Instances are immutable and safe for use by multiple threads.
+ */
+public final class TextFormat {
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final BigInteger TWO_TO_64 = BigInteger.ONE.shiftLeft(64);
+
+  /**
+   * Returns a text format for the message types declared in {@code files}.
+   *
+   * @throws IllegalStateException if a type reference in {@code files} cannot be resolved.
+   */
+  public static TextFormat of(Collection<ProtoFile> files) {
+    return new TextFormat(MessagePlan.compile(files));
+  }
+
+  private final Map<String, MessagePlan> plans;
+
+  private TextFormat(Map<String, MessagePlan> plans) {
+    this.plans = plans;
+  }
+
+  /**
+   * Parses the text-format message {@code data}, named {@code name} in error messages, as the type
+   * named {@code messageType}.
+   *
+   * @throws IllegalArgumentException if the type is unknown.
+   * @throws IllegalStateException if the text is malformed or doesn't match the schema.
+   */
+  public Map<String, Object> parse(String messageType, String name, String data) {
+    if (data == null) throw new NullPointerException("data");
+    return parse(messageType, name, data.toCharArray());
+  }
+
+  /**
+   * Parses a text-format message as the type named {@code messageType}. The {@code Reader} is not
+   * closed.
+   *
+   * @throws IllegalArgumentException if the type is unknown.
+   * @throws IllegalStateException if the text is malformed or doesn't match the schema.
+   */
+  public Map<String, Object> parse(String messageType, String name, Reader reader)
+      throws IOException {
+    if (reader == null) throw new NullPointerException("reader");
+    return parse(messageType, name, ProtoSchemaParser.readerToCharArray(reader));
+  }
+
+  private Map<String, Object> parse(String messageType, String name, char[] data) {
+    if (name == null) throw new NullPointerException("name");
+    ProtoLexer lexer = new ProtoLexer(name, data, true);
+    return readMessage(lexer, plan(messageType), (char) 0, 0);
+  }
+
+  /**
+   * Writes {@code message} as the type named {@code messageType} to {@code out}, with fields in
+   * declaration order followed by extensions, one field per line.
+   *
+   * @throws IllegalArgumentException if the type is unknown or the message doesn't match it.
+   */
+  public void write(String messageType, Map<String, ?> message, Appendable out)
+      throws IOException {
+    if (message == null) throw new NullPointerException("message");
+    if (out == null) throw new NullPointerException("out");
+    writeMessage(plan(messageType), message, out, 0);
+  }
+
+  /** Returns {@code message} as text. */
+  public String toString(String messageType, Map<String, ?> message) {
+    StringBuilder result = new StringBuilder();
+    try {
+      write(messageType, message, result);
+    } catch (IOException e) {
+      throw new AssertionError(e);
+    }
+    return result.toString();
+  }
+
+  private MessagePlan plan(String messageType) {
+    if (messageType == null) throw new NullPointerException("messageType");
+    MessagePlan plan = plans.get(messageType);
+    if (plan == null) throw new IllegalArgumentException("Unknown message type: " + messageType);
+    return plan;
+  }
+
+  /** Reads fields until {@code close}, or until the end of the document if it is 0. */
+  @SuppressWarnings("unchecked")
+  private static Map<String, Object> readMessage(ProtoLexer lexer, MessagePlan plan, char close,
+      int depth) {
+    if (depth >= WireFormat.MAX_DEPTH) throw lexer.unexpected("nesting too deep");
+    Map<String, Object> result = new LinkedHashMap<String, Object>();
+    while (true) {
+      if (close == 0) {
+        if (lexer.atEnd()) return result;
+      } else if (lexer.peekChar() == close) {
+        lexer.readChar();
+        return result;
+      }
+
+      boolean extension = lexer.peekChar() == '[';
+      String name = lexer.readName();
+      FieldPlan field = plan.byName.get(name);
+      if (field == null || extension != field.extension) {
+        throw lexer.unexpected(
+            "unknown field " + name + " in " + plan.type.getFullyQualifiedName());
+      }
+      if (!field.repeated && result.containsKey(field.name)) {
+        throw lexer.unexpected("non-repeated field " + name + " is specified multiple times");
+      }
+
+      char c = lexer.peekChar();
+      if (c == ':') {
+        lexer.readChar();
+        c = lexer.peekChar();
+      } else if (field.kind != FieldKind.MESSAGE) {
+        throw lexer.unexpected("expected ':' after " + name);
+      }
+
+      if (field.repeated) {
+        List<Object> values = (List<Object>) result.get(field.name);
+        if (values == null) {
+          values = new ArrayList<Object>();
+          result.put(field.name, values);
+        }
+        if (c == '[') {
+          readList(lexer, field, values, depth);
+        } else {
+          values.add(readValue(lexer, field, depth));
+        }
+      } else {
+        result.put(field.name, readValue(lexer, field, depth));
+      }
+
+      if (!lexer.atEnd()) {
+        char separator = lexer.peekChar();
+        if (separator == ',' || separator == ';') lexer.readChar();
+      }
+    }
+  }
+
+  /** Reads a bracketed, comma-separated list of values like {@code [1, 2]} into {@code values}. */
+  private static void readList(ProtoLexer lexer, FieldPlan field, List<Object> values,
+      int depth) {
+    if (lexer.readChar() != '[') throw new AssertionError();
+    if (lexer.peekChar() == ']') {
+      lexer.readChar();
+      return;
+    }
+    while (true) {
+      values.add(readValue(lexer, field, depth));
+      char c = lexer.readChar();
+      if (c == ']') return;
+      if (c != ',') throw lexer.unexpected("expected ',' or ']'");
+    }
+  }
+
+  private static Object readValue(ProtoLexer lexer, FieldPlan field, int depth) {
+    switch (field.kind) {
+      case MESSAGE:
+        char open = lexer.readChar();
+        if (open != '{' && open != '<') throw lexer.unexpected("expected '{' or '<'");
+        return readMessage(lexer, field.messagePlan, open == '{' ? '}' : '>', depth + 1);
+      case STRING:
+        return new String(readQuotedStrings(lexer), UTF_8);
+      case BYTES:
+        return readQuotedStrings(lexer);
+      case ENUM:
+        return readEnum(lexer, field);
+      case BOOL:
+        String bool = lexer.readWord();
+        if (bool.equals("true") || bool.equals("t") || bool.equals("1")) return true;
+        if (bool.equals("false") || bool.equals("f") || bool.equals("0")) return false;
+        throw lexer.unexpected("expected a bool but was " + bool);
+      case FLOAT:
+      case DOUBLE:
+        return readFloatingPoint(lexer, field);
+      default:
+        return readInteger(lexer, field);
+    }
+  }
+
+  /**
+   * Reads one or more adjacent quoted strings and returns their concatenation. Escapes like
+   * {@code \303} are bytes; strings are decoded from these bytes as UTF-8.
+   */
+  private static byte[] readQuotedStrings(ProtoLexer lexer) {
+    if (lexer.peekChar() != '"') throw lexer.unexpected("expected a quoted string");
+    byte[] result = lexer.readQuotedBytes();
+    while (!lexer.atEnd() && lexer.peekChar() == '"') {
+      byte[] next = lexer.readQuotedBytes();
+      byte[] concatenated = Arrays.copyOf(result, result.length + next.length);
+      System.arraycopy(next, 0, concatenated, result.length, next.length);
+      result = concatenated;
+    }
+    return result;
+  }
+
+  /** Returns the name of an enum value, or its number if the enum doesn't declare it. */
+  private static Object readEnum(ProtoLexer lexer, FieldPlan field) {
+    String word = lexer.readWord();
+    EnumType.Value value;
+    char first = word.charAt(0);
+    if (first == '-' || (first >= '0' && first <= '9')) {
+      BigInteger number = parseInteger(word);
+      if (number == null || number.bitLength() >= 32) {
+        throw lexer.unexpected("expected a " + field.field.getType() + " but was " + word);
+      }
+      value = field.enumType.valueForTag(number.intValue());
+      if (value == null) return number.intValue();
+    } else {
+      value = field.enumType.valueForName(word);
+    }
+    if (value == null) {
+      throw lexer.unexpected("unknown value " + word + " for enum "
+          + field.enumType.getFullyQualifiedName());
+    }
+    return value.getName();
+  }
+
+  private static Object readFloatingPoint(ProtoLexer lexer, FieldPlan field) {
+    String word = lexer.readNumber();
+    String lower = word.toLowerCase(Locale.US);
+    boolean negative = lower.startsWith("-");
+    String magnitude = negative ? lower.substring(1) : lower;
+    double value;
+    if (magnitude.equals("inf") || magnitude.equals("infinity")) {
+      value = negative ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+    } else if (magnitude.equals("nan")) {
+      value = Double.NaN;
+    } else {
+      String number = lower.endsWith("f") ? lower.substring(0, lower.length() - 1) : lower;
+      try {
+        if (field.kind == FieldKind.FLOAT) return Float.parseFloat(number);
+        value = Double.parseDouble(number);
+      } catch (NumberFormatException e) {
+        throw lexer.unexpected("expected a " + field.field.getType() + " but was " + word);
+      }
+    }
+    return field.kind == FieldKind.FLOAT ? (Object) (float) value : (Object) value;
+  }
+
+  private static Object readInteger(ProtoLexer lexer, FieldPlan field) {
+    String word = lexer.readNumber();
+    BigInteger value = parseInteger(word);
+    boolean signed = field.kind != FieldKind.UINT32 && field.kind != FieldKind.UINT64
+        && field.kind != FieldKind.FIXED32 && field.kind != FieldKind.FIXED64;
+    boolean is64 = field.kind.wireType == WireFormat.FIXED64 || field.kind == FieldKind.INT64
+        || field.kind == FieldKind.UINT64 || field.kind == FieldKind.SINT64;
+    int bits = is64 ? 64 : 32;
+    boolean inRange = value != null && (signed
+        ? value.bitLength() < bits
+        : value.signum() >= 0 && value.bitLength() <= bits);
+    if (!inRange) {
+      throw lexer.unexpected("expected a " + field.field.getType() + " but was " + word);
+    }
+    return is64 ? (Object) value.longValue() : (Object) value.intValue();
+  }
+
+  /** Parses a decimal, hexadecimal or octal integer, returning null if it is malformed. */
+  private static BigInteger parseInteger(String word) {
+    boolean negative = word.startsWith("-");
+    String digits = negative ? word.substring(1) : word;
+    int radix = 10;
+    if (digits.startsWith("0x") || digits.startsWith("0X")) {
+      digits = digits.substring(2);
+      radix = 16;
+    } else if (digits.length() > 1 && digits.startsWith("0")) {
+      digits = digits.substring(1);
+      radix = 8;
+    }
+    if (digits.isEmpty() || digits.charAt(0) == '-' || digits.charAt(0) == '+') return null;
+    try {
+      BigInteger value = new BigInteger(digits, radix);
+      return negative ? value.negate() : value;
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  private static void writeMessage(MessagePlan plan, Map<String, ?> message, Appendable out,
+      int indent) throws IOException {
+    int present = 0;
+    for (FieldPlan field : plan.fields) {
+      if (!message.containsKey(field.name)) continue;
+      present++;
+      Object value = message.get(field.name);
+      if (value == null) continue;
+      List<?> values;
+      if (field.repeated) {
+        if (!(value instanceof List)) throw unexpected(field, "a list", value);
+        values = (List<?>) value;
+      } else {
+        values = Collections.singletonList(value);
+      }
+      for (Object element : values) {
+        if (element == null) throw new IllegalArgumentException("Null element in " + field.name);
+        writeField(field, element, out, indent);
+      }
+    }
+    if (present != message.size()) {
+      for (String name : message.keySet()) {
+        if (!plan.byName.containsKey(name)) {
+          throw new IllegalArgumentException(
+              "Unknown field " + name + " in " + plan.type.getFullyQualifiedName());
+        }
+      }
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static void writeField(FieldPlan field, Object value, Appendable out, int indent)
+      throws IOException {
+    for (int i = 0; i < indent; i++) {
+      out.append("  ");
+    }
+    if (field.extension) {
+      out.append('[').append(field.name).append(']');
+    } else {
+      out.append(field.name);
+    }
+
+    if (field.kind == FieldKind.MESSAGE) {
+      if (!(value instanceof Map)) throw unexpected(field, "a map", value);
+      out.append(" {\n");
+      writeMessage(field.messagePlan, (Map<String, ?>) value, out, indent + 1);
+      for (int i = 0; i < indent; i++) {
+        out.append("  ");
+      }
+      out.append("}\n");
+      return;
+    }
+
+    out.append(": ");
+    switch (field.kind) {
+      case STRING:
+        if (!(value instanceof String)) throw unexpected(field, "a string", value);
+        writeQuoted(out, (String) value);
+        break;
+      case BYTES:
+        if (!(value instanceof byte[])) throw unexpected(field, "a byte array", value);
+        writeQuoted(out, (byte[]) value);
+        break;
+      case BOOL:
+        if (!(value instanceof Boolean)) throw unexpected(field, "a boolean", value);
+        out.append(value.toString());
+        break;
+      case ENUM:
+        out.append(enumName(field, value));
+        break;
+      case FLOAT:
+      case DOUBLE:
+        out.append(formatFloatingPoint(number(field, value).doubleValue(), field.kind));
+        break;
+      case UINT32:
+      case FIXED32:
+        out.append(Long.toString(number(field, value).intValue() & 0xffffffffL));
+        break;
+      case UINT64:
+      case FIXED64:
+        long unsigned = number(field, value).longValue();
+        out.append(unsigned >= 0
+            ? Long.toString(unsigned)
+            : BigInteger.valueOf(unsigned).add(TWO_TO_64).toString());
+        break;
+      case INT32:
+      case SINT32:
+      case SFIXED32:
+        out.append(Integer.toString(number(field, value).intValue()));
+        break;
+      default:
+        out.append(Long.toString(number(field, value).longValue()));
+        break;
+    }
+    out.append('\n');
+  }
+
+  private static String enumName(FieldPlan field, Object value) {
+    EnumType.Value enumValue;
+    if (value instanceof String) {
+      enumValue = field.enumType.valueForName((String) value);
+    } else if (value instanceof Number) {
+      enumValue = field.enumType.valueForTag(((Number) value).intValue());
+    } else {
+      throw unexpected(field, "an enum value name or number", value);
+    }
+    if (enumValue == null) {
+      if (value instanceof Number) return Integer.toString(((Number) value).intValue());
+      throw new IllegalArgumentException("Unknown value " + value + " for " + field.name
+          + " of type " + field.enumType.getFullyQualifiedName());
+    }
+    return enumValue.getName();
+  }
+
+  private static String formatFloatingPoint(double value, FieldKind kind) {
+    if (Double.isNaN(value)) return "nan";
+    if (value == Double.POSITIVE_INFINITY) return "inf";
+    if (value == Double.NEGATIVE_INFINITY) return "-inf";
+    return kind == FieldKind.FLOAT ? Float.toString((float) value) : Double.toString(value);
+  }
+
+  private static void writeQuoted(Appendable out, String value) throws IOException {
+    out.append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c >= 0x80) {
+        out.append(c);
+      } else {
+        writeEscaped(out, c);
+      }
+    }
+    out.append('"');
+  }
+
+  private static void writeQuoted(Appendable out, byte[] value) throws IOException {
+    out.append('"');
+    for (byte b : value) {
+      writeEscaped(out, b & 0xff);
+    }
+    out.append('"');
+  }
+
+  /** Writes a byte or an ASCII character, escaping it if it isn't printable. */
+  private static void writeEscaped(Appendable out, int c) throws IOException {
+    switch (c) {
+      case '\n':
+        out.append("\\n");
+        break;
+      case '\r':
+        out.append("\\r");
+        break;
+      case '\t':
+        out.append("\\t");
+        break;
+      case '"':
+        out.append("\\\"");
+        break;
+      case '\\':
+        out.append("\\\\");
+        break;
+      default:
+        if (c >= 0x20 && c < 0x7f) {
+          out.append((char) c);
+        } else {
+          out.append('\\')
+              .append((char) ('0' + (c >> 6)))
+              .append((char) ('0' + ((c >> 3) & 7)))
+              .append((char) ('0' + (c & 7)));
+        }
+        break;
+    }
+  }
+
+  private static Number number(FieldPlan field, Object value) {
+    if (!(value instanceof Number)) throw unexpected(field, "a number", value);
+    return (Number) value;
+  }
+
+  private static IllegalArgumentException unexpected(FieldPlan field, String expected,
+      Object value) {
+    return new IllegalArgumentException("Expected " + expected + " for " + field.name + " but was "
+        + value.getClass().getName());
+  }
+}
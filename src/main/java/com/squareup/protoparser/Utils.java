@@ -1,19 +1,69 @@
 package com.squareup.protoparser;
 
+import java.util.Arrays;
+
 final class Utils {
-  static void appendDocumentation(StringBuilder builder, String documentation) {
-    if (documentation.isEmpty()) {
-      return;
+  private static final int[] NO_INTS = new int[0];
+  private static final String[] NO_STRINGS = new String[0];
+
+  /**
+   * Returns the distinct values that occur more than once in {@code values}, in ascending order.
+   * This may sort {@code values} in place.
+   */
+  static int[] findDuplicates(int[] values) {
+    boolean ascending = true;
+    for (int i = 1; i < values.length; i++) {
+      if (values[i] <= values[i - 1]) {
+        ascending = false;
+        break;
+      }
+    }
+    if (ascending) return NO_INTS; // Declaration order is usually ascending.
+
+    Arrays.sort(values);
+    int count = 0;
+    for (int i = 1; i < values.length; i++) {
+      if (values[i] == values[i - 1] && (count == 0 || values[count - 1] != values[i])) {
+        values[count++] = values[i]; // Never overwrites an unvisited value since count < i.
+      }
+    }
+    return Arrays.copyOf(values, count);
+  }
+
+  /**
+   * Returns the distinct values that occur more than once in {@code values}, in ascending order.
+   * This may sort {@code values} in place.
+   */
+  static String[] findDuplicates(String[] values) {
+    if (values.length < 2) return NO_STRINGS;
+
+    Arrays.sort(values);
+    int count = 0;
+    for (int i = 1; i < values.length; i++) {
+      if (values[i].equals(values[i - 1]) && (count == 0 || !values[count - 1].equals(values[i]))) {
+        values[count++] = values[i];
+      }
     }
-    for (String line : documentation.split("\n")) {
-      builder.append("// ").append(line).append('\n');
+    return Arrays.copyOf(values, count);
+  }
+
+  /** Returns a message like "Duplicate tag 1" or "Duplicate tags 1, 2". */
+  static String duplicatesMessage(String noun, int[] duplicates) {
+    Object[] boxed = new Object[duplicates.length];
+    for (int i = 0; i < duplicates.length; i++) {
+      boxed[i] = duplicates[i];
     }
+    return duplicatesMessage(noun, boxed);
   }
 
-  static void appendIndented(StringBuilder builder, String value) {
-    for (String line : value.split("\n")) {
-      builder.append("  ").append(line).append('\n');
+  /** Returns a message like "Duplicate name A" or "Duplicate names A, B". */
+  static String duplicatesMessage(String noun, Object[] duplicates) {
+    StringBuilder builder = new StringBuilder("Duplicate ").append(noun);
+    if (duplicates.length > 1) builder.append('s');
+    for (int i = 0; i < duplicates.length; i++) {
+      builder.append(i == 0 ? " " : ", ").append(duplicates[i]);
     }
+    return builder.toString();
   }
 
   private Utils() {
@@ -0,0 +1,42 @@
+// Copyright 2014 Square, Inc.
+package com.squareup.protoparser;
+
+/** Constants and encoding helpers for the protocol buffers binary format. */
+final class WireFormat {
+  static final int VARINT = 0;
+  static final int FIXED64 = 1;
+  static final int LENGTH_DELIMITED = 2;
+  static final int START_GROUP = 3;
+  static final int END_GROUP = 4;
+  static final int FIXED32 = 5;
+
+  static final int TAG_TYPE_BITS = 3;
+  static final int TAG_TYPE_MASK = (1 << TAG_TYPE_BITS) - 1;
+
+  /** Nested messages and groups deeper than this are rejected rather than overflowing the stack. */
+  static final int MAX_DEPTH = 100;
+
+  static int makeKey(int tag, int wireType) {
+    return (tag << TAG_TYPE_BITS) | wireType;
+  }
+
+  static int encodeZigZag32(int n) {
+    return (n << 1) ^ (n >> 31);
+  }
+
+  static long encodeZigZag64(long n) {
+    return (n << 1) ^ (n >> 63);
+  }
+
+  static int decodeZigZag32(int n) {
+    return (n >>> 1) ^ -(n & 1);
+  }
+
+  static long decodeZigZag64(long n) {
+    return (n >>> 1) ^ -(n & 1);
+  }
+
+  private WireFormat() {
+    throw new AssertionError("No instances.");
+  }
+}
@@ -0,0 +1,168 @@
+// Copyright 2014 Square, Inc.
+package com.squareup.protoparser;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+
+/**
+ * Reads protocol buffers binary data from a {@link ByteBuffer}. Nested records are read by
+ * temporarily narrowing the buffer's limit to the end of the record.
+ */
+final class WireReader {
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private final ByteBuffer buffer;
+
+  /** Reads the remaining bytes of {@code data} without changing its position. */
+  WireReader(ByteBuffer data) {
+    this.buffer = data.slice().order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  boolean exhausted() {
+    return !buffer.hasRemaining();
+  }
+
+  int position() {
+    return buffer.position();
+  }
+
+  /** Moves to {@code position}, which must be within the current limit. */
+  void seek(int position) {
+    buffer.position(position);
+  }
+
+  /** Returns a read-only view of {@code length} bytes at {@code position}, without copying. */
+  ByteBuffer slice(int position, int length) {
+    ByteBuffer result = buffer.duplicate();
+    result.limit(position + length).position(position);
+    return result.slice().asReadOnlyBuffer();
+  }
+
+  /** Limits reads to the next {@code length} bytes, returning the limit to restore afterwards. */
+  int pushLimit(int length) {
+    int oldLimit = buffer.limit();
+    buffer.limit(buffer.position() + length);
+    return oldLimit;
+  }
+
+  void popLimit(int oldLimit) {
+    if (buffer.hasRemaining()) throw new IllegalArgumentException("Malformed nested message");
+    buffer.limit(oldLimit);
+  }
+
+  /** Returns the next field key: the tag shifted left by three bits, or'd with the wire type. */
+  int readKey() {
+    int key = readVarint32();
+    if ((key >>> WireFormat.TAG_TYPE_BITS) == 0) {
+      throw new IllegalArgumentException("Invalid tag 0");
+    }
+    return key;
+  }
+
+  int readVarint32() {
+    return (int) readVarint64();
+  }
+
+  long readVarint64() {
+    try {
+      long result = 0;
+      for (int shift = 0; shift < 64; shift += 7) {
+        byte b = buffer.get();
+        result |= (long) (b & 0x7f) << shift;
+        if ((b & 0x80) == 0) return result;
+      }
+    } catch (BufferUnderflowException e) {
+      throw truncated();
+    }
+    throw new IllegalArgumentException("Malformed varint");
+  }
+
+  int readFixed32() {
+    try {
+      return buffer.getInt();
+    } catch (BufferUnderflowException e) {
+      throw truncated();
+    }
+  }
+
+  long readFixed64() {
+    try {
+      return buffer.getLong();
+    } catch (BufferUnderflowException e) {
+      throw truncated();
+    }
+  }
+
+  /** Reads a length prefix and checks that that many bytes remain. */
+  int readLength() {
+    int length = readVarint32();
+    if (length < 0 || length > buffer.remaining()) throw truncated();
+    return length;
+  }
+
+  byte[] readBytes() {
+    byte[] result = new byte[readLength()];
+    buffer.get(result);
+    return result;
+  }
+
+  String readString() {
+    int length = readLength();
+    String result;
+    if (buffer.hasArray()) {
+      result = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, UTF_8);
+      buffer.position(buffer.position() + length);
+    } else {
+      byte[] bytes = new byte[length];
+      buffer.get(bytes);
+      result = new String(bytes, UTF_8);
+    }
+    return result;
+  }
+
+  /** Skips the value of a field whose key has already been read. */
+  void skip(int key, int depth) {
+    switch (key & WireFormat.TAG_TYPE_MASK) {
+      case WireFormat.VARINT:
+        readVarint64();
+        break;
+      case WireFormat.FIXED64:
+        skipBytes(8);
+        break;
+      case WireFormat.LENGTH_DELIMITED:
+        skipBytes(readLength());
+        break;
+      case WireFormat.START_GROUP:
+        skipGroup(key >>> WireFormat.TAG_TYPE_BITS, depth);
+        break;
+      case WireFormat.FIXED32:
+        skipBytes(4);
+        break;
+      default:
+        throw new IllegalArgumentException(
+            "Unexpected wire type " + (key & WireFormat.TAG_TYPE_MASK));
+    }
+  }
+
+  private void skipGroup(int tag, int depth) {
+    if (depth >= WireFormat.MAX_DEPTH) throw new IllegalArgumentException("Nesting too deep");
+    int endKey = WireFormat.makeKey(tag, WireFormat.END_GROUP);
+    while (true) {
+      if (exhausted()) throw truncated();
+      int key = readKey();
+      if (key == endKey) return;
+      skip(key, depth + 1);
+    }
+  }
+
+  private void skipBytes(int count) {
+    if (count > buffer.remaining()) throw truncated();
+    buffer.position(buffer.position() + count);
+  }
+
+  private static IllegalArgumentException truncated() {
+    return new IllegalArgumentException("Truncated message");
+  }
+}
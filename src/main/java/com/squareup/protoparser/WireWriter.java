@@ -0,0 +1,125 @@
+// Copyright 2014 Square, Inc.
+package com.squareup.protoparser;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/** Writes protocol buffers binary data to a {@link ByteBuffer}. */
+final class WireWriter {
+  /** Returns the varint encoding of {@code value}, as written before a field's value. */
+  static byte[] encodeVarint(int value) {
+    ByteBuffer buffer = ByteBuffer.allocate(varint32Size(value));
+    new WireWriter(buffer).writeVarint32(value);
+    return buffer.array();
+  }
+
+  /** Returns the number of bytes needed to write {@code value} as an unsigned varint. */
+  static int varint32Size(int value) {
+    if ((value & (0xffffffff << 7)) == 0) return 1;
+    if ((value & (0xffffffff << 14)) == 0) return 2;
+    if ((value & (0xffffffff << 21)) == 0) return 3;
+    if ((value & (0xffffffff << 28)) == 0) return 4;
+    return 5;
+  }
+
+  static int varint64Size(long value) {
+    int size = 1;
+    for (long v = value >>> 7; v != 0; v >>>= 7) {
+      size++;
+    }
+    return size;
+  }
+
+  /** Returns the length of {@code string} encoded as UTF-8. */
+  static int utf8Length(String string) {
+    int length = 0;
+    for (int i = 0, count = string.length(); i < count; i++) {
+      char c = string.charAt(i);
+      if (c < 0x80) {
+        length += 1;
+      } else if (c < 0x800) {
+        length += 2;
+      } else if (Character.isHighSurrogate(c) && i + 1 < count
+          && Character.isLowSurrogate(string.charAt(i + 1))) {
+        length += 4;
+        i++;
+      } else {
+        // Unpaired surrogates are written as '?', like String.getBytes() does.
+        length += isSurrogate(c) ? 1 : 3;
+      }
+    }
+    return length;
+  }
+
+  private static boolean isSurrogate(char c) {
+    return c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE;
+  }
+
+  private final ByteBuffer buffer;
+
+  /** Writes into {@code buffer} starting at its position, without changing its byte order. */
+  WireWriter(ByteBuffer buffer) {
+    this.buffer = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  /** Returns the number of bytes written so far. */
+  int position() {
+    return buffer.position();
+  }
+
+  void writeRaw(byte[] bytes) {
+    buffer.put(bytes);
+  }
+
+  void writeVarint32(int value) {
+    int v = value;
+    while ((v & ~0x7f) != 0) {
+      buffer.put((byte) ((v & 0x7f) | 0x80));
+      v >>>= 7;
+    }
+    buffer.put((byte) v);
+  }
+
+  void writeVarint64(long value) {
+    long v = value;
+    while ((v & ~0x7fL) != 0) {
+      buffer.put((byte) ((v & 0x7f) | 0x80));
+      v >>>= 7;
+    }
+    buffer.put((byte) v);
+  }
+
+  void writeFixed32(int value) {
+    buffer.putInt(value);
+  }
+
+  void writeFixed64(long value) {
+    buffer.putLong(value);
+  }
+
+  /** Writes {@code string} as UTF-8. Its encoded length must already have been written. */
+  void writeUtf8(String string) {
+    for (int i = 0, count = string.length(); i < count; i++) {
+      char c = string.charAt(i);
+      if (c < 0x80) {
+        buffer.put((byte) c);
+      } else if (c < 0x800) {
+        buffer.put((byte) (0xc0 | (c >>> 6)));
+        buffer.put((byte) (0x80 | (c & 0x3f)));
+      } else if (Character.isHighSurrogate(c) && i + 1 < count
+          && Character.isLowSurrogate(string.charAt(i + 1))) {
+        int codePoint = Character.toCodePoint(c, string.charAt(++i));
+        buffer.put((byte) (0xf0 | (codePoint >>> 18)));
+        buffer.put((byte) (0x80 | ((codePoint >>> 12) & 0x3f)));
+        buffer.put((byte) (0x80 | ((codePoint >>> 6) & 0x3f)));
+        buffer.put((byte) (0x80 | (codePoint & 0x3f)));
+      } else if (isSurrogate(c)) {
+        buffer.put((byte) '?');
+      } else {
+        buffer.put((byte) (0xe0 | (c >>> 12)));
+        buffer.put((byte) (0x80 | ((c >>> 6) & 0x3f)));
+        buffer.put((byte) (0x80 | (c & 0x3f)));
+      }
+    }
+  }
+}
@@ -0,0 +1,85 @@
+// Copyright 2014 Square, Inc.
+package com.squareup.protoparser;
+
+import java.util.Map;
+import org.junit.Test;
+
+import static com.squareup.protoparser.DynamicDecoderTest.bytes;
+import static com.squareup.protoparser.TestUtils.list;
+import static com.squareup.protoparser.TestUtils.map;
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class CodecCompilerTest {
+  private static final String PROTO = ""
+      + "package test;\n"
+      + "/** A point. */\n"
+      + "message Point {\n"
+      + "  optional int32 x = 1;\n"
+      + "  optional int32 y = 2;\n"
+      + "  repeated string labels = 3;\n"
+      + "}\n";
+
+  @Test public void equivalentSchemasShareACodec() {
+    CodecCompiler compiler = new CodecCompiler();
+    SchemaCodec codec = compiler.compile(list(ProtoSchemaParser.parse("point.proto", PROTO)));
+    SchemaCodec same = compiler.compile(list(ProtoSchemaParser.parse("point.proto",
+        PROTO.replace("A point.", "A point on a plane."))));
+    SchemaCodec changed = compiler.compile(list(ProtoSchemaParser.parse("point.proto",
+        PROTO.replace("int32 y", "sint32 y"))));
+    assertThat(same).isSameAs(codec);
+    assertThat(changed).isNotSameAs(codec);
+    assertThat(compiler.size()).isEqualTo(2);
+
+    compiler.clear();
+    assertThat(compiler.size()).isEqualTo(0);
+  }
+
+  @Test public void extendScopeIsPartOfTheSchema() {
+    String base = ""
+        + "package p;\n"
+        + "message Foo {\n"
+        + "  extensions 100 to 199;\n"
+        + "}\n";
+    ProtoFile nested = ProtoSchemaParser.parse("p.proto", base
+        + "message Outer {\n"
+        + "  extend Foo {\n"
+        + "    optional int32 ext = 100;\n"
+        + "  }\n"
+        + "}\n");
+    ProtoFile topLevel = ProtoSchemaParser.parse("p.proto", base
+        + "message Outer {\n"
+        + "}\n"
+        + "extend Foo {\n"
+        + "  optional int32 ext = 100;\n"
+        + "}\n");
+    CodecCompiler compiler = new CodecCompiler();
+    SchemaCodec nestedCodec = compiler.compile(list(nested));
+    SchemaCodec topLevelCodec = compiler.compile(list(topLevel));
+    assertThat(topLevelCodec).isNotSameAs(nestedCodec);
+    assertThat(nestedCodec.decode("p.Foo", bytes(0xa0, 0x06, 0x07)))
+        .isEqualTo(map("p.Outer.ext", 7));
+    assertThat(topLevelCodec.decode("p.Foo", bytes(0xa0, 0x06, 0x07)))
+        .isEqualTo(map("p.ext", 7));
+  }
+
+  @Test public void roundTrip() {
+    SchemaCodec codec =
+        new CodecCompiler().compile(list(ProtoSchemaParser.parse("point.proto", PROTO)));
+    Map<String, Object> point = map("x", 1, "y", -2, "labels", list("a", "b"));
+    byte[] encoded = codec.encode("test.Point", point);
+    assertThat(codec.encodedSize("test.Point", point)).isEqualTo(encoded.length);
+    assertThat(codec.decode("test.Point", encoded)).isEqualTo(point);
+  }
+
+  @Test public void fieldsOutOfDeclarationOrder() {
+    SchemaCodec codec =
+        new CodecCompiler().compile(list(ProtoSchemaParser.parse("point.proto", PROTO)));
+    Map<String, Object> point = codec.decode("test.Point", bytes(
+        0x1a, 0x01, 'a',
+        0x10, 0x02,
+        0x1a, 0x01, 'b',
+        0x08, 0x01,
+        0x10, 0x03));
+    assertThat(point).isEqualTo(map("labels", list("a", "b"), "y", 3, "x", 1));
+  }
+}
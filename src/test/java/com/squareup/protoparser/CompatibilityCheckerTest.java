@@ -0,0 +1,143 @@
+// Copyright 2014 Square, Inc.
+package com.squareup.protoparser;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+import static com.squareup.protoparser.TestUtils.list;
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class CompatibilityCheckerTest {
+  private static final ProtoFile OLD = ProtoSchemaParser.parse("example.proto", ""
+      + "package example;\n"
+      + "message Message {\n"
+      + "  optional int32 a = 1;\n"
+      + "  optional sint32 b = 2;\n"
+      + "  optional string c = 3;\n"
+      + "  optional Kind d = 4;\n"
+      + "  optional string e = 5;\n"
+      + "  optional Other f = 6;\n"
+      + "  required int32 g = 7;\n"
+      + "  repeated int32 h = 8 [packed = true];\n"
+      + "}\n"
+      + "message Other {}\n"
+      + "message Another {}\n"
+      + "enum Kind {\n"
+      + "  ONE = 1;\n"
+      + "  TWO = 2;\n"
+      + "}\n"
+      + "service Service {\n"
+      + "  rpc Call (Message) returns (Other);\n"
+      + "}\n");
+  private static final ProtoFile NEW = ProtoSchemaParser.parse("example.proto", ""
+      + "package example;\n"
+      + "message Message {\n"
+      + "  optional int64 a = 1;\n"
+      + "  optional int32 b = 2;\n"
+      + "  optional bytes c = 3;\n"
+      + "  optional uint32 d = 4;\n"
+      + "  optional int32 renamed = 5;\n"
+      + "  optional Another f = 6;\n"
+      + "  optional int32 g = 7;\n"
+      + "  repeated int32 h = 8;\n"
+      + "  required int32 i = 9;\n"
+      + "  optional int32 j = 10;\n"
+      + "}\n"
+      + "message Other {}\n"
+      + "message Another {}\n"
+      + "enum Kind {\n"
+      + "  ONE = 1;\n"
+      + "}\n"
+      + "service Service {\n"
+      + "  rpc Call (Message) returns (Another);\n"
+      + "}\n");
+
+  @Test public void classifiesChanges() {
+    List<CompatibilityChecker.Finding> findings =
+        CompatibilityChecker.check(list(OLD), list(NEW));
+    assertThat(describe(findings)).containsExactly(
+        "SAFE CHANGED FIELD example.Message#1",
+        "BREAKING CHANGED FIELD example.Message#2: "
+            + "type changed from sint32 (zigzag varint) to int32 (varint)",
+        "SAFE CHANGED FIELD example.Message#3",
+        "SAFE CHANGED FIELD example.Message#4",
+        "BREAKING CHANGED FIELD example.Message#5: "
+            + "tag 5 reused by renamed (type changed from string (string) to int32 (varint))",
+        "BREAKING CHANGED FIELD example.Message#6: "
+            + "message type changed from example.Other to example.Another",
+        "BREAKING CHANGED FIELD example.Message#7: label changed from required to optional",
+        "SAFE REMOVED OPTION example.Message#8[packed]",
+        "BREAKING ADDED FIELD example.Message#9: required field added",
+        "SAFE ADDED FIELD example.Message#10",
+        "BREAKING REMOVED ENUM_VALUE example.Kind#TWO: enum value removed",
+        "BREAKING CHANGED METHOD example.Service#Call: response type changed");
+    assertThat(CompatibilityChecker.breaking(findings)).hasSize(7);
+  }
+
+  @Test public void renameIsSafe() {
+    ProtoFile renamed = ProtoSchemaParser.parse("example.proto",
+        OLD.toString().replace("string c = 3", "string renamed = 3"));
+    List<CompatibilityChecker.Finding> findings =
+        CompatibilityChecker.check(list(OLD), list(renamed));
+    assertThat(describe(findings)).containsExactly("SAFE CHANGED FIELD example.Message#3");
+  }
+
+  @Test public void lengthDelimitedTypes() {
+    ProtoFile old = ProtoSchemaParser.parse("example.proto", ""
+        + "package example;\n"
+        + "message Message {\n"
+        + "  optional Other a = 1;\n"
+        + "  optional Other b = 2;\n"
+        + "  optional string c = 3;\n"
+        + "  optional bytes d = 4;\n"
+        + "}\n"
+        + "message Other {}\n");
+    ProtoFile updated = ProtoSchemaParser.parse("example.proto", ""
+        + "package example;\n"
+        + "message Message {\n"
+        + "  optional string a = 1;\n"
+        + "  optional bytes b = 2;\n"
+        + "  optional bytes c = 3;\n"
+        + "  optional Other d = 4;\n"
+        + "}\n"
+        + "message Other {}\n");
+    assertThat(describe(CompatibilityChecker.check(list(old), list(updated)))).containsExactly(
+        "BREAKING CHANGED FIELD example.Message#1: "
+            + "type changed from Other (message) to string (string)",
+        "SAFE CHANGED FIELD example.Message#2",
+        "SAFE CHANGED FIELD example.Message#3",
+        "SAFE CHANGED FIELD example.Message#4");
+  }
+
+  @Test public void packedIsSafe() {
+    ProtoFile packed = ProtoSchemaParser.parse("example.proto",
+        OLD.toString().replace("int32 a = 1", "int32 a = 1 [packed = true]"));
+    assertThat(describe(CompatibilityChecker.check(list(OLD), list(packed)))).containsExactly(
+        "SAFE ADDED OPTION example.Message#1[packed]");
+  }
+
+  @Test public void enumValueRenameIsSafe() {
+    ProtoFile renamed = ProtoSchemaParser.parse("example.proto",
+        OLD.toString().replace("TWO = 2", "DEUX = 2"));
+    assertThat(describe(CompatibilityChecker.check(list(OLD), list(renamed)))).containsExactly(
+        "SAFE ADDED ENUM_VALUE example.Kind#DEUX",
+        "SAFE REMOVED ENUM_VALUE example.Kind#TWO");
+  }
+
+  @Test public void moveToAnotherFileIsSafe() {
+    ProtoFile emptied = ProtoSchemaParser.parse("example.proto", "package example;\n");
+    ProtoFile moved = ProtoSchemaParser.parse("moved.proto", OLD.toString());
+    List<CompatibilityChecker.Finding> findings =
+        CompatibilityChecker.check(list(OLD), list(emptied, moved));
+    assertThat(describe(findings)).containsExactly("SAFE ADDED FILE moved.proto");
+  }
+
+  private static List<String> describe(List<CompatibilityChecker.Finding> findings) {
+    List<String> result = new ArrayList<String>();
+    for (CompatibilityChecker.Finding finding : findings) {
+      result.add(finding.toString());
+    }
+    return result;
+  }
+}
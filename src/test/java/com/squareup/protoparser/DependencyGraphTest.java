@@ -0,0 +1,90 @@
+// Copyright 2014 Square, Inc.
+package com.squareup.protoparser;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.Test;
+
+import static com.squareup.protoparser.TestUtils.NO_EXTEND_DECLARATIONS;
+import static com.squareup.protoparser.TestUtils.NO_OPTIONS;
+import static com.squareup.protoparser.TestUtils.NO_SERVICES;
+import static com.squareup.protoparser.TestUtils.NO_STRINGS;
+import static com.squareup.protoparser.TestUtils.NO_TYPES;
+import static com.squareup.protoparser.TestUtils.list;
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.api.Assertions.fail;
+
+public class DependencyGraphTest {
+  private static ProtoFile file(String name, List<String> imports, List<String> publicImports) {
+    return new ProtoFile(name, null, imports, publicImports, NO_TYPES, NO_SERVICES, NO_OPTIONS,
+        NO_EXTEND_DECLARATIONS);
+  }
+
+  private static final ProtoFile BASE = file("base.proto", NO_STRINGS, NO_STRINGS);
+  private static final ProtoFile REEXPORT = file("reexport.proto", NO_STRINGS, list("base.proto"));
+  private static final ProtoFile FACADE = file("facade.proto", NO_STRINGS, list("reexport.proto"));
+  private static final ProtoFile OTHER = file("other.proto", list("base.proto"), NO_STRINGS);
+  private static final ProtoFile APP =
+      file("app.proto", list("facade.proto", "other.proto", "google/unknown.proto"), NO_STRINGS);
+
+  @Test public void levels() {
+    DependencyGraph graph = DependencyGraph.of(list(APP, OTHER, FACADE, REEXPORT, BASE));
+    assertThat(graph.getCycles()).isEmpty();
+    List<List<ProtoFile>> levels = graph.getLevels();
+    assertThat(levels).hasSize(4);
+    assertThat(levels.get(0)).containsExactly(BASE);
+    assertThat(levels.get(1)).containsExactly(OTHER, REEXPORT);
+    assertThat(levels.get(2)).containsExactly(FACADE);
+    assertThat(levels.get(3)).containsExactly(APP);
+  }
+
+  @Test public void publicImportsAreVisibleTransitively() {
+    DependencyGraph graph = DependencyGraph.of(list(APP, OTHER, FACADE, REEXPORT, BASE));
+    assertThat(graph.getImports("app.proto")).containsExactly(FACADE, OTHER);
+    assertThat(graph.getVisibleFiles("app.proto")).containsExactly(FACADE, OTHER, REEXPORT, BASE);
+    assertThat(graph.getVisibleFiles("other.proto")).containsExactly(BASE);
+    assertThat(graph.getVisibleFiles("base.proto")).isEmpty();
+  }
+
+  @Test public void cycles() {
+    ProtoFile a = file("a.proto", list("b.proto"), NO_STRINGS);
+    ProtoFile b = file("b.proto", list("c.proto"), NO_STRINGS);
+    ProtoFile c = file("c.proto", list("a.proto"), NO_STRINGS);
+    ProtoFile self = file("self.proto", list("self.proto"), NO_STRINGS);
+    ProtoFile d = file("d.proto", list("a.proto"), NO_STRINGS);
+    DependencyGraph graph = DependencyGraph.of(list(d, a, b, c, self));
+    assertThat(graph.getCycles()).hasSize(2);
+    assertThat(graph.getCycles().get(0)).containsExactly(a, b, c);
+    assertThat(graph.getCycles().get(1)).containsExactly(self);
+    try {
+      graph.getLevels();
+      fail("Cyclic graph.");
+    } catch (IllegalStateException e) {
+      assertThat(e).hasMessage("Import cycles:\n  a.proto b.proto c.proto\n  self.proto");
+    }
+  }
+
+  @Test public void runByLevelRunsImportsFirst() throws InterruptedException {
+    final DependencyGraph graph = DependencyGraph.of(list(APP, OTHER, FACADE, REEXPORT, BASE));
+    final List<String> completed = Collections.synchronizedList(new ArrayList<String>());
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      graph.runByLevel(new DependencyGraph.FileTask() {
+        @Override public void run(ProtoFile file) {
+          for (ProtoFile imported : graph.getImports(file.getFileName())) {
+            if (!completed.contains(imported.getFileName())) {
+              throw new AssertionError(file.getFileName() + " ran before its import.");
+            }
+          }
+          completed.add(file.getFileName());
+        }
+      }, executor);
+    } finally {
+      executor.shutdown();
+    }
+    assertThat(completed).hasSize(5);
+  }
+}
@@ -0,0 +1,163 @@
+// Copyright 2014 Square, Inc.
+package com.squareup.protoparser;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import org.junit.Test;
+
+import static com.squareup.protoparser.TestUtils.list;
+import static com.squareup.protoparser.TestUtils.map;
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.api.Assertions.fail;
+
+public class DynamicDecoderTest {
+  private static final ProtoFile PERSON = ProtoSchemaParser.parse("person.proto", ""
+      + "package test;\n"
+      + "message Person {\n"
+      + "  optional string name = 1;\n"
+      + "  optional int32 id = 2;\n"
+      + "  optional sint64 delta = 3;\n"
+      + "  repeated int32 scores = 4 [packed=true];\n"
+      + "  optional Kind kind = 5;\n"
+      + "  optional Person friend = 6;\n"
+      + "  optional double ratio = 7;\n"
+      + "  optional fixed32 flags = 8;\n"
+      + "  optional bytes blob = 9;\n"
+      + "  optional bool active = 10;\n"
+      + "  enum Kind {\n"
+      + "    HUMAN = 0;\n"
+      + "    ROBOT = 1;\n"
+      + "  }\n"
+      + "  extensions 100 to 199;\n"
+      + "}\n"
+      + "extend Person {\n"
+      + "  optional string nickname = 100;\n"
+      + "}\n");
+
+  private final DynamicDecoder decoder = DynamicDecoder.of(list(PERSON));
+
+  @Test public void decodeEveryKind() {
+    Map<String, Object> person = decoder.decode("test.Person", bytes(
+        0x0a, 0x02, 'a', 'b',
+        0x10, 0x96, 0x01,
+        0x18, 0x03,
+        0x22, 0x03, 0x01, 0xac, 0x02,
+        0x28, 0x01,
+        0x32, 0x02, 0x10, 0x07,
+        0x39, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0xe0, 0x3f,
+        0x45, 0x04, 0x03, 0x02, 0x01,
+        0x4a, 0x02, 0x01, 0x02,
+        0x50, 0x01,
+        0xa2, 0x06, 0x01, 'n'));
+
+    assertThat(person.get("name")).isEqualTo("ab");
+    assertThat(person.get("id")).isEqualTo(150);
+    assertThat(person.get("delta")).isEqualTo(-2L);
+    assertThat(person.get("scores")).isEqualTo(list(1, 300));
+    assertThat(person.get("kind")).isEqualTo("ROBOT");
+    assertThat(person.get("friend")).isEqualTo(map("id", 7));
+    assertThat(person.get("ratio")).isEqualTo(0.5);
+    assertThat(person.get("flags")).isEqualTo(0x01020304);
+    assertThat((byte[]) person.get("blob")).isEqualTo(bytes(0x01, 0x02));
+    assertThat(person.get("active")).isEqualTo(true);
+    assertThat(person.get("test.nickname")).isEqualTo("n");
+  }
+
+  @Test public void packedFieldAcceptsUnpackedValues() {
+    Map<String, Object> person = decoder.decode("test.Person", bytes(
+        0x20, 0x01,
+        0x22, 0x01, 0x02,
+        0x20, 0x03));
+    assertThat(person).isEqualTo(map("scores", list(1, 2, 3)));
+  }
+
+  @Test public void unknownFieldsAreSkipped() {
+    Map<String, Object> person = decoder.decode("test.Person", bytes(
+        0x90, 0x03, 0x05,
+        0x99, 0x03, 0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x08,
+        0x10, 0x01,
+        0xa2, 0x03, 0x02, 0x01, 0x02,
+        0xab, 0x03, 0x08, 0x01, 0xac, 0x03,
+        0xb5, 0x03, 0x01, 0x02, 0x03, 0x04,
+        0x12, 0x01, 0x00));
+    assertThat(person).isEqualTo(map("id", 1));
+  }
+
+  @Test public void unknownEnumValueIsNumber() {
+    Map<String, Object> person = decoder.decode("test.Person", bytes(0x28, 0x07));
+    assertThat(person).isEqualTo(map("kind", 7));
+  }
+
+  @Test public void repeatedSingularMessageIsMerged() {
+    Map<String, Object> person = decoder.decode("test.Person", bytes(
+        0x32, 0x02, 0x10, 0x07,
+        0x32, 0x03, 0x0a, 0x01, 'x',
+        0x32, 0x02, 0x10, 0x08));
+    assertThat(person).isEqualTo(map("friend", map("id", 8, "name", "x")));
+  }
+
+  @Test public void byteBufferPositionIsUnchanged() {
+    ByteBuffer buffer = ByteBuffer.wrap(bytes(0xff, 0x10, 0x05));
+    buffer.position(1);
+    assertThat(decoder.decode("test.Person", buffer)).isEqualTo(map("id", 5));
+    assertThat(buffer.position()).isEqualTo(1);
+  }
+
+  @Test public void truncatedData() {
+    try {
+      decoder.decode("test.Person", bytes(0x0a, 0x05, 'a'));
+      fail("Truncated message.");
+    } catch (IllegalArgumentException e) {
+      assertThat(e).hasMessage("Truncated message");
+    }
+  }
+
+  @Test public void unknownType() {
+    try {
+      decoder.decode("test.Missing", new byte[0]);
+      fail("Unknown type.");
+    } catch (IllegalArgumentException e) {
+      assertThat(e).hasMessage("Unknown message type: test.Missing");
+    }
+  }
+
+  @Test public void nestedExtensionsAreNamedByScope() {
+    ProtoFile file = ProtoSchemaParser.parse("nested.proto", ""
+        + "package test;\n"
+        + "message Base {\n"
+        + "  extensions 100 to 199;\n"
+        + "}\n"
+        + "message Outer {\n"
+        + "  extend Base {\n"
+        + "    optional int32 ext = 100;\n"
+        + "  }\n"
+        + "}\n");
+    assertThat(DynamicDecoder.of(list(file)).decode("test.Base", bytes(0xa0, 0x06, 0x07)))
+        .isEqualTo(map("test.Outer.ext", 7));
+  }
+
+  @Test public void extensionNameCollisionIsRejected() {
+    ProtoFile file = ProtoSchemaParser.parse("collision.proto", ""
+        + "message Base {\n"
+        + "  optional int32 owner = 1;\n"
+        + "  extensions 100 to 199;\n"
+        + "}\n"
+        + "extend Base {\n"
+        + "  optional int32 owner = 100;\n"
+        + "}\n");
+    try {
+      DynamicDecoder.of(list(file));
+      fail("Duplicate field name.");
+    } catch (IllegalStateException e) {
+      assertThat(e).hasMessage("Duplicate field name owner in Base");
+    }
+  }
+
+  static byte[] bytes(int... values) {
+    byte[] result = new byte[values.length];
+    for (int i = 0; i < values.length; i++) {
+      result[i] = (byte) values[i];
+    }
+    return result;
+  }
+}
@@ -0,0 +1,131 @@
+// Copyright 2014 Square, Inc.
+package com.squareup.protoparser;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import org.junit.Test;
+
+import static com.squareup.protoparser.DynamicDecoderTest.bytes;
+import static com.squareup.protoparser.TestUtils.list;
+import static com.squareup.protoparser.TestUtils.map;
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.api.Assertions.fail;
+
+public class DynamicEncoderTest {
+  private static final ProtoFile PERSON = ProtoSchemaParser.parse("person.proto", ""
+      + "package test;\n"
+      + "message Person {\n"
+      + "  optional string name = 1;\n"
+      + "  optional int32 id = 2;\n"
+      + "  optional sint64 delta = 3;\n"
+      + "  repeated int32 scores = 4 [packed=true];\n"
+      + "  optional Kind kind = 5;\n"
+      + "  repeated Person friends = 6;\n"
+      + "  optional double ratio = 7;\n"
+      + "  repeated fixed32 flags = 8;\n"
+      + "  optional bytes blob = 9;\n"
+      + "  optional bool active = 10;\n"
+      + "  enum Kind {\n"
+      + "    HUMAN = 0;\n"
+      + "    ROBOT = 1;\n"
+      + "  }\n"
+      + "  extensions 100 to 199;\n"
+      + "}\n"
+      + "extend Person {\n"
+      + "  optional string nickname = 100;\n"
+      + "}\n");
+
+  private final DynamicEncoder encoder = DynamicEncoder.of(list(PERSON));
+  private final DynamicDecoder decoder = DynamicDecoder.of(list(PERSON));
+
+  @Test public void encodeInDeclarationOrder() {
+    Map<String, Object> person = map(
+        "test.nickname", "n",
+        "active", true,
+        "scores", list(1, 300),
+        "friends", list(map("id", 7), map("name", "é")),
+        "name", "ab",
+        "kind", "ROBOT",
+        "delta", -2L);
+    assertThat(encoder.encode("test.Person", person)).isEqualTo(bytes(
+        0x0a, 0x02, 'a', 'b',
+        0x18, 0x03,
+        0x22, 0x03, 0x01, 0xac, 0x02,
+        0x28, 0x01,
+        0x32, 0x02, 0x10, 0x07,
+        0x32, 0x04, 0x0a, 0x02, 0xc3, 0xa9,
+        0x50, 0x01,
+        0xa2, 0x06, 0x01, 'n'));
+    assertThat(encoder.encodedSize("test.Person", person)).isEqualTo(29);
+  }
+
+  @Test public void roundTrip() {
+    Map<String, Object> person = map(
+        "name", "😀 smile",
+        "id", -1,
+        "delta", Long.MIN_VALUE,
+        "scores", list(0, -5, Integer.MAX_VALUE),
+        "kind", "HUMAN",
+        "friends", list(map("friends", list(map("id", 3)))),
+        "ratio", 0.25,
+        "flags", list(1, 0xffffffff),
+        "active", false);
+    byte[] encoded = encoder.encode("test.Person", person);
+    assertThat(decoder.decode("test.Person", encoded)).isEqualTo(person);
+  }
+
+  @Test public void negativeInt32IsSignExtended() {
+    assertThat(encoder.encode("test.Person", map("id", -1))).isEqualTo(bytes(
+        0x10, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff, 0x01));
+  }
+
+  @Test public void enumByNumber() {
+    assertThat(encoder.encode("test.Person", map("kind", 9))).isEqualTo(bytes(0x28, 0x09));
+  }
+
+  @Test public void encodeIntoByteBuffer() {
+    ByteBuffer buffer = ByteBuffer.allocate(8);
+    buffer.put((byte) 0xff);
+    encoder.encode("test.Person", map("id", 5), buffer);
+    assertThat(buffer.position()).isEqualTo(3);
+    assertThat(buffer.array()).isEqualTo(bytes(0xff, 0x10, 0x05, 0, 0, 0, 0, 0));
+  }
+
+  @Test public void byteBufferTooSmall() {
+    ByteBuffer buffer = ByteBuffer.allocate(2);
+    try {
+      encoder.encode("test.Person", map("id", 500), buffer);
+      fail("Buffer too small.");
+    } catch (BufferOverflowException expected) {
+    }
+    assertThat(buffer.position()).isEqualTo(0);
+  }
+
+  @Test public void unknownField() {
+    try {
+      encoder.encode("test.Person", map("id", 1, "age", 2));
+      fail("Unknown field.");
+    } catch (IllegalArgumentException e) {
+      assertThat(e).hasMessage("Unknown field age in test.Person");
+    }
+  }
+
+  @Test public void wrongValueType() {
+    try {
+      encoder.encode("test.Person", map("name", 1));
+      fail("Wrong value type.");
+    } catch (IllegalArgumentException e) {
+      assertThat(e).hasMessage("Expected a string for name but was java.lang.Integer");
+    }
+  }
+
+  @Test public void unknownEnumValue() {
+    try {
+      encoder.encode("test.Person", map("kind", "ALIEN"));
+      fail("Unknown enum value.");
+    } catch (IllegalArgumentException e) {
+      assertThat(e).hasMessage("Unknown value ALIEN for kind of type test.Person.Kind");
+    }
+  }
+}
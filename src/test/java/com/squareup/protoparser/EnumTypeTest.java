@@ -111,4 +111,29 @@ public class EnumTypeTest {
 
     assertThat(type.toString()).isEqualTo(expected);
   }
+
+  @Test public void valueLookup() {
+    Value zero = new Value("ZERO", 0, "", NO_OPTIONS);
+    Value one = new Value("ONE", 1, "", NO_OPTIONS);
+    Value big = new Value("BIG", 1 << 20, "", NO_OPTIONS);
+    Value negative = new Value("NEGATIVE", -1, "", NO_OPTIONS);
+    EnumType type = new EnumType("Enum", "", "", NO_OPTIONS, list(zero, one, big, negative));
+    assertThat(type.valueForTag(0)).isSameAs(zero);
+    assertThat(type.valueForTag(1)).isSameAs(one);
+    assertThat(type.valueForTag(1 << 20)).isSameAs(big);
+    assertThat(type.valueForTag(-1)).isSameAs(negative);
+    assertThat(type.valueForTag(2)).isNull();
+    assertThat(type.valueForName("BIG")).isSameAs(big);
+    assertThat(type.valueForName("SMALL")).isNull();
+  }
+
+  @Test public void valueLookupWithAliasReturnsFirstDeclared() {
+    Option allowAlias = new Option("allow_alias", true);
+    Value started = new Value("STARTED", 1, "", NO_OPTIONS);
+    Value running = new Value("RUNNING", 1, "", NO_OPTIONS);
+    EnumType type = new EnumType("Enum", "", "", list(allowAlias), list(started, running));
+    assertThat(type.valueForTag(1)).isSameAs(started);
+    assertThat(type.valueForName("STARTED")).isSameAs(started);
+    assertThat(type.valueForName("RUNNING")).isSameAs(running);
+  }
 }
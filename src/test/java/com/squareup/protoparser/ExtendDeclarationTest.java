@@ -38,6 +38,21 @@ public class ExtendDeclarationTest {
     assertThat(extend.toString()).isEqualTo(expected);
   }
 
+  @Test public void scopeIsPartOfEquality() {
+    ExtendDeclaration topLevel = new ExtendDeclaration("Foo", QualifiedName.parse("p.Foo"), null,
+        "", NO_FIELDS, true);
+    ExtendDeclaration nested = new ExtendDeclaration("Foo", QualifiedName.parse("p.Foo"),
+        QualifiedName.parse("p.Outer"), "", NO_FIELDS, true);
+    assertThat(topLevel).isEqualTo(new ExtendDeclaration("Foo", "p.Foo", "", NO_FIELDS));
+    assertThat(nested).isNotEqualTo(topLevel);
+    assertThat(nested.hashCode()).isNotEqualTo(topLevel.hashCode());
+  }
+
+  @Test public void nullFullyQualifiedName() {
+    ExtendDeclaration extend = new ExtendDeclaration("Name", null, "", NO_FIELDS);
+    assertThat(extend.getFullyQualifiedName()).isNull();
+  }
+
   @Test public void duplicateTagValueThrows() {
     Field field1 = new Field(REQUIRED, "Type", "name1", 1, "", NO_OPTIONS);
     Field field2 = new Field(REQUIRED, "Type", "name2", 1, "", NO_OPTIONS);
@@ -0,0 +1,104 @@
+// Copyright 2014 Square, Inc.
+package com.squareup.protoparser;
+
+import org.junit.Test;
+
+import static com.squareup.protoparser.TestUtils.list;
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.api.Assertions.fail;
+
+public class ExtensionRegistryTest {
+  private static final ProtoFile BASE = ProtoSchemaParser.parse("base.proto", ""
+      + "package base;\n"
+      + "message Message {\n"
+      + "  optional int32 a = 1;\n"
+      + "  extensions 100 to 199;\n"
+      + "  extensions 500 to max;\n"
+      + "}\n"
+      + "message Overlapping {\n"
+      + "  extensions 100 to 199;\n"
+      + "  extensions 150 to 299;\n"
+      + "}\n");
+  private static final ProtoFile ONE = ProtoSchemaParser.parse("one.proto", ""
+      + "package one;\n"
+      + "extend base.Message {\n"
+      + "  optional int32 b = 150;\n"
+      + "  optional int32 c = 100;\n"
+      + "}\n");
+  private static final ProtoFile TWO = ProtoSchemaParser.parse("two.proto", ""
+      + "package two;\n"
+      + "extend base.Message {\n"
+      + "  optional int32 d = 1000;\n"
+      + "  optional int32 e = 200;\n"
+      + "}\n");
+  private static final ProtoFile CONFLICT = ProtoSchemaParser.parse("conflict.proto", ""
+      + "package conflict;\n"
+      + "extend base.Message {\n"
+      + "  optional int32 f = 150;\n"
+      + "}\n");
+
+  @Test public void lookupByExtendeeAndTag() {
+    ExtensionRegistry registry = ExtensionRegistry.of(list(BASE, ONE, TWO));
+    ExtendDeclaration one = ONE.getExtendDeclarations().get(0);
+    ExtendDeclaration two = TWO.getExtendDeclarations().get(0);
+    assertThat(registry.getExtension("base.Message", 150)).isSameAs(one.getFields().get(0));
+    assertThat(registry.getExtension("base.Message", 1000)).isSameAs(two.getFields().get(0));
+    assertThat(registry.getExtension("base.Message", 1)).isNull();
+    assertThat(registry.getExtension("base.Other", 150)).isNull();
+    assertThat(registry.getExtensions("base.Message")).containsExactly(one.getFields().get(1),
+        one.getFields().get(0), two.getFields().get(1), two.getFields().get(0));
+  }
+
+  @Test public void extensionRanges() {
+    ExtensionRegistry registry = ExtensionRegistry.of(list(BASE));
+    assertThat(registry.isInExtensionRange("base.Message", 99)).isFalse();
+    assertThat(registry.isInExtensionRange("base.Message", 100)).isTrue();
+    assertThat(registry.isInExtensionRange("base.Message", 199)).isTrue();
+    assertThat(registry.isInExtensionRange("base.Message", 200)).isFalse();
+    assertThat(registry.isInExtensionRange("base.Message", ProtoFile.MAX_TAG_VALUE)).isTrue();
+    assertThat(registry.isInExtensionRange("base.Overlapping", 250)).isTrue();
+    assertThat(registry.isInExtensionRange("base.Missing", 100)).isFalse();
+  }
+
+  @Test public void problemsReported() {
+    ExtensionRegistry registry = ExtensionRegistry.of(list(BASE, ONE, TWO, CONFLICT));
+    try {
+      registry.validate();
+      fail("Invalid extensions.");
+    } catch (IllegalStateException e) {
+      assertThat(e).hasMessage("Invalid extensions:\n"
+          + "  Conflicting extensions for tag 150 on base.Message: b in one.proto and f in "
+          + "conflict.proto\n"
+          + "  two.proto: Extension e tag 200 is outside the extension ranges of base.Message\n"
+          + "  Overlapping extension ranges 100 to 199 and 150 to 299 in base.Overlapping");
+    }
+  }
+
+  @Test public void unknownExtendeeIsReported() {
+    ExtensionRegistry registry = ExtensionRegistry.of(list(TWO));
+    assertThat(registry.getErrors())
+        .containsExactly("two.proto: Unable to resolve extended message base.Message in two");
+    assertThat(registry.getExtensions("base.Message")).isEmpty();
+  }
+
+  @Test public void extendeeNamesAreResolved() {
+    ProtoFile file = ProtoSchemaParser.parse("p.proto", ""
+        + "package p;\n"
+        + "message Outer {\n"
+        + "  message Inner {\n"
+        + "    extensions 100 to 199;\n"
+        + "  }\n"
+        + "}\n"
+        + "extend Outer.Inner {\n"
+        + "  optional int32 x = 100;\n"
+        + "}\n"
+        + "extend .p.Outer.Inner {\n"
+        + "  optional int32 y = 300;\n"
+        + "}\n");
+    ExtensionRegistry registry = ExtensionRegistry.of(list(file));
+    assertThat(registry.getExtensions("p.Outer.Inner")).hasSize(2);
+    assertThat(registry.getExtension("p.Outer.Inner", 100).getName()).isEqualTo("x");
+    assertThat(registry.getErrors()).containsExactly(
+        "p.proto: Extension y tag 300 is outside the extension ranges of p.Outer.Inner");
+  }
+}
@@ -0,0 +1,86 @@
+// Copyright 2014 Square, Inc.
+package com.squareup.protoparser;
+
+import org.junit.Test;
+
+import static com.squareup.protoparser.TestUtils.list;
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class FingerprinterTest {
+  private static final String PROTO = ""
+      + "package example;\n"
+      + "/** A message. */\n"
+      + "message Message {\n"
+      + "  optional int32 a = 1 [deprecated = true];\n"
+      + "  optional Kind kind = 2;\n"
+      + "  enum Kind {\n"
+      + "    ONE = 1;\n"
+      + "  }\n"
+      + "  message Inner {\n"
+      + "    optional string b = 1;\n"
+      + "  }\n"
+      + "}\n"
+      + "service Service {\n"
+      + "  rpc Call (Message) returns (Message);\n"
+      + "}\n";
+
+  @Test public void equalContentHasEqualFingerprints() {
+    ProtoFile first = ProtoSchemaParser.parse("example.proto", PROTO);
+    ProtoFile second = ProtoSchemaParser.parse("example.proto", PROTO);
+    Fingerprint fingerprint = new Fingerprinter(true).of(first);
+    assertThat(new Fingerprinter(true).of(second)).isEqualTo(fingerprint);
+    assertThat(fingerprint.toString()).hasSize(32);
+  }
+
+  @Test public void changesPropagateToEnclosingDeclarations() {
+    ProtoFile original = ProtoSchemaParser.parse("example.proto", PROTO);
+    ProtoFile changed = ProtoSchemaParser.parse("example.proto",
+        PROTO.replace("optional string b = 1;", "optional string b = 2;"));
+    Fingerprinter fingerprinter = new Fingerprinter(true);
+
+    MessageType originalMessage = (MessageType) original.getTypes().get(0);
+    MessageType changedMessage = (MessageType) changed.getTypes().get(0);
+    assertThat(fingerprinter.of(changed)).isNotEqualTo(fingerprinter.of(original));
+    assertThat(fingerprinter.of(changedMessage)).isNotEqualTo(fingerprinter.of(originalMessage));
+    assertThat(fingerprinter.of(changedMessage.getNestedTypes().get(1)))
+        .isNotEqualTo(fingerprinter.of(originalMessage.getNestedTypes().get(1)));
+
+    // Unchanged siblings keep their fingerprints.
+    assertThat(fingerprinter.of(changedMessage.getNestedTypes().get(0)))
+        .isEqualTo(fingerprinter.of(originalMessage.getNestedTypes().get(0)));
+    assertThat(fingerprinter.of(changedMessage.getFields().get(0)))
+        .isEqualTo(fingerprinter.of(originalMessage.getFields().get(0)));
+    assertThat(fingerprinter.of(changed.getServices().get(0)))
+        .isEqualTo(fingerprinter.of(original.getServices().get(0)));
+  }
+
+  @Test public void optionsAreFingerprinted() {
+    ProtoFile original = ProtoSchemaParser.parse("example.proto", PROTO);
+    ProtoFile changed = ProtoSchemaParser.parse("example.proto",
+        PROTO.replace("deprecated = true", "deprecated = false"));
+    Fingerprinter fingerprinter = new Fingerprinter(true);
+    MessageType originalMessage = (MessageType) original.getTypes().get(0);
+    MessageType changedMessage = (MessageType) changed.getTypes().get(0);
+    assertThat(fingerprinter.of(changedMessage.getFields().get(0)))
+        .isNotEqualTo(fingerprinter.of(originalMessage.getFields().get(0)));
+  }
+
+  @Test public void documentationCanBeExcluded() {
+    ProtoFile original = ProtoSchemaParser.parse("example.proto", PROTO);
+    ProtoFile changed = ProtoSchemaParser.parse("example.proto",
+        PROTO.replace("A message.", "A changed message."));
+    assertThat(new Fingerprinter(true).of(changed))
+        .isNotEqualTo(new Fingerprinter(true).of(original));
+    assertThat(new Fingerprinter(false).of(changed))
+        .isEqualTo(new Fingerprinter(false).of(original));
+  }
+
+  @Test public void schemaFingerprintIgnoresFileOrder() {
+    ProtoFile example = ProtoSchemaParser.parse("example.proto", PROTO);
+    ProtoFile other = ProtoSchemaParser.parse("other.proto", "message Other {}\n");
+    Fingerprinter fingerprinter = new Fingerprinter(true);
+    assertThat(fingerprinter.ofSchema(list(example, other)))
+        .isEqualTo(fingerprinter.ofSchema(list(other, example)))
+        .isNotEqualTo(fingerprinter.ofSchema(list(example)));
+  }
+}
@@ -0,0 +1,136 @@
+// Copyright 2014 Square, Inc.
+package com.squareup.protoparser;
+
+import org.junit.Test;
+
+import static com.squareup.protoparser.MessageType.Field;
+import static com.squareup.protoparser.TestUtils.list;
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.api.Assertions.fail;
+
+public class LinkerTest {
+  private static final String COMMON = ""
+      + "package common;\n"
+      + "message Money {\n"
+      + "  optional int64 cents = 1;\n"
+      + "}\n";
+
+  private static final String SHOP = ""
+      + "package shop.v1;\n"
+      + "import \"common.proto\";\n"
+      + "message Item {\n"
+      + "  optional common.Money price = 1;\n"
+      + "  optional Kind kind = 2;\n"
+      + "  optional Money local = 3;\n"
+      + "  optional .common.Money absolute = 4;\n"
+      + "  optional string name = 5;\n"
+      + "  enum Kind {\n"
+      + "    FOOD = 1;\n"
+      + "  }\n"
+      + "  message Money {\n"
+      + "    optional Kind kind = 1;\n"
+      + "  }\n"
+      + "}\n"
+      + "message Order {\n"
+      + "  repeated Item items = 1;\n"
+      + "  optional Item.Kind kind = 2;\n"
+      + "  optional v1.Item first = 3;\n"
+      + "}\n"
+      + "extend Item {\n"
+      + "  optional Order order = 100;\n"
+      + "}\n"
+      + "service Shop {\n"
+      + "  rpc Buy (Order) returns (common.Money);\n"
+      + "}\n";
+
+  @Test public void resolvesUsingScopeRules() {
+    ProtoFile common = ProtoSchemaParser.parse("common.proto", COMMON);
+    ProtoFile shop = ProtoSchemaParser.parse("shop.proto", SHOP);
+    Linker linker = Linker.link(list(common, shop));
+
+    Type money = linker.getType("common.Money");
+    Type item = linker.getType("shop.v1.Item");
+    Type kind = linker.getType("shop.v1.Item.Kind");
+    Type localMoney = linker.getType("shop.v1.Item.Money");
+    Type order = linker.getType("shop.v1.Order");
+    assertThat(money).isSameAs(common.getTypes().get(0));
+
+    MessageType itemType = (MessageType) item;
+    assertThat(linker.getFieldType(itemType.getField("price"))).isSameAs(money);
+    assertThat(linker.getFieldType(itemType.getField("kind"))).isSameAs(kind);
+    assertThat(linker.getFieldType(itemType.getField("local"))).isSameAs(localMoney);
+    assertThat(linker.getFieldType(itemType.getField("absolute"))).isSameAs(money);
+    assertThat(linker.getFieldType(itemType.getField("name"))).isNull();
+
+    Field nestedKind = ((MessageType) localMoney).getField("kind");
+    assertThat(linker.getFieldType(nestedKind)).isSameAs(kind);
+
+    MessageType orderType = (MessageType) order;
+    assertThat(linker.getFieldType(orderType.getField("items"))).isSameAs(item);
+    assertThat(linker.getFieldType(orderType.getField("kind"))).isSameAs(kind);
+    assertThat(linker.getFieldType(orderType.getField("first"))).isSameAs(item);
+
+    ExtendDeclaration extend = shop.getExtendDeclarations().get(0);
+    assertThat(linker.getExtendee(extend)).isSameAs(item);
+    assertThat(linker.getFieldType(extend.getFields().get(0))).isSameAs(order);
+
+    Service.Method buy = shop.getServices().get(0).getMethods().get(0);
+    assertThat(linker.getRequestType(buy)).isSameAs(order);
+    assertThat(linker.getResponseType(buy)).isSameAs(money);
+  }
+
+  @Test public void partiallyQualifiedNameBindsToInnermostFirstSegment() {
+    // Inside Item, "Money" binds to Item.Money, which has no "cents" member. Protoc does not fall
+    // back to the outer common.Money in that case and neither does the linker.
+    ProtoFile common = ProtoSchemaParser.parse("common.proto", COMMON);
+    ProtoFile shop = ProtoSchemaParser.parse("shop.proto", SHOP);
+    Linker linker = Linker.link(list(common, shop));
+    QualifiedName itemScope = QualifiedName.parse("shop.v1.Item");
+    assertThat(linker.resolve("Money.Kind", itemScope)).isNull();
+    assertThat(linker.resolve("Kind", itemScope.child("Money")))
+        .isSameAs(linker.getType("shop.v1.Item.Kind"));
+  }
+
+  @Test public void nestedExtendResolvesInEnclosingMessage() {
+    String proto = ""
+        + "package p;\n"
+        + "message Outer {\n"
+        + "  extensions 100 to 200;\n"
+        + "  message Inner {}\n"
+        + "  extend Outer {\n"
+        + "    optional Inner y = 101;\n"
+        + "  }\n"
+        + "}\n";
+    ProtoFile file = ProtoSchemaParser.parse("p.proto", proto);
+    ExtendDeclaration extend = file.getExtendDeclarations().get(0);
+    assertThat(extend.getScope()).isEqualTo(QualifiedName.parse("p.Outer"));
+
+    Linker linker = Linker.link(list(file));
+    assertThat(linker.getExtendee(extend)).isSameAs(linker.getType("p.Outer"));
+    assertThat(linker.getFieldType(extend.getFields().get(0)))
+        .isSameAs(linker.getType("p.Outer.Inner"));
+  }
+
+  @Test public void unresolvedReferencesAreReported() {
+    String proto = ""
+        + "package example;\n"
+        + "message Message {\n"
+        + "  optional Missing a = 1;\n"
+        + "  optional other.Type b = 2;\n"
+        + "}\n"
+        + "service Service {\n"
+        + "  rpc Call (Message) returns (Absent);\n"
+        + "}\n";
+    ProtoFile file = ProtoSchemaParser.parse("example.proto", proto);
+    try {
+      Linker.link(list(file));
+      fail("Unresolved references.");
+    } catch (IllegalStateException e) {
+      assertThat(e).hasMessage(""
+          + "Link failed:\n"
+          + "  example.proto: Unable to resolve Missing in example.Message\n"
+          + "  example.proto: Unable to resolve other.Type in example.Message\n"
+          + "  example.proto: Unable to resolve Absent in example.Service");
+    }
+  }
+}
@@ -148,6 +148,20 @@ public class MessageTypeTest {
     }
   }
 
+  @Test public void allDuplicateTagValuesReported() {
+    Field field1 = new Field(REQUIRED, "Type", "name1", 3, "", NO_OPTIONS);
+    Field field2 = new Field(REQUIRED, "Type", "name2", 1, "", NO_OPTIONS);
+    Field field3 = new Field(REQUIRED, "Type", "name3", 3, "", NO_OPTIONS);
+    Field field4 = new Field(REQUIRED, "Type", "name4", 1, "", NO_OPTIONS);
+    try {
+      new MessageType("Message", "example.Message", "", list(field1, field2, field3, field4),
+          NO_TYPES, NO_EXTENSIONS, NO_OPTIONS);
+      fail("Duplicate tag values are not allowed.");
+    } catch (IllegalStateException e) {
+      assertThat(e).hasMessage("Duplicate tags 1, 3 in example.Message");
+    }
+  }
+
   @Test public void duplicateEnumValueTagInScopeThrows() {
     Value value = new Value("VALUE", 1, "", NO_OPTIONS);
     Type enum1 = new EnumType("Enum1", "example.Enum1", "", NO_OPTIONS, list(value));
@@ -202,4 +216,18 @@ public class MessageTypeTest {
     Field field = new Field(REQUIRED, "Type", "name1", 1, "", NO_OPTIONS);
     assertThat(field.getDefault()).isNull();
   }
+
+  @Test public void fieldLookupByTagAndName() {
+    Field field1 = new Field(REQUIRED, "Type", "name1", 1, "", NO_OPTIONS);
+    Field field2 = new Field(REQUIRED, "Type", "name2", 2, "", NO_OPTIONS);
+    Field field3 = new Field(REQUIRED, "Type", "name3", 1000000, "", NO_OPTIONS);
+    MessageType type = new MessageType("Message", "example.Message", "",
+        list(field1, field2, field3), NO_TYPES, NO_EXTENSIONS, NO_OPTIONS);
+    assertThat(type.getField(1)).isSameAs(field1);
+    assertThat(type.getField(2)).isSameAs(field2);
+    assertThat(type.getField(1000000)).isSameAs(field3);
+    assertThat(type.getField(3)).isNull();
+    assertThat(type.getField("name2")).isSameAs(field2);
+    assertThat(type.getField("name4")).isNull();
+  }
 }
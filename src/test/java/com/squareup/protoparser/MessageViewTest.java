@@ -0,0 +1,94 @@
+// Copyright 2014 Square, Inc.
+package com.squareup.protoparser;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import org.junit.Test;
+
+import static com.squareup.protoparser.DynamicDecoderTest.bytes;
+import static com.squareup.protoparser.TestUtils.list;
+import static com.squareup.protoparser.TestUtils.map;
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.api.Assertions.fail;
+
+public class MessageViewTest {
+  private static final ProtoFile ORDER = ProtoSchemaParser.parse("order.proto", ""
+      + "package shop;\n"
+      + "message Order {\n"
+      + "  optional string id = 1;\n"
+      + "  optional Customer customer = 2;\n"
+      + "  repeated int64 totals = 3;\n"
+      + "  optional bytes payload = 4;\n"
+      + "  repeated string tags = 5;\n"
+      + "}\n"
+      + "message Customer {\n"
+      + "  optional int32 id = 1;\n"
+      + "  optional string name = 2;\n"
+      + "}\n");
+
+  private static final byte[] DATA = bytes(
+      0x0a, 0x02, 'o', '1',
+      0x12, 0x05, 0x08, 0x07, 0x12, 0x01, 'c',
+      0x18, 0x01,
+      0x1a, 0x02, 0x02, 0x03,
+      0x22, 0x03, 0x01, 0x02, 0x03,
+      0x0a, 0x02, 'o', '2');
+
+  private final DynamicDecoder decoder = DynamicDecoder.of(list(ORDER));
+
+  @Test public void accessFields() {
+    MessageView order = decoder.view("shop.Order", ByteBuffer.wrap(DATA));
+    assertThat(order.getType().getName()).isEqualTo("Order");
+    assertThat(order.get("id")).isEqualTo("o2");
+    assertThat(order.get("totals")).isEqualTo(list(1L, 2L, 3L));
+    assertThat(order.get("tags")).isEqualTo(Collections.emptyList());
+    assertThat(order.has("customer")).isTrue();
+    assertThat(order.has("tags")).isFalse();
+
+    MessageView customer = order.getMessage("customer");
+    assertThat(customer.get("id")).isEqualTo(7);
+    assertThat(customer.get("name")).isEqualTo("c");
+  }
+
+  @Test public void bytesAreSlicesOfTheInput() {
+    byte[] bytes = DATA.clone();
+    ByteBuffer data = ByteBuffer.wrap(bytes);
+    MessageView order = decoder.view("shop.Order", data);
+
+    ByteBuffer payload = (ByteBuffer) order.get("payload");
+    assertThat(payload.isReadOnly()).isTrue();
+    assertThat(payload.remaining()).isEqualTo(3);
+    bytes[19] = 0x09;
+    assertThat(payload.get(0)).isEqualTo((byte) 0x09);
+
+    ByteBuffer id = order.getBytes("id");
+    assertThat(id.remaining()).isEqualTo(2);
+    assertThat(id.get(1)).isEqualTo((byte) '2');
+    assertThat(data.position()).isEqualTo(0);
+  }
+
+  @Test public void toMapDecodesEverything() {
+    MessageView order = decoder.view(
+        (MessageType) ORDER.getTypes().get(0), ByteBuffer.wrap(DATA));
+    assertThat(order.getMessage("customer").toMap()).isEqualTo(map("id", 7, "name", "c"));
+    assertThat(order.toMap().keySet())
+        .containsExactly("id", "customer", "totals", "payload");
+  }
+
+  @Test public void absentSingularFieldIsNull() {
+    MessageView order = decoder.view("shop.Order", ByteBuffer.wrap(bytes(0x18, 0x01)));
+    assertThat(order.get("id")).isNull();
+    assertThat(order.getMessage("customer")).isNull();
+    assertThat(order.getBytes("payload")).isNull();
+  }
+
+  @Test public void unknownField() {
+    MessageView order = decoder.view("shop.Order", ByteBuffer.wrap(DATA));
+    try {
+      order.get("missing");
+      fail("Unknown field.");
+    } catch (IllegalArgumentException e) {
+      assertThat(e).hasMessage("Unknown field missing in shop.Order");
+    }
+  }
+}
@@ -0,0 +1,71 @@
+// Copyright 2014 Square, Inc.
+package com.squareup.protoparser;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import org.junit.Test;
+
+import static com.squareup.protoparser.TestUtils.list;
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class NamespaceTrieTest {
+  private static final ProtoFile PAYMENTS = ProtoSchemaParser.parse("payments.proto", ""
+      + "package com.example.payments;\n"
+      + "message Payment {\n"
+      + "  message Card {}\n"
+      + "  enum State {\n"
+      + "    PENDING = 1;\n"
+      + "  }\n"
+      + "}\n"
+      + "message Refund {}\n");
+  private static final ProtoFile USERS = ProtoSchemaParser.parse("users.proto", ""
+      + "package com.example.users;\n"
+      + "message User {}\n");
+  private static final ProtoFile ROOT = ProtoSchemaParser.parse("root.proto", ""
+      + "message Root {}\n");
+
+  private final NamespaceTrie trie = NamespaceTrie.of(list(PAYMENTS, USERS, ROOT));
+
+  @Test public void typesUnderPrefix() {
+    assertThat(names(trie.getTypesUnder("com.example.payments"))).containsExactly(
+        "com.example.payments.Payment", "com.example.payments.Payment.Card",
+        "com.example.payments.Payment.State", "com.example.payments.Refund");
+    assertThat(names(trie.getTypesUnder("com.example.payments.Payment"))).containsExactly(
+        "com.example.payments.Payment", "com.example.payments.Payment.Card",
+        "com.example.payments.Payment.State");
+    assertThat(names(trie.getTypesUnder("com"))).hasSize(5);
+    assertThat(names(trie.getTypesUnder(""))).hasSize(6);
+    assertThat(names(trie.getTypesUnder("com.example.pay"))).isEmpty();
+    assertThat(names(trie.getTypesUnder("org"))).isEmpty();
+  }
+
+  @Test public void childNames() {
+    assertThat(trie.getChildNames("")).containsExactly("com", "Root");
+    assertThat(trie.getChildNames("com.example")).containsExactly("payments", "users");
+    assertThat(trie.getChildNames("com.example.payments.Payment")).containsExactly("Card", "State");
+    assertThat(trie.getChildNames("net")).isEmpty();
+  }
+
+  @Test public void pointLookups() {
+    assertThat(trie.getType("com.example.users.User")).isSameAs(USERS.getTypes().get(0));
+    assertThat(trie.getType("com.example.users")).isNull();
+    assertThat(trie.isPackage("com.example")).isTrue();
+    assertThat(trie.isPackage("com.example.users.User")).isFalse();
+    assertThat(trie.isPackage("com.other")).isFalse();
+  }
+
+  @Test public void iterationIsLazy() {
+    Iterator<Type> types = trie.getTypesUnder("com.example").iterator();
+    assertThat(types.next().getFullyQualifiedName()).isEqualTo("com.example.payments.Payment");
+    assertThat(types.hasNext()).isTrue();
+  }
+
+  private static List<String> names(Iterable<Type> types) {
+    List<String> result = new ArrayList<String>();
+    for (Type type : types) {
+      result.add(type.getFullyQualifiedName());
+    }
+    return result;
+  }
+}
@@ -0,0 +1,77 @@
+package com.squareup.protoparser;
+
+import java.util.Collections;
+import org.junit.Test;
+
+import static com.squareup.protoparser.TestUtils.NO_OPTIONS;
+import static com.squareup.protoparser.TestUtils.list;
+import static com.squareup.protoparser.TestUtils.map;
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.api.Assertions.fail;
+
+public class OptionIndexTest {
+  @Test public void lookups() {
+    Option one = new Option("one", "1");
+    Option flag = new Option("flag", true);
+    Option stringFlag = new Option("string_flag", "true");
+    OptionIndex index = OptionIndex.of(list(one, flag, stringFlag));
+    assertThat(index.get("one")).isSameAs(one);
+    assertThat(index.get("two")).isNull();
+    assertThat(index.getValue("flag")).isEqualTo(true);
+    assertThat(index.getString("one")).isEqualTo("1");
+    assertThat(index.getString("two")).isNull();
+    assertThat(index.getBoolean("flag")).isTrue();
+    assertThat(index.getBoolean("string_flag")).isTrue();
+    assertThat(index.getBoolean("one")).isFalse();
+    assertThat(index.getBoolean("two")).isFalse();
+  }
+
+  @Test public void empty() {
+    OptionIndex index = OptionIndex.of(NO_OPTIONS);
+    assertThat(index.get("one")).isNull();
+    assertThat(index.asMap()).isEmpty();
+  }
+
+  @Test public void duplicateLookupThrows() {
+    Option one = new Option("one", "1");
+    OptionIndex index = OptionIndex.of(list(one, new Option("two", "2"), one));
+    assertThat(index.getString("two")).isEqualTo("2");
+    try {
+      index.get("one");
+      fail("Multiple option matches not allowed.");
+    } catch (IllegalStateException e) {
+      assertThat(e).hasMessage("Multiple options match name: one");
+    }
+  }
+
+  @Test public void nonStringThrows() {
+    OptionIndex index = OptionIndex.of(list(new Option("flag", true)));
+    try {
+      index.getString("flag");
+      fail("Boolean options are not strings.");
+    } catch (IllegalStateException e) {
+      assertThat(e).hasMessage("Option flag is not a string: true");
+    }
+  }
+
+  @Test public void asMapIsMemoized() {
+    OptionIndex index = OptionIndex.of(list(new Option("foo", "bar")));
+    assertThat(index.asMap()).isEqualTo(map("foo", "bar"));
+    assertThat(index.asMap()).isSameAs(index.asMap());
+  }
+
+  @Test public void declarationIndexes() {
+    MessageType.Field field = new MessageType.Field(MessageType.Label.OPTIONAL, "int32", "a", 1,
+        "", list(new Option("packed", "true"), new Option("default", "5")));
+    assertThat(field.getOptionIndex()).isSameAs(field.getOptionIndex());
+    assertThat(field.isPacked()).isTrue();
+    assertThat(field.isDeprecated()).isFalse();
+    assertThat(field.getDefault()).isEqualTo("5");
+
+    Service service = new Service("Service", "Service", "", list(new Option("foo", "bar")),
+        Collections.<Service.Method>emptyList());
+    assertThat(service.getOptionIndex().getString("foo")).isEqualTo("bar");
+    assertThat(OptionIndex.of(list(new Option("wire", map("a", "b")))).getValue("wire"))
+        .isEqualTo(map("a", "b"));
+  }
+}
@@ -73,6 +73,16 @@ public class OptionTest {
     );
   }
 
+  @Test public void optionListToMapDoesNotMutateValues() {
+    Map<String, Object> first = map("omar", "little");
+    Map<String, Object> second = map("proposition", "joe");
+    List<Option> options = list(new Option("wire", first), new Option("wire", second));
+    Map<String, Object> optionMap = Option.optionsAsMap(options);
+    assertThat(optionMap).contains(entry("wire", map("omar", "little", "proposition", "joe")));
+    assertThat(first).isEqualTo(map("omar", "little"));
+    assertThat(second).isEqualTo(map("proposition", "joe"));
+  }
+
   @Test public void findInList() {
     Option one = new Option("one", "1");
     Option two = new Option("two", "2");
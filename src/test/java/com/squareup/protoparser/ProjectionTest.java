@@ -0,0 +1,99 @@
+// Copyright 2014 Square, Inc.
+package com.squareup.protoparser;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+import static com.squareup.protoparser.DynamicDecoderTest.bytes;
+import static com.squareup.protoparser.TestUtils.list;
+import static com.squareup.protoparser.TestUtils.map;
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.api.Assertions.fail;
+
+public class ProjectionTest {
+  private static final ProtoFile ORDER = ProtoSchemaParser.parse("order.proto", ""
+      + "package shop;\n"
+      + "message Order {\n"
+      + "  optional Customer customer = 1;\n"
+      + "  optional int64 total = 2;\n"
+      + "  repeated Item items = 3;\n"
+      + "  optional Customer referrer = 4;\n"
+      + "}\n"
+      + "message Customer {\n"
+      + "  optional int32 id = 1;\n"
+      + "  optional string name = 2;\n"
+      + "}\n"
+      + "message Item {\n"
+      + "  optional string sku = 1;\n"
+      + "  optional int32 quantity = 2;\n"
+      + "}\n");
+
+  // The referrer is malformed, which goes unnoticed because it isn't projected.
+  private static final byte[] DATA = bytes(
+      0x0a, 0x05, 0x08, 0x07, 0x12, 0x01, 'c',
+      0x10, 0x64,
+      0x1a, 0x05, 0x0a, 0x01, 'a', 0x10, 0x02,
+      0x22, 0x02, 0xff, 0xff,
+      0x1a, 0x03, 0x0a, 0x01, 'b');
+
+  private final DynamicDecoder decoder = DynamicDecoder.of(list(ORDER));
+
+  @Test public void decodeToSink() {
+    Projection projection =
+        decoder.projection("shop.Order", list("total", "customer.id", "items.sku"));
+    final List<String> values = new ArrayList<String>();
+    projection.decode(ByteBuffer.wrap(DATA), new Projection.Sink() {
+      @Override public void value(int column, Object value) {
+        values.add(column + "=" + value);
+      }
+    });
+    assertThat(values).containsExactly("1=7", "0=100", "2=a", "2=b");
+  }
+
+  @Test public void decodeBatch() {
+    Projection projection =
+        decoder.projection("shop.Order", list("customer.id", "total", "items.sku", "customer"));
+    assertThat(projection.getPaths())
+        .containsExactly("customer.id", "total", "items.sku", "customer");
+
+    Projection.Batch batch = projection.decodeBatch(list(
+        ByteBuffer.wrap(DATA),
+        ByteBuffer.wrap(bytes(0x10, 0x05))));
+    assertThat(batch.getRowCount()).isEqualTo(2);
+    assertThat(batch.getColumn("customer.id")).isEqualTo(TestUtils.<Object>list(7, null));
+    assertThat(batch.getColumn(1)).isEqualTo(TestUtils.<Object>list(100L, 5L));
+    assertThat(batch.getColumn("items.sku"))
+        .isEqualTo(TestUtils.<Object>list(list("a", "b"), new ArrayList<Object>()));
+    assertThat(batch.getColumn("customer"))
+        .isEqualTo(TestUtils.<Object>list(map("id", 7, "name", "c"), null));
+  }
+
+  @Test public void unknownField() {
+    try {
+      decoder.projection("shop.Order", list("customer.age"));
+      fail("Unknown field.");
+    } catch (IllegalArgumentException e) {
+      assertThat(e).hasMessage("Unknown field age in shop.Customer for path customer.age");
+    }
+  }
+
+  @Test public void pathThroughScalar() {
+    try {
+      decoder.projection("shop.Order", list("total.value"));
+      fail("Path through a scalar.");
+    } catch (IllegalArgumentException e) {
+      assertThat(e).hasMessage("total is not a message field for path total.value");
+    }
+  }
+
+  @Test public void duplicatePath() {
+    try {
+      decoder.projection("shop.Order", list("total", "total"));
+      fail("Duplicate path.");
+    } catch (IllegalArgumentException e) {
+      assertThat(e).hasMessage("Duplicate path total");
+    }
+  }
+}
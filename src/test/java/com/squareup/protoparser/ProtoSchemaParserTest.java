@@ -300,8 +300,10 @@ public final class ProtoSchemaParserTest {
         + "  }\n"
         + "}";
     List<ExtendDeclaration> extendDeclarations = new ArrayList<ExtendDeclaration>();
-    extendDeclarations.add(new ExtendDeclaration("Foo", "Foo", "",
-        Arrays.asList(new MessageType.Field(Label.OPTIONAL, "Bar", "bar", 126, "", NO_OPTIONS))));
+    MessageType.Field field =
+        new MessageType.Field(Label.OPTIONAL, "Bar", "bar", 126, "", NO_OPTIONS);
+    extendDeclarations.add(new ExtendDeclaration("Foo", QualifiedName.parse("Foo"),
+        QualifiedName.parse("Bar"), "", Arrays.asList(field), true));
     Type messageType =
         new MessageType("Bar", "Bar", "", NO_FIELDS, NO_TYPES, NO_EXTENSIONS, NO_OPTIONS);
     ProtoFile expected =
@@ -321,8 +323,10 @@ public final class ProtoSchemaParserTest {
         + "  }\n"
         + "}";
     List<ExtendDeclaration> extendDeclarations = new ArrayList<ExtendDeclaration>();
-    extendDeclarations.add(new ExtendDeclaration("Foo", "kit.kat.Foo", "",
-        Arrays.asList(new MessageType.Field(Label.OPTIONAL, "Bar", "bar", 126, "", NO_OPTIONS))));
+    MessageType.Field field =
+        new MessageType.Field(Label.OPTIONAL, "Bar", "bar", 126, "", NO_OPTIONS);
+    extendDeclarations.add(new ExtendDeclaration("Foo", QualifiedName.parse("kit.kat.Foo"),
+        QualifiedName.parse("kit.kat.Bar"), "", Arrays.asList(field), true));
     Type messageType =
         new MessageType("Bar", "kit.kat.Bar", "", NO_FIELDS, NO_TYPES, NO_EXTENSIONS, NO_OPTIONS);
     ProtoFile expected =
@@ -340,8 +344,10 @@ public final class ProtoSchemaParserTest {
         + "  }\n"
         + "}";
     List<ExtendDeclaration> extendDeclarations = new ArrayList<ExtendDeclaration>();
-    extendDeclarations.add(new ExtendDeclaration("example.Foo", "example.Foo", "",
-        Arrays.asList(new MessageType.Field(Label.OPTIONAL, "Bar", "bar", 126, "", NO_OPTIONS))));
+    MessageType.Field field =
+        new MessageType.Field(Label.OPTIONAL, "Bar", "bar", 126, "", NO_OPTIONS);
+    extendDeclarations.add(new ExtendDeclaration("example.Foo", QualifiedName.parse("example.Foo"),
+        QualifiedName.parse("Bar"), "", Arrays.asList(field), true));
     Type messageType =
         new MessageType("Bar", "Bar", "", NO_FIELDS, NO_TYPES, NO_EXTENSIONS, NO_OPTIONS);
     ProtoFile expected =
@@ -361,8 +367,10 @@ public final class ProtoSchemaParserTest {
         + "  }\n"
         + "}";
     List<ExtendDeclaration> extendDeclarations = new ArrayList<ExtendDeclaration>();
-    extendDeclarations.add(new ExtendDeclaration("example.Foo", "example.Foo", "",
-        Arrays.asList(new MessageType.Field(Label.OPTIONAL, "Bar", "bar", 126, "", NO_OPTIONS))));
+    MessageType.Field field =
+        new MessageType.Field(Label.OPTIONAL, "Bar", "bar", 126, "", NO_OPTIONS);
+    extendDeclarations.add(new ExtendDeclaration("example.Foo", QualifiedName.parse("example.Foo"),
+        QualifiedName.parse("kit.kat.Bar"), "", Arrays.asList(field), true));
     Type messageType =
         new MessageType("Bar", "kit.kat.Bar", "", NO_FIELDS, NO_TYPES, NO_EXTENSIONS, NO_OPTIONS);
     ProtoFile expected =
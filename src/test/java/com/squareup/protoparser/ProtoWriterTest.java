@@ -0,0 +1,70 @@
+// Copyright 2014 Square, Inc.
+package com.squareup.protoparser;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import org.junit.Test;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class ProtoWriterTest {
+  @Test public void writesToWriter() throws IOException {
+    String proto = ""
+        + "package example;\n"
+        + "message Outer {\n"
+        + "  option deprecated = true;\n"
+        + "  // Documentation.\n"
+        + "  optional int32 a = 1 [default = 1];\n"
+        + "  message Inner {\n"
+        + "    optional string b = 1;\n"
+        + "  }\n"
+        + "}\n";
+    ProtoFile file = ProtoSchemaParser.parse("example.proto", proto);
+    StringWriter writer = new StringWriter();
+    new ProtoWriter(writer).write(file);
+    assertThat(writer.toString()).isEqualTo(""
+        + "// example.proto\n"
+        + "package example;\n"
+        + "\n"
+        + "message Outer {\n"
+        + "  option deprecated = \"true\";\n"
+        + "\n"
+        + "  // Documentation.\n"
+        + "  optional int32 a = 1 [\n"
+        + "    default = \"1\"\n"
+        + "  ];\n"
+        + "\n"
+        + "  message Inner {\n"
+        + "    optional string b = 1;\n"
+        + "  }\n"
+        + "}\n");
+    assertThat(file.toString()).isEqualTo(writer.toString());
+  }
+
+  @Test public void deepNestingIsIndentedOncePerLevel() {
+    StringBuilder proto = new StringBuilder();
+    int depth = 50;
+    for (int i = 0; i < depth; i++) {
+      proto.append("message M").append(i).append(" {\n");
+    }
+    proto.append("optional int32 f = 1;\n");
+    for (int i = 0; i < depth; i++) {
+      proto.append("}\n");
+    }
+    ProtoFile file = ProtoSchemaParser.parse("deep.proto", proto.toString());
+    String[] lines = file.getTypes().get(0).toString().split("\n");
+
+    StringBuilder indent = new StringBuilder();
+    for (int i = 0; i < depth; i++) {
+      indent.append("  ");
+    }
+    boolean found = false;
+    for (String line : lines) {
+      if (line.trim().startsWith("optional")) {
+        assertThat(line).isEqualTo(indent + "optional int32 f = 1;");
+        found = true;
+      }
+    }
+    assertThat(found).isTrue();
+  }
+}
@@ -0,0 +1,95 @@
+// Copyright 2014 Square, Inc.
+package com.squareup.protoparser;
+
+import java.util.List;
+import org.junit.Test;
+
+import static com.squareup.protoparser.TestUtils.list;
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.api.Assertions.fail;
+
+public class PrunerTest {
+  private static final ProtoFile COMMON = ProtoSchemaParser.parse("common.proto", ""
+      + "package common;\n"
+      + "message Money {\n"
+      + "  optional int64 cents = 1;\n"
+      + "}\n"
+      + "message Unused {}\n");
+  private static final ProtoFile SHOP = ProtoSchemaParser.parse("shop.proto", ""
+      + "package shop;\n"
+      + "import \"common.proto\";\n"
+      + "message Outer {\n"
+      + "  optional int32 a = 1;\n"
+      + "  message Item {\n"
+      + "    optional common.Money price = 1;\n"
+      + "    extensions 100 to 199;\n"
+      + "  }\n"
+      + "  message Other {}\n"
+      + "}\n"
+      + "message Order {\n"
+      + "  repeated Outer.Item items = 1;\n"
+      + "}\n"
+      + "message Note {}\n"
+      + "message Query {}\n"
+      + "service Shop {\n"
+      + "  rpc Buy (Order) returns (Order);\n"
+      + "  rpc Find (Query) returns (Order);\n"
+      + "}\n");
+  private static final ProtoFile EXTRAS = ProtoSchemaParser.parse("extras.proto", ""
+      + "package extras;\n"
+      + "import \"shop.proto\";\n"
+      + "extend shop.Outer.Item {\n"
+      + "  optional shop.Note note = 100;\n"
+      + "}\n");
+  private static final ProtoFile UNRELATED = ProtoSchemaParser.parse("unrelated.proto", ""
+      + "package unrelated;\n"
+      + "message Thing {}\n");
+
+  @Test public void pruneToMethod() {
+    List<ProtoFile> pruned =
+        Pruner.prune(list(COMMON, SHOP, EXTRAS, UNRELATED), list("shop.Shop#Buy"));
+    assertThat(pruned).hasSize(3);
+
+    ProtoFile common = pruned.get(0);
+    assertThat(common.getTypes()).containsExactly(COMMON.getTypes().get(0));
+
+    ProtoFile shop = pruned.get(1);
+    assertThat(shop.getDependencies()).containsExactly("common.proto");
+    assertThat(shop.getTypes()).hasSize(3);
+    MessageType outer = (MessageType) shop.getTypes().get(0);
+    assertThat(outer.getFields()).isEmpty();
+    assertThat(outer.getNestedTypes()).hasSize(1);
+    assertThat(outer.getNestedTypes().get(0).getFullyQualifiedName())
+        .isEqualTo("shop.Outer.Item");
+    assertThat(shop.getTypes().get(1).getFullyQualifiedName()).isEqualTo("shop.Order");
+    assertThat(shop.getTypes().get(2).getFullyQualifiedName()).isEqualTo("shop.Note");
+    assertThat(shop.getServices()).hasSize(1);
+    assertThat(shop.getServices().get(0).getMethods()).hasSize(1);
+    assertThat(shop.getServices().get(0).getMethods().get(0).getName()).isEqualTo("Buy");
+
+    ProtoFile extras = pruned.get(2);
+    assertThat(extras.getExtendDeclarations()).isEqualTo(EXTRAS.getExtendDeclarations());
+  }
+
+  @Test public void pruneToType() {
+    List<ProtoFile> pruned =
+        Pruner.prune(list(COMMON, SHOP, EXTRAS, UNRELATED), list("unrelated.Thing"));
+    assertThat(pruned).containsExactly(UNRELATED);
+  }
+
+  @Test public void wholeServiceKeepsEveryMethod() {
+    List<ProtoFile> pruned = Pruner.prune(list(COMMON, SHOP, EXTRAS), list("shop.Shop"));
+    ProtoFile shop = pruned.get(1);
+    assertThat(shop.getServices()).containsExactly(SHOP.getServices().get(0));
+    assertThat(shop.getTypes()).hasSize(4);
+  }
+
+  @Test public void unknownRoot() {
+    try {
+      Pruner.prune(list(COMMON), list("common.Missing"));
+      fail("Unknown root.");
+    } catch (IllegalArgumentException e) {
+      assertThat(e).hasMessage("Unknown root: common.Missing");
+    }
+  }
+}
@@ -0,0 +1,71 @@
+// Copyright 2014 Square, Inc.
+package com.squareup.protoparser;
+
+import org.junit.Test;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class QualifiedNameTest {
+  @Test public void nestedNames() {
+    QualifiedName pkg = QualifiedName.parse("com.example");
+    QualifiedName outer = QualifiedName.of(pkg, "Outer");
+    QualifiedName inner = outer.child("Inner");
+    assertThat(inner.toString()).isEqualTo("com.example.Outer.Inner");
+    assertThat(inner.getSimpleName()).isEqualTo("Inner");
+    assertThat(inner.getParent()).isSameAs(outer);
+    assertThat(pkg.getParent().toString()).isEqualTo("com");
+    assertThat(pkg.getParent().getParent()).isNull();
+  }
+
+  @Test public void hashCodeMatchesString() {
+    QualifiedName name = QualifiedName.of(QualifiedName.parse("com.example.deeply.nested"), "Type");
+    assertThat(name.hashCode()).isEqualTo("com.example.deeply.nested.Type".hashCode());
+    assertThat(QualifiedName.parse("").hashCode()).isEqualTo(0);
+    assertThat(QualifiedName.parse("a..b.").hashCode()).isEqualTo("a..b.".hashCode());
+  }
+
+  @Test public void parseRoundTrips() {
+    assertThat(QualifiedName.parse("").toString()).isEqualTo("");
+    assertThat(QualifiedName.parse("Foo").toString()).isEqualTo("Foo");
+    assertThat(QualifiedName.parse(".a.b").toString()).isEqualTo(".a.b");
+    assertThat(QualifiedName.parse("a..b.").toString()).isEqualTo("a..b.");
+  }
+
+  @Test public void equalityIgnoresStructure() {
+    QualifiedName nested = QualifiedName.of(QualifiedName.of(null, "a"), "b").child("c");
+    QualifiedName flat = QualifiedName.of(null, "a.b.c");
+    QualifiedName mixed = QualifiedName.of(QualifiedName.of(null, "a.b"), "c");
+    assertThat(nested).isEqualTo(flat);
+    assertThat(flat).isEqualTo(mixed);
+    assertThat(mixed).isEqualTo(nested);
+    assertThat(nested).isEqualTo(QualifiedName.parse("a.b.c"));
+    assertThat(nested).isNotEqualTo(QualifiedName.parse("a.b.d"));
+    assertThat(nested).isNotEqualTo(QualifiedName.parse("a.b"));
+  }
+
+  @Test public void renderingReusesCachedParent() {
+    QualifiedName parent = QualifiedName.parse("com.example");
+    assertThat(parent.toString()).isEqualTo("com.example");
+    assertThat(parent.child("Type").toString()).isEqualTo("com.example.Type");
+  }
+
+  @Test public void parsedDeclarationsShareScopes() {
+    ProtoFile file = ProtoSchemaParser.parse("test.proto", ""
+        + "package com.example;\n"
+        + "message Outer {\n"
+        + "  message Inner {}\n"
+        + "  enum Kind { A = 1; }\n"
+        + "}\n"
+        + "extend Outer {}\n");
+    MessageType outer = (MessageType) file.getTypes().get(0);
+    MessageType inner = (MessageType) outer.getNestedTypes().get(0);
+    EnumType kind = (EnumType) outer.getNestedTypes().get(1);
+    assertThat(inner.getQualifiedName().getParent()).isSameAs(outer.getQualifiedName());
+    assertThat(kind.getQualifiedName().getParent()).isSameAs(outer.getQualifiedName());
+    assertThat(inner.getFullyQualifiedName()).isEqualTo("com.example.Outer.Inner");
+    ExtendDeclaration extend = file.getExtendDeclarations().get(0);
+    assertThat(extend.getQualifiedName().getParent())
+        .isSameAs(outer.getQualifiedName().getParent());
+    assertThat(extend.getFullyQualifiedName()).isEqualTo("com.example.Outer");
+  }
+}
@@ -0,0 +1,154 @@
+// Copyright 2014 Square, Inc.
+package com.squareup.protoparser;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+import static com.squareup.protoparser.TestUtils.list;
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.api.Assertions.fail;
+
+public class ReferenceIndexTest {
+  private static final ProtoFile MONEY = ProtoSchemaParser.parse("money.proto", ""
+      + "package money;\n"
+      + "message Money {\n"
+      + "  optional int64 cents = 1;\n"
+      + "}\n");
+  private static final ProtoFile SHOP = ProtoSchemaParser.parse("shop.proto", ""
+      + "package shop;\n"
+      + "message Item {\n"
+      + "  optional money.Money price = 1;\n"
+      + "  extensions 100 to 199;\n"
+      + "}\n"
+      + "message Order {\n"
+      + "  repeated Item items = 1;\n"
+      + "}\n"
+      + "message Receipt {\n"
+      + "  optional Order order = 1;\n"
+      + "  optional money.Money total = 2;\n"
+      + "}\n"
+      + "service Shop {\n"
+      + "  rpc Buy (Order) returns (Receipt);\n"
+      + "}\n");
+  private static final ProtoFile TAX = ProtoSchemaParser.parse("tax.proto", ""
+      + "package tax;\n"
+      + "extend shop.Item {\n"
+      + "  optional money.Money tax = 100;\n"
+      + "}\n");
+
+  @Test public void directReferences() {
+    ReferenceIndex index = ReferenceIndex.of(list(MONEY, SHOP, TAX));
+    assertThat(describe(index.getDirectReferences("money.Money"))).containsExactly(
+        "FIELD shop.Item -> money.Money",
+        "FIELD shop.Receipt -> money.Money",
+        "EXTENSION_FIELD shop.Item -> money.Money");
+    assertThat(describe(index.getDirectReferences("shop.Item"))).containsExactly(
+        "FIELD shop.Order -> shop.Item",
+        "EXTENDEE shop.Item -> shop.Item");
+    assertThat(index.getDirectReferences("shop.Receipt").get(0).getMethod())
+        .isSameAs(SHOP.getServices().get(0).getMethods().get(0));
+    assertThat(index.getDirectReferences("shop.Missing")).isEmpty();
+  }
+
+  @Test public void transitiveUsers() {
+    ReferenceIndex index = ReferenceIndex.of(list(MONEY, SHOP, TAX));
+    assertThat(index.getTransitiveUsers("money.Money"))
+        .containsOnly("shop.Item", "shop.Receipt", "shop.Order", "shop.Shop");
+    assertThat(index.getTransitiveUsers("shop.Receipt")).containsOnly("shop.Shop");
+    assertThat(index.getTransitiveUsers("shop.Shop")).isEmpty();
+  }
+
+  @Test public void incrementalUpdates() {
+    ReferenceIndex index = ReferenceIndex.of(list(MONEY, SHOP, TAX));
+    assertThat(index.remove("tax.proto")).isTrue();
+    assertThat(index.remove("tax.proto")).isFalse();
+    assertThat(index.getDirectReferences("money.Money")).hasSize(2);
+
+    ProtoFile shop = ProtoSchemaParser.parse("shop.proto", ""
+        + "package shop;\n"
+        + "message Item {\n"
+        + "  optional string name = 1;\n"
+        + "}\n");
+    index.put(shop);
+    assertThat(index.getDirectReferences("money.Money")).isEmpty();
+    assertThat(index.getDirectReferences("shop.Item")).isEmpty();
+
+    ProtoFile broken = ProtoSchemaParser.parse("shop.proto", ""
+        + "package shop;\n"
+        + "message Item {\n"
+        + "  optional Missing missing = 1;\n"
+        + "}\n");
+    try {
+      index.put(broken);
+      fail("Unresolved reference.");
+    } catch (IllegalStateException expected) {
+    }
+    index.put(SHOP);
+    assertThat(index.getTransitiveUsers("money.Money"))
+        .containsOnly("shop.Item", "shop.Receipt", "shop.Order", "shop.Shop");
+  }
+
+  @Test public void dependentsAreRelinked() {
+    ReferenceIndex index = ReferenceIndex.of(list(MONEY, SHOP, TAX));
+    ProtoFile money = ProtoSchemaParser.parse("money.proto", ""
+        + "package money;\n"
+        + "message Currency {\n"
+        + "  optional string code = 1;\n"
+        + "}\n");
+    index.put(money);
+    assertThat(index.getDirectReferences("money.Money")).isEmpty();
+    assertThat(index.getTransitiveUsers("money.Money")).isEmpty();
+    assertThat(describe(index.getDirectReferences("shop.Order"))).containsExactly(
+        "FIELD shop.Receipt -> shop.Order",
+        "REQUEST shop.Shop -> shop.Order");
+
+    index.put(MONEY);
+    assertThat(index.getTransitiveUsers("money.Money"))
+        .containsOnly("shop.Item", "shop.Receipt", "shop.Order", "shop.Shop");
+
+    index.remove("shop.proto");
+    assertThat(index.getDirectReferences("money.Money")).isEmpty();
+    assertThat(index.getDirectReferences("shop.Item")).isEmpty();
+
+    index.put(SHOP);
+    assertThat(describe(index.getDirectReferences("shop.Item"))).containsOnly(
+        "FIELD shop.Order -> shop.Item",
+        "EXTENDEE shop.Item -> shop.Item");
+  }
+
+  @Test public void closerDeclarationsAreRelinked() {
+    ProtoFile base = ProtoSchemaParser.parse("base.proto", ""
+        + "package p;\n"
+        + "message Foo {}\n");
+    ProtoFile user = ProtoSchemaParser.parse("user.proto", ""
+        + "package p.q;\n"
+        + "message User {\n"
+        + "  optional Foo foo = 1;\n"
+        + "}\n");
+    ProtoFile shadow = ProtoSchemaParser.parse("shadow.proto", ""
+        + "package p.q;\n"
+        + "message Foo {}\n");
+    ReferenceIndex index = ReferenceIndex.of(list(base, user));
+    index.put(shadow);
+    ReferenceIndex fresh = ReferenceIndex.of(list(base, user, shadow));
+    for (String fqname : list("p.Foo", "p.q.Foo")) {
+      assertThat(describe(index.getDirectReferences(fqname)))
+          .isEqualTo(describe(fresh.getDirectReferences(fqname)));
+    }
+    assertThat(describe(index.getDirectReferences("p.q.Foo"))).containsExactly(
+        "FIELD p.q.User -> p.q.Foo");
+
+    index.remove("shadow.proto");
+    assertThat(describe(index.getDirectReferences("p.Foo"))).containsExactly(
+        "FIELD p.q.User -> p.Foo");
+  }
+
+  private static List<String> describe(List<ReferenceIndex.Reference> references) {
+    List<String> result = new ArrayList<String>();
+    for (ReferenceIndex.Reference reference : references) {
+      result.add(reference.toString());
+    }
+    return result;
+  }
+}
@@ -0,0 +1,180 @@
+// Copyright 2014 Square, Inc.
+package com.squareup.protoparser;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.Test;
+
+import static com.squareup.protoparser.TestUtils.list;
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class SchemaDiffTest {
+  private static final ProtoFile OLD = ProtoSchemaParser.parse("example.proto", ""
+      + "package example;\n"
+      + "message Message {\n"
+      + "  optional int32 a = 1;\n"
+      + "  optional string b = 2 [deprecated = true];\n"
+      + "  optional string c = 3;\n"
+      + "  message Inner {\n"
+      + "    optional int32 d = 1;\n"
+      + "  }\n"
+      + "  message Unchanged {\n"
+      + "    optional int32 e = 1;\n"
+      + "  }\n"
+      + "}\n"
+      + "enum Kind {\n"
+      + "  ONE = 1;\n"
+      + "  TWO = 2;\n"
+      + "}\n"
+      + "message Removed {}\n"
+      + "service Service {\n"
+      + "  rpc Call (Message) returns (Message);\n"
+      + "  rpc Gone (Message) returns (Message);\n"
+      + "}\n");
+  private static final ProtoFile NEW = ProtoSchemaParser.parse("example.proto", ""
+      + "package example;\n"
+      + "message Message {\n"
+      + "  optional int64 a = 1;\n"
+      + "  optional string b = 2;\n"
+      + "  optional string f = 4;\n"
+      + "  message Inner {\n"
+      + "    required int32 d = 1;\n"
+      + "  }\n"
+      + "  message Unchanged {\n"
+      + "    optional int32 e = 1;\n"
+      + "  }\n"
+      + "}\n"
+      + "enum Kind {\n"
+      + "  ONE = 1;\n"
+      + "  THREE = 3;\n"
+      + "}\n"
+      + "message Added {}\n"
+      + "service Service {\n"
+      + "  rpc Call (Message) returns (Kind);\n"
+      + "  rpc New (Message) returns (Message);\n"
+      + "}\n");
+  private static final ProtoFile STABLE = ProtoSchemaParser.parse("stable.proto", ""
+      + "message Stable {}\n");
+  private static final ProtoFile EXTRA = ProtoSchemaParser.parse("extra.proto", ""
+      + "message Extra {}\n");
+
+  private static final List<String> EXPECTED = list(
+      "CHANGED FIELD example.Message#1",
+      "REMOVED OPTION example.Message#2[deprecated]",
+      "ADDED FIELD example.Message#4",
+      "REMOVED FIELD example.Message#3",
+      "CHANGED FIELD example.Message.Inner#1",
+      "ADDED ENUM_VALUE example.Kind#THREE",
+      "REMOVED ENUM_VALUE example.Kind#TWO",
+      "ADDED TYPE example.Added",
+      "REMOVED TYPE example.Removed",
+      "CHANGED METHOD example.Service#Call",
+      "ADDED METHOD example.Service#New",
+      "REMOVED METHOD example.Service#Gone",
+      "ADDED FILE extra.proto",
+      "ADDED TYPE Extra");
+
+  @Test public void diff() {
+    List<SchemaDiff.Change> changes = SchemaDiff.diff(list(OLD, STABLE), list(NEW, STABLE, EXTRA));
+    assertThat(describe(changes)).isEqualTo(EXPECTED);
+    assertThat(changes.get(1).getOldValue()).isEqualTo("true");
+    assertThat(changes.get(1).getNewValue()).isNull();
+  }
+
+  @Test public void parallelDiffMatches() throws InterruptedException {
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      List<SchemaDiff.Change> changes =
+          SchemaDiff.diff(list(OLD, STABLE), list(NEW, STABLE, EXTRA), executor);
+      assertThat(describe(changes)).isEqualTo(EXPECTED);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test public void identicalSchemasHaveNoChanges() {
+    ProtoFile copy = ProtoSchemaParser.parse("example.proto", OLD.toString());
+    assertThat(SchemaDiff.diff(list(OLD), list(copy))).isEmpty();
+    assertThat(describe(SchemaDiff.diff(list(OLD), TestUtils.<ProtoFile>list()))).containsExactly(
+        "REMOVED FILE example.proto",
+        "REMOVED TYPE example.Message",
+        "REMOVED TYPE example.Kind",
+        "REMOVED TYPE example.Removed",
+        "REMOVED SERVICE example.Service");
+  }
+
+  @Test public void declarationsAreAlignedAcrossFiles() {
+    ProtoFile before = ProtoSchemaParser.parse("before.proto", ""
+        + "package example;\n"
+        + "message Moved {\n"
+        + "  optional int32 a = 1;\n"
+        + "  extensions 100 to 199;\n"
+        + "}\n"
+        + "service Service {\n"
+        + "  rpc Call (Moved) returns (Moved);\n"
+        + "}\n"
+        + "extend Moved {\n"
+        + "  required int32 b = 100;\n"
+        + "}\n");
+    ProtoFile remaining = ProtoSchemaParser.parse("before.proto", ""
+        + "package example;\n"
+        + "extend Moved {\n"
+        + "  required int32 b = 100;\n"
+        + "}\n");
+    ProtoFile after = ProtoSchemaParser.parse("after.proto", ""
+        + "package example;\n"
+        + "message Moved {\n"
+        + "  optional int64 a = 1;\n"
+        + "  extensions 100 to 199;\n"
+        + "}\n"
+        + "service Service {\n"
+        + "  rpc Call (Moved) returns (Moved);\n"
+        + "}\n");
+    assertThat(describe(SchemaDiff.diff(list(before), list(remaining, after)))).containsExactly(
+        "ADDED FILE after.proto",
+        "CHANGED FIELD example.Moved#1");
+  }
+
+  @Test public void extensionsAreAlignedByResolvedExtendee() {
+    String base = ""
+        + "package p;\n"
+        + "message Foo {\n"
+        + "  extensions 100 to 199;\n"
+        + "}\n"
+        + "message Outer {\n"
+        + "  message Inner {\n"
+        + "    extensions 100 to 199;\n"
+        + "  }\n"
+        + "  extend Inner {\n"
+        + "    optional int32 inner = 100;\n"
+        + "  }\n"
+        + "}\n";
+    ProtoFile relative = ProtoSchemaParser.parse("p.proto", base
+        + "extend Foo {\n"
+        + "  optional int32 a = 100;\n"
+        + "}\n");
+    ProtoFile absolute = ProtoSchemaParser.parse("p.proto", base
+        + "extend .p.Foo {\n"
+        + "  optional int32 a = 100;\n"
+        + "}\n");
+    assertThat(SchemaDiff.diff(list(relative), list(absolute))).isEmpty();
+
+    ProtoFile changed = ProtoSchemaParser.parse("p.proto",
+        base.replace("int32 inner", "sint32 inner")
+        + "extend Foo {\n"
+        + "  optional int32 a = 100;\n"
+        + "}\n");
+    assertThat(describe(SchemaDiff.diff(list(relative), list(changed)))).containsExactly(
+        "CHANGED EXTENSION p.Outer.Inner#100");
+  }
+
+  private static List<String> describe(List<SchemaDiff.Change> changes) {
+    List<String> result = new ArrayList<String>();
+    for (SchemaDiff.Change change : changes) {
+      result.add(change.toString());
+    }
+    return result;
+  }
+}
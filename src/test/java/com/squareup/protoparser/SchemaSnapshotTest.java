@@ -0,0 +1,136 @@
+// Copyright 2014 Square, Inc.
+package com.squareup.protoparser;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+import static com.squareup.protoparser.TestUtils.list;
+import static com.squareup.protoparser.TestUtils.map;
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.api.Assertions.fail;
+
+public class SchemaSnapshotTest {
+  private static final String PROTO = ""
+      + "package example.snapshot;\n"
+      + "import \"other.proto\";\n"
+      + "import public \"public.proto\";\n"
+      + "option java_package = \"com.example\";\n"
+      + "option (my_option) = { a: \"b\", c: [\"d\", \"e\"], f: { g: \"h\" } };\n"
+      + "/** A message. */\n"
+      + "message Outer {\n"
+      + "  option (nested).foo = \"bar\";\n"
+      + "  required string name = 1 [default = \"héllo\", deprecated = true];\n"
+      + "  repeated int32 values = 2 [packed = true];\n"
+      + "  optional Inner inner = 3;\n"
+      + "  extensions 100 to max;\n"
+      + "  message Inner {\n"
+      + "    optional Kind kind = 1;\n"
+      + "  }\n"
+      + "  enum Kind {\n"
+      + "    NEGATIVE = -1;\n"
+      + "    ZERO = 0 [(value_option) = \"x\"];\n"
+      + "  }\n"
+      + "  extend Outer {\n"
+      + "    optional string nested_extension = 101;\n"
+      + "  }\n"
+      + "}\n"
+      + "extend Outer {\n"
+      + "  optional int64 extension = 100;\n"
+      + "}\n"
+      + "service Search {\n"
+      + "  rpc Find (Outer) returns (Outer.Inner) {\n"
+      + "    option (timeout) = \"5\";\n"
+      + "  }\n"
+      + "}\n";
+
+  @Test public void roundTrip() throws IOException {
+    ProtoFile first = ProtoSchemaParser.parse("first.proto", PROTO);
+    ProtoFile second = ProtoSchemaParser.parse("second.proto", "message Empty {}");
+    List<ProtoFile> files = list(first, second);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    SchemaSnapshot.write(files, out);
+    List<ProtoFile> read = SchemaSnapshot.read(new ByteArrayInputStream(out.toByteArray()));
+    assertThat(read).isEqualTo(files);
+    assertThat(read.get(0).getExtendDeclarations().get(0).getScope())
+        .isEqualTo(QualifiedName.parse("example.snapshot.Outer"));
+  }
+
+  @Test public void roundTripOptionValues() throws IOException {
+    ProtoFile file = new ProtoFile("options.proto", null, TestUtils.NO_STRINGS,
+        TestUtils.NO_STRINGS, TestUtils.NO_TYPES, TestUtils.NO_SERVICES,
+        list(new Option("flag", true), new Option("list", Arrays.<Object>asList("a", map())),
+            new Option("map", map("k", list("v", "w")))),
+        TestUtils.NO_EXTEND_DECLARATIONS);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    SchemaSnapshot.write(list(file), out);
+    assertThat(SchemaSnapshot.read(out.toByteArray())).containsExactly(file);
+  }
+
+  @Test public void stringsAreShared() throws IOException {
+    ProtoFile file = ProtoSchemaParser.parse("shared.proto", ""
+        + "message A { optional string name = 1; }\n"
+        + "message B { optional string name = 1; }\n");
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    SchemaSnapshot.write(list(file), out);
+    ProtoFile read = SchemaSnapshot.read(out.toByteArray()).get(0);
+    MessageType a = (MessageType) read.getTypes().get(0);
+    MessageType b = (MessageType) read.getTypes().get(1);
+    assertThat(a.getFields().get(0).getName()).isSameAs(b.getFields().get(0).getName());
+  }
+
+  @Test public void rejectsOtherVersions() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    SchemaSnapshot.write(TestUtils.<ProtoFile>list(), out);
+    byte[] bytes = out.toByteArray();
+    bytes[4] = (byte) (SchemaSnapshot.VERSION + 1);
+    try {
+      SchemaSnapshot.read(bytes);
+      fail("Unsupported version.");
+    } catch (IOException e) {
+      assertThat(e).hasMessage("Unsupported snapshot version: " + (SchemaSnapshot.VERSION + 1));
+    }
+  }
+
+  @Test public void rejectsTruncatedData() throws IOException {
+    ProtoFile file = ProtoSchemaParser.parse("first.proto", PROTO);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    SchemaSnapshot.write(list(file), out);
+    byte[] truncated = Arrays.copyOf(out.toByteArray(), out.size() - 10);
+    try {
+      SchemaSnapshot.read(truncated);
+      fail("Truncated snapshot.");
+    } catch (IOException e) {
+      assertThat(e).hasMessage("Truncated or corrupt snapshot");
+    }
+  }
+
+  @Test public void rejectsMalformedData() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    SchemaSnapshot.write(TestUtils.<ProtoFile>list(), out);
+    byte[] header = Arrays.copyOf(out.toByteArray(), 5); // Magic and version.
+
+    assertMalformed(header, "Malformed varint", 0xff, 0xff, 0xff, 0xff, 0xff);
+    assertMalformed(header, "Truncated or corrupt snapshot", 0x7f);
+    // One string, one file with a type of kind 9.
+    assertMalformed(header, "Unexpected type kind 9",
+        1, 1, 'a', 1, 0, 0, 0, 0, 0, 1, 9, 0, 0, 0, 0);
+  }
+
+  private static void assertMalformed(byte[] header, String message, int... body) {
+    byte[] data = Arrays.copyOf(header, header.length + body.length);
+    for (int i = 0; i < body.length; i++) {
+      data[header.length + i] = (byte) body[i];
+    }
+    try {
+      SchemaSnapshot.read(data);
+      fail("Malformed snapshot.");
+    } catch (IOException e) {
+      assertThat(e).hasMessage(message);
+    }
+  }
+}
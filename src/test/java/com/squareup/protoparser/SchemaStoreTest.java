@@ -0,0 +1,140 @@
+// Copyright 2014 Square, Inc.
+package com.squareup.protoparser;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static com.squareup.protoparser.SchemaStore.StoredEnumType;
+import static com.squareup.protoparser.SchemaStore.StoredMessageType;
+import static com.squareup.protoparser.TestUtils.list;
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.api.Assertions.fail;
+
+public class SchemaStoreTest {
+  private static final String PROTO = ""
+      + "package example.store;\n"
+      + "/** Outer docs. */\n"
+      + "message Outer {\n"
+      + "  option (nested).foo = \"bär\";\n"
+      + "  required string name = 1 [default = \"x\"];\n"
+      + "  repeated int32 values = 2 [packed = true];\n"
+      + "  optional Inner inner = 3;\n"
+      + "  extensions 100 to 200;\n"
+      + "  message Inner {\n"
+      + "    optional Kind kind = 1;\n"
+      + "  }\n"
+      + "  enum Kind {\n"
+      + "    NEGATIVE = -1;\n"
+      + "    ZERO = 0 [(value_option) = \"x\"];\n"
+      + "  }\n"
+      + "}\n"
+      + "enum Status {\n"
+      + "  option allow_alias = true;\n"
+      + "  OK = 0;\n"
+      + "}\n";
+
+  private File file;
+
+  @Before public void setUp() throws IOException {
+    file = File.createTempFile("schema", ".store");
+  }
+
+  @After public void tearDown() {
+    file.delete();
+  }
+
+  @Test public void storedTypesMatchParsedTypes() throws IOException {
+    ProtoFile protoFile = ProtoSchemaParser.parse("store.proto", PROTO);
+    SchemaStore.write(list(protoFile), file);
+    SchemaStore store = SchemaStore.open(file);
+
+    List<Type> types = store.getTypes();
+    assertThat(types).hasSize(2);
+    MessageType outer = (MessageType) protoFile.getTypes().get(0);
+    StoredMessageType storedOuter = (StoredMessageType) types.get(0);
+    assertThat(storedOuter.getName()).isEqualTo("Outer");
+    assertThat(storedOuter.getFullyQualifiedName()).isEqualTo("example.store.Outer");
+    assertThat(storedOuter.getDocumentation()).isEqualTo("Outer docs.");
+    assertThat(storedOuter.getOptions()).isEqualTo(outer.getOptions());
+    assertThat(storedOuter.getFieldCount()).isEqualTo(3);
+    assertThat(storedOuter.getFieldName(1)).isEqualTo("values");
+    assertThat(storedOuter.getFieldType(1)).isEqualTo("int32");
+    assertThat(storedOuter.getFieldTag(2)).isEqualTo(3);
+    assertThat(storedOuter.getFieldLabel(0)).isEqualTo(MessageType.Label.REQUIRED);
+    assertThat(storedOuter.indexOfTag(2)).isEqualTo(1);
+    assertThat(storedOuter.indexOfTag(4)).isEqualTo(-1);
+    assertThat(storedOuter.getFields()).isEqualTo(outer.getFields());
+    assertThat(storedOuter.getExtensions()).isEqualTo(outer.getExtensions());
+    assertThat(storedOuter.getNestedTypes()).hasSize(2);
+
+    EnumType kind = (EnumType) outer.getNestedTypes().get(1);
+    StoredEnumType storedKind = (StoredEnumType) storedOuter.getNestedTypes().get(1);
+    assertThat(storedKind.getValueCount()).isEqualTo(2);
+    assertThat(storedKind.getValueName(0)).isEqualTo("NEGATIVE");
+    assertThat(storedKind.getValueTag(0)).isEqualTo(-1);
+    assertThat(storedKind.indexOfTag(0)).isEqualTo(1);
+    assertThat(storedKind.getValues()).isEqualTo(kind.getValues());
+    assertThat(storedKind.allowAlias()).isFalse();
+  }
+
+  @Test public void indexOfTagSearchesOutOfOrderTags() throws IOException {
+    ProtoFile parsed = ProtoSchemaParser.parse("order.proto", ""
+        + "message Unordered {\n"
+        + "  optional int32 c = 30;\n"
+        + "  optional int32 a = 10;\n"
+        + "  optional int32 b = 20;\n"
+        + "}\n");
+    List<Option> noOptions = Collections.emptyList();
+    EnumType aliased = new EnumType("Aliased", "Aliased", "",
+        list(new Option("allow_alias", true)), list(
+            new EnumType.Value("HIGH", 5, "", noOptions),
+            new EnumType.Value("LOW", -5, "", noOptions),
+            new EnumType.Value("UPPER", 5, "", noOptions)));
+    ProtoFile protoFile = new ProtoFile("order.proto", null, parsed.getDependencies(),
+        parsed.getPublicDependencies(), list(parsed.getTypes().get(0), aliased),
+        parsed.getServices(), noOptions, parsed.getExtendDeclarations());
+    SchemaStore.write(list(protoFile), file);
+    SchemaStore store = SchemaStore.open(file);
+
+    StoredMessageType storedUnordered = (StoredMessageType) store.getType("Unordered");
+    assertThat(storedUnordered.indexOfTag(10)).isEqualTo(1);
+    assertThat(storedUnordered.indexOfTag(20)).isEqualTo(2);
+    assertThat(storedUnordered.indexOfTag(30)).isEqualTo(0);
+    assertThat(storedUnordered.indexOfTag(15)).isEqualTo(-1);
+    assertThat(storedUnordered.indexOfTag(40)).isEqualTo(-1);
+
+    StoredEnumType storedAliased = (StoredEnumType) store.getType("Aliased");
+    assertThat(storedAliased.indexOfTag(5)).isEqualTo(0);
+    assertThat(storedAliased.indexOfTag(-5)).isEqualTo(1);
+    assertThat(storedAliased.indexOfTag(0)).isEqualTo(-1);
+  }
+
+  @Test public void lookupByName() throws IOException {
+    ProtoFile first = ProtoSchemaParser.parse("store.proto", PROTO);
+    ProtoFile second = ProtoSchemaParser.parse("other.proto", "message Other {}");
+    SchemaStore.write(list(first, second), file);
+    SchemaStore store = SchemaStore.open(file);
+
+    assertThat(store.getType("example.store.Outer.Inner").getName()).isEqualTo("Inner");
+    assertThat(store.getType("example.store.Outer.Kind")).isInstanceOf(StoredEnumType.class);
+    assertThat(store.getType("Other").getNestedTypes()).isEmpty();
+    assertThat(store.getType("example.store.Missing")).isNull();
+    assertThat(store.getType("example.store.Outer"))
+        .isEqualTo(store.getType("example.store.Outer"));
+  }
+
+  @Test public void rejectsOtherData() {
+    try {
+      SchemaStore.of(ByteBuffer.allocate(64));
+      fail("Not a store.");
+    } catch (IOException e) {
+      assertThat(e).hasMessage("Not a schema store");
+    }
+  }
+}
@@ -0,0 +1,96 @@
+// Copyright 2014 Square, Inc.
+package com.squareup.protoparser;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.Test;
+
+import static com.squareup.protoparser.TestUtils.list;
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.api.Assertions.fail;
+
+public class SchemaValidatorTest {
+  private static final String INVALID = ""
+      + "package example;\n"
+      + "message Message {\n"
+      + "  required int32 a = 1;\n"
+      + "  required int32 b = 1;\n"
+      + "  required int32 c = 0;\n"
+      + "  enum One {\n"
+      + "    A = 1;\n"
+      + "  }\n"
+      + "  enum Two {\n"
+      + "    A = 2;\n"
+      + "  }\n"
+      + "}\n"
+      + "enum Three {\n"
+      + "  X = 1;\n"
+      + "  Y = 1;\n"
+      + "}\n"
+      + "extend Message {\n"
+      + "  optional int32 d = 100;\n"
+      + "  optional int32 e = 100;\n"
+      + "}\n";
+
+  private static final String EXPECTED_ERRORS = ""
+      + "Schema validation failed:\n"
+      + "  invalid.proto: Illegal tag value 0 for c in example.Message\n"
+      + "  invalid.proto: Duplicate tag 1 in example.Message\n"
+      + "  invalid.proto: Duplicate enum name A in scope example.Message\n"
+      + "  invalid.proto: Duplicate tag 1 in example.Three\n"
+      + "  invalid.proto: Duplicate tag 100 in example.Message";
+
+  @Test public void unvalidatedParseSkipsValidation() {
+    try {
+      ProtoSchemaParser.parse("invalid.proto", INVALID);
+      fail("Tag 0 is not allowed.");
+    } catch (IllegalArgumentException expected) {
+    }
+    ProtoFile file = ProtoSchemaParser.parseUnvalidated("invalid.proto", INVALID);
+    MessageType message = (MessageType) file.getTypes().get(0);
+    assertThat(message.getFields()).hasSize(3);
+  }
+
+  @Test public void reportsAllErrors() {
+    ProtoFile file = ProtoSchemaParser.parseUnvalidated("invalid.proto", INVALID);
+    try {
+      SchemaValidator.validate(list(file));
+      fail("Invalid schema.");
+    } catch (IllegalStateException e) {
+      assertThat(e).hasMessage(EXPECTED_ERRORS);
+    }
+  }
+
+  @Test public void reportsAllErrorsInParallel() throws Exception {
+    ProtoFile file = ProtoSchemaParser.parseUnvalidated("invalid.proto", INVALID);
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      SchemaValidator.validate(list(file), executor);
+      fail("Invalid schema.");
+    } catch (IllegalStateException e) {
+      assertThat(e).hasMessage(EXPECTED_ERRORS);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test public void duplicateDefinitionsAcrossFiles() {
+    ProtoFile a = ProtoSchemaParser.parse("a.proto", "package p; message M {} service S {}");
+    ProtoFile b = ProtoSchemaParser.parse("b.proto", "package p; message M {}");
+    ProtoFile c = ProtoSchemaParser.parse("c.proto", "package p; message S {}");
+    try {
+      SchemaValidator.validate(list(a, b, c));
+      fail("Duplicate definitions.");
+    } catch (IllegalStateException e) {
+      assertThat(e).hasMessage("Schema validation failed:\n"
+          + "  Duplicate definition of p.M in a.proto and b.proto\n"
+          + "  Duplicate definition of p.S in a.proto and c.proto");
+    }
+  }
+
+  @Test public void validSchema() throws Exception {
+    ProtoFile a = ProtoSchemaParser.parse("a.proto", "package p; message M { optional M m = 1; }");
+    ProtoFile b = ProtoSchemaParser.parse("b.proto", "package q; message M {}");
+    SchemaValidator.validate(list(a, b));
+  }
+}
@@ -0,0 +1,81 @@
+// Copyright 2014 Square, Inc.
+package com.squareup.protoparser;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.Test;
+
+import static com.squareup.protoparser.TestUtils.list;
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.api.Assertions.fail;
+
+public class SymbolIndexTest {
+  private static final ProtoFile A = ProtoSchemaParser.parse("a.proto", ""
+      + "package a;\n"
+      + "message Outer {\n"
+      + "  message Inner {}\n"
+      + "  enum Kind {\n"
+      + "    X = 1;\n"
+      + "  }\n"
+      + "}\n"
+      + "service Api {\n"
+      + "  rpc Call (Outer) returns (Outer);\n"
+      + "}\n");
+  private static final ProtoFile B = ProtoSchemaParser.parse("b.proto", ""
+      + "package b;\n"
+      + "message Other {}\n");
+  private static final ProtoFile DUPLICATE = ProtoSchemaParser.parse("duplicate.proto", ""
+      + "package a;\n"
+      + "message Outer {}\n");
+
+  @Test public void lookup() throws InterruptedException {
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      SymbolIndex index = SymbolIndex.of(list(A, B), executor);
+      assertThat(index.size()).isEqualTo(5);
+      Type outer = A.getTypes().get(0);
+      assertThat(index.getType("a.Outer")).isSameAs(outer);
+      assertThat(index.getType("a.Outer.Inner")).isSameAs(outer.getNestedTypes().get(0));
+      assertThat(index.getType("a.Outer.Kind")).isSameAs(outer.getNestedTypes().get(1));
+      assertThat(index.getType("a.Api")).isNull();
+      assertThat(index.getService("a.Api")).isSameAs(A.getServices().get(0));
+      assertThat(index.getDeclaringFile("b.Other")).isSameAs(B);
+      assertThat(index.getFile("a.proto")).isSameAs(A);
+      assertThat(index.getType("a.Missing")).isNull();
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test public void duplicatesReported() {
+    try {
+      SymbolIndex.of(list(A, DUPLICATE));
+      fail("Duplicate definition.");
+    } catch (IllegalStateException e) {
+      assertThat(e).hasMessage("Unable to index files:\n"
+          + "  Duplicate definition of a.Outer in a.proto and duplicate.proto");
+    }
+  }
+
+  @Test public void addAndRemove() {
+    SymbolIndex index = SymbolIndex.of(list(A));
+    index.add(B);
+    assertThat(index.getType("b.Other")).isSameAs(B.getTypes().get(0));
+
+    try {
+      index.add(DUPLICATE);
+      fail("Duplicate definition.");
+    } catch (IllegalStateException expected) {
+    }
+    assertThat(index.getFile("duplicate.proto")).isNull();
+    assertThat(index.getDeclaringFile("a.Outer")).isSameAs(A);
+
+    assertThat(index.remove("a.proto")).isTrue();
+    assertThat(index.remove("a.proto")).isFalse();
+    assertThat(index.getType("a.Outer")).isNull();
+    assertThat(index.size()).isEqualTo(1);
+
+    index.add(DUPLICATE);
+    assertThat(index.getDeclaringFile("a.Outer")).isSameAs(DUPLICATE);
+  }
+}
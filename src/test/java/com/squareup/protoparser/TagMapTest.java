@@ -0,0 +1,48 @@
+package com.squareup.protoparser;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+import static com.squareup.protoparser.TestUtils.list;
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class TagMapTest {
+  @Test public void empty() {
+    TagMap<String> map = TagMap.of(new int[0], new ArrayList<String>());
+    assertThat(map.get(0)).isNull();
+    assertThat(map.get(1)).isNull();
+  }
+
+  @Test public void dense() {
+    TagMap<String> map = TagMap.of(new int[] { 3, 1, 2, -1 }, list("three", "one", "two", "neg"));
+    assertThat(map.get(1)).isEqualTo("one");
+    assertThat(map.get(2)).isEqualTo("two");
+    assertThat(map.get(3)).isEqualTo("three");
+    assertThat(map.get(-1)).isEqualTo("neg");
+    assertThat(map.get(0)).isNull();
+    assertThat(map.get(4)).isNull();
+    assertThat(map.get(Integer.MIN_VALUE)).isNull();
+  }
+
+  @Test public void sparse() {
+    int[] tags = new int[100];
+    List<String> values = new ArrayList<String>();
+    for (int i = 0; i < tags.length; i++) {
+      tags[i] = i * 10000;
+      values.add("v" + i);
+    }
+    TagMap<String> map = TagMap.of(tags, values);
+    for (int i = 0; i < tags.length; i++) {
+      assertThat(map.get(i * 10000)).isEqualTo("v" + i);
+      assertThat(map.get(i * 10000 + 1)).isNull();
+    }
+  }
+
+  @Test public void firstValueWins() {
+    TagMap<String> dense = TagMap.of(new int[] { 1, 1 }, list("first", "second"));
+    assertThat(dense.get(1)).isEqualTo("first");
+    TagMap<String> sparse = TagMap.of(new int[] { 1, 1000000, 1 }, list("first", "x", "second"));
+    assertThat(sparse.get(1)).isEqualTo("first");
+  }
+}
@@ -0,0 +1,176 @@
+// Copyright 2014 Square, Inc.
+package com.squareup.protoparser;
+
+import java.io.StringReader;
+import java.util.Map;
+import org.junit.Test;
+
+import static com.squareup.protoparser.DynamicDecoderTest.bytes;
+import static com.squareup.protoparser.TestUtils.list;
+import static com.squareup.protoparser.TestUtils.map;
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.api.Assertions.fail;
+
+public class TextFormatTest {
+  private static final ProtoFile CONFIG = ProtoSchemaParser.parse("config.proto", ""
+      + "package config;\n"
+      + "message Server {\n"
+      + "  optional string host = 1;\n"
+      + "  optional int32 port = 2;\n"
+      + "  repeated Route routes = 3;\n"
+      + "  optional Mode mode = 4;\n"
+      + "  optional double weight = 5;\n"
+      + "  optional bool enabled = 6;\n"
+      + "  optional bytes secret = 7;\n"
+      + "  optional uint64 limit = 8;\n"
+      + "  repeated sint32 offsets = 9;\n"
+      + "  enum Mode {\n"
+      + "    ACTIVE = 1;\n"
+      + "    STANDBY = 2;\n"
+      + "  }\n"
+      + "  extensions 100 to 199;\n"
+      + "}\n"
+      + "message Route {\n"
+      + "  optional string path = 1;\n"
+      + "  optional float timeout = 2;\n"
+      + "}\n"
+      + "extend Server {\n"
+      + "  optional string owner = 100;\n"
+      + "}\n");
+
+  private final TextFormat textFormat = TextFormat.of(list(CONFIG));
+
+  @Test public void parse() {
+    Map<String, Object> server = textFormat.parse("config.Server", "server.txt", ""
+        + "# The primary server.\n"
+        + "host: \"example.com\" \"/api\"\n"
+        + "port: 0x1f90\n"
+        + "routes { path: \"/a\" timeout: 1.5f }\n"
+        + "routes: < path: \"/b\" >;\n"
+        + "mode: STANDBY,\n"
+        + "weight: -inf\n"
+        + "enabled: t\n"
+        + "secret: \"\\001\\377a\"\n"
+        + "limit: 18446744073709551615\n"
+        + "offsets: [1, -2]\n"
+        + "offsets: 3\n"
+        + "[config.owner]: \"ops\"\n");
+    assertThat(server).isEqualTo(map(
+        "host", "example.com/api",
+        "port", 8080,
+        "routes", list(map("path", "/a", "timeout", 1.5f), map("path", "/b")),
+        "mode", "STANDBY",
+        "weight", Double.NEGATIVE_INFINITY,
+        "enabled", true,
+        "secret", server.get("secret"),
+        "limit", -1L,
+        "offsets", list(1, -2, 3),
+        "config.owner", "ops"));
+    assertThat((byte[]) server.get("secret")).isEqualTo(bytes(0x01, 0xff, 'a'));
+  }
+
+  @Test public void parseReader() throws Exception {
+    Map<String, Object> server =
+        textFormat.parse("config.Server", "server.txt", new StringReader("mode: 1"));
+    assertThat(server).isEqualTo(map("mode", "ACTIVE"));
+  }
+
+  @Test public void exponents() {
+    Map<String, Object> server = textFormat.parse("config.Server", "server.txt", ""
+        + "weight: 1e+5\n"
+        + "routes { timeout: 2.5E-1f }\n");
+    assertThat(server).isEqualTo(map(
+        "weight", 100000.0,
+        "routes", list(map("timeout", 0.25f))));
+  }
+
+  @Test public void stringEscapesAreUtf8Bytes() {
+    Map<String, Object> server = textFormat.parse("config.Server", "server.txt", ""
+        + "host: \"caf\\303\\251 \\xc3\\xa9\" \"\u00e9\"\n"
+        + "secret: \"\u00e9\\351\"\n");
+    assertThat(server.get("host")).isEqualTo("caf\u00e9 \u00e9\u00e9");
+    assertThat((byte[]) server.get("secret")).isEqualTo(bytes(0xc3, 0xa9, 0xe9));
+  }
+
+  @Test public void write() {
+    Map<String, Object> server = map(
+        "config.owner", "ops",
+        "routes", list(map("path", "/a\n", "timeout", 2.0f)),
+        "host", "h",
+        "mode", "ACTIVE",
+        "secret", bytes(0x00, '"', 'z'),
+        "limit", -1L);
+    String text = textFormat.toString("config.Server", server);
+    assertThat(text).isEqualTo(""
+        + "host: \"h\"\n"
+        + "routes {\n"
+        + "  path: \"/a\\n\"\n"
+        + "  timeout: 2.0\n"
+        + "}\n"
+        + "mode: ACTIVE\n"
+        + "secret: \"\\000\\\"z\"\n"
+        + "limit: 18446744073709551615\n"
+        + "[config.owner]: \"ops\"\n");
+
+    Map<String, Object> parsed = textFormat.parse("config.Server", "server.txt", text);
+    assertThat((byte[]) parsed.remove("secret")).isEqualTo((byte[]) server.remove("secret"));
+    assertThat(parsed).isEqualTo(server);
+  }
+
+  @Test public void unknownField() {
+    try {
+      textFormat.parse("config.Server", "server.txt", "host: \"a\"\n  hots: \"b\"\n");
+      fail("Unknown field.");
+    } catch (IllegalStateException e) {
+      assertThat(e).hasMessage(
+          "Syntax error in server.txt at 2:7: unknown field hots in config.Server");
+    }
+  }
+
+  @Test public void undeclaredEnumNumbers() {
+    Map<String, Object> server = map("mode", 5);
+    String text = textFormat.toString("config.Server", server);
+    assertThat(text).isEqualTo("mode: 5\n");
+    assertThat(textFormat.parse("config.Server", "server.txt", text)).isEqualTo(server);
+  }
+
+  @Test public void unknownEnumValue() {
+    try {
+      textFormat.parse("config.Server", "server.txt", "mode: PAUSED");
+      fail("Unknown enum value.");
+    } catch (IllegalStateException e) {
+      assertThat(e).hasMessage("Syntax error in server.txt at 1:13: "
+          + "unknown value PAUSED for enum config.Server.Mode");
+    }
+  }
+
+  @Test public void numberOutOfRange() {
+    try {
+      textFormat.parse("config.Server", "server.txt", "port: 2147483648");
+      fail("Number out of range.");
+    } catch (IllegalStateException e) {
+      assertThat(e).hasMessage(
+          "Syntax error in server.txt at 1:17: expected a int32 but was 2147483648");
+    }
+  }
+
+  @Test public void singularFieldRepeated() {
+    try {
+      textFormat.parse("config.Server", "server.txt", "port: 1 port: 2");
+      fail("Singular field repeated.");
+    } catch (IllegalStateException e) {
+      assertThat(e).hasMessage("Syntax error in server.txt at 1:13: "
+          + "non-repeated field port is specified multiple times");
+    }
+  }
+
+  @Test public void extensionNeedsBrackets() {
+    try {
+      textFormat.parse("config.Server", "server.txt", "config.owner: \"x\"");
+      fail("Extension without brackets.");
+    } catch (IllegalStateException e) {
+      assertThat(e).hasMessage(
+          "Syntax error in server.txt at 1:13: unknown field config.owner in config.Server");
+    }
+  }
+}
@@ -2,27 +2,28 @@ package com.squareup.protoparser;
 
 import org.junit.Test;
 
-import static com.squareup.protoparser.Utils.appendDocumentation;
-import static com.squareup.protoparser.Utils.appendIndented;
+import static com.squareup.protoparser.Utils.duplicatesMessage;
+import static com.squareup.protoparser.Utils.findDuplicates;
 import static org.fest.assertions.api.Assertions.assertThat;
 
 public class UtilsTest {
-  @Test public void indentationTest() {
-    String input = "Foo\nBar\nBaz";
-    String expected = "  Foo\n  Bar\n  Baz\n";
-    StringBuilder builder = new StringBuilder();
-    appendIndented(builder, input);
-    assertThat(builder.toString()).isEqualTo(expected);
+  @Test public void findDuplicateInts() {
+    assertThat(findDuplicates(new int[0])).isEmpty();
+    assertThat(findDuplicates(new int[] { 1, 2, 3 })).isEmpty();
+    assertThat(findDuplicates(new int[] { 3, 2, 1 })).isEmpty();
+    assertThat(findDuplicates(new int[] { 5, 1, 5, 3, 1, 5 })).isEqualTo(new int[] { 1, 5 });
+    assertThat(findDuplicates(new int[] { 2, 2, 2, 2 })).isEqualTo(new int[] { 2 });
   }
 
-  @Test public void documentationTest() {
-    String input = "Foo\nBar\nBaz";
-    String expected = ""
-        + "// Foo\n"
-        + "// Bar\n"
-        + "// Baz\n";
-    StringBuilder builder = new StringBuilder();
-    appendDocumentation(builder, input);
-    assertThat(builder.toString()).isEqualTo(expected);
+  @Test public void findDuplicateStrings() {
+    assertThat(findDuplicates(new String[] { "a" })).isEmpty();
+    assertThat(findDuplicates(new String[] { "b", "a", "c" })).isEmpty();
+    assertThat(findDuplicates(new String[] { "b", "a", "b", "c", "a", "b" }))
+        .isEqualTo(new String[] { "a", "b" });
+  }
+
+  @Test public void duplicatesMessages() {
+    assertThat(duplicatesMessage("tag", new int[] { 1 })).isEqualTo("Duplicate tag 1");
+    assertThat(duplicatesMessage("tag", new int[] { 1, 2 })).isEqualTo("Duplicate tags 1, 2");
   }
 }